@@ -29,6 +29,7 @@ import androidx.navigation.Navigation;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.quickstart.database.R;
 import com.google.firebase.quickstart.database.databinding.ActivityMainBinding;
+import com.google.firebase.quickstart.database.java.data.StartupProfile;
 
 public class  MainActivity extends AppCompatActivity {
 
@@ -37,6 +38,9 @@ public class  MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // Set up the database before restored fragments use it
+        StartupProfile.getInstance(this);
+
         super.onCreate(savedInstanceState);
         ActivityMainBinding binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
@@ -1,6 +1,7 @@
 package com.google.firebase.quickstart.database.java;
 
 import android.os.Bundle;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -16,16 +17,29 @@ import androidx.fragment.app.Fragment;
 import androidx.navigation.fragment.NavHostFragment;
 import androidx.viewpager2.adapter.FragmentStateAdapter;
 
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.android.material.tabs.TabLayoutMediator;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.quickstart.database.R;
 import com.google.firebase.quickstart.database.databinding.FragmentMainBinding;
+import com.google.firebase.quickstart.database.java.data.FanOutChecker;
+import com.google.firebase.quickstart.database.java.data.PostFeed;
+import com.google.firebase.quickstart.database.java.data.StarBenchmark;
+import com.google.firebase.quickstart.database.java.data.StarReconciler;
+import com.google.firebase.quickstart.database.java.data.StartupProfile;
+import com.google.firebase.quickstart.database.java.data.SummaryBackfill;
+import com.google.firebase.quickstart.database.java.data.SummaryBenchmark;
+import com.google.firebase.quickstart.database.java.data.UserCache;
 import com.google.firebase.quickstart.database.java.listfragments.MyPostsFragment;
 import com.google.firebase.quickstart.database.java.listfragments.MyTopPostsFragment;
 import com.google.firebase.quickstart.database.java.listfragments.RecentPostsFragment;
 
 public class MainFragment extends Fragment implements MenuProvider {
 
+    private static final String TAG = "MainFragment";
+
     private FragmentMainBinding binding;
 
     private MenuHost menuHost;
@@ -86,13 +100,106 @@ public class MainFragment extends Fragment implements MenuProvider {
     public boolean onMenuItemSelected(@NonNull MenuItem menuItem) {
         int i = menuItem.getItemId();
         if (i == R.id.action_logout) {
+            UserCache.getInstance(requireContext()).stop();
+            PostFeed.clearAll();
+            StartupProfile.getInstance(requireContext()).stopSyncing();
             FirebaseAuth.getInstance().signOut();
             NavHostFragment.findNavController(this)
                     .navigate(R.id.action_MainFragment_to_SignInFragment);
             return true;
+        } else if (i == R.id.action_check_fan_out) {
+            onCheckFanOutClicked();
+            return true;
+        } else if (i == R.id.action_reconcile_stars) {
+            onReconcileStarsClicked();
+            return true;
+        } else if (i == R.id.action_star_benchmark) {
+            onStarBenchmarkClicked();
+            return true;
+        } else if (i == R.id.action_backfill_summaries) {
+            onBackfillSummariesClicked();
+            return true;
+        } else if (i == R.id.action_summary_benchmark) {
+            onSummaryBenchmarkClicked();
+            return true;
         } else {
             return false;
         }
     }
 
+    private void onCheckFanOutClicked() {
+        // Write test posts and stars, then compare every copy, best run against the emulator
+        new FanOutChecker(FirebaseDatabase.getInstance().getReference(), 20, 500).run()
+                .addOnCompleteListener(new OnCompleteListener<FanOutChecker.Result>() {
+                    @Override
+                    public void onComplete(@NonNull Task<FanOutChecker.Result> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Fan-out check: " + task.getResult());
+                        } else {
+                            Log.w(TAG, "Fan-out check failed.", task.getException());
+                        }
+                    }
+                });
+    }
+
+    private void onReconcileStarsClicked() {
+        new StarReconciler(FirebaseDatabase.getInstance().getReference()).reconcile()
+                .addOnCompleteListener(new OnCompleteListener<StarReconciler.Result>() {
+                    @Override
+                    public void onComplete(@NonNull Task<StarReconciler.Result> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Star reconciliation: " + task.getResult());
+                        } else {
+                            Log.w(TAG, "Star reconciliation failed.", task.getException());
+                        }
+                    }
+                });
+    }
+
+    private void onStarBenchmarkClicked() {
+        // Toggle stars on a post with 1000 stars with both designs, best run against the emulator
+        new StarBenchmark(FirebaseDatabase.getInstance().getReference(), 1000, 500, 20).run()
+                .addOnCompleteListener(new OnCompleteListener<String>() {
+                    @Override
+                    public void onComplete(@NonNull Task<String> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Star benchmark:\n" + task.getResult());
+                        } else {
+                            Log.w(TAG, "Star benchmark failed.", task.getException());
+                        }
+                    }
+                });
+    }
+
+    private void onBackfillSummariesClicked() {
+        // Give posts written before the lists read summaries a summary
+        new SummaryBackfill(FirebaseDatabase.getInstance().getReference()).run()
+                .addOnCompleteListener(new OnCompleteListener<Integer>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Integer> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Summary backfill: " + task.getResult() + " written");
+                        } else {
+                            Log.w(TAG, "Summary backfill failed.", task.getException());
+                        }
+                    }
+                });
+    }
+
+    private void onSummaryBenchmarkClicked() {
+        // Read 10k posts in full and as summaries, best run against the emulator
+        new SummaryBenchmark(requireContext(), FirebaseDatabase.getInstance().getReference(),
+                10000).run()
+                .addOnCompleteListener(new OnCompleteListener<String>() {
+                    @Override
+                    public void onComplete(@NonNull Task<String> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Summary benchmark:\n" + task.getResult());
+                        } else {
+                            Log.w(TAG, "Summary benchmark failed.", task.getException());
+                        }
+                    }
+                });
+    }
+
 }
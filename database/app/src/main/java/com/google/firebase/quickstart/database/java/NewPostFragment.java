@@ -12,19 +12,17 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.navigation.fragment.NavHostFragment;
 
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.quickstart.database.R;
 import com.google.firebase.quickstart.database.databinding.FragmentNewPostBinding;
+import com.google.firebase.quickstart.database.java.data.PostFanOut;
+import com.google.firebase.quickstart.database.java.data.UserCache;
 import com.google.firebase.quickstart.database.java.models.Post;
 import com.google.firebase.quickstart.database.java.models.User;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class NewPostFragment extends BaseFragment {
     private static final String TAG = "NewPostFragment";
     private static final String REQUIRED = "Required";
@@ -73,13 +71,20 @@ public class NewPostFragment extends BaseFragment {
         setEditingEnabled(false);
         Toast.makeText(getContext(), "Posting...", Toast.LENGTH_SHORT).show();
 
+        // The author's profile comes from the cache, so posting needs no extra read
         final String userId = getUid();
-        mDatabase.child("users").child(userId).addListenerForSingleValueEvent(
-                new ValueEventListener() {
+        UserCache.getInstance(requireContext()).getUser(userId)
+                .addOnCompleteListener(new OnCompleteListener<User>() {
                     @Override
-                    public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                    public void onComplete(@NonNull Task<User> task) {
+                        if (!task.isSuccessful()) {
+                            Log.w(TAG, "getUser:onFailure", task.getException());
+                            setEditingEnabled(true);
+                            return;
+                        }
+
                         // Get user value
-                        User user = dataSnapshot.getValue(User.class);
+                        User user = task.getResult();
 
                         if (user == null) {
                             // User is null, error out
@@ -96,12 +101,6 @@ public class NewPostFragment extends BaseFragment {
                         NavHostFragment.findNavController(NewPostFragment.this)
                                 .navigate(R.id.action_NewPostFragment_to_MainFragment);
                     }
-
-                    @Override
-                    public void onCancelled(@NonNull DatabaseError databaseError) {
-                        Log.w(TAG, "getUser:onCancelled", databaseError.toException());
-                        setEditingEnabled(true);
-                    }
                 });
     }
 
@@ -118,14 +117,10 @@ public class NewPostFragment extends BaseFragment {
     private void writeNewPost(String userId, String username, String title, String body) {
         // Create new post at /user-posts/$userid/$postid and at
         // /posts/$postid simultaneously
-        String key = mDatabase.child("posts").push().getKey();
+        PostFanOut fanOut = new PostFanOut(mDatabase);
+        String key = fanOut.newPostKey();
         Post post = new Post(userId, username, title, body);
-        Map<String, Object> postValues = post.toMap();
-
-        Map<String, Object> childUpdates = new HashMap<>();
-        childUpdates.put("/posts/" + key, postValues);
-        childUpdates.put("/user-posts/" + userId + "/" + key, postValues);
 
-        mDatabase.updateChildren(childUpdates);
+        fanOut.create(key, post);
     }
 }
@@ -3,6 +3,7 @@ package com.google.firebase.quickstart.database.java;
 import android.content.Context;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -10,20 +11,27 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.BatchingListUpdateCallback;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
 import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.quickstart.database.R;
 import com.google.firebase.quickstart.database.databinding.FragmentPostDetailBinding;
+import com.google.firebase.quickstart.database.java.data.UserCache;
 import com.google.firebase.quickstart.database.java.models.Comment;
 import com.google.firebase.quickstart.database.java.models.Post;
 import com.google.firebase.quickstart.database.java.models.User;
+import com.google.firebase.quickstart.database.java.util.KeyedList;
 import com.google.firebase.quickstart.database.java.viewholder.CommentViewHolder;
 
 import java.util.ArrayList;
@@ -122,13 +130,13 @@ public class PostDetailFragment extends BaseFragment {
     }
 
     private void postComment() {
+        // The author's profile comes from the cache, so commenting needs no extra read
         final String uid = getUid();
-        FirebaseDatabase.getInstance().getReference().child("users").child(uid)
-                .addListenerForSingleValueEvent(new ValueEventListener() {
+        UserCache.getInstance(requireContext()).getUser(uid)
+                .addOnSuccessListener(new OnSuccessListener<User>() {
                     @Override
-                    public void onDataChange(DataSnapshot dataSnapshot) {
+                    public void onSuccess(User user) {
                         // Get user information
-                        User user = dataSnapshot.getValue(User.class);
                         String authorName = user.username;
 
                         // Create new comment object
@@ -141,22 +149,70 @@ public class PostDetailFragment extends BaseFragment {
                         // Clear the field
                         binding.fieldCommentText.setText(null);
                     }
-
-                    @Override
-                    public void onCancelled(DatabaseError databaseError) {
-
-                    }
                 });
     }
 
+    /**
+     * Comments of a post, oldest first, loaded as a sliding window so that memory stays flat
+     * however long the thread is.
+     *
+     * Only the newest page has a live listener, on {@code limitToLast(PAGE_SIZE)}. Older pages
+     * are fetched once with {@link Query#get()} as the user scrolls up, using the oldest comment
+     * loaded as an {@code endBefore} cursor, and are not updated afterwards. At most
+     * {@code MAX_PAGES} pages are held at a time: pages that scroll out of the window are dropped
+     * and fetched again if the user scrolls back to them. The newest page keeps its listener
+     * while it is out of the window.
+     *
+     * The first time an older page is needed, the newest page is pinned to its oldest comment by
+     * moving its listener to {@code startAt(anchor)}. New comments then join the newest page
+     * instead of pushing its oldest comments into the gap before the older pages.
+     */
     private static class CommentAdapter extends RecyclerView.Adapter<CommentViewHolder> {
 
+        private static final int PAGE_SIZE = 25;
+        private static final int MAX_PAGES = 5;
+        private static final int PREFETCH_DISTANCE = 10;
+
         private Context mContext;
         private DatabaseReference mDatabaseReference;
         private ChildEventListener mChildEventListener;
 
-        private List<String> mCommentIds = new ArrayList<>();
-        private List<Comment> mComments = new ArrayList<>();
+        // The newest page, keyed by comment id, and the query it listens to
+        private final KeyedList<Comment> mLive = new KeyedList<>();
+        private Query mLiveQuery;
+        private boolean mLiveLoaded;
+        private boolean mShowLive = true;
+
+        // Oldest comment of the newest page once it is pinned, older pages end before it
+        private String mAnchor;
+
+        // Older pages in the window, oldest first, above the newest page. None of them are empty.
+        private final List<Page> mPages = new ArrayList<>();
+        private int mOlderCount;
+        private boolean mStartReached;
+        private boolean mLoading;
+
+        // Child events received since the last frame, applied together before the next layout
+        private final List<PendingChange> mPendingChanges = new ArrayList<>();
+        private final Choreographer.FrameCallback mApplyChanges = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                applyPendingChanges();
+            }
+        };
+        private final BatchingListUpdateCallback mUpdateCallback =
+                new BatchingListUpdateCallback(new AdapterListUpdateCallback(this));
+
+        private RecyclerView mRecyclerView;
+
+        // Also called with dx = dy = 0 when a layout changes the visible range
+        private final RecyclerView.OnScrollListener mScrollListener =
+                new RecyclerView.OnScrollListener() {
+                    @Override
+                    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                        onVisibleRangeChanged();
+                    }
+                };
 
         public CommentAdapter(final Context context, DatabaseReference ref) {
             mContext = context;
@@ -169,12 +225,7 @@ public class PostDetailFragment extends BaseFragment {
                     Log.d(TAG, "onChildAdded:" + dataSnapshot.getKey());
 
                     // A new comment has been added, add it to the displayed list
-                    Comment comment = dataSnapshot.getValue(Comment.class);
-
-                    // Update RecyclerView
-                    mCommentIds.add(dataSnapshot.getKey());
-                    mComments.add(comment);
-                    notifyItemInserted(mComments.size() - 1);
+                    addPendingChange(PendingChange.ADDED, dataSnapshot, previousChildName);
                 }
 
                 @Override
@@ -183,19 +234,7 @@ public class PostDetailFragment extends BaseFragment {
 
                     // A comment has changed, use the key to determine if we are displaying this
                     // comment and if so displayed the changed comment.
-                    Comment newComment = dataSnapshot.getValue(Comment.class);
-                    String commentKey = dataSnapshot.getKey();
-
-                    int commentIndex = mCommentIds.indexOf(commentKey);
-                    if (commentIndex > -1) {
-                        // Replace with the new data
-                        mComments.set(commentIndex, newComment);
-
-                        // Update the RecyclerView
-                        notifyItemChanged(commentIndex);
-                    } else {
-                        Log.w(TAG, "onChildChanged:unknown_child:" + commentKey);
-                    }
+                    addPendingChange(PendingChange.CHANGED, dataSnapshot, previousChildName);
                 }
 
                 @Override
@@ -204,19 +243,7 @@ public class PostDetailFragment extends BaseFragment {
 
                     // A comment has changed, use the key to determine if we are displaying this
                     // comment and if so remove it.
-                    String commentKey = dataSnapshot.getKey();
-
-                    int commentIndex = mCommentIds.indexOf(commentKey);
-                    if (commentIndex > -1) {
-                        // Remove data from the list
-                        mCommentIds.remove(commentIndex);
-                        mComments.remove(commentIndex);
-
-                        // Update the RecyclerView
-                        notifyItemRemoved(commentIndex);
-                    } else {
-                        Log.w(TAG, "onChildRemoved:unknown_child:" + commentKey);
-                    }
+                    addPendingChange(PendingChange.REMOVED, dataSnapshot, null);
                 }
 
                 @Override
@@ -225,10 +252,7 @@ public class PostDetailFragment extends BaseFragment {
 
                     // A comment has changed position, use the key to determine if we are
                     // displaying this comment and if so move it.
-                    Comment movedComment = dataSnapshot.getValue(Comment.class);
-                    String commentKey = dataSnapshot.getKey();
-
-                    // ...
+                    addPendingChange(PendingChange.MOVED, dataSnapshot, previousChildName);
                 }
 
                 @Override
@@ -238,10 +262,256 @@ public class PostDetailFragment extends BaseFragment {
                             Toast.LENGTH_SHORT).show();
                 }
             };
-            ref.addChildEventListener(childEventListener);
 
             // Store reference to listener so it can be removed on app stop
             mChildEventListener = childEventListener;
+            listenToLive();
+        }
+
+        @Override
+        public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+            super.onAttachedToRecyclerView(recyclerView);
+            mRecyclerView = recyclerView;
+            mRecyclerView.addOnScrollListener(mScrollListener);
+        }
+
+        @Override
+        public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView);
+            recyclerView.removeOnScrollListener(mScrollListener);
+            mRecyclerView = null;
+        }
+
+        private void listenToLive() {
+            if (mLiveQuery != null) {
+                mLiveQuery.removeEventListener(mChildEventListener);
+            }
+
+            // Comments already in the newest page are reported again and applied as changes
+            mLiveQuery = mAnchor != null
+                    ? mDatabaseReference.orderByKey().startAt(mAnchor)
+                    : mDatabaseReference.orderByKey().limitToLast(PAGE_SIZE);
+            mLiveQuery.addChildEventListener(mChildEventListener);
+        }
+
+        private void addPendingChange(int type, DataSnapshot dataSnapshot,
+                                      @Nullable String previousChildName) {
+            if (mPendingChanges.isEmpty()) {
+                // Frame callbacks run before layout, so the RecyclerView never sees the
+                // comments out of step with the notifications
+                Choreographer.getInstance().postFrameCallback(mApplyChanges);
+            }
+            mPendingChanges.add(new PendingChange(type, dataSnapshot.getKey(),
+                    previousChildName, dataSnapshot.getValue(Comment.class)));
+        }
+
+        private void applyPendingChanges() {
+            for (PendingChange change : mPendingChanges) {
+                int index = mLive.indexOf(change.key);
+                int type = change.type;
+                if (type == PendingChange.ADDED && index != -1) {
+                    // Reported again after the listener moved to another query
+                    type = PendingChange.CHANGED;
+                } else if (type != PendingChange.ADDED && index == -1) {
+                    Log.w(TAG, "applyPendingChanges:unknown_child:" + change.key);
+                    continue;
+                }
+
+                switch (type) {
+                    case PendingChange.ADDED:
+                        int insertAt = getIndexAfter(change.previousChildName);
+                        mLive.add(insertAt, change.key, change.comment);
+                        notifyLiveInserted(insertAt, 1);
+                        break;
+                    case PendingChange.CHANGED:
+                        // Replace with the new data
+                        mLive.set(index, change.comment);
+                        notifyLiveChanged(index);
+                        break;
+                    case PendingChange.REMOVED:
+                        mLive.remove(index);
+                        notifyLiveRemoved(index, 1);
+                        break;
+                    case PendingChange.MOVED:
+                        // The previous child is looked up with the comment still in place, so
+                        // it is one position further if it comes after the comment
+                        int moveTo = getIndexAfter(change.previousChildName);
+                        if (moveTo > index) {
+                            moveTo--;
+                        }
+                        mLive.set(index, change.comment);
+                        if (moveTo != index) {
+                            mLive.move(index, moveTo);
+                            if (mShowLive) {
+                                mUpdateCallback.onMoved(mOlderCount + index, mOlderCount + moveTo);
+                            }
+                        }
+                        notifyLiveChanged(moveTo);
+                        break;
+                }
+            }
+            mPendingChanges.clear();
+            mLiveLoaded = true;
+
+            // Update the RecyclerView with consecutive changes merged into ranges
+            mUpdateCallback.dispatchLastEvent();
+        }
+
+        /**
+         * Position in the newest page just after a comment, or the first position if it is null
+         * or unknown.
+         */
+        private int getIndexAfter(@Nullable String previousChildName) {
+            return previousChildName == null ? 0 : mLive.indexOf(previousChildName) + 1;
+        }
+
+        private void notifyLiveInserted(int index, int count) {
+            if (mShowLive) {
+                mUpdateCallback.onInserted(mOlderCount + index, count);
+            }
+        }
+
+        private void notifyLiveChanged(int index) {
+            if (mShowLive) {
+                mUpdateCallback.onChanged(mOlderCount + index, 1, null);
+            }
+        }
+
+        private void notifyLiveRemoved(int index, int count) {
+            if (mShowLive) {
+                mUpdateCallback.onRemoved(mOlderCount + index, count);
+            }
+        }
+
+        private void onVisibleRangeChanged() {
+            if (!mLiveLoaded || mLoading || mChildEventListener == null) {
+                return;
+            }
+
+            int first = 0;
+            int last = 0;
+            if (mRecyclerView != null
+                    && mRecyclerView.getLayoutManager() instanceof LinearLayoutManager) {
+                LinearLayoutManager manager =
+                        (LinearLayoutManager) mRecyclerView.getLayoutManager();
+                first = Math.max(manager.findFirstVisibleItemPosition(), 0);
+                last = Math.max(manager.findLastVisibleItemPosition(), 0);
+            }
+
+            if (!mStartReached && first <= PREFETCH_DISTANCE) {
+                loadOlder();
+            } else if (!mShowLive && last >= getItemCount() - 1 - PREFETCH_DISTANCE) {
+                loadNewer();
+            }
+        }
+
+        private void loadOlder() {
+            if (mAnchor == null) {
+                if (mLive.size() < PAGE_SIZE) {
+                    // Every comment fits in the newest page
+                    mStartReached = true;
+                    return;
+                }
+
+                // Pin the newest page before loading anything before it
+                mAnchor = mLive.getKey(0);
+                listenToLive();
+            }
+
+            String cursor = mPages.isEmpty() ? mAnchor : mPages.get(0).getFirstKey();
+            Log.d(TAG, "loadOlder:" + getWindowPageCount());
+            load(mDatabaseReference.orderByKey().endBefore(cursor).limitToLast(PAGE_SIZE), true);
+        }
+
+        private void loadNewer() {
+            // The newest page is only out of the window while there are older pages in it
+            String cursor = mPages.get(mPages.size() - 1).getLastKey();
+            Log.d(TAG, "loadNewer:" + getWindowPageCount());
+            load(mDatabaseReference.orderByKey().startAfter(cursor).endBefore(mAnchor)
+                    .limitToFirst(PAGE_SIZE), false);
+        }
+
+        private void load(Query pageQuery, final boolean older) {
+            mLoading = true;
+
+            pageQuery.get()
+                    .addOnSuccessListener(new OnSuccessListener<DataSnapshot>() {
+                        @Override
+                        public void onSuccess(DataSnapshot dataSnapshot) {
+                            if (mChildEventListener == null) {
+                                // Stopped while loading
+                                return;
+                            }
+                            mLoading = false;
+
+                            Page page = new Page(dataSnapshot);
+                            if (older) {
+                                onOlderLoaded(page);
+                            } else {
+                                onNewerLoaded(page);
+                            }
+                            mUpdateCallback.dispatchLastEvent();
+                        }
+                    })
+                    .addOnFailureListener(new OnFailureListener() {
+                        @Override
+                        public void onFailure(@NonNull Exception e) {
+                            // Tried again on the next scroll
+                            mLoading = false;
+                            Log.w(TAG, "loadComments:onFailure", e);
+                        }
+                    });
+        }
+
+        private void onOlderLoaded(Page page) {
+            if (page.size() < PAGE_SIZE) {
+                mStartReached = true;
+            }
+            if (page.size() > 0) {
+                mPages.add(0, page);
+                mOlderCount += page.size();
+                mUpdateCallback.onInserted(0, page.size());
+            }
+
+            // Drop the newest pages of the window
+            while (getWindowPageCount() > MAX_PAGES) {
+                if (mShowLive) {
+                    notifyLiveRemoved(0, mLive.size());
+                    mShowLive = false;
+                } else {
+                    Page evicted = mPages.remove(mPages.size() - 1);
+                    mOlderCount -= evicted.size();
+                    mUpdateCallback.onRemoved(mOlderCount, evicted.size());
+                }
+            }
+        }
+
+        private void onNewerLoaded(Page page) {
+            if (page.size() > 0) {
+                mPages.add(page);
+                mUpdateCallback.onInserted(mOlderCount, page.size());
+                mOlderCount += page.size();
+            }
+            if (page.size() < PAGE_SIZE) {
+                // Reached the newest page
+                mShowLive = true;
+                notifyLiveInserted(0, mLive.size());
+            }
+
+            // Drop the oldest pages of the window
+            while (getWindowPageCount() > MAX_PAGES) {
+                Page evicted = mPages.remove(0);
+                mOlderCount -= evicted.size();
+                mUpdateCallback.onRemoved(0, evicted.size());
+                mStartReached = false;
+            }
+        }
+
+        /**
+         * Number of pages held in memory, including the newest page when it is in the window.
+         */
+        private int getWindowPageCount() {
+            return mPages.size() + (mShowLive ? 1 : 0);
         }
 
         @Override
@@ -253,21 +523,85 @@ public class PostDetailFragment extends BaseFragment {
 
         @Override
         public void onBindViewHolder(CommentViewHolder holder, int position) {
-            Comment comment = mComments.get(position);
+            Comment comment = getComment(position);
             holder.authorView.setText(comment.author);
             holder.bodyView.setText(comment.text);
         }
 
         @Override
         public int getItemCount() {
-            return mComments.size();
+            return mOlderCount + (mShowLive ? mLive.size() : 0);
+        }
+
+        private Comment getComment(int position) {
+            for (Page page : mPages) {
+                if (position < page.size()) {
+                    return page.comments.get(position);
+                }
+                position -= page.size();
+            }
+            return mLive.get(position);
         }
 
         public void cleanupListener() {
             if (mChildEventListener != null) {
-                mDatabaseReference.removeEventListener(mChildEventListener);
+                mLiveQuery.removeEventListener(mChildEventListener);
+                mChildEventListener = null;
+            }
+            Choreographer.getInstance().removeFrameCallback(mApplyChanges);
+            mPendingChanges.clear();
+        }
+
+    }
+
+    /**
+     * Comments fetched once for a page of {@link CommentAdapter}, oldest first.
+     */
+    private static class Page {
+
+        final List<String> keys = new ArrayList<>();
+        final List<Comment> comments = new ArrayList<>();
+
+        Page(DataSnapshot dataSnapshot) {
+            for (DataSnapshot child : dataSnapshot.getChildren()) {
+                keys.add(child.getKey());
+                comments.add(child.getValue(Comment.class));
             }
         }
 
+        int size() {
+            return keys.size();
+        }
+
+        String getFirstKey() {
+            return keys.get(0);
+        }
+
+        String getLastKey() {
+            return keys.get(keys.size() - 1);
+        }
+    }
+
+    /**
+     * A child event waiting to be applied to a {@link CommentAdapter}.
+     */
+    private static class PendingChange {
+
+        static final int ADDED = 0;
+        static final int CHANGED = 1;
+        static final int REMOVED = 2;
+        static final int MOVED = 3;
+
+        final int type;
+        final String key;
+        final String previousChildName;
+        final Comment comment;
+
+        PendingChange(int type, String key, String previousChildName, Comment comment) {
+            this.type = type;
+            this.key = key;
+            this.previousChildName = previousChildName;
+            this.comment = comment;
+        }
     }
 }
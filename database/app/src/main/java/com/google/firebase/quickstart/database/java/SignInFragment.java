@@ -23,6 +23,8 @@ import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.quickstart.database.R;
 import com.google.firebase.quickstart.database.databinding.FragmentSignInBinding;
+import com.google.firebase.quickstart.database.java.data.StartupProfile;
+import com.google.firebase.quickstart.database.java.data.UserCache;
 import com.google.firebase.quickstart.database.java.models.User;
 
 public class SignInFragment extends BaseFragment implements View.OnClickListener {
@@ -122,8 +124,10 @@ public class SignInFragment extends BaseFragment implements View.OnClickListener
     private void onAuthSuccess(FirebaseUser user) {
         String username = usernameFromEmail(user.getEmail());
 
-        // Write new user
-        writeNewUser(user.getUid(), username, user.getEmail());
+        // Write new user, and cache it so posts and comments don't need to read it back
+        User newUser = writeNewUser(user.getUid(), username, user.getEmail());
+        UserCache.getInstance(requireContext()).start(user.getUid(), newUser);
+        StartupProfile.getInstance(requireContext()).keepSynced(user.getUid());
 
         // Go to MainFragment
         NavHostFragment.findNavController(this).navigate(R.id.action_SignInFragment_to_MainFragment);
@@ -156,10 +160,11 @@ public class SignInFragment extends BaseFragment implements View.OnClickListener
         return result;
     }
 
-    private void writeNewUser(String userId, String name, String email) {
+    private User writeNewUser(String userId, String name, String email) {
         User user = new User(name, email);
 
         mDatabase.child("users").child(userId).setValue(user);
+        return user;
     }
 
     public void onClick(View v) {
@@ -0,0 +1,230 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.quickstart.database.java.models.Post;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that the copies of every post written by {@link PostFanOut} agree with each other.
+ *
+ * {@link #run()} first writes a set of test posts and a burst of star toggles from synthetic
+ * users, then reads the whole database and reports posts with a missing or different copy,
+ * star counts that don't match the stars in {@link PostStars}, copies left without a post and
+ * test posts whose stars are not the ones that were toggled. The test posts and their stars are
+ * deleted at the end.
+ *
+ * Intended to be run against the Realtime Database emulator, see the README.
+ */
+public class FanOutChecker {
+
+    private static final String TAG = "FanOutChecker";
+
+    private static final String AUTHOR_UID = "fan-out-checker";
+    private static final int NUM_USERS = 20;
+
+    private final DatabaseReference mRoot;
+    private final PostFanOut mFanOut;
+    private final PostStars mStars;
+    private final int mNumPosts;
+    private final int mNumToggles;
+    private final Random mRandom = new Random();
+
+    public FanOutChecker(DatabaseReference root, int numPosts, int numToggles) {
+        mRoot = root;
+        mFanOut = new PostFanOut(root);
+        mStars = new PostStars(root, mFanOut);
+        mNumPosts = numPosts;
+        mNumToggles = numToggles;
+    }
+
+    /**
+     * Write the test posts and stars, then check the whole database.
+     */
+    public Task<Result> run() {
+        final List<String> keys = new ArrayList<>();
+        final List<Post> posts = new ArrayList<>();
+        List<Task<Void>> creates = new ArrayList<>();
+        for (int i = 0; i < mNumPosts; i++) {
+            String key = mFanOut.newPostKey();
+            Post post = new Post(AUTHOR_UID, "Fan-out checker", "Post " + i, "Checking copies");
+            keys.add(key);
+            posts.add(post);
+            creates.add(mFanOut.create(key, post));
+        }
+
+        // Expected stars of the test posts, as "postIndex/uid"
+        final Set<String> stars = new HashSet<>();
+
+        return Tasks.whenAll(creates)
+                .continueWithTask(new Continuation<Void, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(@NonNull Task<Void> task) throws Exception {
+                        // Surface a failed create
+                        task.getResult();
+
+                        List<Task<Void>> toggles = new ArrayList<>();
+                        for (int i = 0; i < mNumToggles; i++) {
+                            int index = mRandom.nextInt(posts.size());
+                            String uid = "user-" + mRandom.nextInt(NUM_USERS);
+
+                            String star = index + "/" + uid;
+                            boolean starred = !stars.remove(star);
+                            if (starred) {
+                                stars.add(star);
+                            }
+                            toggles.add(mStars.setStarred(keys.get(index), posts.get(index),
+                                    uid, starred));
+                        }
+                        return Tasks.whenAll(toggles);
+                    }
+                })
+                .continueWithTask(new Continuation<Void, Task<DataSnapshot>>() {
+                    @Override
+                    public Task<DataSnapshot> then(@NonNull Task<Void> task) {
+                        task.getResult();
+                        return mRoot.get();
+                    }
+                })
+                .continueWithTask(new Continuation<DataSnapshot, Task<Result>>() {
+                    @Override
+                    public Task<Result> then(@NonNull Task<DataSnapshot> task) {
+                        final Result result = check(task.getResult());
+
+                        // The test posts must have exactly the stars that were toggled on
+                        for (int i = 0; i < keys.size(); i++) {
+                            DataSnapshot postStars = task.getResult()
+                                    .child(PostStars.POST_STARS).child(keys.get(i));
+                            for (int u = 0; u < NUM_USERS; u++) {
+                                String uid = "user-" + u;
+                                boolean expected = stars.contains(i + "/" + uid);
+                                if (postStars.child(uid).exists() != expected) {
+                                    result.mUnexpectedStars++;
+                                }
+                            }
+                        }
+
+                        Log.d(TAG, result.toString());
+                        return deletePosts(keys, posts)
+                                .continueWith(new Continuation<Void, Result>() {
+                                    @Override
+                                    public Result then(@NonNull Task<Void> task) {
+                                        task.getResult();
+                                        return result;
+                                    }
+                                });
+                    }
+                });
+    }
+
+    /**
+     * Delete every copy of the test posts and their stars.
+     */
+    private Task<Void> deletePosts(List<String> keys, List<Post> posts) {
+        Map<String, Object> updates = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            for (PostFanOut.Location location : mFanOut.getLocations()) {
+                updates.put(location.getPath(key, posts.get(i)), null);
+            }
+            updates.put(PostStars.POST_STARS + "/" + key, null);
+            for (int u = 0; u < NUM_USERS; u++) {
+                updates.put(PostStars.USER_STARS + "/user-" + u + "/" + key, null);
+            }
+        }
+        return mRoot.updateChildren(updates);
+    }
+
+    /**
+     * Check every post in a snapshot of the database root.
+     */
+    public Result check(DataSnapshot root) {
+        Result result = new Result();
+
+        DataSnapshot allPosts = root.child("posts");
+        for (DataSnapshot snapshot : allPosts.getChildren()) {
+            Post post = snapshot.getValue(Post.class);
+            if (post == null) {
+                continue;
+            }
+            result.mPosts++;
+
+            long numStars = root.child(PostStars.POST_STARS).child(snapshot.getKey())
+                    .getChildrenCount();
+            if (post.starCount != numStars) {
+                result.mWrongStarCounts++;
+            }
+
+            for (PostFanOut.Location location : mFanOut.getLocations()) {
+                DataSnapshot copy = root.child(location.getPath(snapshot.getKey(), post));
+                if (!copy.exists()) {
+                    result.mMissingCopies++;
+                } else if (!location.getValues(post.toMap())
+                        .equals(copy.getValue(Post.class).toMap())) {
+                    result.mDifferentCopies++;
+                }
+            }
+        }
+
+        // Copies of posts that no longer exist
+        for (DataSnapshot copy : root.child(PostFanOut.POST_SUMMARIES_PATH).getChildren()) {
+            if (!allPosts.hasChild(copy.getKey())) {
+                result.mOrphanedCopies++;
+            }
+        }
+        for (String path : Arrays.asList("user-posts", PostFanOut.USER_POST_SUMMARIES_PATH)) {
+            for (DataSnapshot user : root.child(path).getChildren()) {
+                for (DataSnapshot copy : user.getChildren()) {
+                    if (!allPosts.hasChild(copy.getKey())) {
+                        result.mOrphanedCopies++;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Number of posts checked and of each kind of inconsistency found.
+     */
+    public static class Result {
+
+        private int mPosts;
+        private int mMissingCopies;
+        private int mDifferentCopies;
+        private int mWrongStarCounts;
+        private int mOrphanedCopies;
+        private int mUnexpectedStars;
+
+        public boolean isConsistent() {
+            return mMissingCopies == 0 && mDifferentCopies == 0 && mWrongStarCounts == 0
+                    && mOrphanedCopies == 0 && mUnexpectedStars == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: %d posts, %d missing copies, %d different copies, "
+                            + "%d wrong star counts, %d orphaned copies, %d unexpected stars",
+                    isConsistent() ? "consistent" : "INCONSISTENT", mPosts, mMissingCopies,
+                    mDifferentCopies, mWrongStarCounts, mOrphanedCopies, mUnexpectedStars);
+        }
+    }
+}
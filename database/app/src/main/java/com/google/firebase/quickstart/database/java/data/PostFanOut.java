@@ -0,0 +1,195 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.quickstart.database.java.models.Post;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes to every copy of a post at once.
+ *
+ * A post is denormalized to several locations, such as {@code /posts/$key} and
+ * {@code /user-posts/$uid/$key}. The locations are declared once, and every create and edit
+ * becomes a single multi-path {@link DatabaseReference#updateChildren(Map)} that either updates
+ * all of the copies or none of them. {@link PostStars} uses the same updates for star counts.
+ *
+ * A location can also store a projection of the post instead of a full copy, such as the
+ * summaries read by the post lists, which cut the body to {@link #SUMMARY_BODY_LENGTH}.
+ */
+public class PostFanOut {
+
+    /**
+     * A place where a copy of every post is stored.
+     */
+    public interface Location {
+
+        /**
+         * Path of the copy of the post with this key, relative to the database root.
+         */
+        @NonNull
+        String getPath(@NonNull String postKey, @NonNull Post post);
+
+        /**
+         * The values stored at this location for some values of a post, either all of them or
+         * only the fields being changed. A full copy stores them as they are.
+         */
+        @NonNull
+        default Map<String, Object> getValues(@NonNull Map<String, Object> postValues) {
+            return postValues;
+        }
+    }
+
+    /** Root of the summaries of every post, read by the recent posts list. */
+    public static final String POST_SUMMARIES_PATH = "post-summaries";
+
+    /** Root of the summaries of the posts of each author, read by the lists of my posts. */
+    public static final String USER_POST_SUMMARIES_PATH = "user-post-summaries";
+
+    /** Number of characters of the body kept in a summary. */
+    public static final int SUMMARY_BODY_LENGTH = 140;
+
+    // Fields of a post kept in its summaries
+    private static final List<String> SUMMARY_FIELDS =
+            Arrays.asList("uid", "author", "title", "body", "starCount");
+
+    /** {@code /posts/$key}, the copy every post has. */
+    public static final Location POSTS = new Location() {
+        @NonNull
+        @Override
+        public String getPath(@NonNull String postKey, @NonNull Post post) {
+            return "posts/" + postKey;
+        }
+    };
+
+    /** {@code /user-posts/$uid/$key}, the posts of each author. */
+    public static final Location USER_POSTS = new Location() {
+        @NonNull
+        @Override
+        public String getPath(@NonNull String postKey, @NonNull Post post) {
+            return "user-posts/" + post.uid + "/" + postKey;
+        }
+    };
+
+    /** {@code /post-summaries/$key}, what the post lists show of every post. */
+    public static final Location POST_SUMMARIES = new Location() {
+        @NonNull
+        @Override
+        public String getPath(@NonNull String postKey, @NonNull Post post) {
+            return POST_SUMMARIES_PATH + "/" + postKey;
+        }
+
+        @NonNull
+        @Override
+        public Map<String, Object> getValues(@NonNull Map<String, Object> postValues) {
+            return summarize(postValues);
+        }
+    };
+
+    /** {@code /user-post-summaries/$uid/$key}, what the post lists show of each author's posts. */
+    public static final Location USER_POST_SUMMARIES = new Location() {
+        @NonNull
+        @Override
+        public String getPath(@NonNull String postKey, @NonNull Post post) {
+            return USER_POST_SUMMARIES_PATH + "/" + post.uid + "/" + postKey;
+        }
+
+        @NonNull
+        @Override
+        public Map<String, Object> getValues(@NonNull Map<String, Object> postValues) {
+            return summarize(postValues);
+        }
+    };
+
+    private final DatabaseReference mRoot;
+    private final List<Location> mLocations;
+
+    public PostFanOut(DatabaseReference root) {
+        this(root, Arrays.asList(POSTS, USER_POSTS, POST_SUMMARIES, USER_POST_SUMMARIES));
+    }
+
+    public PostFanOut(DatabaseReference root, List<Location> locations) {
+        mRoot = root;
+        mLocations = Collections.unmodifiableList(locations);
+    }
+
+    public List<Location> getLocations() {
+        return mLocations;
+    }
+
+    /**
+     * Generate the key of a new post.
+     */
+    @Nullable
+    public String newPostKey() {
+        return mRoot.child("posts").push().getKey();
+    }
+
+    /**
+     * Write a new post to all of its locations.
+     */
+    public Task<Void> create(String postKey, Post post) {
+        Map<String, Object> postValues = post.toMap();
+
+        Map<String, Object> updates = new HashMap<>();
+        for (Location location : mLocations) {
+            updates.put(location.getPath(postKey, post), location.getValues(postValues));
+        }
+        return mRoot.updateChildren(updates);
+    }
+
+    /**
+     * Change some fields, such as the title or body, of every copy of a post.
+     */
+    public Task<Void> edit(String postKey, Post post, Map<String, Object> fields) {
+        return mRoot.updateChildren(getFieldUpdates(postKey, post, fields));
+    }
+
+    /**
+     * The updates that set fields of every copy of a post, to be combined with other updates
+     * in a single {@link DatabaseReference#updateChildren(Map)}.
+     */
+    public Map<String, Object> getFieldUpdates(String postKey, Post post,
+                                               Map<String, Object> fields) {
+        Map<String, Object> updates = new HashMap<>();
+        for (Location location : mLocations) {
+            String path = location.getPath(postKey, post);
+            for (Map.Entry<String, Object> field : location.getValues(fields).entrySet()) {
+                updates.put(path + "/" + field.getKey(), field.getValue());
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * The fields of a post kept in its summaries, with the body cut to
+     * {@link #SUMMARY_BODY_LENGTH}.
+     */
+    private static Map<String, Object> summarize(Map<String, Object> postValues) {
+        Map<String, Object> summary = new HashMap<>();
+        for (String field : SUMMARY_FIELDS) {
+            if (postValues.containsKey(field)) {
+                summary.put(field, postValues.get(field));
+            }
+        }
+
+        Object body = summary.get("body");
+        if (body instanceof String && ((String) body).length() > SUMMARY_BODY_LENGTH) {
+            String text = (String) body;
+            // Don't split a surrogate pair
+            int end = SUMMARY_BODY_LENGTH;
+            if (Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            summary.put("body", text.substring(0, end) + "\u2026");
+        }
+        return summary;
+    }
+}
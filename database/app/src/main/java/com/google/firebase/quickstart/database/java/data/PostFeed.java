@@ -0,0 +1,413 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.quickstart.database.java.models.Post;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A feed of posts sorted highest first, such as the most recent posts or the most starred posts
+ * of a user, loaded a page at a time as the user scrolls.
+ *
+ * The first page listens live to {@code limitToLast(PAGE_SIZE)} of the feed. More posts are
+ * fetched once with {@link Query#get()}, using the lowest post loaded as an {@code endBefore}
+ * cursor, and are not updated afterwards. The first time more posts are needed the live
+ * listener is pinned to {@code startAt} its lowest post, so new posts join the first page
+ * instead of pushing posts into the gap before the next ones. A post that drops below the pinned
+ * first page, for example when it loses a star, is fetched again and moved among the posts
+ * after it.
+ *
+ * Feeds are kept for the life of the process with their pages and scroll position, so a list
+ * that shows a feed again, for example after switching tabs, starts where it was without
+ * downloading the pages again. The live listener stays attached for a grace period after the
+ * list stops.
+ *
+ * Must be used from the main thread.
+ */
+public class PostFeed {
+
+    /**
+     * Told when the posts of the feed change.
+     */
+    public interface Listener {
+
+        /**
+         * @param diff the changes since the last call, to dispatch to an adapter.
+         */
+        void onPostsChanged(@NonNull DiffUtil.DiffResult diff);
+    }
+
+    private static final String TAG = "PostFeed";
+
+    public static final int PAGE_SIZE = 20;
+    private static final long GRACE_PERIOD_MS = 30000;
+
+    // Keyed by location and sort order
+    private static final Map<String, PostFeed> sFeeds = new HashMap<>();
+
+    private final Query mQuery;
+    @Nullable
+    private final String mOrderByChild;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // The first page, highest first, and the query it listens to
+    private List<Item> mHead = new ArrayList<>();
+    private Query mHeadQuery;
+    private boolean mHeadLoaded;
+
+    // Lowest post of the first page once it is pinned
+    private Item mAnchor;
+
+    // Posts fetched after the first page, highest first
+    private final List<Item> mMore = new ArrayList<>();
+    private boolean mEndReached;
+    private boolean mLoading;
+
+    // The posts shown, the first page followed by the others
+    private List<Item> mItems = new ArrayList<>();
+
+    private Listener mListener;
+    private Parcelable mLayoutState;
+
+    private final ValueEventListener mHeadListener = new ValueEventListener() {
+        @Override
+        public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+            List<Item> head = new ArrayList<>();
+            for (DataSnapshot child : dataSnapshot.getChildren()) {
+                head.add(0, new Item(child, mOrderByChild));
+            }
+
+            // Posts that left the pinned first page dropped below it or were deleted
+            if (mAnchor != null) {
+                Set<String> keys = new HashSet<>();
+                for (Item item : head) {
+                    keys.add(item.key);
+                }
+                for (Item item : mHead) {
+                    if (!keys.contains(item.key)) {
+                        fetchDropped(item.key);
+                    }
+                }
+            }
+
+            mHead = head;
+            mHeadLoaded = true;
+            onItemsChanged();
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError databaseError) {
+            Log.w(TAG, "loadFeed:onCancelled", databaseError.toException());
+        }
+    };
+
+    private final Runnable mDetachRunnable = new Runnable() {
+        @Override
+        public void run() {
+            detach();
+        }
+    };
+
+    /**
+     * The feed of the posts at a location, sorted by a child of the posts or, if it is null, by
+     * key so that the most recent posts come first.
+     */
+    public static PostFeed get(DatabaseReference ref, @Nullable String orderByChild) {
+        String id = ref.toString() + "?orderBy=" + orderByChild;
+        PostFeed feed = sFeeds.get(id);
+        if (feed == null) {
+            feed = new PostFeed(ref, orderByChild);
+            sFeeds.put(id, feed);
+        }
+        return feed;
+    }
+
+    /**
+     * Drop every feed, when the user signs out.
+     */
+    public static void clearAll() {
+        for (PostFeed feed : sFeeds.values()) {
+            feed.mHandler.removeCallbacks(feed.mDetachRunnable);
+            feed.detach();
+        }
+        sFeeds.clear();
+    }
+
+    private PostFeed(DatabaseReference ref, @Nullable String orderByChild) {
+        mQuery = orderByChild != null ? ref.orderByChild(orderByChild) : ref.orderByKey();
+        mOrderByChild = orderByChild;
+    }
+
+    /**
+     * Start listening to the first page, telling a listener about changes until {@link #stop()}.
+     */
+    public void start(Listener listener) {
+        mListener = listener;
+        mHandler.removeCallbacks(mDetachRunnable);
+        if (mHeadQuery == null) {
+            listenToHead();
+        }
+    }
+
+    /**
+     * Stop telling the listener about changes. The first page keeps listening for a grace
+     * period in case the feed is shown again.
+     */
+    public void stop() {
+        mListener = null;
+        mHandler.postDelayed(mDetachRunnable, GRACE_PERIOD_MS);
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    public String getKey(int position) {
+        return mItems.get(position).key;
+    }
+
+    public Post getPost(int position) {
+        return mItems.get(position).post;
+    }
+
+    /**
+     * Scroll position saved by the last list that showed the feed.
+     */
+    @Nullable
+    public Parcelable getLayoutState() {
+        return mLayoutState;
+    }
+
+    public void setLayoutState(@Nullable Parcelable layoutState) {
+        mLayoutState = layoutState;
+    }
+
+    /**
+     * Fetch the next page, unless one is already loading or every post has been loaded.
+     */
+    public void loadMore() {
+        if (!mHeadLoaded || mLoading || mEndReached) {
+            return;
+        }
+
+        if (mAnchor == null) {
+            if (mHead.size() < PAGE_SIZE) {
+                // Every post fits in the first page
+                mEndReached = true;
+                return;
+            }
+
+            // Pin the first page before loading anything after it
+            mAnchor = mHead.get(mHead.size() - 1);
+            listenToHead();
+        }
+
+        Item cursor = mMore.isEmpty() ? mAnchor : mMore.get(mMore.size() - 1);
+        Log.d(TAG, "loadMore:" + mItems.size());
+        mLoading = true;
+        endBefore(cursor).limitToLast(PAGE_SIZE).get()
+                .addOnSuccessListener(new OnSuccessListener<DataSnapshot>() {
+                    @Override
+                    public void onSuccess(DataSnapshot dataSnapshot) {
+                        mLoading = false;
+
+                        List<Item> page = new ArrayList<>();
+                        for (DataSnapshot child : dataSnapshot.getChildren()) {
+                            page.add(0, new Item(child, mOrderByChild));
+                        }
+                        if (page.size() < PAGE_SIZE) {
+                            mEndReached = true;
+                        }
+                        mMore.addAll(page);
+                        onItemsChanged();
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        // Tried again on the next scroll
+                        mLoading = false;
+                        Log.w(TAG, "loadMore:onFailure", e);
+                    }
+                });
+    }
+
+    private void fetchDropped(final String key) {
+        mQuery.getRef().child(key).get()
+                .addOnSuccessListener(new OnSuccessListener<DataSnapshot>() {
+                    @Override
+                    public void onSuccess(DataSnapshot dataSnapshot) {
+                        for (Item item : mHead) {
+                            if (item.key.equals(key)) {
+                                // Back in the first page
+                                return;
+                            }
+                        }
+
+                        for (int i = 0; i < mMore.size(); i++) {
+                            if (mMore.get(i).key.equals(key)) {
+                                mMore.remove(i);
+                                break;
+                            }
+                        }
+
+                        if (dataSnapshot.exists()) {
+                            Item dropped = new Item(dataSnapshot, mOrderByChild);
+                            int index = 0;
+                            while (index < mMore.size() && compare(dropped, mMore.get(index)) < 0) {
+                                index++;
+                            }
+
+                            // Past the last page loaded the next page brings it
+                            if (index < mMore.size() || mEndReached) {
+                                mMore.add(index, dropped);
+                            }
+                        }
+                        onItemsChanged();
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        Log.w(TAG, "fetchDropped:onFailure", e);
+                    }
+                });
+    }
+
+    private void listenToHead() {
+        if (mHeadQuery != null) {
+            mHeadQuery.removeEventListener(mHeadListener);
+        }
+
+        mHeadQuery = mAnchor != null ? startAt(mAnchor) : mQuery.limitToLast(PAGE_SIZE);
+        mHeadQuery.addValueEventListener(mHeadListener);
+    }
+
+    private void detach() {
+        if (mHeadQuery != null) {
+            mHeadQuery.removeEventListener(mHeadListener);
+            mHeadQuery = null;
+        }
+    }
+
+    private Query startAt(Item item) {
+        if (mOrderByChild == null) {
+            return mQuery.startAt(item.key);
+        } else if (item.sortValue != null) {
+            return mQuery.startAt(item.sortValue, item.key);
+        } else {
+            return mQuery.startAt(null, item.key);
+        }
+    }
+
+    private Query endBefore(Item item) {
+        if (mOrderByChild == null) {
+            return mQuery.endBefore(item.key);
+        } else if (item.sortValue != null) {
+            return mQuery.endBefore(item.sortValue, item.key);
+        } else {
+            return mQuery.endBefore(null, item.key);
+        }
+    }
+
+    /**
+     * Compare posts in the order of the query, lowest first, with posts without a sort value
+     * before the others.
+     */
+    private static int compare(Item first, Item second) {
+        if (first.sortValue != null && second.sortValue != null) {
+            int result = Double.compare(first.sortValue, second.sortValue);
+            if (result != 0) {
+                return result;
+            }
+        } else if (first.sortValue != null) {
+            return 1;
+        } else if (second.sortValue != null) {
+            return -1;
+        }
+        return first.key.compareTo(second.key);
+    }
+
+    private void onItemsChanged() {
+        // A post that moved into the first page is only shown there
+        List<Item> items = new ArrayList<>(mHead);
+        Set<String> keys = new HashSet<>();
+        for (Item item : mHead) {
+            keys.add(item.key);
+        }
+        for (Item item : mMore) {
+            if (keys.add(item.key)) {
+                items.add(item);
+            }
+        }
+
+        final List<Item> oldItems = mItems;
+        final List<Item> newItems = items;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldItems.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newItems.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldItems.get(oldItemPosition).key.equals(newItems.get(newItemPosition).key);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldItems.get(oldItemPosition).post.toMap()
+                        .equals(newItems.get(newItemPosition).post.toMap());
+            }
+        });
+
+        mItems = newItems;
+        if (mListener != null) {
+            mListener.onPostsChanged(diff);
+        }
+    }
+
+    /**
+     * A post of the feed with its key and sort value, used as a cursor.
+     */
+    private static class Item {
+
+        final String key;
+        final Post post;
+        final Double sortValue;
+
+        Item(DataSnapshot snapshot, @Nullable String orderByChild) {
+            key = snapshot.getKey();
+            Post value = snapshot.getValue(Post.class);
+            post = value != null ? value : new Post();
+            sortValue = orderByChild != null
+                    ? snapshot.child(orderByChild).getValue(Double.class)
+                    : null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.quickstart.database.java.models.Post;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Stars of posts, kept out of the post itself.
+ *
+ * A star is stored twice: at {@code /post-stars/$postKey/$uid}, the stars of a post, and at
+ * {@code /user-stars/$uid/$postKey}, the posts a user has starred, which lists can listen to
+ * with a single listener. The {@code starCount} of every copy of the post is changed with
+ * {@link ServerValue#increment(long)} in the same multi-path update, so a toggle writes a few
+ * small values whatever the number of stars, never retries under contention and can be queued
+ * offline.
+ *
+ * The security rules only accept a change of {@code starCount} by one together with the star
+ * of the writing user changing the same way, so starring a post twice, from a stale list or
+ * from two devices, is rejected rather than counted twice. {@link StarReconciler} repairs
+ * counts written before the rules were deployed.
+ */
+public class PostStars {
+
+    public static final String POST_STARS = "post-stars";
+    public static final String USER_STARS = "user-stars";
+
+    private final DatabaseReference mRoot;
+    private final PostFanOut mFanOut;
+
+    public PostStars(DatabaseReference root, PostFanOut fanOut) {
+        mRoot = root;
+        mFanOut = fanOut;
+    }
+
+    /**
+     * The posts a user has starred, keyed by post key.
+     */
+    public DatabaseReference getUserStars(String uid) {
+        return mRoot.child(USER_STARS).child(uid);
+    }
+
+    /**
+     * The users who have starred a post, keyed by uid.
+     */
+    public DatabaseReference getPostStars(String postKey) {
+        return mRoot.child(POST_STARS).child(postKey);
+    }
+
+    /**
+     * Star or unstar a post for a user, in one atomic write that also works offline. The caller
+     * must only change the state of a star, for example based on {@link #getUserStars(String)}:
+     * the security rules reject a toggle that doesn't change the star.
+     */
+    public Task<Void> setStarred(String postKey, Post post, String uid, boolean starred) {
+        Object increment = ServerValue.increment(starred ? 1 : -1);
+        Map<String, Object> updates = mFanOut.getFieldUpdates(postKey, post,
+                Collections.singletonMap("starCount", increment));
+
+        Object star = starred ? true : null;
+        updates.put(POST_STARS + "/" + postKey + "/" + uid, star);
+        updates.put(USER_STARS + "/" + uid + "/" + postKey, star);
+
+        return mRoot.updateChildren(updates);
+    }
+}
@@ -0,0 +1,353 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+import com.google.firebase.quickstart.database.java.models.Post;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark of star toggles on a post that already has many stars, first with the old design,
+ * a transaction on each copy of the post with the stars stored in it, and then with
+ * {@link PostStars}. Reports toggles per second, latency and transaction retries for both. The
+ * posts and their stars are deleted at the end.
+ *
+ * Intended to be run against the Realtime Database emulator, see the README.
+ */
+public class StarBenchmark {
+
+    private static final String TAG = "StarBenchmark";
+
+    private static final String AUTHOR_UID = "star-benchmark";
+    private static final int NUM_USERS = 100;
+
+    private final DatabaseReference mRoot;
+    private final PostFanOut mFanOut;
+    private final PostStars mStars;
+    private final int mNumStars;
+    private final int mNumToggles;
+    private final int mConcurrency;
+    private final Random mRandom = new Random();
+
+    // Keys of the posts written by the benchmark
+    private final List<String> mPostKeys = new ArrayList<>();
+
+    /**
+     * @param numStars stars the post has before the toggles start.
+     */
+    public StarBenchmark(DatabaseReference root, int numStars, int numToggles, int concurrency) {
+        mRoot = root;
+        mFanOut = new PostFanOut(root);
+        mStars = new PostStars(root, mFanOut);
+        mNumStars = numStars;
+        mNumToggles = numToggles;
+        mConcurrency = concurrency;
+    }
+
+    /**
+     * Run both designs against new posts and return a side by side report.
+     */
+    public Task<String> run() {
+        final List<Result> results = new ArrayList<>();
+
+        return runTransactions()
+                .continueWithTask(new Continuation<Result, Task<Result>>() {
+                    @Override
+                    public Task<Result> then(@NonNull Task<Result> task) {
+                        results.add(task.getResult());
+                        return runPostStars();
+                    }
+                })
+                .continueWithTask(new Continuation<Result, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(@NonNull Task<Result> task) {
+                        results.add(task.getResult());
+                        return deletePosts();
+                    }
+                })
+                .continueWith(new Continuation<Void, String>() {
+                    @Override
+                    public String then(@NonNull Task<Void> task) {
+                        task.getResult();
+
+                        StringBuilder report = new StringBuilder(Result.HEADER);
+                        for (Result result : results) {
+                            report.append('\n').append(result);
+                        }
+                        Log.d(TAG, report.toString());
+                        return report.toString();
+                    }
+                });
+    }
+
+    private Task<Result> runTransactions() {
+        final String postKey = mFanOut.newPostKey();
+        final Post post = newPost();
+        mPostKeys.add(postKey);
+
+        // Stars stored in each copy of the post, as before
+        Map<String, Object> stars = new HashMap<>();
+        for (int i = 0; i < mNumStars; i++) {
+            stars.put("existing-" + i, true);
+        }
+        Map<String, Object> values = post.toMap();
+        values.put("stars", stars);
+
+        final List<DatabaseReference> copies = new ArrayList<>();
+        Map<String, Object> updates = new HashMap<>();
+        for (PostFanOut.Location location : mFanOut.getLocations()) {
+            String path = location.getPath(postKey, post);
+            copies.add(mRoot.child(path));
+            updates.put(path, values);
+        }
+
+        return mRoot.updateChildren(updates)
+                .continueWithTask(new Continuation<Void, Task<Result>>() {
+                    @Override
+                    public Task<Result> then(@NonNull Task<Void> task) {
+                        task.getResult();
+                        return runToggles(new Toggler("transaction") {
+                            @Override
+                            Task<Void> toggle(String uid, boolean starred) {
+                                // One transaction on each copy, as PostListFragment used to do
+                                List<Task<Void>> transactions = new ArrayList<>();
+                                for (DatabaseReference copy : copies) {
+                                    transactions.add(runTransaction(copy, uid, mResult));
+                                }
+                                return Tasks.whenAll(transactions);
+                            }
+                        });
+                    }
+                });
+    }
+
+    private Task<Result> runPostStars() {
+        final String postKey = mFanOut.newPostKey();
+        final Post post = newPost();
+        mPostKeys.add(postKey);
+        post.starCount = mNumStars;
+
+        Map<String, Object> updates = new HashMap<>();
+        Map<String, Object> postValues = post.toMap();
+        for (PostFanOut.Location location : mFanOut.getLocations()) {
+            updates.put(location.getPath(postKey, post), location.getValues(postValues));
+        }
+        for (int i = 0; i < mNumStars; i++) {
+            updates.put(PostStars.POST_STARS + "/" + postKey + "/existing-" + i, true);
+        }
+
+        return mRoot.updateChildren(updates)
+                .continueWithTask(new Continuation<Void, Task<Result>>() {
+                    @Override
+                    public Task<Result> then(@NonNull Task<Void> task) {
+                        task.getResult();
+                        return runToggles(new Toggler("post-stars") {
+                            @Override
+                            Task<Void> toggle(String uid, boolean starred) {
+                                return mStars.setStarred(postKey, post, uid, starred);
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Delete every copy of the posts written by the benchmark and their stars.
+     */
+    private Task<Void> deletePosts() {
+        Post post = newPost();
+        Map<String, Object> updates = new HashMap<>();
+        for (String postKey : mPostKeys) {
+            for (PostFanOut.Location location : mFanOut.getLocations()) {
+                updates.put(location.getPath(postKey, post), null);
+            }
+            updates.put(PostStars.POST_STARS + "/" + postKey, null);
+            for (int u = 0; u < NUM_USERS; u++) {
+                updates.put(PostStars.USER_STARS + "/user-" + u + "/" + postKey, null);
+            }
+        }
+        return mRoot.updateChildren(updates);
+    }
+
+    private Post newPost() {
+        return new Post(AUTHOR_UID, "Star benchmark", "Star benchmark", "Toggling stars");
+    }
+
+    private Task<Result> runToggles(final Toggler toggler) {
+        final TaskCompletionSource<Result> source = new TaskCompletionSource<>();
+        final Result result = toggler.mResult;
+        final Set<String> starred = new HashSet<>();
+        final AtomicInteger started = new AtomicInteger();
+        final long start = System.nanoTime();
+
+        // Keep up to mConcurrency toggles in flight until all of them have completed
+        final Runnable next = new Runnable() {
+            @Override
+            public void run() {
+                if (started.getAndIncrement() >= mNumToggles) {
+                    return;
+                }
+
+                final Runnable self = this;
+                final long toggleStart = System.nanoTime();
+                String uid = "user-" + mRandom.nextInt(NUM_USERS);
+                boolean star = !starred.remove(uid);
+                if (star) {
+                    starred.add(uid);
+                }
+
+                toggler.toggle(uid, star).addOnCompleteListener(new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        result.onToggleComplete(task.isSuccessful(),
+                                System.nanoTime() - toggleStart);
+                        if (result.mLatenciesNanos.size() + result.mFailures == mNumToggles) {
+                            result.mElapsedNanos = System.nanoTime() - start;
+                            source.setResult(result);
+                        } else {
+                            self.run();
+                        }
+                    }
+                });
+            }
+        };
+
+        for (int i = 0; i < Math.min(mConcurrency, mNumToggles); i++) {
+            next.run();
+        }
+
+        return source.getTask();
+    }
+
+    private static Task<Void> runTransaction(DatabaseReference copy, final String uid,
+                                             final Result result) {
+        final TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        copy.runTransaction(new Transaction.Handler() {
+            @NonNull
+            @Override
+            public Transaction.Result doTransaction(@NonNull MutableData mutableData) {
+                // A first run without the post in the local cache only fetches it from the
+                // server, so it is not counted. Every run after one that saw the post is a retry.
+                if (mutableData.getValue() == null) {
+                    return Transaction.success(mutableData);
+                }
+                if (attempts.getAndIncrement() > 0) {
+                    result.mRetries.incrementAndGet();
+                }
+
+                MutableData star = mutableData.child("stars").child(uid);
+                MutableData starCount = mutableData.child("starCount");
+                Long count = starCount.getValue(Long.class);
+                long current = count != null ? count : 0;
+                if (star.getValue() != null) {
+                    star.setValue(null);
+                    starCount.setValue(current - 1);
+                } else {
+                    star.setValue(true);
+                    starCount.setValue(current + 1);
+                }
+                return Transaction.success(mutableData);
+            }
+
+            @Override
+            public void onComplete(@Nullable DatabaseError error, boolean committed,
+                                   @Nullable DataSnapshot currentData) {
+                if (error != null) {
+                    source.setException(error.toException());
+                } else {
+                    source.setResult(null);
+                }
+            }
+        });
+
+        return source.getTask();
+    }
+
+    /**
+     * One way of toggling a star.
+     */
+    private abstract static class Toggler {
+
+        final Result mResult;
+
+        Toggler(String name) {
+            mResult = new Result(name);
+        }
+
+        abstract Task<Void> toggle(String uid, boolean starred);
+    }
+
+    /**
+     * Latency and retry counts for one design.
+     */
+    static class Result {
+
+        static final String HEADER = "design       toggles  failed  retries  p50ms  p95ms  maxms  toggles/s";
+
+        private final String mName;
+        private final List<Long> mLatenciesNanos = new ArrayList<>();
+        private final AtomicInteger mRetries = new AtomicInteger();
+        private int mFailures;
+        private long mElapsedNanos;
+
+        Result(String name) {
+            mName = name;
+        }
+
+        void onToggleComplete(boolean success, long latencyNanos) {
+            if (success) {
+                mLatenciesNanos.add(latencyNanos);
+            } else {
+                mFailures++;
+            }
+        }
+
+        private double percentileMillis(List<Long> sorted, double percentile) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+            return sorted.get(Math.max(index, 0)) / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            List<Long> sorted = new ArrayList<>(mLatenciesNanos);
+            Collections.sort(sorted);
+
+            return String.format(Locale.US, "%-12s %7d  %6d  %7d  %5.0f  %5.0f  %5.0f  %9.1f",
+                    mName,
+                    sorted.size(),
+                    mFailures,
+                    mRetries.get(),
+                    percentileMillis(sorted, 0.5),
+                    percentileMillis(sorted, 0.95),
+                    percentileMillis(sorted, 1.0),
+                    sorted.size() / (mElapsedNanos / 1e9));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.quickstart.database.java.models.Post;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Repairs the {@code starCount} of posts so that it matches their stars in
+ * {@code /post-stars}.
+ *
+ * The count of every copy of a post is compared with the number of stars and moved by the
+ * difference with {@link ServerValue#increment(long)}, so stars toggled while the job runs are
+ * not overwritten. A toggle that lands between the two reads can still leave a count off by
+ * one, running the job again while the posts are quiet fixes it.
+ *
+ * Posts written before stars moved out of the post still have a {@code stars} map. Those stars
+ * are moved to {@link PostStars} and the map is removed from every copy.
+ */
+public class StarReconciler {
+
+    private static final String TAG = "StarReconciler";
+
+    private final DatabaseReference mRoot;
+    private final PostFanOut mFanOut;
+    private final PostStars mStars;
+
+    public StarReconciler(DatabaseReference root) {
+        mRoot = root;
+        mFanOut = new PostFanOut(root);
+        mStars = new PostStars(root, mFanOut);
+    }
+
+    /**
+     * Reconcile every post.
+     */
+    public Task<Result> reconcile() {
+        final Result result = new Result();
+
+        return mRoot.child("posts").get()
+                .continueWithTask(new Continuation<DataSnapshot, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(@NonNull Task<DataSnapshot> task) {
+                        List<Task<Void>> repairs = new ArrayList<>();
+                        for (DataSnapshot snapshot : task.getResult().getChildren()) {
+                            Post post = snapshot.getValue(Post.class);
+                            if (post != null) {
+                                repairs.add(reconcile(snapshot.getKey(), post,
+                                        snapshot.child("stars"), result));
+                            }
+                        }
+                        return Tasks.whenAll(repairs);
+                    }
+                })
+                .continueWith(new Continuation<Void, Result>() {
+                    @Override
+                    public Result then(@NonNull Task<Void> task) {
+                        // Surface a failed repair
+                        task.getResult();
+
+                        Log.d(TAG, result.toString());
+                        return result;
+                    }
+                });
+    }
+
+    private Task<Void> reconcile(final String postKey, final Post post,
+                                 final DataSnapshot legacyStars, final Result result) {
+        result.mPosts++;
+
+        final List<PostFanOut.Location> locations = mFanOut.getLocations();
+        List<Task<DataSnapshot>> reads = new ArrayList<>();
+        reads.add(mStars.getPostStars(postKey).get());
+        for (PostFanOut.Location location : locations) {
+            reads.add(mRoot.child(location.getPath(postKey, post)).get());
+        }
+
+        return Tasks.whenAllSuccess(reads)
+                .continueWithTask(new Continuation<List<Object>, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(@NonNull Task<List<Object>> task) {
+                        List<Object> snapshots = task.getResult();
+                        Map<String, Object> updates = new HashMap<>();
+
+                        Set<String> stars = new HashSet<>();
+                        for (DataSnapshot star : ((DataSnapshot) snapshots.get(0)).getChildren()) {
+                            stars.add(star.getKey());
+                        }
+
+                        // Move stars left in the post by older versions of the app
+                        for (DataSnapshot star : legacyStars.getChildren()) {
+                            if (stars.add(star.getKey())) {
+                                updates.put(PostStars.POST_STARS + "/" + postKey + "/"
+                                        + star.getKey(), true);
+                                updates.put(PostStars.USER_STARS + "/" + star.getKey() + "/"
+                                        + postKey, true);
+                                result.mMigratedStars++;
+                            }
+                        }
+                        if (legacyStars.exists()) {
+                            for (PostFanOut.Location location : locations) {
+                                updates.put(location.getPath(postKey, post) + "/stars", null);
+                            }
+                        }
+
+                        for (int i = 0; i < locations.size(); i++) {
+                            // Missing copies are left to FanOutChecker to report
+                            DataSnapshot copy = (DataSnapshot) snapshots.get(i + 1);
+                            if (!copy.exists()) {
+                                continue;
+                            }
+
+                            Long stored = copy.child("starCount").getValue(Long.class);
+                            long delta = stars.size() - (stored != null ? stored : 0);
+                            if (delta != 0) {
+                                String path = locations.get(i).getPath(postKey, post);
+                                updates.put(path + "/starCount", ServerValue.increment(delta));
+                                result.mRepairedCopies++;
+                            }
+                        }
+
+                        if (updates.isEmpty()) {
+                            return Tasks.forResult(null);
+                        }
+                        return mRoot.updateChildren(updates);
+                    }
+                });
+    }
+
+    /**
+     * Number of posts checked and of repairs made.
+     */
+    public static class Result {
+
+        private int mPosts;
+        private int mRepairedCopies;
+        private int mMigratedStars;
+
+        public int getRepairedCopies() {
+            return mRepairedCopies;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d posts, %d star counts repaired, %d stars migrated",
+                    mPosts, mRepairedCopies, mMigratedStars);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.quickstart.database.R;
+
+/**
+ * How the database is set up when the app starts, so that a cold start shows the posts from
+ * the last run straight away instead of empty lists until the network answers.
+ *
+ * Disk persistence is turned on with a cache of {@code R.integer.database_cache_size_mb}, and
+ * the nodes of the signed-in user, {@code /users/$uid} and
+ * {@code /user-post-summaries/$uid}, are kept synced so they are in the cache even when no list
+ * is listening to them. Listeners get the cached data first and the server's once it
+ * connects.
+ *
+ * The time from the start of the process to the first post shown, and whether the database
+ * had connected by then, is logged once per process.
+ *
+ * Must be created before anything else uses the database, and used from the main thread.
+ */
+public class StartupProfile {
+
+    private static final String TAG = "StartupProfile";
+
+    private static StartupProfile sInstance;
+
+    private final DatabaseReference mRoot;
+    private final long mStartMillis;
+
+    private String mSyncedUid;
+
+    private long mConnectedMillis = -1;
+    private boolean mFirstPostShown;
+
+    public static synchronized StartupProfile getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StartupProfile(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private StartupProfile(Context context) {
+        // Measure from the start of the process when the platform knows it
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mStartMillis = Process.getStartUptimeMillis();
+        } else {
+            mStartMillis = SystemClock.uptimeMillis();
+        }
+
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        long cacheSizeBytes =
+                context.getResources().getInteger(R.integer.database_cache_size_mb) * 1024L * 1024L;
+        try {
+            database.setPersistenceCacheSizeBytes(cacheSizeBytes);
+            database.setPersistenceEnabled(true);
+        } catch (DatabaseException e) {
+            // The database was already used in this process, by the other MainActivity
+            Log.w(TAG, "setPersistenceEnabled:failure", e);
+        }
+        mRoot = database.getReference();
+
+        // Note when the database first connects, to tell cached posts from fresh ones
+        final DatabaseReference connectedRef = database.getReference(".info/connected");
+        connectedRef.addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                if (Boolean.TRUE.equals(dataSnapshot.getValue(Boolean.class))) {
+                    mConnectedMillis = SystemClock.uptimeMillis() - mStartMillis;
+                    Log.d(TAG, "Connected " + mConnectedMillis + " ms after start");
+                    connectedRef.removeEventListener(this);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.w(TAG, "loadConnected:onCancelled", databaseError.toException());
+            }
+        });
+    }
+
+    /**
+     * Keep the nodes of a user who has signed in synced, replacing those of the last user.
+     */
+    public void keepSynced(@NonNull String uid) {
+        if (uid.equals(mSyncedUid)) {
+            return;
+        }
+        stopSyncing();
+
+        mSyncedUid = uid;
+        setSynced(uid, true);
+    }
+
+    /**
+     * Stop keeping the nodes of the user synced, when the user signs out.
+     */
+    public void stopSyncing() {
+        if (mSyncedUid != null) {
+            setSynced(mSyncedUid, false);
+            mSyncedUid = null;
+        }
+    }
+
+    /**
+     * Tell the profile a post was shown, to log the time to the first one.
+     */
+    public void onPostShown() {
+        if (mFirstPostShown) {
+            return;
+        }
+        mFirstPostShown = true;
+
+        long millis = SystemClock.uptimeMillis() - mStartMillis;
+        String source = mConnectedMillis >= 0
+                ? "after connecting"
+                : "from the cache, before connecting";
+        Log.d(TAG, "First post shown " + millis + " ms after start, " + source);
+    }
+
+    private void setSynced(String uid, boolean synced) {
+        mRoot.child("users").child(uid).keepSynced(synced);
+        mRoot.child(PostFanOut.USER_POST_SUMMARIES_PATH).child(uid).keepSynced(synced);
+    }
+}
@@ -0,0 +1,107 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.quickstart.database.java.models.Post;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the missing summaries of posts created before the post lists read summaries, so that
+ * those posts show up in the lists again.
+ *
+ * Summaries are made from the copy in {@code /posts}, including its star count. Summaries that
+ * already exist are left alone so star counts moved while the job runs are not overwritten.
+ * The summaries are written in batches of multi-path updates.
+ */
+public class SummaryBackfill {
+
+    private static final String TAG = "SummaryBackfill";
+
+    private static final int BATCH_SIZE = 500;
+
+    private final DatabaseReference mRoot;
+
+    public SummaryBackfill(DatabaseReference root) {
+        mRoot = root;
+    }
+
+    /**
+     * Write the missing summaries of every post.
+     *
+     * @return the number of summaries written.
+     */
+    public Task<Integer> run() {
+        final List<PostFanOut.Location> locations = Arrays.asList(
+                PostFanOut.POST_SUMMARIES, PostFanOut.USER_POST_SUMMARIES);
+        final int[] written = new int[1];
+
+        return Tasks.whenAllSuccess(
+                        mRoot.child("posts").get(),
+                        mRoot.child(PostFanOut.POST_SUMMARIES_PATH).get(),
+                        mRoot.child(PostFanOut.USER_POST_SUMMARIES_PATH).get())
+                .continueWithTask(new Continuation<List<Object>, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(@NonNull Task<List<Object>> task) {
+                        List<Object> snapshots = task.getResult();
+                        DataSnapshot posts = (DataSnapshot) snapshots.get(0);
+
+                        // Both kinds of summary are read relative to the root
+                        Map<String, DataSnapshot> roots = new HashMap<>();
+                        roots.put(PostFanOut.POST_SUMMARIES_PATH, (DataSnapshot) snapshots.get(1));
+                        roots.put(PostFanOut.USER_POST_SUMMARIES_PATH,
+                                (DataSnapshot) snapshots.get(2));
+
+                        List<Task<Void>> batches = new ArrayList<>();
+                        Map<String, Object> updates = new HashMap<>();
+                        for (DataSnapshot snapshot : posts.getChildren()) {
+                            Post post = snapshot.getValue(Post.class);
+                            if (post == null) {
+                                continue;
+                            }
+
+                            for (PostFanOut.Location location : locations) {
+                                String path = location.getPath(snapshot.getKey(), post);
+                                int slash = path.indexOf('/');
+                                if (roots.get(path.substring(0, slash))
+                                        .hasChild(path.substring(slash + 1))) {
+                                    continue;
+                                }
+
+                                updates.put(path, location.getValues(post.toMap()));
+                                written[0]++;
+                                if (updates.size() == BATCH_SIZE) {
+                                    batches.add(mRoot.updateChildren(updates));
+                                    updates = new HashMap<>();
+                                }
+                            }
+                        }
+                        if (!updates.isEmpty()) {
+                            batches.add(mRoot.updateChildren(updates));
+                        }
+                        return Tasks.whenAll(batches);
+                    }
+                })
+                .continueWith(new Continuation<Void, Integer>() {
+                    @Override
+                    public Integer then(@NonNull Task<Void> task) {
+                        // Surface a failed batch
+                        task.getResult();
+
+                        Log.d(TAG, written[0] + " summaries written");
+                        return written[0];
+                    }
+                });
+    }
+}
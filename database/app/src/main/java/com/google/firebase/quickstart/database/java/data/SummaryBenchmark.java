@@ -0,0 +1,183 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import android.content.Context;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.quickstart.database.R;
+import com.google.firebase.quickstart.database.java.models.Post;
+import com.google.firebase.quickstart.database.java.viewholder.PostViewHolder;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Benchmark of a post list reading full posts against reading the summaries written by
+ * {@link PostFanOut}, on a list of many posts with long bodies. Reports the bytes read, the time
+ * to fetch the list and the time to decode and bind each row to a {@link PostViewHolder}.
+ *
+ * The bytes are the size of the list as JSON, which is close to what the server sends. The
+ * posts are written under {@code /summary-benchmark}, with the same layout as the root, and
+ * removed at the end.
+ *
+ * Intended to be run against the Realtime Database emulator, see the README.
+ */
+public class SummaryBenchmark {
+
+    private static final String TAG = "SummaryBenchmark";
+
+    private static final String ROOT = "summary-benchmark";
+    private static final String AUTHOR_UID = "summary-benchmark";
+    private static final int BODY_LENGTH = 1000;
+
+    private final Context mContext;
+    private final DatabaseReference mRoot;
+    private final PostFanOut mFanOut;
+    private final int mNumPosts;
+
+    public SummaryBenchmark(Context context, DatabaseReference root, int numPosts) {
+        mContext = context;
+        mRoot = root.child(ROOT);
+        mFanOut = new PostFanOut(mRoot);
+        mNumPosts = numPosts;
+    }
+
+    /**
+     * Write the posts, read them both ways and return a side by side report.
+     */
+    public Task<String> run() {
+        final List<Result> results = new ArrayList<>();
+
+        return writePosts()
+                .continueWithTask(new Continuation<Void, Task<Result>>() {
+                    @Override
+                    public Task<Result> then(@NonNull Task<Void> task) {
+                        task.getResult();
+                        return measure("posts", mRoot.child("posts"));
+                    }
+                })
+                .continueWithTask(new Continuation<Result, Task<Result>>() {
+                    @Override
+                    public Task<Result> then(@NonNull Task<Result> task) {
+                        results.add(task.getResult());
+                        return measure("summaries", mRoot.child(PostFanOut.POST_SUMMARIES_PATH));
+                    }
+                })
+                .continueWithTask(new Continuation<Result, Task<Void>>() {
+                    @Override
+                    public Task<Void> then(@NonNull Task<Result> task) {
+                        results.add(task.getResult());
+                        return mRoot.removeValue();
+                    }
+                })
+                .continueWith(new Continuation<Void, String>() {
+                    @Override
+                    public String then(@NonNull Task<Void> task) {
+                        task.getResult();
+
+                        StringBuilder report = new StringBuilder(Result.HEADER);
+                        for (Result result : results) {
+                            report.append('\n').append(result);
+                        }
+                        Log.d(TAG, report.toString());
+                        return report.toString();
+                    }
+                });
+    }
+
+    private Task<Void> writePosts() {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < BODY_LENGTH) {
+            body.append("The quick brown fox jumps over the lazy dog. ");
+        }
+        body.setLength(BODY_LENGTH);
+
+        List<Task<Void>> creates = new ArrayList<>();
+        for (int i = 0; i < mNumPosts; i++) {
+            Post post = new Post(AUTHOR_UID, "Summary benchmark", "Post " + i, body.toString());
+            creates.add(mFanOut.create(mFanOut.newPostKey(), post));
+        }
+        return Tasks.whenAll(creates);
+    }
+
+    private Task<Result> measure(final String name, DatabaseReference list) {
+        final long start = System.nanoTime();
+
+        return list.get().continueWith(new Continuation<DataSnapshot, Result>() {
+            @Override
+            public Result then(@NonNull Task<DataSnapshot> task) {
+                DataSnapshot snapshot = task.getResult();
+                Result result = new Result(name);
+                result.mFetchNanos = System.nanoTime() - start;
+
+                @SuppressWarnings("unchecked")
+                Map<String, Object> value = (Map<String, Object>) snapshot.getValue();
+                if (value != null) {
+                    result.mBytes = new JSONObject(value).toString()
+                            .getBytes(StandardCharsets.UTF_8).length;
+                }
+
+                // Decode and bind every row the way PostListFragment does
+                View itemView = LayoutInflater.from(mContext)
+                        .inflate(R.layout.item_post, new FrameLayout(mContext), false);
+                PostViewHolder viewHolder = new PostViewHolder(itemView);
+                View.OnClickListener starClickListener = new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {}
+                };
+                long bindStart = System.nanoTime();
+                for (DataSnapshot child : snapshot.getChildren()) {
+                    viewHolder.bindToPost(child.getValue(Post.class), starClickListener);
+                    result.mRows++;
+                }
+                result.mBindNanos = System.nanoTime() - bindStart;
+
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Size and timings of one list.
+     */
+    static class Result {
+
+        static final String HEADER = "list          rows     bytes  bytes/row  fetchms  bindus/row";
+
+        private final String mName;
+        private int mRows;
+        private long mBytes;
+        private long mFetchNanos;
+        private long mBindNanos;
+
+        Result(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String toString() {
+            int rows = Math.max(mRows, 1);
+            return String.format(Locale.US, "%-10s %7d  %8d  %9.1f  %7.0f  %10.1f",
+                    mName,
+                    mRows,
+                    mBytes,
+                    (double) mBytes / rows,
+                    mFetchNanos / 1e6,
+                    mBindNanos / 1e3 / rows);
+        }
+    }
+}
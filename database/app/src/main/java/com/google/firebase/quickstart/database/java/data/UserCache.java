@@ -0,0 +1,166 @@
+package com.google.firebase.quickstart.database.java.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.quickstart.database.java.models.User;
+
+/**
+ * Process-wide cache of the profile of the signed-in user, so that writing a post or a comment
+ * doesn't need to read {@code /users/$uid} first.
+ *
+ * The cache is filled at sign-in with the profile written then (see {@link #start(String, User)}),
+ * kept fresh by a single long-lived listener on {@code /users/$uid} and saved to
+ * {@link SharedPreferences}, so the profile is there straight away on the next launch. Each
+ * profile served from the cache is a read saved, and the count for the session is logged.
+ *
+ * Must be used from the main thread.
+ */
+public class UserCache {
+
+    private static final String TAG = "UserCache";
+
+    private static final String PREFS_NAME = UserCache.class.getName();
+    private static final String KEY_UID = "uid";
+    private static final String KEY_USERNAME = "username";
+    private static final String KEY_EMAIL = "email";
+
+    private static UserCache sInstance;
+
+    private final DatabaseReference mUsers;
+    private final SharedPreferences mPrefs;
+
+    private String mUid;
+    private User mUser;
+
+    private DatabaseReference mUserRef;
+    private ValueEventListener mUserListener;
+
+    private int mReadsSaved;
+    private int mReads;
+
+    public static synchronized UserCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UserCache(context.getApplicationContext(),
+                    FirebaseDatabase.getInstance().getReference().child("users"));
+        }
+        return sInstance;
+    }
+
+    private UserCache(Context context, DatabaseReference users) {
+        mUsers = users;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        // Profile saved by the last run
+        mUid = mPrefs.getString(KEY_UID, null);
+        if (mUid != null) {
+            mUser = new User(mPrefs.getString(KEY_USERNAME, null),
+                    mPrefs.getString(KEY_EMAIL, null));
+        }
+    }
+
+    /**
+     * Start caching the profile of a user who has just signed in.
+     *
+     * @param user the profile of the user if it is already known, for example because it was
+     *             just written, or null to wait for the listener.
+     */
+    public void start(@NonNull String uid, @Nullable User user) {
+        if (!uid.equals(mUid)) {
+            stop();
+            mUid = uid;
+        }
+        if (user != null) {
+            put(user);
+        }
+
+        if (mUserListener == null) {
+            mUserRef = mUsers.child(uid);
+            mUserListener = new ValueEventListener() {
+                @Override
+                public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                    User user = dataSnapshot.getValue(User.class);
+                    if (user != null) {
+                        put(user);
+                    }
+                }
+
+                @Override
+                public void onCancelled(@NonNull DatabaseError databaseError) {
+                    Log.w(TAG, "loadUser:onCancelled", databaseError.toException());
+                }
+            };
+            mUserRef.addValueEventListener(mUserListener);
+        }
+    }
+
+    /**
+     * Stop caching and forget the profile, when the user signs out.
+     */
+    public void stop() {
+        if (mUserListener != null) {
+            mUserRef.removeEventListener(mUserListener);
+            mUserListener = null;
+            mUserRef = null;
+        }
+        Log.d(TAG, "stop: " + mReadsSaved + " reads saved, " + mReads + " reads made");
+
+        mUid = null;
+        mUser = null;
+        mReadsSaved = 0;
+        mReads = 0;
+        mPrefs.edit().clear().apply();
+    }
+
+    /**
+     * The profile of a user, from the cache when it is the signed-in user, otherwise read from
+     * the database.
+     */
+    public Task<User> getUser(@NonNull final String uid) {
+        if (uid.equals(mUid) && mUser != null) {
+            mReadsSaved++;
+            Log.d(TAG, "getUser: " + mReadsSaved + " reads saved this session");
+            return Tasks.forResult(mUser);
+        }
+
+        mReads++;
+        return mUsers.child(uid).get().continueWith(new Continuation<DataSnapshot, User>() {
+            @Override
+            public User then(@NonNull Task<DataSnapshot> task) {
+                User user = task.getResult().getValue(User.class);
+                if (user != null && uid.equals(mUid)) {
+                    put(user);
+                }
+                return user;
+            }
+        });
+    }
+
+    /**
+     * Number of profile reads served from the cache since the user signed in.
+     */
+    public int getReadsSaved() {
+        return mReadsSaved;
+    }
+
+    private void put(User user) {
+        mUser = user;
+        mPrefs.edit()
+                .putString(KEY_UID, mUid)
+                .putString(KEY_USERNAME, user.username)
+                .putString(KEY_EMAIL, user.email)
+                .apply();
+    }
+}
@@ -1,16 +1,17 @@
 package com.google.firebase.quickstart.database.java.listfragments;
 
 import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.Query;
+import com.google.firebase.quickstart.database.java.data.PostFanOut;
+import com.google.firebase.quickstart.database.java.data.PostFeed;
 
 public class MyPostsFragment extends PostListFragment {
 
     public MyPostsFragment() {}
 
     @Override
-    public Query getQuery(DatabaseReference databaseReference) {
-        // All my posts
-        return databaseReference.child("user-posts")
-                .child(getUid());
+    public PostFeed getFeed(DatabaseReference databaseReference) {
+        // Summaries of all my posts, most recent first
+        return PostFeed.get(databaseReference.child(PostFanOut.USER_POST_SUMMARIES_PATH)
+                .child(getUid()), null);
     }
 }
@@ -1,19 +1,18 @@
 package com.google.firebase.quickstart.database.java.listfragments;
 
 import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.Query;
+import com.google.firebase.quickstart.database.java.data.PostFanOut;
+import com.google.firebase.quickstart.database.java.data.PostFeed;
 
 public class MyTopPostsFragment extends PostListFragment {
 
     public MyTopPostsFragment() {}
 
     @Override
-    public Query getQuery(DatabaseReference databaseReference) {
-        // My top posts by number of stars
+    public PostFeed getFeed(DatabaseReference databaseReference) {
+        // Summaries of my top posts by number of stars, sorted and paged by the server
         String myUserId = getUid();
-        Query myTopPostsQuery = databaseReference.child("user-posts").child(myUserId)
-                .orderByChild("starCount");
-
-        return myTopPostsQuery;
+        return PostFeed.get(databaseReference.child(PostFanOut.USER_POST_SUMMARIES_PATH)
+                .child(myUserId), "starCount");
     }
 }
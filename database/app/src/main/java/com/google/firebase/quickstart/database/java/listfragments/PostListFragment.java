@@ -6,36 +6,52 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
 import androidx.navigation.NavController;
 import androidx.navigation.Navigation;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.firebase.ui.database.FirebaseRecyclerAdapter;
-import com.firebase.ui.database.FirebaseRecyclerOptions;
+import com.google.android.gms.tasks.OnFailureListener;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.MutableData;
-import com.google.firebase.database.Query;
-import com.google.firebase.database.Transaction;
+import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.quickstart.database.R;
 import com.google.firebase.quickstart.database.java.PostDetailFragment;
+import com.google.firebase.quickstart.database.java.data.PostFanOut;
+import com.google.firebase.quickstart.database.java.data.PostFeed;
+import com.google.firebase.quickstart.database.java.data.PostStars;
+import com.google.firebase.quickstart.database.java.data.StartupProfile;
 import com.google.firebase.quickstart.database.java.models.Post;
 import com.google.firebase.quickstart.database.java.viewholder.PostViewHolder;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public abstract class PostListFragment extends Fragment {
 
     private static final String TAG = "PostListFragment";
 
+    // Load the next page when the user scrolls this close to the end of the feed
+    private static final int PREFETCH_DISTANCE = 5;
+
     // [START define_database_reference]
     private DatabaseReference mDatabase;
     // [END define_database_reference]
 
-    private FirebaseRecyclerAdapter<Post, PostViewHolder> mAdapter;
+    private PostStars mStars;
+
+    // Keys of the posts the current user has starred
+    private final Set<String> mStarredKeys = new HashSet<>();
+    private ValueEventListener mStarredListener;
+
+    private PostFeed mFeed;
+    private PostAdapter mAdapter;
     private RecyclerView mRecycler;
     private LinearLayoutManager mManager;
 
@@ -51,6 +67,8 @@ public abstract class PostListFragment extends Fragment {
         mDatabase = FirebaseDatabase.getInstance().getReference();
         // [END create_database_reference]
 
+        mStars = new PostStars(mDatabase, new PostFanOut(mDatabase));
+
         mRecycler = rootView.findViewById(R.id.messagesList);
         mRecycler.setHasFixedSize(true);
 
@@ -61,119 +79,82 @@ public abstract class PostListFragment extends Fragment {
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
-        // Set up Layout Manager, reverse layout
+        // Set up Layout Manager, the feed is already sorted highest first
         mManager = new LinearLayoutManager(getActivity());
-        mManager.setReverseLayout(true);
-        mManager.setStackFromEnd(true);
         mRecycler.setLayoutManager(mManager);
 
-        // Set up FirebaseRecyclerAdapter with the Query
-        Query postsQuery = getQuery(mDatabase);
-
-        FirebaseRecyclerOptions options = new FirebaseRecyclerOptions.Builder<Post>()
-                .setQuery(postsQuery, Post.class)
-                .build();
-
-        mAdapter = new FirebaseRecyclerAdapter<Post, PostViewHolder>(options) {
-
-            @Override
-            public PostViewHolder onCreateViewHolder(ViewGroup viewGroup, int i) {
-                LayoutInflater inflater = LayoutInflater.from(viewGroup.getContext());
-                return new PostViewHolder(inflater.inflate(R.layout.item_post, viewGroup, false));
-            }
+        // Set up the adapter with the feed, which keeps its pages between tabs
+        mFeed = getFeed(mDatabase);
+        mAdapter = new PostAdapter();
+        mRecycler.setAdapter(mAdapter);
 
-            @Override
-            protected void onBindViewHolder(PostViewHolder viewHolder, int position, final Post model) {
-                final DatabaseReference postRef = getRef(position);
+        // Back to where the feed was last shown
+        if (mFeed.getLayoutState() != null) {
+            mManager.onRestoreInstanceState(mFeed.getLayoutState());
+        }
+    }
 
-                // Set click listener for the whole post view
-                final String postKey = postRef.getKey();
-                viewHolder.itemView.setOnClickListener(new View.OnClickListener() {
+    // [START post_stars_transaction]
+    private void onStarClicked(String postKey, Post post) {
+        // Update the star and the star count of every copy of the post in one write
+        boolean starred = !mStarredKeys.contains(postKey);
+        mStars.setStarred(postKey, post, getUid(), starred)
+                .addOnFailureListener(new OnFailureListener() {
                     @Override
-                    public void onClick(View v) {
-                        // Launch PostDetailFragment
-                        NavController navController = Navigation.findNavController(requireActivity(),
-                                R.id.nav_host_fragment);
-                        Bundle args = new Bundle();
-                        args.putString(PostDetailFragment.EXTRA_POST_KEY, postKey);
-                        navController.navigate(R.id.action_MainFragment_to_PostDetailFragment, args);
+                    public void onFailure(@NonNull Exception e) {
+                        Log.w(TAG, "setStarred:onFailure", e);
                     }
                 });
+    }
+    // [END post_stars_transaction]
 
-                // Determine if the current user has liked this post and set UI accordingly
-                if (model.stars.containsKey(getUid())) {
-                    viewHolder.starView.setImageResource(R.drawable.ic_toggle_star_24);
-                } else {
-                    viewHolder.starView.setImageResource(R.drawable.ic_toggle_star_outline_24);
+    @Override
+    public void onStart() {
+        super.onStart();
+        if (mFeed != null) {
+            mFeed.start(new PostFeed.Listener() {
+                @Override
+                public void onPostsChanged(@NonNull DiffUtil.DiffResult diff) {
+                    diff.dispatchUpdatesTo(mAdapter);
                 }
+            });
 
-                // Bind Post to ViewHolder, setting OnClickListener for the star button
-                viewHolder.bindToPost(model, new View.OnClickListener() {
-                    @Override
-                    public void onClick(View starView) {
-                        // Need to write to both places the post is stored
-                        DatabaseReference globalPostRef = mDatabase.child("posts").child(postRef.getKey());
-                        DatabaseReference userPostRef = mDatabase.child("user-posts").child(model.uid).child(postRef.getKey());
-
-                        // Run two transactions
-                        onStarClicked(globalPostRef);
-                        onStarClicked(userPostRef);
-                    }
-                });
-            }
-        };
-        mRecycler.setAdapter(mAdapter);
-    }
+            // The feed may have changed while it wasn't shown
+            mAdapter.notifyDataSetChanged();
+        }
 
-    // [START post_stars_transaction]
-    private void onStarClicked(DatabaseReference postRef) {
-        postRef.runTransaction(new Transaction.Handler() {
+        // One listener for the stars of the user, whatever the number of posts shown
+        mStarredListener = new ValueEventListener() {
             @Override
-            public Transaction.Result doTransaction(MutableData mutableData) {
-                Post p = mutableData.getValue(Post.class);
-                if (p == null) {
-                    return Transaction.success(mutableData);
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                mStarredKeys.clear();
+                for (DataSnapshot star : dataSnapshot.getChildren()) {
+                    mStarredKeys.add(star.getKey());
                 }
-
-                if (p.stars.containsKey(getUid())) {
-                    // Unstar the post and remove self from stars
-                    p.starCount = p.starCount - 1;
-                    p.stars.remove(getUid());
-                } else {
-                    // Star the post and add self to stars
-                    p.starCount = p.starCount + 1;
-                    p.stars.put(getUid(), true);
+                if (mAdapter != null) {
+                    mAdapter.notifyDataSetChanged();
                 }
-
-                // Set value and report transaction success
-                mutableData.setValue(p);
-                return Transaction.success(mutableData);
             }
 
             @Override
-            public void onComplete(DatabaseError databaseError, boolean committed,
-                                   DataSnapshot currentData) {
-                // Transaction completed
-                Log.d(TAG, "postTransaction:onComplete:" + databaseError);
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.w(TAG, "loadStars:onCancelled", databaseError.toException());
             }
-        });
-    }
-    // [END post_stars_transaction]
-
-
-    @Override
-    public void onStart() {
-        super.onStart();
-        if (mAdapter != null) {
-            mAdapter.startListening();
-        }
+        };
+        mStars.getUserStars(getUid()).addValueEventListener(mStarredListener);
     }
 
     @Override
     public void onStop() {
         super.onStop();
-        if (mAdapter != null) {
-            mAdapter.stopListening();
+        if (mFeed != null) {
+            mFeed.setLayoutState(mManager.onSaveInstanceState());
+            mFeed.stop();
+        }
+
+        if (mStarredListener != null) {
+            mStars.getUserStars(getUid()).removeEventListener(mStarredListener);
+            mStarredListener = null;
         }
     }
 
@@ -181,6 +162,61 @@ public abstract class PostListFragment extends Fragment {
         return FirebaseAuth.getInstance().getCurrentUser().getUid();
     }
 
-    public abstract Query getQuery(DatabaseReference databaseReference);
+    public abstract PostFeed getFeed(DatabaseReference databaseReference);
+
+    private class PostAdapter extends RecyclerView.Adapter<PostViewHolder> {
 
+        @NonNull
+        @Override
+        public PostViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup, int i) {
+            LayoutInflater inflater = LayoutInflater.from(viewGroup.getContext());
+            return new PostViewHolder(inflater.inflate(R.layout.item_post, viewGroup, false));
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull PostViewHolder viewHolder, int position) {
+            final String postKey = mFeed.getKey(position);
+            final Post model = mFeed.getPost(position);
+
+            // Set click listener for the whole post view
+            viewHolder.itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    // Launch PostDetailFragment
+                    NavController navController = Navigation.findNavController(requireActivity(),
+                            R.id.nav_host_fragment);
+                    Bundle args = new Bundle();
+                    args.putString(PostDetailFragment.EXTRA_POST_KEY, postKey);
+                    navController.navigate(R.id.action_MainFragment_to_PostDetailFragment, args);
+                }
+            });
+
+            // Determine if the current user has liked this post and set UI accordingly
+            if (mStarredKeys.contains(postKey)) {
+                viewHolder.starView.setImageResource(R.drawable.ic_toggle_star_24);
+            } else {
+                viewHolder.starView.setImageResource(R.drawable.ic_toggle_star_outline_24);
+            }
+
+            // Bind Post to ViewHolder, setting OnClickListener for the star button
+            viewHolder.bindToPost(model, new View.OnClickListener() {
+                @Override
+                public void onClick(View starView) {
+                    onStarClicked(postKey, model);
+                }
+            });
+
+            // Load more posts as the user scrolls down
+            if (position >= mFeed.size() - PREFETCH_DISTANCE) {
+                mFeed.loadMore();
+            }
+
+            StartupProfile.getInstance(requireContext()).onPostShown();
+        }
+
+        @Override
+        public int getItemCount() {
+            return mFeed.size();
+        }
+    }
 }
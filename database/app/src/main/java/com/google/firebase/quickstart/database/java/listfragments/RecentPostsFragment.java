@@ -1,21 +1,23 @@
 package com.google.firebase.quickstart.database.java.listfragments;
 
 import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.Query;
+import com.google.firebase.quickstart.database.java.data.PostFanOut;
+import com.google.firebase.quickstart.database.java.data.PostFeed;
 
 public class RecentPostsFragment extends PostListFragment {
 
     public RecentPostsFragment() {}
 
     @Override
-    public Query getQuery(DatabaseReference databaseReference) {
+    public PostFeed getFeed(DatabaseReference databaseReference) {
         // [START recent_posts_query]
-        // Last 100 posts, these are automatically the 100 most recent
-        // due to sorting by push() keys
-        Query recentPostsQuery = databaseReference.child("posts")
-                .limitToFirst(100);
+        // Most recent posts first: push() keys sort by time, so the feed
+        // pages back from the last keys with limitToLast(). Only the summaries
+        // are read, the full post is loaded when it is opened
+        PostFeed recentPostsFeed = PostFeed.get(
+                databaseReference.child(PostFanOut.POST_SUMMARIES_PATH), null);
         // [END recent_posts_query]
 
-        return recentPostsQuery;
+        return recentPostsFeed;
     }
 }
@@ -14,7 +14,6 @@ public class Post {
     public String title;
     public String body;
     public int starCount = 0;
-    public Map<String, Boolean> stars = new HashMap<>();
 
     public Post() {
         // Default constructor required for calls to DataSnapshot.getValue(Post.class)
@@ -35,7 +34,6 @@ public class Post {
         result.put("title", title);
         result.put("body", body);
         result.put("starCount", starCount);
-        result.put("stars", stars);
 
         return result;
     }
@@ -0,0 +1,255 @@
+package com.google.firebase.quickstart.database.java.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An ordered list of values with unique keys, such as the children of a database location in
+ * the order a {@link com.google.firebase.database.ChildEventListener} reports them.
+ *
+ * The values are held in a tree balanced by random priorities (a treap) where each node knows
+ * the size of its subtree, and a map from key to node. Finding the position of a key, reading
+ * a position and inserting, moving or removing a value all take O(log n) expected time, where
+ * a pair of array lists needs O(n) for each of them.
+ */
+public class KeyedList<T> {
+
+    private static class Node<T> {
+
+        final String key;
+        final int priority;
+        T value;
+
+        int size = 1;
+        Node<T> parent;
+        Node<T> left;
+        Node<T> right;
+
+        Node(String key, T value, int priority) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
+    private final Map<String, Node<T>> mNodes = new HashMap<>();
+    private final Random mRandom = new Random();
+    private Node<T> mRoot;
+
+    public int size() {
+        return mNodes.size();
+    }
+
+    public boolean containsKey(@NonNull String key) {
+        return mNodes.containsKey(key);
+    }
+
+    /**
+     * Position of the value with this key, or -1 if there is none.
+     */
+    public int indexOf(@Nullable String key) {
+        Node<T> node = mNodes.get(key);
+        if (node == null) {
+            return -1;
+        }
+
+        // Count the nodes before this one on the way up to the root
+        int index = size(node.left);
+        for (Node<T> n = node; n.parent != null; n = n.parent) {
+            if (n == n.parent.right) {
+                index += size(n.parent.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    public T get(int index) {
+        return nodeAt(index).value;
+    }
+
+    @NonNull
+    public String getKey(int index) {
+        return nodeAt(index).key;
+    }
+
+    /**
+     * Insert a value at a position, moving the values from that position on one place down.
+     *
+     * @throws IllegalArgumentException if the list already has a value with this key.
+     */
+    public void add(int index, @NonNull String key, T value) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        if (mNodes.containsKey(key)) {
+            throw new IllegalArgumentException("Duplicate key: " + key);
+        }
+
+        Node<T> node = new Node<>(key, value, mRandom.nextInt());
+        mNodes.put(key, node);
+        insert(index, node);
+    }
+
+    /**
+     * Replace the value at a position, keeping its key.
+     */
+    public T set(int index, T value) {
+        Node<T> node = nodeAt(index);
+        T previous = node.value;
+        node.value = value;
+        return previous;
+    }
+
+    /**
+     * Remove the value at a position.
+     */
+    public T remove(int index) {
+        Node<T> node = nodeAt(index);
+        detach(node);
+        mNodes.remove(node.key);
+        return node.value;
+    }
+
+    /**
+     * Move the value at {@code from} so that it ends up at {@code to}, as if it was removed and
+     * then inserted at {@code to}.
+     */
+    public void move(int from, int to) {
+        Node<T> node = nodeAt(from);
+        if (to < 0 || to >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + to + ", size: " + size());
+        }
+
+        detach(node);
+        node.parent = null;
+        node.left = null;
+        node.right = null;
+        node.size = 1;
+        insert(to, node);
+    }
+
+    public void clear() {
+        mNodes.clear();
+        mRoot = null;
+    }
+
+    private Node<T> nodeAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+
+        Node<T> node = mRoot;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private void insert(int index, Node<T> node) {
+        if (mRoot == null) {
+            mRoot = node;
+            return;
+        }
+
+        // Attach the node as a leaf just before the node now at index, or after the last one
+        Node<T> parent;
+        if (index == size(mRoot)) {
+            parent = mRoot;
+            while (parent.right != null) {
+                parent = parent.right;
+            }
+            parent.right = node;
+        } else {
+            Node<T> next = nodeAt(index);
+            if (next.left == null) {
+                parent = next;
+                parent.left = node;
+            } else {
+                parent = next.left;
+                while (parent.right != null) {
+                    parent = parent.right;
+                }
+                parent.right = node;
+            }
+        }
+        node.parent = parent;
+        for (Node<T> n = parent; n != null; n = n.parent) {
+            n.size++;
+        }
+
+        // Restore the heap order of the priorities
+        while (node.parent != null && node.priority > node.parent.priority) {
+            rotateUp(node);
+        }
+    }
+
+    private void detach(Node<T> node) {
+        // Rotate the node down until it has at most one child, then splice it out
+        while (node.left != null && node.right != null) {
+            rotateUp(node.left.priority > node.right.priority ? node.left : node.right);
+        }
+
+        Node<T> child = node.left != null ? node.left : node.right;
+        Node<T> parent = node.parent;
+        if (child != null) {
+            child.parent = parent;
+        }
+        if (parent == null) {
+            mRoot = child;
+        } else if (parent.left == node) {
+            parent.left = child;
+        } else {
+            parent.right = child;
+        }
+        for (Node<T> n = parent; n != null; n = n.parent) {
+            n.size--;
+        }
+    }
+
+    private void rotateUp(Node<T> node) {
+        Node<T> parent = node.parent;
+        Node<T> grandparent = parent.parent;
+
+        if (node == parent.left) {
+            parent.left = node.right;
+            if (node.right != null) {
+                node.right.parent = parent;
+            }
+            node.right = parent;
+        } else {
+            parent.right = node.left;
+            if (node.left != null) {
+                node.left.parent = parent;
+            }
+            node.left = parent;
+        }
+        parent.parent = node;
+
+        node.parent = grandparent;
+        if (grandparent == null) {
+            mRoot = node;
+        } else if (grandparent.left == parent) {
+            grandparent.left = node;
+        } else {
+            grandparent.right = node;
+        }
+
+        parent.size = 1 + size(parent.left) + size(parent.right);
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int size(@Nullable Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+}
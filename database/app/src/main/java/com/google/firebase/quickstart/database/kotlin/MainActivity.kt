@@ -7,12 +7,16 @@ import androidx.core.view.isVisible
 import androidx.navigation.findNavController
 import com.google.firebase.quickstart.database.R
 import com.google.firebase.quickstart.database.databinding.ActivityMainBinding
+import com.google.firebase.quickstart.database.kotlin.data.StartupProfile
 
 class MainActivity : AppCompatActivity() {
 
     private lateinit var binding: ActivityMainBinding
 
     override fun onCreate(savedInstanceState: Bundle?) {
+        // Set up the database before restored fragments use it
+        StartupProfile.getInstance(this)
+
         super.onCreate(savedInstanceState)
         binding = ActivityMainBinding.inflate(layoutInflater)
         setContentView(binding.root)
@@ -1,6 +1,7 @@
 package com.google.firebase.quickstart.database.kotlin
 
 import android.os.Bundle
+import android.util.Log
 import android.view.LayoutInflater
 import android.view.Menu
 import android.view.MenuInflater
@@ -14,9 +15,18 @@ import androidx.navigation.fragment.findNavController
 import androidx.viewpager2.adapter.FragmentStateAdapter
 import com.google.android.material.tabs.TabLayoutMediator
 import com.google.firebase.auth.auth
+import com.google.firebase.database.database
 import com.google.firebase.Firebase
 import com.google.firebase.quickstart.database.R
 import com.google.firebase.quickstart.database.databinding.FragmentMainBinding
+import com.google.firebase.quickstart.database.kotlin.data.FanOutChecker
+import com.google.firebase.quickstart.database.kotlin.data.PostFeed
+import com.google.firebase.quickstart.database.kotlin.data.StarBenchmark
+import com.google.firebase.quickstart.database.kotlin.data.StarReconciler
+import com.google.firebase.quickstart.database.kotlin.data.StartupProfile
+import com.google.firebase.quickstart.database.kotlin.data.SummaryBackfill
+import com.google.firebase.quickstart.database.kotlin.data.SummaryBenchmark
+import com.google.firebase.quickstart.database.kotlin.data.UserCache
 import com.google.firebase.quickstart.database.kotlin.listfragments.MyPostsFragment
 import com.google.firebase.quickstart.database.kotlin.listfragments.MyTopPostsFragment
 import com.google.firebase.quickstart.database.kotlin.listfragments.RecentPostsFragment
@@ -70,17 +80,105 @@ class MainFragment : Fragment(), MenuProvider {
     }
 
     override fun onMenuItemSelected(menuItem: MenuItem): Boolean {
-        return if (menuItem.itemId == R.id.action_logout) {
-            Firebase.auth.signOut()
-            findNavController().navigate(R.id.action_MainFragment_to_SignInFragment)
-            true
-        } else {
-            false
+        return when (menuItem.itemId) {
+            R.id.action_logout -> {
+                UserCache.getInstance(requireContext()).stop()
+                PostFeed.clearAll()
+                StartupProfile.getInstance(requireContext()).stopSyncing()
+                Firebase.auth.signOut()
+                findNavController().navigate(R.id.action_MainFragment_to_SignInFragment)
+                true
+            }
+            R.id.action_check_fan_out -> {
+                onCheckFanOutClicked()
+                true
+            }
+            R.id.action_reconcile_stars -> {
+                onReconcileStarsClicked()
+                true
+            }
+            R.id.action_star_benchmark -> {
+                onStarBenchmarkClicked()
+                true
+            }
+            R.id.action_backfill_summaries -> {
+                onBackfillSummariesClicked()
+                true
+            }
+            R.id.action_summary_benchmark -> {
+                onSummaryBenchmarkClicked()
+                true
+            }
+            else -> false
         }
     }
 
+    private fun onCheckFanOutClicked() {
+        // Write test posts and stars, then compare every copy, best run against the emulator
+        FanOutChecker(Firebase.database.reference, 20, 500).run()
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Fan-out check: " + task.result)
+                } else {
+                    Log.w(TAG, "Fan-out check failed.", task.exception)
+                }
+            }
+    }
+
+    private fun onReconcileStarsClicked() {
+        StarReconciler(Firebase.database.reference).reconcile()
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Star reconciliation: " + task.result)
+                } else {
+                    Log.w(TAG, "Star reconciliation failed.", task.exception)
+                }
+            }
+    }
+
+    private fun onStarBenchmarkClicked() {
+        // Toggle stars on a post with 1000 stars with both designs, best run against the emulator
+        StarBenchmark(Firebase.database.reference, 1000, 500, 20).run()
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Star benchmark:\n" + task.result)
+                } else {
+                    Log.w(TAG, "Star benchmark failed.", task.exception)
+                }
+            }
+    }
+
+    private fun onBackfillSummariesClicked() {
+        // Give posts written before the lists read summaries a summary
+        SummaryBackfill(Firebase.database.reference).run()
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Summary backfill: " + task.result + " written")
+                } else {
+                    Log.w(TAG, "Summary backfill failed.", task.exception)
+                }
+            }
+    }
+
+    private fun onSummaryBenchmarkClicked() {
+        // Read 10k posts in full and as summaries, best run against the emulator
+        SummaryBenchmark(requireContext(), Firebase.database.reference, 10000).run()
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Summary benchmark:\n" + task.result)
+                } else {
+                    Log.w(TAG, "Summary benchmark failed.", task.exception)
+                }
+            }
+    }
+
     override fun onDestroy() {
         super.onDestroy()
         _binding = null
     }
+
+    companion object {
+
+        private const val TAG = "MainFragment"
+    }
 }
@@ -8,17 +8,14 @@ import android.view.View
 import android.view.ViewGroup
 import android.widget.Toast
 import androidx.navigation.fragment.findNavController
-import com.google.firebase.database.DataSnapshot
-import com.google.firebase.database.DatabaseError
 import com.google.firebase.database.DatabaseReference
-import com.google.firebase.database.ValueEventListener
 import com.google.firebase.database.database
-import com.google.firebase.database.getValue
 import com.google.firebase.Firebase
 import com.google.firebase.quickstart.database.R
 import com.google.firebase.quickstart.database.databinding.FragmentNewPostBinding
+import com.google.firebase.quickstart.database.kotlin.data.PostFanOut
+import com.google.firebase.quickstart.database.kotlin.data.UserCache
 import com.google.firebase.quickstart.database.kotlin.models.Post
-import com.google.firebase.quickstart.database.kotlin.models.User
 
 class NewPostFragment : BaseFragment() {
     private var _binding: FragmentNewPostBinding? = null
@@ -59,36 +56,35 @@ class NewPostFragment : BaseFragment() {
         setEditingEnabled(false)
         Toast.makeText(context, "Posting...", Toast.LENGTH_SHORT).show()
 
+        // The author's profile comes from the cache, so posting needs no extra read
         val userId = uid
-        database.child("users").child(userId).addListenerForSingleValueEvent(
-            object : ValueEventListener {
-                override fun onDataChange(dataSnapshot: DataSnapshot) {
-                    // Get user value
-                    val user = dataSnapshot.getValue<User>()
-
-                    if (user == null) {
-                        // User is null, error out
-                        Log.e(TAG, "User $userId is unexpectedly null")
-                        Toast.makeText(
-                            context,
-                            "Error: could not fetch user.",
-                            Toast.LENGTH_SHORT,
-                        ).show()
-                    } else {
-                        // Write new post
-                        writeNewPost(userId, user.username.toString(), title, body)
-                    }
-
+        UserCache.getInstance(requireContext()).getUser(userId)
+            .addOnCompleteListener { task ->
+                if (!task.isSuccessful) {
+                    Log.w(TAG, "getUser:onFailure", task.exception)
                     setEditingEnabled(true)
-                    findNavController().navigate(R.id.action_NewPostFragment_to_MainFragment)
+                    return@addOnCompleteListener
                 }
 
-                override fun onCancelled(databaseError: DatabaseError) {
-                    Log.w(TAG, "getUser:onCancelled", databaseError.toException())
-                    setEditingEnabled(true)
+                // Get user value
+                val user = task.result
+
+                if (user == null) {
+                    // User is null, error out
+                    Log.e(TAG, "User $userId is unexpectedly null")
+                    Toast.makeText(
+                        context,
+                        "Error: could not fetch user.",
+                        Toast.LENGTH_SHORT,
+                    ).show()
+                } else {
+                    // Write new post
+                    writeNewPost(userId, user.username.toString(), title, body)
                 }
-            },
-        )
+
+                setEditingEnabled(true)
+                findNavController().navigate(R.id.action_NewPostFragment_to_MainFragment)
+            }
     }
 
     private fun setEditingEnabled(enabled: Boolean) {
@@ -106,21 +102,16 @@ class NewPostFragment : BaseFragment() {
     private fun writeNewPost(userId: String, username: String, title: String, body: String) {
         // Create new post at /user-posts/$userid/$postid and at
         // /posts/$postid simultaneously
-        val key = database.child("posts").push().key
+        val fanOut = PostFanOut(database)
+        val key = fanOut.newPostKey()
         if (key == null) {
             Log.w(TAG, "Couldn't get push key for posts")
             return
         }
 
         val post = Post(userId, username, title, body)
-        val postValues = post.toMap()
-
-        val childUpdates = hashMapOf<String, Any>(
-            "/posts/$key" to postValues,
-            "/user-posts/$userId/$key" to postValues,
-        )
 
-        database.updateChildren(childUpdates)
+        fanOut.create(key, post)
     }
 
     override fun onDestroy() {
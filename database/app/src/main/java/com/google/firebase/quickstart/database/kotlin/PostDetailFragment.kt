@@ -3,25 +3,31 @@ package com.google.firebase.quickstart.database.kotlin
 import android.content.Context
 import android.os.Bundle
 import android.util.Log
+import android.view.Choreographer
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.widget.Toast
+import androidx.recyclerview.widget.AdapterListUpdateCallback
+import androidx.recyclerview.widget.BatchingListUpdateCallback
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.google.firebase.database.ChildEventListener
 import com.google.firebase.database.DataSnapshot
 import com.google.firebase.database.DatabaseError
 import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.Query
 import com.google.firebase.database.ValueEventListener
 import com.google.firebase.database.database
 import com.google.firebase.database.getValue
 import com.google.firebase.Firebase
 import com.google.firebase.quickstart.database.R
 import com.google.firebase.quickstart.database.databinding.FragmentPostDetailBinding
+import com.google.firebase.quickstart.database.kotlin.data.UserCache
 import com.google.firebase.quickstart.database.kotlin.models.Comment
 import com.google.firebase.quickstart.database.kotlin.models.Post
 import com.google.firebase.quickstart.database.kotlin.models.User
+import com.google.firebase.quickstart.database.kotlin.util.KeyedList
 import com.google.firebase.quickstart.database.kotlin.viewholder.CommentViewHolder
 import java.lang.IllegalArgumentException
 import java.util.ArrayList
@@ -113,40 +119,84 @@ class PostDetailFragment : BaseFragment() {
     }
 
     private fun postComment() {
+        // The author's profile comes from the cache, so commenting needs no extra read
         val uid = uid
-        Firebase.database.reference.child("users").child(uid)
-            .addListenerForSingleValueEvent(object : ValueEventListener {
-                override fun onDataChange(dataSnapshot: DataSnapshot) {
-                    // Get user information
-                    val user = dataSnapshot.getValue<User>() ?: return
-
-                    val authorName = user.username
+        UserCache.getInstance(requireContext()).getUser(uid)
+            .addOnSuccessListener { user ->
+                // Get user information
+                if (user == null) {
+                    return@addOnSuccessListener
+                }
 
-                    // Create new comment object
-                    val commentText = binding.fieldCommentText.text.toString()
-                    val comment = Comment(uid, authorName, commentText)
+                val authorName = user.username
 
-                    // Push the comment, it will appear in the list
-                    commentsReference.push().setValue(comment)
+                // Create new comment object
+                val commentText = binding.fieldCommentText.text.toString()
+                val comment = Comment(uid, authorName, commentText)
 
-                    // Clear the field
-                    binding.fieldCommentText.text = null
-                }
+                // Push the comment, it will appear in the list
+                commentsReference.push().setValue(comment)
 
-                override fun onCancelled(databaseError: DatabaseError) {
-                }
-            })
+                // Clear the field
+                binding.fieldCommentText.text = null
+            }
     }
 
+    /**
+     * Comments of a post, oldest first, loaded as a sliding window so that memory stays flat
+     * however long the thread is.
+     *
+     * Only the newest page has a live listener, on `limitToLast(PAGE_SIZE)`. Older pages are
+     * fetched once with [Query.get] as the user scrolls up, using the oldest comment loaded as an
+     * `endBefore` cursor, and are not updated afterwards. At most [MAX_PAGES] pages are held at a
+     * time: pages that scroll out of the window are dropped and fetched again if the user scrolls
+     * back to them. The newest page keeps its listener while it is out of the window.
+     *
+     * The first time an older page is needed, the newest page is pinned to its oldest comment by
+     * moving its listener to `startAt(anchor)`. New comments then join the newest page instead
+     * of pushing its oldest comments into the gap before the older pages.
+     */
     private class CommentAdapter(
         private val context: Context,
         private val databaseReference: DatabaseReference,
     ) : RecyclerView.Adapter<CommentViewHolder>() {
 
-        private val childEventListener: ChildEventListener?
+        private var childEventListener: ChildEventListener?
+
+        // The newest page, keyed by comment id, and the query it listens to
+        private val live = KeyedList<Comment>()
+        private var liveQuery: Query? = null
+        private var liveLoaded = false
+        private var showLive = true
+
+        // Oldest comment of the newest page once it is pinned, older pages end before it
+        private var anchor: String? = null
+
+        // Older pages in the window, oldest first, above the newest page. None of them are empty.
+        private val pages = ArrayList<Page>()
+        private var olderCount = 0
+        private var startReached = false
+        private var loading = false
+
+        // Child events received since the last frame, applied together before the next layout
+        private val pendingChanges = ArrayList<PendingChange>()
+        private val applyChanges = Choreographer.FrameCallback { applyPendingChanges() }
+        private val updateCallback = BatchingListUpdateCallback(AdapterListUpdateCallback(this))
+
+        private var recyclerView: RecyclerView? = null
+
+        // Also called with dx = dy = 0 when a layout changes the visible range
+        private val scrollListener = object : RecyclerView.OnScrollListener() {
+            override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                onVisibleRangeChanged()
+            }
+        }
 
-        private val commentIds = ArrayList<String>()
-        private val comments = ArrayList<Comment>()
+        /**
+         * Number of pages held in memory, including the newest page when it is in the window.
+         */
+        private val windowPageCount: Int
+            get() = pages.size + if (showLive) 1 else 0
 
         init {
 
@@ -156,12 +206,7 @@ class PostDetailFragment : BaseFragment() {
                     Log.d(TAG, "onChildAdded:" + dataSnapshot.key!!)
 
                     // A new comment has been added, add it to the displayed list
-                    val comment = dataSnapshot.getValue<Comment>()
-
-                    // Update RecyclerView
-                    commentIds.add(dataSnapshot.key!!)
-                    comments.add(comment!!)
-                    notifyItemInserted(comments.size - 1)
+                    addPendingChange(ChangeType.ADDED, dataSnapshot, previousChildName)
                 }
 
                 override fun onChildChanged(dataSnapshot: DataSnapshot, previousChildName: String?) {
@@ -169,19 +214,7 @@ class PostDetailFragment : BaseFragment() {
 
                     // A comment has changed, use the key to determine if we are displaying this
                     // comment and if so displayed the changed comment.
-                    val newComment = dataSnapshot.getValue<Comment>()
-                    val commentKey = dataSnapshot.key
-
-                    val commentIndex = commentIds.indexOf(commentKey)
-                    if (commentIndex > -1 && newComment != null) {
-                        // Replace with the new data
-                        comments[commentIndex] = newComment
-
-                        // Update the RecyclerView
-                        notifyItemChanged(commentIndex)
-                    } else {
-                        Log.w(TAG, "onChildChanged:unknown_child: $commentKey")
-                    }
+                    addPendingChange(ChangeType.CHANGED, dataSnapshot, previousChildName)
                 }
 
                 override fun onChildRemoved(dataSnapshot: DataSnapshot) {
@@ -189,19 +222,7 @@ class PostDetailFragment : BaseFragment() {
 
                     // A comment has changed, use the key to determine if we are displaying this
                     // comment and if so remove it.
-                    val commentKey = dataSnapshot.key
-
-                    val commentIndex = commentIds.indexOf(commentKey)
-                    if (commentIndex > -1) {
-                        // Remove data from the list
-                        commentIds.removeAt(commentIndex)
-                        comments.removeAt(commentIndex)
-
-                        // Update the RecyclerView
-                        notifyItemRemoved(commentIndex)
-                    } else {
-                        Log.w(TAG, "onChildRemoved:unknown_child:" + commentKey!!)
-                    }
+                    addPendingChange(ChangeType.REMOVED, dataSnapshot, null)
                 }
 
                 override fun onChildMoved(dataSnapshot: DataSnapshot, previousChildName: String?) {
@@ -209,10 +230,7 @@ class PostDetailFragment : BaseFragment() {
 
                     // A comment has changed position, use the key to determine if we are
                     // displaying this comment and if so move it.
-                    val movedComment = dataSnapshot.getValue<Comment>()
-                    val commentKey = dataSnapshot.key
-
-                    // ...
+                    addPendingChange(ChangeType.MOVED, dataSnapshot, previousChildName)
                 }
 
                 override fun onCancelled(databaseError: DatabaseError) {
@@ -224,10 +242,242 @@ class PostDetailFragment : BaseFragment() {
                     ).show()
                 }
             }
-            databaseReference.addChildEventListener(childEventListener)
 
             // Store reference to listener so it can be removed on app stop
             this.childEventListener = childEventListener
+            listenToLive()
+        }
+
+        override fun onAttachedToRecyclerView(recyclerView: RecyclerView) {
+            super.onAttachedToRecyclerView(recyclerView)
+            this.recyclerView = recyclerView
+            recyclerView.addOnScrollListener(scrollListener)
+        }
+
+        override fun onDetachedFromRecyclerView(recyclerView: RecyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView)
+            recyclerView.removeOnScrollListener(scrollListener)
+            this.recyclerView = null
+        }
+
+        private fun listenToLive() {
+            val listener = childEventListener ?: return
+            liveQuery?.removeEventListener(listener)
+
+            // Comments already in the newest page are reported again and applied as changes
+            val query = anchor?.let { databaseReference.orderByKey().startAt(it) }
+                ?: databaseReference.orderByKey().limitToLast(PAGE_SIZE)
+            query.addChildEventListener(listener)
+            liveQuery = query
+        }
+
+        private fun addPendingChange(
+            type: ChangeType,
+            dataSnapshot: DataSnapshot,
+            previousChildName: String?,
+        ) {
+            if (pendingChanges.isEmpty()) {
+                // Frame callbacks run before layout, so the RecyclerView never sees the
+                // comments out of step with the notifications
+                Choreographer.getInstance().postFrameCallback(applyChanges)
+            }
+            val comment = dataSnapshot.getValue<Comment>()
+            pendingChanges.add(PendingChange(type, dataSnapshot.key!!, previousChildName, comment))
+        }
+
+        private fun applyPendingChanges() {
+            for (change in pendingChanges) {
+                val index = live.indexOf(change.key)
+                var type = change.type
+                if (type == ChangeType.ADDED && index != -1) {
+                    // Reported again after the listener moved to another query
+                    type = ChangeType.CHANGED
+                } else if (type != ChangeType.ADDED && index == -1) {
+                    Log.w(TAG, "applyPendingChanges:unknown_child:" + change.key)
+                    continue
+                }
+                val comment = change.comment ?: Comment()
+
+                when (type) {
+                    ChangeType.ADDED -> {
+                        val insertAt = getIndexAfter(change.previousChildName)
+                        live.add(insertAt, change.key, comment)
+                        notifyLiveInserted(insertAt, 1)
+                    }
+                    ChangeType.CHANGED -> {
+                        // Replace with the new data
+                        live[index] = comment
+                        notifyLiveChanged(index)
+                    }
+                    ChangeType.REMOVED -> {
+                        live.removeAt(index)
+                        notifyLiveRemoved(index, 1)
+                    }
+                    ChangeType.MOVED -> {
+                        // The previous child is looked up with the comment still in place, so
+                        // it is one position further if it comes after the comment
+                        var moveTo = getIndexAfter(change.previousChildName)
+                        if (moveTo > index) {
+                            moveTo--
+                        }
+                        live[index] = comment
+                        if (moveTo != index) {
+                            live.move(index, moveTo)
+                            if (showLive) {
+                                updateCallback.onMoved(olderCount + index, olderCount + moveTo)
+                            }
+                        }
+                        notifyLiveChanged(moveTo)
+                    }
+                }
+            }
+            pendingChanges.clear()
+            liveLoaded = true
+
+            // Update the RecyclerView with consecutive changes merged into ranges
+            updateCallback.dispatchLastEvent()
+        }
+
+        /**
+         * Position in the newest page just after a comment, or the first position if it is null
+         * or unknown.
+         */
+        private fun getIndexAfter(previousChildName: String?): Int {
+            return if (previousChildName == null) 0 else live.indexOf(previousChildName) + 1
+        }
+
+        private fun notifyLiveInserted(index: Int, count: Int) {
+            if (showLive) {
+                updateCallback.onInserted(olderCount + index, count)
+            }
+        }
+
+        private fun notifyLiveChanged(index: Int) {
+            if (showLive) {
+                updateCallback.onChanged(olderCount + index, 1, null)
+            }
+        }
+
+        private fun notifyLiveRemoved(index: Int, count: Int) {
+            if (showLive) {
+                updateCallback.onRemoved(olderCount + index, count)
+            }
+        }
+
+        private fun onVisibleRangeChanged() {
+            if (!liveLoaded || loading || childEventListener == null) {
+                return
+            }
+
+            val manager = recyclerView?.layoutManager as? LinearLayoutManager
+            val first = maxOf(manager?.findFirstVisibleItemPosition() ?: 0, 0)
+            val last = maxOf(manager?.findLastVisibleItemPosition() ?: 0, 0)
+
+            if (!startReached && first <= PREFETCH_DISTANCE) {
+                loadOlder()
+            } else if (!showLive && last >= itemCount - 1 - PREFETCH_DISTANCE) {
+                loadNewer()
+            }
+        }
+
+        private fun loadOlder() {
+            if (anchor == null) {
+                if (live.size < PAGE_SIZE) {
+                    // Every comment fits in the newest page
+                    startReached = true
+                    return
+                }
+
+                // Pin the newest page before loading anything before it
+                anchor = live.getKey(0)
+                listenToLive()
+            }
+
+            val cursor = pages.firstOrNull()?.firstKey ?: anchor!!
+            Log.d(TAG, "loadOlder:$windowPageCount")
+            load(databaseReference.orderByKey().endBefore(cursor).limitToLast(PAGE_SIZE), true)
+        }
+
+        private fun loadNewer() {
+            // The newest page is only out of the window while there are older pages in it
+            val anchor = anchor ?: return
+            val cursor = pages.last().lastKey
+            Log.d(TAG, "loadNewer:$windowPageCount")
+            load(
+                databaseReference.orderByKey().startAfter(cursor).endBefore(anchor)
+                    .limitToFirst(PAGE_SIZE),
+                false,
+            )
+        }
+
+        private fun load(pageQuery: Query, older: Boolean) {
+            loading = true
+
+            pageQuery.get()
+                .addOnSuccessListener { dataSnapshot ->
+                    if (childEventListener == null) {
+                        // Stopped while loading
+                        return@addOnSuccessListener
+                    }
+                    loading = false
+
+                    val page = Page(dataSnapshot)
+                    if (older) {
+                        onOlderLoaded(page)
+                    } else {
+                        onNewerLoaded(page)
+                    }
+                    updateCallback.dispatchLastEvent()
+                }
+                .addOnFailureListener { e ->
+                    // Tried again on the next scroll
+                    loading = false
+                    Log.w(TAG, "loadComments:onFailure", e)
+                }
+        }
+
+        private fun onOlderLoaded(page: Page) {
+            if (page.size < PAGE_SIZE) {
+                startReached = true
+            }
+            if (page.size > 0) {
+                pages.add(0, page)
+                olderCount += page.size
+                updateCallback.onInserted(0, page.size)
+            }
+
+            // Drop the newest pages of the window
+            while (windowPageCount > MAX_PAGES) {
+                if (showLive) {
+                    notifyLiveRemoved(0, live.size)
+                    showLive = false
+                } else {
+                    val evicted = pages.removeAt(pages.size - 1)
+                    olderCount -= evicted.size
+                    updateCallback.onRemoved(olderCount, evicted.size)
+                }
+            }
+        }
+
+        private fun onNewerLoaded(page: Page) {
+            if (page.size > 0) {
+                pages.add(page)
+                updateCallback.onInserted(olderCount, page.size)
+                olderCount += page.size
+            }
+            if (page.size < PAGE_SIZE) {
+                // Reached the newest page
+                showLive = true
+                notifyLiveInserted(0, live.size)
+            }
+
+            // Drop the oldest pages of the window
+            while (windowPageCount > MAX_PAGES) {
+                val evicted = pages.removeAt(0)
+                olderCount -= evicted.size
+                updateCallback.onRemoved(0, evicted.size)
+                startReached = false
+            }
         }
 
         override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): CommentViewHolder {
@@ -237,18 +487,69 @@ class PostDetailFragment : BaseFragment() {
         }
 
         override fun onBindViewHolder(holder: CommentViewHolder, position: Int) {
-            holder.bind(comments[position])
+            holder.bind(getComment(position))
         }
 
-        override fun getItemCount(): Int = comments.size
+        override fun getItemCount(): Int = olderCount + if (showLive) live.size else 0
+
+        private fun getComment(position: Int): Comment {
+            var i = position
+            for (page in pages) {
+                if (i < page.size) {
+                    return page.comments[i]
+                }
+                i -= page.size
+            }
+            return live[i]
+        }
 
         fun cleanupListener() {
             childEventListener?.let {
-                databaseReference.removeEventListener(it)
+                liveQuery?.removeEventListener(it)
             }
+            childEventListener = null
+            Choreographer.getInstance().removeFrameCallback(applyChanges)
+            pendingChanges.clear()
+        }
+
+        companion object {
+
+            private const val PAGE_SIZE = 25
+            private const val MAX_PAGES = 5
+            private const val PREFETCH_DISTANCE = 10
         }
     }
 
+    /**
+     * Comments fetched once for a page of [CommentAdapter], oldest first.
+     */
+    private class Page(dataSnapshot: DataSnapshot) {
+
+        val keys = dataSnapshot.children.map { it.key!! }
+        val comments = dataSnapshot.children.map { it.getValue<Comment>() ?: Comment() }
+
+        val size: Int
+            get() = keys.size
+
+        val firstKey: String
+            get() = keys.first()
+
+        val lastKey: String
+            get() = keys.last()
+    }
+
+    private enum class ChangeType { ADDED, CHANGED, REMOVED, MOVED }
+
+    /**
+     * A child event waiting to be applied to a [CommentAdapter].
+     */
+    private class PendingChange(
+        val type: ChangeType,
+        val key: String,
+        val previousChildName: String?,
+        val comment: Comment?,
+    )
+
     override fun onDestroy() {
         super.onDestroy()
         _binding = null
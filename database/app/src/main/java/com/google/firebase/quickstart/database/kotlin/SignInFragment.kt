@@ -16,6 +16,8 @@ import com.google.firebase.database.database
 import com.google.firebase.Firebase
 import com.google.firebase.quickstart.database.R
 import com.google.firebase.quickstart.database.databinding.FragmentSignInBinding
+import com.google.firebase.quickstart.database.kotlin.data.StartupProfile
+import com.google.firebase.quickstart.database.kotlin.data.UserCache
 import com.google.firebase.quickstart.database.kotlin.models.User
 
 class SignInFragment : BaseFragment() {
@@ -111,8 +113,10 @@ class SignInFragment : BaseFragment() {
     private fun onAuthSuccess(user: FirebaseUser) {
         val username = usernameFromEmail(user.email!!)
 
-        // Write new user
-        writeNewUser(user.uid, username, user.email)
+        // Write new user, and cache it so posts and comments don't need to read it back
+        val newUser = writeNewUser(user.uid, username, user.email)
+        UserCache.getInstance(requireContext()).start(user.uid, newUser)
+        StartupProfile.getInstance(requireContext()).keepSynced(user.uid)
 
         // Go to MainFragment
         findNavController().navigate(R.id.action_SignInFragment_to_MainFragment)
@@ -145,9 +149,10 @@ class SignInFragment : BaseFragment() {
         return result
     }
 
-    private fun writeNewUser(userId: String, name: String, email: String?) {
+    private fun writeNewUser(userId: String, name: String, email: String?): User {
         val user = User(name, email)
         database.child("users").child(userId).setValue(user)
+        return user
     }
 
     override fun onDestroy() {
@@ -0,0 +1,193 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.Tasks
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.getValue
+import com.google.firebase.quickstart.database.kotlin.models.Post
+import java.util.Locale
+import java.util.Random
+
+/**
+ * Checks that the copies of every post written by [PostFanOut] agree with each other.
+ *
+ * [run] first writes a set of test posts and a burst of star toggles from synthetic users, then
+ * reads the whole database and reports posts with a missing or different copy, star counts that
+ * don't match the stars in [PostStars], copies left without a post and test posts whose stars are
+ * not the ones that were toggled. The test posts and their stars are deleted at the end.
+ *
+ * Intended to be run against the Realtime Database emulator, see the README.
+ */
+class FanOutChecker(
+    private val root: DatabaseReference,
+    private val numPosts: Int,
+    private val numToggles: Int,
+) {
+
+    private val fanOut = PostFanOut(root)
+    private val postStars = PostStars(root, fanOut)
+    private val random = Random()
+
+    /**
+     * Write the test posts and stars, then check the whole database.
+     */
+    fun run(): Task<Result> {
+        val keys = ArrayList<String>()
+        val posts = ArrayList<Post>()
+        val creates = ArrayList<Task<Void>>()
+        for (i in 0 until numPosts) {
+            val key = fanOut.newPostKey() ?: continue
+            val post = Post(AUTHOR_UID, "Fan-out checker", "Post $i", "Checking copies")
+            keys.add(key)
+            posts.add(post)
+            creates.add(fanOut.create(key, post))
+        }
+
+        // Expected stars of the test posts, as "postIndex/uid"
+        val stars = HashSet<String>()
+
+        return Tasks.whenAll(creates)
+            .continueWithTask { task ->
+                // Surface a failed create
+                task.result
+
+                val toggles = List(numToggles) {
+                    val index = random.nextInt(posts.size)
+                    val uid = "user-${random.nextInt(NUM_USERS)}"
+
+                    val star = "$index/$uid"
+                    val starred = !stars.remove(star)
+                    if (starred) {
+                        stars.add(star)
+                    }
+                    postStars.setStarred(keys[index], posts[index], uid, starred)
+                }
+                Tasks.whenAll(toggles)
+            }
+            .continueWithTask { task ->
+                task.result
+                root.get()
+            }
+            .continueWithTask { task ->
+                val snapshot = task.result
+                val result = check(snapshot)
+
+                // The test posts must have exactly the stars that were toggled on
+                for ((i, key) in keys.withIndex()) {
+                    val postStars = snapshot.child(PostStars.POST_STARS).child(key)
+                    for (u in 0 until NUM_USERS) {
+                        val uid = "user-$u"
+                        val expected = "$i/$uid" in stars
+                        if (postStars.child(uid).exists() != expected) {
+                            result.unexpectedStars++
+                        }
+                    }
+                }
+
+                Log.d(TAG, result.toString())
+                deletePosts(keys, posts).continueWith { deleted ->
+                    deleted.result
+                    result
+                }
+            }
+    }
+
+    /**
+     * Delete every copy of the test posts and their stars.
+     */
+    private fun deletePosts(keys: List<String>, posts: List<Post>): Task<Void> {
+        val updates = HashMap<String, Any?>()
+        for ((i, key) in keys.withIndex()) {
+            for (location in fanOut.locations) {
+                updates[location.getPath(key, posts[i])] = null
+            }
+            updates["${PostStars.POST_STARS}/$key"] = null
+            for (u in 0 until NUM_USERS) {
+                updates["${PostStars.USER_STARS}/user-$u/$key"] = null
+            }
+        }
+        return root.updateChildren(updates)
+    }
+
+    /**
+     * Check every post in a snapshot of the database root.
+     */
+    fun check(root: DataSnapshot): Result {
+        val result = Result()
+
+        val allPosts = root.child("posts")
+        for (snapshot in allPosts.children) {
+            val post = snapshot.getValue<Post>() ?: continue
+            result.posts++
+
+            val numStars = root.child(PostStars.POST_STARS).child(snapshot.key!!).childrenCount
+            if (post.starCount.toLong() != numStars) {
+                result.wrongStarCounts++
+            }
+
+            for (location in fanOut.locations) {
+                val copy = root.child(location.getPath(snapshot.key!!, post))
+                if (!copy.exists()) {
+                    result.missingCopies++
+                } else if (location.getValues(post.toMap()) != copy.getValue<Post>()?.toMap()) {
+                    result.differentCopies++
+                }
+            }
+        }
+
+        // Copies of posts that no longer exist
+        val copies = root.child(PostFanOut.POST_SUMMARIES_PATH).children +
+            listOf("user-posts", PostFanOut.USER_POST_SUMMARIES_PATH).flatMap { path ->
+                root.child(path).children.flatMap { it.children }
+            }
+        for (copy in copies) {
+            if (!allPosts.hasChild(copy.key!!)) {
+                result.orphanedCopies++
+            }
+        }
+
+        return result
+    }
+
+    /**
+     * Number of posts checked and of each kind of inconsistency found.
+     */
+    class Result {
+
+        internal var posts = 0
+        internal var missingCopies = 0
+        internal var differentCopies = 0
+        internal var wrongStarCounts = 0
+        internal var orphanedCopies = 0
+        internal var unexpectedStars = 0
+
+        val isConsistent: Boolean
+            get() = missingCopies == 0 && differentCopies == 0 && wrongStarCounts == 0 &&
+                orphanedCopies == 0 && unexpectedStars == 0
+
+        override fun toString(): String {
+            return String.format(
+                Locale.US,
+                "%s: %d posts, %d missing copies, %d different copies, " +
+                    "%d wrong star counts, %d orphaned copies, %d unexpected stars",
+                if (isConsistent) "consistent" else "INCONSISTENT",
+                posts,
+                missingCopies,
+                differentCopies,
+                wrongStarCounts,
+                orphanedCopies,
+                unexpectedStars,
+            )
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "FanOutChecker"
+
+        private const val AUTHOR_UID = "fan-out-checker"
+        private const val NUM_USERS = 20
+    }
+}
@@ -0,0 +1,140 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import com.google.android.gms.tasks.Task
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.quickstart.database.kotlin.models.Post
+
+/**
+ * Writes to every copy of a post at once.
+ *
+ * A post is denormalized to several locations, such as `/posts/$key` and
+ * `/user-posts/$uid/$key`. The locations are declared once, and every create and edit becomes
+ * a single multi-path [DatabaseReference.updateChildren] that either updates all of the copies
+ * or none of them. [PostStars] uses the same updates for star counts.
+ *
+ * A location can also store a projection of the post instead of a full copy, such as the
+ * summaries read by the post lists, which cut the body to [SUMMARY_BODY_LENGTH].
+ */
+class PostFanOut(
+    private val root: DatabaseReference,
+    val locations: List<Location> =
+        listOf(POSTS, USER_POSTS, POST_SUMMARIES, USER_POST_SUMMARIES),
+) {
+
+    /**
+     * A place where a copy of every post is stored.
+     */
+    fun interface Location {
+
+        /**
+         * Path of the copy of the post with this key, relative to the database root.
+         */
+        fun getPath(postKey: String, post: Post): String
+
+        /**
+         * The values stored at this location for some values of a post, either all of them or
+         * only the fields being changed. A full copy stores them as they are.
+         */
+        fun getValues(postValues: Map<String, Any?>): Map<String, Any?> = postValues
+    }
+
+    /**
+     * Generate the key of a new post.
+     */
+    fun newPostKey(): String? {
+        return root.child("posts").push().key
+    }
+
+    /**
+     * Write a new post to all of its locations.
+     */
+    fun create(postKey: String, post: Post): Task<Void> {
+        val postValues = post.toMap()
+
+        val updates = locations.associate {
+            it.getPath(postKey, post) to it.getValues(postValues)
+        }
+        return root.updateChildren(updates)
+    }
+
+    /**
+     * Change some fields, such as the title or body, of every copy of a post.
+     */
+    fun edit(postKey: String, post: Post, fields: Map<String, Any?>): Task<Void> {
+        return root.updateChildren(getFieldUpdates(postKey, post, fields))
+    }
+
+    /**
+     * The updates that set fields of every copy of a post, to be combined with other updates
+     * in a single [DatabaseReference.updateChildren].
+     */
+    fun getFieldUpdates(
+        postKey: String,
+        post: Post,
+        fields: Map<String, Any?>,
+    ): MutableMap<String, Any?> {
+        val updates = HashMap<String, Any?>()
+        for (location in locations) {
+            val path = location.getPath(postKey, post)
+            for ((field, value) in location.getValues(fields)) {
+                updates["$path/$field"] = value
+            }
+        }
+        return updates
+    }
+
+    companion object {
+
+        /** `/posts/$key`, the copy every post has. */
+        val POSTS = Location { postKey, _ -> "posts/$postKey" }
+
+        /** `/user-posts/$uid/$key`, the posts of each author. */
+        val USER_POSTS = Location { postKey, post -> "user-posts/${post.uid}/$postKey" }
+
+        /** Root of the summaries of every post, read by the recent posts list. */
+        const val POST_SUMMARIES_PATH = "post-summaries"
+
+        /** Root of the summaries of the posts of each author, read by the lists of my posts. */
+        const val USER_POST_SUMMARIES_PATH = "user-post-summaries"
+
+        /** Number of characters of the body kept in a summary. */
+        const val SUMMARY_BODY_LENGTH = 140
+
+        // Fields of a post kept in its summaries
+        private val SUMMARY_FIELDS = listOf("uid", "author", "title", "body", "starCount")
+
+        /** `/post-summaries/$key`, what the post lists show of every post. */
+        val POST_SUMMARIES = object : Location {
+            override fun getPath(postKey: String, post: Post) = "$POST_SUMMARIES_PATH/$postKey"
+
+            override fun getValues(postValues: Map<String, Any?>) = summarize(postValues)
+        }
+
+        /** `/user-post-summaries/$uid/$key`, what the post lists show of each author's posts. */
+        val USER_POST_SUMMARIES = object : Location {
+            override fun getPath(postKey: String, post: Post) =
+                "$USER_POST_SUMMARIES_PATH/${post.uid}/$postKey"
+
+            override fun getValues(postValues: Map<String, Any?>) = summarize(postValues)
+        }
+
+        /**
+         * The fields of a post kept in its summaries, with the body cut to
+         * [SUMMARY_BODY_LENGTH].
+         */
+        private fun summarize(postValues: Map<String, Any?>): Map<String, Any?> {
+            val summary = postValues.filterKeys { it in SUMMARY_FIELDS }.toMutableMap()
+
+            val body = summary["body"]
+            if (body is String && body.length > SUMMARY_BODY_LENGTH) {
+                // Don't split a surrogate pair
+                var end = SUMMARY_BODY_LENGTH
+                if (Character.isHighSurrogate(body[end - 1])) {
+                    end--
+                }
+                summary["body"] = body.substring(0, end) + "\u2026"
+            }
+            return summary
+        }
+    }
+}
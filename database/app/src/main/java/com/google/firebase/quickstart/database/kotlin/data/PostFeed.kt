@@ -0,0 +1,282 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import android.os.Handler
+import android.os.Looper
+import android.os.Parcelable
+import android.util.Log
+import androidx.recyclerview.widget.DiffUtil
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseError
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.Query
+import com.google.firebase.database.ValueEventListener
+import com.google.firebase.database.getValue
+import com.google.firebase.quickstart.database.kotlin.models.Post
+
+/**
+ * A feed of posts sorted highest first, such as the most recent posts or the most starred posts
+ * of a user, loaded a page at a time as the user scrolls.
+ *
+ * The first page listens live to `limitToLast(PAGE_SIZE)` of the feed. More posts are fetched
+ * once with [Query.get], using the lowest post loaded as an `endBefore` cursor, and are not
+ * updated afterwards. The first time more posts are needed the live listener is pinned to
+ * `startAt` its lowest post, so new posts join the first page instead of pushing posts into the
+ * gap before the next ones. A post that drops below the pinned first page, for example when it
+ * loses a star, is fetched again and moved among the posts after it.
+ *
+ * Feeds are kept for the life of the process with their pages and scroll position, so a list
+ * that shows a feed again, for example after switching tabs, starts where it was without
+ * downloading the pages again. The live listener stays attached for a grace period after the
+ * list stops.
+ *
+ * Must be used from the main thread.
+ */
+class PostFeed private constructor(ref: DatabaseReference, private val orderByChild: String?) {
+
+    /**
+     * Told when the posts of the feed change.
+     */
+    fun interface Listener {
+
+        /**
+         * @param diff the changes since the last call, to dispatch to an adapter.
+         */
+        fun onPostsChanged(diff: DiffUtil.DiffResult)
+    }
+
+    private val query: Query = if (orderByChild != null) {
+        ref.orderByChild(orderByChild)
+    } else {
+        ref.orderByKey()
+    }
+    private val handler = Handler(Looper.getMainLooper())
+
+    // The first page, highest first, and the query it listens to
+    private var head = listOf<Item>()
+    private var headQuery: Query? = null
+    private var headLoaded = false
+
+    // Lowest post of the first page once it is pinned
+    private var anchor: Item? = null
+
+    // Posts fetched after the first page, highest first
+    private val more = ArrayList<Item>()
+    private var endReached = false
+    private var loading = false
+
+    // The posts shown, the first page followed by the others
+    private var items = listOf<Item>()
+
+    private var listener: Listener? = null
+
+    /**
+     * Scroll position saved by the last list that showed the feed.
+     */
+    var layoutState: Parcelable? = null
+
+    private val headListener = object : ValueEventListener {
+        override fun onDataChange(dataSnapshot: DataSnapshot) {
+            val newHead = dataSnapshot.children.map { Item(it, orderByChild) }.reversed()
+
+            // Posts that left the pinned first page dropped below it or were deleted
+            if (anchor != null) {
+                val keys = newHead.mapTo(HashSet()) { it.key }
+                head.filter { it.key !in keys }.forEach { fetchDropped(it.key) }
+            }
+
+            head = newHead
+            headLoaded = true
+            onItemsChanged()
+        }
+
+        override fun onCancelled(databaseError: DatabaseError) {
+            Log.w(TAG, "loadFeed:onCancelled", databaseError.toException())
+        }
+    }
+
+    private val detachRunnable = Runnable { detach() }
+
+    val size: Int
+        get() = items.size
+
+    fun getKey(position: Int): String = items[position].key
+
+    fun getPost(position: Int): Post = items[position].post
+
+    /**
+     * Start listening to the first page, telling a listener about changes until [stop].
+     */
+    fun start(listener: Listener) {
+        this.listener = listener
+        handler.removeCallbacks(detachRunnable)
+        if (headQuery == null) {
+            listenToHead()
+        }
+    }
+
+    /**
+     * Stop telling the listener about changes. The first page keeps listening for a grace
+     * period in case the feed is shown again.
+     */
+    fun stop() {
+        listener = null
+        handler.postDelayed(detachRunnable, GRACE_PERIOD_MS)
+    }
+
+    /**
+     * Fetch the next page, unless one is already loading or every post has been loaded.
+     */
+    fun loadMore() {
+        if (!headLoaded || loading || endReached) {
+            return
+        }
+
+        if (anchor == null) {
+            if (head.size < PAGE_SIZE) {
+                // Every post fits in the first page
+                endReached = true
+                return
+            }
+
+            // Pin the first page before loading anything after it
+            anchor = head.last()
+            listenToHead()
+        }
+
+        val cursor = more.lastOrNull() ?: anchor!!
+        Log.d(TAG, "loadMore:${items.size}")
+        loading = true
+        endBefore(cursor).limitToLast(PAGE_SIZE).get()
+            .addOnSuccessListener { dataSnapshot ->
+                loading = false
+
+                val page = dataSnapshot.children.map { Item(it, orderByChild) }.reversed()
+                if (page.size < PAGE_SIZE) {
+                    endReached = true
+                }
+                more.addAll(page)
+                onItemsChanged()
+            }
+            .addOnFailureListener { e ->
+                // Tried again on the next scroll
+                loading = false
+                Log.w(TAG, "loadMore:onFailure", e)
+            }
+    }
+
+    private fun fetchDropped(key: String) {
+        query.ref.child(key).get()
+            .addOnSuccessListener { dataSnapshot ->
+                if (head.any { it.key == key }) {
+                    // Back in the first page
+                    return@addOnSuccessListener
+                }
+
+                more.removeAll { it.key == key }
+                if (dataSnapshot.exists()) {
+                    val dropped = Item(dataSnapshot, orderByChild)
+                    var index = 0
+                    while (index < more.size && ITEM_ORDER.compare(dropped, more[index]) < 0) {
+                        index++
+                    }
+
+                    // Past the last page loaded the next page brings it
+                    if (index < more.size || endReached) {
+                        more.add(index, dropped)
+                    }
+                }
+                onItemsChanged()
+            }
+            .addOnFailureListener { e -> Log.w(TAG, "fetchDropped:onFailure", e) }
+    }
+
+    private fun listenToHead() {
+        headQuery?.removeEventListener(headListener)
+
+        headQuery = (anchor?.let { startAt(it) } ?: query.limitToLast(PAGE_SIZE)).also {
+            it.addValueEventListener(headListener)
+        }
+    }
+
+    private fun detach() {
+        headQuery?.removeEventListener(headListener)
+        headQuery = null
+    }
+
+    private fun startAt(item: Item): Query = when {
+        orderByChild == null -> query.startAt(item.key)
+        item.sortValue != null -> query.startAt(item.sortValue, item.key)
+        else -> query.startAt(null, item.key)
+    }
+
+    private fun endBefore(item: Item): Query = when {
+        orderByChild == null -> query.endBefore(item.key)
+        item.sortValue != null -> query.endBefore(item.sortValue, item.key)
+        else -> query.endBefore(null, item.key)
+    }
+
+    private fun onItemsChanged() {
+        // A post that moved into the first page is only shown there
+        val keys = head.mapTo(HashSet()) { it.key }
+        val newItems = head + more.filter { keys.add(it.key) }
+
+        val oldItems = items
+        val diff = DiffUtil.calculateDiff(object : DiffUtil.Callback() {
+            override fun getOldListSize() = oldItems.size
+
+            override fun getNewListSize() = newItems.size
+
+            override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int) =
+                oldItems[oldItemPosition].key == newItems[newItemPosition].key
+
+            override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int) =
+                oldItems[oldItemPosition].post == newItems[newItemPosition].post
+        })
+
+        items = newItems
+        listener?.onPostsChanged(diff)
+    }
+
+    /**
+     * A post of the feed with its key and sort value, used as a cursor.
+     */
+    private class Item(snapshot: DataSnapshot, orderByChild: String?) {
+        val key: String = snapshot.key!!
+        val post: Post = snapshot.getValue<Post>() ?: Post()
+        val sortValue: Double? = orderByChild?.let { snapshot.child(it).getValue<Double>() }
+    }
+
+    companion object {
+
+        private const val TAG = "PostFeed"
+
+        const val PAGE_SIZE = 20
+        private const val GRACE_PERIOD_MS = 30000L
+
+        // The order of the query, lowest first, with posts without a sort value first
+        private val ITEM_ORDER = compareBy<Item, Double?>(nullsFirst<Double>()) { it.sortValue }
+            .thenBy { it.key }
+
+        // Keyed by location and sort order
+        private val feeds = HashMap<String, PostFeed>()
+
+        /**
+         * The feed of the posts at a location, sorted by a child of the posts or, if it is
+         * null, by key so that the most recent posts come first.
+         */
+        fun get(ref: DatabaseReference, orderByChild: String?): PostFeed {
+            return feeds.getOrPut("$ref?orderBy=$orderByChild") { PostFeed(ref, orderByChild) }
+        }
+
+        /**
+         * Drop every feed, when the user signs out.
+         */
+        fun clearAll() {
+            for (feed in feeds.values) {
+                feed.handler.removeCallbacks(feed.detachRunnable)
+                feed.detach()
+            }
+            feeds.clear()
+        }
+    }
+}
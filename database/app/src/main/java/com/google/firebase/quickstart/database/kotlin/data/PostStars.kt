@@ -0,0 +1,62 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import com.google.android.gms.tasks.Task
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.ServerValue
+import com.google.firebase.quickstart.database.kotlin.models.Post
+
+/**
+ * Stars of posts, kept out of the post itself.
+ *
+ * A star is stored twice: at `/post-stars/$postKey/$uid`, the stars of a post, and at
+ * `/user-stars/$uid/$postKey`, the posts a user has starred, which lists can listen to with a
+ * single listener. The `starCount` of every copy of the post is changed with
+ * [ServerValue.increment] in the same multi-path update, so a toggle writes a few small values
+ * whatever the number of stars, never retries under contention and can be queued offline.
+ *
+ * The security rules only accept a change of `starCount` by one together with the star of the
+ * writing user changing the same way, so starring a post twice, from a stale list or from two
+ * devices, is rejected rather than counted twice. [StarReconciler] repairs counts written before
+ * the rules were deployed.
+ */
+class PostStars(
+    private val root: DatabaseReference,
+    private val fanOut: PostFanOut,
+) {
+
+    /**
+     * The posts a user has starred, keyed by post key.
+     */
+    fun getUserStars(uid: String): DatabaseReference {
+        return root.child(USER_STARS).child(uid)
+    }
+
+    /**
+     * The users who have starred a post, keyed by uid.
+     */
+    fun getPostStars(postKey: String): DatabaseReference {
+        return root.child(POST_STARS).child(postKey)
+    }
+
+    /**
+     * Star or unstar a post for a user, in one atomic write that also works offline. The caller
+     * must only change the state of a star, for example based on [getUserStars]: the security
+     * rules reject a toggle that doesn't change the star.
+     */
+    fun setStarred(postKey: String, post: Post, uid: String, starred: Boolean): Task<Void> {
+        val increment = ServerValue.increment(if (starred) 1L else -1L)
+        val updates = fanOut.getFieldUpdates(postKey, post, mapOf("starCount" to increment))
+
+        val star = if (starred) true else null
+        updates["$POST_STARS/$postKey/$uid"] = star
+        updates["$USER_STARS/$uid/$postKey"] = star
+
+        return root.updateChildren(updates)
+    }
+
+    companion object {
+
+        const val POST_STARS = "post-stars"
+        const val USER_STARS = "user-stars"
+    }
+}
@@ -0,0 +1,272 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.TaskCompletionSource
+import com.google.android.gms.tasks.Tasks
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseError
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.MutableData
+import com.google.firebase.database.Transaction
+import com.google.firebase.database.getValue
+import com.google.firebase.quickstart.database.kotlin.models.Post
+import java.util.Locale
+import java.util.Random
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.ceil
+
+/**
+ * Benchmark of star toggles on a post that already has many stars, first with the old design,
+ * a transaction on each copy of the post with the stars stored in it, and then with
+ * [PostStars]. Reports toggles per second, latency and transaction retries for both. The posts
+ * and their stars are deleted at the end.
+ *
+ * Intended to be run against the Realtime Database emulator, see the README.
+ *
+ * @param numStars stars the post has before the toggles start.
+ */
+class StarBenchmark(
+    private val root: DatabaseReference,
+    private val numStars: Int,
+    private val numToggles: Int,
+    private val concurrency: Int,
+) {
+
+    private val fanOut = PostFanOut(root)
+    private val postStars = PostStars(root, fanOut)
+    private val random = Random()
+
+    // Keys of the posts written by the benchmark
+    private val postKeys = ArrayList<String>()
+
+    /**
+     * Run both designs against new posts and return a side by side report.
+     */
+    fun run(): Task<String> {
+        val results = ArrayList<Result>()
+
+        return runTransactions()
+            .continueWithTask { task ->
+                results.add(task.result)
+                runPostStars()
+            }
+            .continueWithTask { task ->
+                results.add(task.result)
+                deletePosts()
+            }
+            .continueWith { task ->
+                task.result
+
+                val report = (listOf(Result.HEADER) + results.map { it.toString() })
+                    .joinToString("\n")
+                Log.d(TAG, report)
+                report
+            }
+    }
+
+    private fun runTransactions(): Task<Result> {
+        val postKey = fanOut.newPostKey()!!
+        val post = newPost()
+        postKeys.add(postKey)
+
+        // Stars stored in each copy of the post, as before
+        val stars = (0 until numStars).associate { "existing-$it" to true }
+        val values = post.toMap() + ("stars" to stars)
+
+        val paths = fanOut.locations.map { it.getPath(postKey, post) }
+        val updates = paths.associateWith { values }
+
+        return root.updateChildren(updates)
+            .continueWithTask { task ->
+                task.result
+                val result = Result("transaction")
+                runToggles(result) { uid, _ ->
+                    // One transaction on each copy, as PostListFragment used to do
+                    Tasks.whenAll(paths.map { runTransaction(root.child(it), uid, result) })
+                }
+            }
+    }
+
+    private fun runPostStars(): Task<Result> {
+        val postKey = fanOut.newPostKey()!!
+        val post = newPost().apply { starCount = numStars }
+        postKeys.add(postKey)
+
+        val updates = HashMap<String, Any?>()
+        val postValues = post.toMap()
+        for (location in fanOut.locations) {
+            updates[location.getPath(postKey, post)] = location.getValues(postValues)
+        }
+        for (i in 0 until numStars) {
+            updates["${PostStars.POST_STARS}/$postKey/existing-$i"] = true
+        }
+
+        return root.updateChildren(updates)
+            .continueWithTask { task ->
+                task.result
+                runToggles(Result("post-stars")) { uid, starred ->
+                    postStars.setStarred(postKey, post, uid, starred)
+                }
+            }
+    }
+
+    /**
+     * Delete every copy of the posts written by the benchmark and their stars.
+     */
+    private fun deletePosts(): Task<Void> {
+        val post = newPost()
+        val updates = HashMap<String, Any?>()
+        for (postKey in postKeys) {
+            for (location in fanOut.locations) {
+                updates[location.getPath(postKey, post)] = null
+            }
+            updates["${PostStars.POST_STARS}/$postKey"] = null
+            for (u in 0 until NUM_USERS) {
+                updates["${PostStars.USER_STARS}/user-$u/$postKey"] = null
+            }
+        }
+        return root.updateChildren(updates)
+    }
+
+    private fun newPost() = Post(AUTHOR_UID, "Star benchmark", "Star benchmark", "Toggling stars")
+
+    private fun runToggles(
+        result: Result,
+        toggle: (uid: String, starred: Boolean) -> Task<Void>,
+    ): Task<Result> {
+        val source = TaskCompletionSource<Result>()
+        val starred = HashSet<String>()
+        var started = 0
+        val start = System.nanoTime()
+
+        // Keep up to concurrency toggles in flight until all of them have completed
+        fun next() {
+            if (started++ >= numToggles) {
+                return
+            }
+
+            val toggleStart = System.nanoTime()
+            val uid = "user-${random.nextInt(NUM_USERS)}"
+            val star = !starred.remove(uid)
+            if (star) {
+                starred.add(uid)
+            }
+
+            toggle(uid, star).addOnCompleteListener { task ->
+                result.onToggleComplete(task.isSuccessful, System.nanoTime() - toggleStart)
+                if (result.latenciesNanos.size + result.failures == numToggles) {
+                    result.elapsedNanos = System.nanoTime() - start
+                    source.setResult(result)
+                } else {
+                    next()
+                }
+            }
+        }
+
+        repeat(minOf(concurrency, numToggles)) { next() }
+
+        return source.task
+    }
+
+    private fun runTransaction(copy: DatabaseReference, uid: String, result: Result): Task<Void> {
+        val source = TaskCompletionSource<Void>()
+        val attempts = AtomicInteger()
+
+        copy.runTransaction(object : Transaction.Handler {
+            override fun doTransaction(mutableData: MutableData): Transaction.Result {
+                // A first run without the post in the local cache only fetches it from the
+                // server, so it is not counted. Every run after one that saw the post is a retry.
+                if (mutableData.value == null) {
+                    return Transaction.success(mutableData)
+                }
+                if (attempts.getAndIncrement() > 0) {
+                    result.retries.incrementAndGet()
+                }
+
+                val star = mutableData.child("stars").child(uid)
+                val starCount = mutableData.child("starCount")
+                val current = starCount.getValue<Long>() ?: 0
+                if (star.value != null) {
+                    star.value = null
+                    starCount.value = current - 1
+                } else {
+                    star.value = true
+                    starCount.value = current + 1
+                }
+                return Transaction.success(mutableData)
+            }
+
+            override fun onComplete(
+                error: DatabaseError?,
+                committed: Boolean,
+                currentData: DataSnapshot?,
+            ) {
+                if (error != null) {
+                    source.setException(error.toException())
+                } else {
+                    source.setResult(null)
+                }
+            }
+        })
+
+        return source.task
+    }
+
+    /**
+     * Latency and retry counts for one design.
+     */
+    internal class Result(private val name: String) {
+
+        val latenciesNanos = ArrayList<Long>()
+        val retries = AtomicInteger()
+        var failures = 0
+        var elapsedNanos = 0L
+
+        fun onToggleComplete(success: Boolean, latencyNanos: Long) {
+            if (success) {
+                latenciesNanos.add(latencyNanos)
+            } else {
+                failures++
+            }
+        }
+
+        private fun percentileMillis(sorted: List<Long>, percentile: Double): Double {
+            if (sorted.isEmpty()) {
+                return 0.0
+            }
+            val index = ceil(percentile * sorted.size).toInt() - 1
+            return sorted[maxOf(index, 0)] / 1e6
+        }
+
+        override fun toString(): String {
+            val sorted = latenciesNanos.sorted()
+
+            return String.format(
+                Locale.US,
+                "%-12s %7d  %6d  %7d  %5.0f  %5.0f  %5.0f  %9.1f",
+                name,
+                sorted.size,
+                failures,
+                retries.get(),
+                percentileMillis(sorted, 0.5),
+                percentileMillis(sorted, 0.95),
+                percentileMillis(sorted, 1.0),
+                sorted.size / (elapsedNanos / 1e9),
+            )
+        }
+
+        companion object {
+
+            const val HEADER = "design       toggles  failed  retries  p50ms  p95ms  maxms  toggles/s"
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "StarBenchmark"
+
+        private const val AUTHOR_UID = "star-benchmark"
+        private const val NUM_USERS = 100
+    }
+}
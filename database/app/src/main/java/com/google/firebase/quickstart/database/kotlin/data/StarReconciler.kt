@@ -0,0 +1,135 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.Tasks
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.ServerValue
+import com.google.firebase.database.getValue
+import com.google.firebase.quickstart.database.kotlin.models.Post
+import java.util.Locale
+
+/**
+ * Repairs the `starCount` of posts so that it matches their stars in `/post-stars`.
+ *
+ * The count of every copy of a post is compared with the number of stars and moved by the
+ * difference with [ServerValue.increment], so stars toggled while the job runs are not
+ * overwritten. A toggle that lands between the two reads can still leave a count off by one,
+ * running the job again while the posts are quiet fixes it.
+ *
+ * Posts written before stars moved out of the post still have a `stars` map. Those stars are
+ * moved to [PostStars] and the map is removed from every copy.
+ */
+class StarReconciler(private val root: DatabaseReference) {
+
+    private val fanOut = PostFanOut(root)
+    private val postStars = PostStars(root, fanOut)
+
+    /**
+     * Reconcile every post.
+     */
+    fun reconcile(): Task<Result> {
+        val result = Result()
+
+        return root.child("posts").get()
+            .continueWithTask { task ->
+                val repairs = task.result.children.mapNotNull { snapshot ->
+                    snapshot.getValue<Post>()?.let { post ->
+                        reconcile(snapshot.key!!, post, snapshot.child("stars"), result)
+                    }
+                }
+                Tasks.whenAll(repairs)
+            }
+            .continueWith { task ->
+                // Surface a failed repair
+                task.result
+
+                Log.d(TAG, result.toString())
+                result
+            }
+    }
+
+    private fun reconcile(
+        postKey: String,
+        post: Post,
+        legacyStars: DataSnapshot,
+        result: Result,
+    ): Task<Void> {
+        result.posts++
+
+        val paths = fanOut.locations.map { it.getPath(postKey, post) }
+        val reads = listOf(postStars.getPostStars(postKey).get()) +
+            paths.map { root.child(it).get() }
+
+        return Tasks.whenAllSuccess<DataSnapshot>(reads)
+            .continueWithTask { task ->
+                val snapshots = task.result
+                val updates = HashMap<String, Any?>()
+
+                val stars = snapshots[0].children.mapNotNullTo(HashSet()) { it.key }
+
+                // Move stars left in the post by older versions of the app
+                for (star in legacyStars.children) {
+                    val uid = star.key ?: continue
+                    if (stars.add(uid)) {
+                        updates["${PostStars.POST_STARS}/$postKey/$uid"] = true
+                        updates["${PostStars.USER_STARS}/$uid/$postKey"] = true
+                        result.migratedStars++
+                    }
+                }
+                if (legacyStars.exists()) {
+                    for (path in paths) {
+                        updates["$path/stars"] = null
+                    }
+                }
+
+                for ((i, path) in paths.withIndex()) {
+                    // Missing copies are left to FanOutChecker to report
+                    val copy = snapshots[i + 1]
+                    if (!copy.exists()) {
+                        continue
+                    }
+
+                    val stored = copy.child("starCount").getValue<Long>() ?: 0
+                    val delta = stars.size - stored
+                    if (delta != 0L) {
+                        updates["$path/starCount"] = ServerValue.increment(delta)
+                        result.repairedCopies++
+                    }
+                }
+
+                if (updates.isEmpty()) {
+                    Tasks.forResult<Void>(null)
+                } else {
+                    root.updateChildren(updates)
+                }
+            }
+    }
+
+    /**
+     * Number of posts checked and of repairs made.
+     */
+    class Result {
+
+        internal var posts = 0
+        var repairedCopies = 0
+            internal set
+        internal var migratedStars = 0
+
+        override fun toString(): String {
+            return String.format(
+                Locale.US,
+                "%d posts, %d star counts repaired, %d stars migrated",
+                posts,
+                repairedCopies,
+                migratedStars,
+            )
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "StarReconciler"
+    }
+}
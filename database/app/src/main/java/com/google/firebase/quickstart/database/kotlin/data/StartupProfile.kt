@@ -0,0 +1,133 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import android.content.Context
+import android.os.Build
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+import com.google.firebase.Firebase
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseError
+import com.google.firebase.database.DatabaseException
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.ValueEventListener
+import com.google.firebase.database.database
+import com.google.firebase.database.getValue
+import com.google.firebase.quickstart.database.R
+
+/**
+ * How the database is set up when the app starts, so that a cold start shows the posts from
+ * the last run straight away instead of empty lists until the network answers.
+ *
+ * Disk persistence is turned on with a cache of `R.integer.database_cache_size_mb`, and the
+ * nodes of the signed-in user, `/users/$uid` and `/user-post-summaries/$uid`, are kept synced
+ * so they are in the cache even when no list is listening to them. Listeners get the cached
+ * data first and the server's once it connects.
+ *
+ * The time from the start of the process to the first post shown, and whether the database
+ * had connected by then, is logged once per process.
+ *
+ * Must be created before anything else uses the database, and used from the main thread.
+ */
+class StartupProfile private constructor(context: Context) {
+
+    // Measure from the start of the process when the platform knows it
+    private val startMillis = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+        Process.getStartUptimeMillis()
+    } else {
+        SystemClock.uptimeMillis()
+    }
+
+    private val root: DatabaseReference
+
+    private var syncedUid: String? = null
+
+    private var connectedMillis = -1L
+    private var firstPostShown = false
+
+    init {
+        val database = Firebase.database
+        val cacheSizeBytes =
+            context.resources.getInteger(R.integer.database_cache_size_mb) * 1024L * 1024L
+        try {
+            database.setPersistenceCacheSizeBytes(cacheSizeBytes)
+            database.setPersistenceEnabled(true)
+        } catch (e: DatabaseException) {
+            // The database was already used in this process, by the other MainActivity
+            Log.w(TAG, "setPersistenceEnabled:failure", e)
+        }
+        root = database.reference
+
+        // Note when the database first connects, to tell cached posts from fresh ones
+        val connectedRef = database.getReference(".info/connected")
+        connectedRef.addValueEventListener(object : ValueEventListener {
+            override fun onDataChange(dataSnapshot: DataSnapshot) {
+                if (dataSnapshot.getValue<Boolean>() == true) {
+                    connectedMillis = SystemClock.uptimeMillis() - startMillis
+                    Log.d(TAG, "Connected $connectedMillis ms after start")
+                    connectedRef.removeEventListener(this)
+                }
+            }
+
+            override fun onCancelled(databaseError: DatabaseError) {
+                Log.w(TAG, "loadConnected:onCancelled", databaseError.toException())
+            }
+        })
+    }
+
+    /**
+     * Keep the nodes of a user who has signed in synced, replacing those of the last user.
+     */
+    fun keepSynced(uid: String) {
+        if (uid == syncedUid) {
+            return
+        }
+        stopSyncing()
+
+        syncedUid = uid
+        setSynced(uid, true)
+    }
+
+    /**
+     * Stop keeping the nodes of the user synced, when the user signs out.
+     */
+    fun stopSyncing() {
+        syncedUid?.let { setSynced(it, false) }
+        syncedUid = null
+    }
+
+    /**
+     * Tell the profile a post was shown, to log the time to the first one.
+     */
+    fun onPostShown() {
+        if (firstPostShown) {
+            return
+        }
+        firstPostShown = true
+
+        val millis = SystemClock.uptimeMillis() - startMillis
+        val source = if (connectedMillis >= 0) {
+            "after connecting"
+        } else {
+            "from the cache, before connecting"
+        }
+        Log.d(TAG, "First post shown $millis ms after start, $source")
+    }
+
+    private fun setSynced(uid: String, synced: Boolean) {
+        root.child("users").child(uid).keepSynced(synced)
+        root.child(PostFanOut.USER_POST_SUMMARIES_PATH).child(uid).keepSynced(synced)
+    }
+
+    companion object {
+
+        private const val TAG = "StartupProfile"
+
+        private var instance: StartupProfile? = null
+
+        @Synchronized
+        fun getInstance(context: Context): StartupProfile {
+            return instance ?: StartupProfile(context.applicationContext).also { instance = it }
+        }
+    }
+}
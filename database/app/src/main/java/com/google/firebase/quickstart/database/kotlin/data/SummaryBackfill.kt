@@ -0,0 +1,84 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.Tasks
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.getValue
+import com.google.firebase.quickstart.database.kotlin.models.Post
+
+/**
+ * Writes the missing summaries of posts created before the post lists read summaries, so that
+ * those posts show up in the lists again.
+ *
+ * Summaries are made from the copy in `/posts`, including its star count. Summaries that
+ * already exist are left alone so star counts moved while the job runs are not overwritten.
+ * The summaries are written in batches of multi-path updates.
+ */
+class SummaryBackfill(private val root: DatabaseReference) {
+
+    /**
+     * Write the missing summaries of every post.
+     *
+     * @return the number of summaries written.
+     */
+    fun run(): Task<Int> {
+        val locations = listOf(PostFanOut.POST_SUMMARIES, PostFanOut.USER_POST_SUMMARIES)
+        var written = 0
+
+        return Tasks.whenAllSuccess<DataSnapshot>(
+            root.child("posts").get(),
+            root.child(PostFanOut.POST_SUMMARIES_PATH).get(),
+            root.child(PostFanOut.USER_POST_SUMMARIES_PATH).get(),
+        )
+            .continueWithTask { task ->
+                val (posts, summaries, userSummaries) = task.result
+
+                // Both kinds of summary are read relative to the root
+                val roots = mapOf(
+                    PostFanOut.POST_SUMMARIES_PATH to summaries,
+                    PostFanOut.USER_POST_SUMMARIES_PATH to userSummaries,
+                )
+
+                val batches = ArrayList<Task<Void>>()
+                var updates = HashMap<String, Any?>()
+                for (snapshot in posts.children) {
+                    val post = snapshot.getValue<Post>() ?: continue
+
+                    for (location in locations) {
+                        val path = location.getPath(snapshot.key!!, post)
+                        val summaryRoot = path.substringBefore('/')
+                        if (roots.getValue(summaryRoot).hasChild(path.substringAfter('/'))) {
+                            continue
+                        }
+
+                        updates[path] = location.getValues(post.toMap())
+                        written++
+                        if (updates.size == BATCH_SIZE) {
+                            batches.add(root.updateChildren(updates))
+                            updates = HashMap()
+                        }
+                    }
+                }
+                if (updates.isNotEmpty()) {
+                    batches.add(root.updateChildren(updates))
+                }
+                Tasks.whenAll(batches)
+            }
+            .continueWith { task ->
+                // Surface a failed batch
+                task.result
+
+                Log.d(TAG, "$written summaries written")
+                written
+            }
+    }
+
+    companion object {
+
+        private const val TAG = "SummaryBackfill"
+
+        private const val BATCH_SIZE = 500
+    }
+}
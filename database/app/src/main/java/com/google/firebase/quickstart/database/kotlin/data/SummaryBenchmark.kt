@@ -0,0 +1,144 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import android.content.Context
+import android.util.Log
+import android.view.LayoutInflater
+import android.widget.FrameLayout
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.Tasks
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.getValue
+import com.google.firebase.quickstart.database.R
+import com.google.firebase.quickstart.database.kotlin.models.Post
+import com.google.firebase.quickstart.database.kotlin.viewholder.PostViewHolder
+import org.json.JSONObject
+import java.util.Locale
+
+/**
+ * Benchmark of a post list reading full posts against reading the summaries written by
+ * [PostFanOut], on a list of many posts with long bodies. Reports the bytes read, the time to
+ * fetch the list and the time to decode and bind each row to a [PostViewHolder].
+ *
+ * The bytes are the size of the list as JSON, which is close to what the server sends. The
+ * posts are written under `/summary-benchmark`, with the same layout as the root, and removed
+ * at the end.
+ *
+ * Intended to be run against the Realtime Database emulator, see the README.
+ */
+class SummaryBenchmark(
+    private val context: Context,
+    root: DatabaseReference,
+    private val numPosts: Int,
+) {
+
+    private val root = root.child(ROOT)
+    private val fanOut = PostFanOut(this.root)
+
+    /**
+     * Write the posts, read them both ways and return a side by side report.
+     */
+    fun run(): Task<String> {
+        val results = ArrayList<Result>()
+
+        return writePosts()
+            .continueWithTask { task ->
+                task.result
+                measure("posts", root.child("posts"))
+            }
+            .continueWithTask { task ->
+                results.add(task.result)
+                measure("summaries", root.child(PostFanOut.POST_SUMMARIES_PATH))
+            }
+            .continueWithTask { task ->
+                results.add(task.result)
+                root.removeValue()
+            }
+            .continueWith { task ->
+                task.result
+
+                val report = (listOf(Result.HEADER) + results.map { it.toString() })
+                    .joinToString("\n")
+                Log.d(TAG, report)
+                report
+            }
+    }
+
+    private fun writePosts(): Task<Void> {
+        val sentence = "The quick brown fox jumps over the lazy dog. "
+        val body = sentence.repeat(BODY_LENGTH / sentence.length + 1).take(BODY_LENGTH)
+
+        val creates = (0 until numPosts).map { i ->
+            val post = Post(AUTHOR_UID, "Summary benchmark", "Post $i", body)
+            fanOut.create(fanOut.newPostKey()!!, post)
+        }
+        return Tasks.whenAll(creates)
+    }
+
+    private fun measure(name: String, list: DatabaseReference): Task<Result> {
+        val start = System.nanoTime()
+
+        return list.get().continueWith { task ->
+            val snapshot = task.result
+            val result = Result(name)
+            result.fetchNanos = System.nanoTime() - start
+
+            @Suppress("UNCHECKED_CAST")
+            val value = snapshot.value as Map<String, Any?>?
+            if (value != null) {
+                result.bytes = JSONObject(value).toString().toByteArray().size.toLong()
+            }
+
+            // Decode and bind every row the way PostListFragment does
+            val itemView = LayoutInflater.from(context)
+                .inflate(R.layout.item_post, FrameLayout(context), false)
+            val viewHolder = PostViewHolder(itemView)
+            val bindStart = System.nanoTime()
+            for (child in snapshot.children) {
+                viewHolder.bindToPost(child.getValue<Post>()!!) {}
+                result.rows++
+            }
+            result.bindNanos = System.nanoTime() - bindStart
+
+            result
+        }
+    }
+
+    /**
+     * Size and timings of one list.
+     */
+    class Result(private val name: String) {
+
+        var rows = 0
+        var bytes = 0L
+        var fetchNanos = 0L
+        var bindNanos = 0L
+
+        override fun toString(): String {
+            val rows = maxOf(rows, 1)
+            return String.format(
+                Locale.US,
+                "%-10s %7d  %8d  %9.1f  %7.0f  %10.1f",
+                name,
+                this.rows,
+                bytes,
+                bytes.toDouble() / rows,
+                fetchNanos / 1e6,
+                bindNanos / 1e3 / rows,
+            )
+        }
+
+        companion object {
+
+            const val HEADER = "list          rows     bytes  bytes/row  fetchms  bindus/row"
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "SummaryBenchmark"
+
+        private const val ROOT = "summary-benchmark"
+        private const val AUTHOR_UID = "summary-benchmark"
+        private const val BODY_LENGTH = 1000
+    }
+}
@@ -0,0 +1,147 @@
+package com.google.firebase.quickstart.database.kotlin.data
+
+import android.content.Context
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.Tasks
+import com.google.firebase.Firebase
+import com.google.firebase.database.DataSnapshot
+import com.google.firebase.database.DatabaseError
+import com.google.firebase.database.DatabaseReference
+import com.google.firebase.database.ValueEventListener
+import com.google.firebase.database.database
+import com.google.firebase.database.getValue
+import com.google.firebase.quickstart.database.kotlin.models.User
+
+/**
+ * Process-wide cache of the profile of the signed-in user, so that writing a post or a comment
+ * doesn't need to read `/users/$uid` first.
+ *
+ * The cache is filled at sign-in with the profile written then (see [start]), kept fresh by a
+ * single long-lived listener on `/users/$uid` and saved to
+ * [android.content.SharedPreferences], so the profile is there straight away on the next
+ * launch. Each profile served from the cache is a read saved, and the count for the session is
+ * logged.
+ *
+ * Must be used from the main thread.
+ */
+class UserCache private constructor(context: Context, private val users: DatabaseReference) {
+
+    private val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    private var uid: String? = null
+    private var user: User? = null
+
+    private var userRef: DatabaseReference? = null
+    private var userListener: ValueEventListener? = null
+
+    /**
+     * Number of profile reads served from the cache since the user signed in.
+     */
+    var readsSaved = 0
+        private set
+    private var reads = 0
+
+    init {
+        // Profile saved by the last run
+        uid = prefs.getString(KEY_UID, null)
+        if (uid != null) {
+            user = User(prefs.getString(KEY_USERNAME, null), prefs.getString(KEY_EMAIL, null))
+        }
+    }
+
+    /**
+     * Start caching the profile of a user who has just signed in.
+     *
+     * @param user the profile of the user if it is already known, for example because it was
+     *             just written, or null to wait for the listener.
+     */
+    fun start(uid: String, user: User?) {
+        if (uid != this.uid) {
+            stop()
+            this.uid = uid
+        }
+        user?.let { put(it) }
+
+        if (userListener == null) {
+            val listener = object : ValueEventListener {
+                override fun onDataChange(dataSnapshot: DataSnapshot) {
+                    dataSnapshot.getValue<User>()?.let { put(it) }
+                }
+
+                override fun onCancelled(databaseError: DatabaseError) {
+                    Log.w(TAG, "loadUser:onCancelled", databaseError.toException())
+                }
+            }
+            userRef = users.child(uid).also { it.addValueEventListener(listener) }
+            userListener = listener
+        }
+    }
+
+    /**
+     * Stop caching and forget the profile, when the user signs out.
+     */
+    fun stop() {
+        userListener?.let { userRef?.removeEventListener(it) }
+        userListener = null
+        userRef = null
+        Log.d(TAG, "stop: $readsSaved reads saved, $reads reads made")
+
+        uid = null
+        user = null
+        readsSaved = 0
+        reads = 0
+        prefs.edit().clear().apply()
+    }
+
+    /**
+     * The profile of a user, from the cache when it is the signed-in user, otherwise read from
+     * the database.
+     */
+    fun getUser(uid: String): Task<User?> {
+        val cached = user
+        if (uid == this.uid && cached != null) {
+            readsSaved++
+            Log.d(TAG, "getUser: $readsSaved reads saved this session")
+            return Tasks.forResult(cached)
+        }
+
+        reads++
+        return users.child(uid).get().continueWith { task ->
+            val user = task.result.getValue<User>()
+            if (user != null && uid == this.uid) {
+                put(user)
+            }
+            user
+        }
+    }
+
+    private fun put(user: User) {
+        this.user = user
+        prefs.edit()
+            .putString(KEY_UID, uid)
+            .putString(KEY_USERNAME, user.username)
+            .putString(KEY_EMAIL, user.email)
+            .apply()
+    }
+
+    companion object {
+
+        private const val TAG = "UserCache"
+
+        private val PREFS_NAME = UserCache::class.java.name
+        private const val KEY_UID = "uid"
+        private const val KEY_USERNAME = "username"
+        private const val KEY_EMAIL = "email"
+
+        private var instance: UserCache? = null
+
+        @Synchronized
+        fun getInstance(context: Context): UserCache {
+            return instance ?: UserCache(
+                context.applicationContext,
+                Firebase.database.reference.child("users"),
+            ).also { instance = it }
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.google.firebase.quickstart.database.kotlin.listfragments
 
 import com.google.firebase.database.DatabaseReference
-import com.google.firebase.database.Query
+import com.google.firebase.quickstart.database.kotlin.data.PostFanOut
+import com.google.firebase.quickstart.database.kotlin.data.PostFeed
 
 class MyPostsFragment : PostListFragment() {
 
-    override fun getQuery(databaseReference: DatabaseReference): Query {
-        // All my posts
-        return databaseReference.child("user-posts")
-            .child(uid)
+    override fun getFeed(databaseReference: DatabaseReference): PostFeed {
+        // Summaries of all my posts, most recent first
+        return PostFeed.get(
+            databaseReference.child(PostFanOut.USER_POST_SUMMARIES_PATH).child(uid),
+            null,
+        )
     }
 }
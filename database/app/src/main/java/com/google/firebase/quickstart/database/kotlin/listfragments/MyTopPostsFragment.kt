@@ -1,15 +1,18 @@
 package com.google.firebase.quickstart.database.kotlin.listfragments
 
 import com.google.firebase.database.DatabaseReference
-import com.google.firebase.database.Query
+import com.google.firebase.quickstart.database.kotlin.data.PostFanOut
+import com.google.firebase.quickstart.database.kotlin.data.PostFeed
 
 class MyTopPostsFragment : PostListFragment() {
 
-    override fun getQuery(databaseReference: DatabaseReference): Query {
-        // My top posts by number of stars
+    override fun getFeed(databaseReference: DatabaseReference): PostFeed {
+        // Summaries of my top posts by number of stars, sorted and paged by the server
         val myUserId = uid
 
-        return databaseReference.child("user-posts").child(myUserId)
-            .orderByChild("starCount")
+        return PostFeed.get(
+            databaseReference.child(PostFanOut.USER_POST_SUMMARIES_PATH).child(myUserId),
+            "starCount",
+        )
     }
 }
@@ -10,19 +10,19 @@ import androidx.fragment.app.Fragment
 import androidx.navigation.findNavController
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
-import com.firebase.ui.database.FirebaseRecyclerAdapter
-import com.firebase.ui.database.FirebaseRecyclerOptions
 import com.google.firebase.auth.auth
 import com.google.firebase.database.DataSnapshot
 import com.google.firebase.database.DatabaseError
 import com.google.firebase.database.DatabaseReference
-import com.google.firebase.database.MutableData
-import com.google.firebase.database.Query
-import com.google.firebase.database.Transaction
+import com.google.firebase.database.ValueEventListener
 import com.google.firebase.database.database
 import com.google.firebase.Firebase
 import com.google.firebase.quickstart.database.R
 import com.google.firebase.quickstart.database.kotlin.PostDetailFragment
+import com.google.firebase.quickstart.database.kotlin.data.PostFanOut
+import com.google.firebase.quickstart.database.kotlin.data.PostFeed
+import com.google.firebase.quickstart.database.kotlin.data.PostStars
+import com.google.firebase.quickstart.database.kotlin.data.StartupProfile
 import com.google.firebase.quickstart.database.kotlin.models.Post
 import com.google.firebase.quickstart.database.kotlin.viewholder.PostViewHolder
 
@@ -32,9 +32,16 @@ abstract class PostListFragment : Fragment() {
     private lateinit var database: DatabaseReference
     // [END define_database_reference]
 
+    private lateinit var postStars: PostStars
+
+    // Keys of the posts the current user has starred
+    private val starredKeys = HashSet<String>()
+    private var starredListener: ValueEventListener? = null
+
     private lateinit var recycler: RecyclerView
     private lateinit var manager: LinearLayoutManager
-    private var adapter: FirebaseRecyclerAdapter<Post, PostViewHolder>? = null
+    private var feed: PostFeed? = null
+    private var adapter: PostAdapter? = null
 
     val uid: String
         get() = Firebase.auth.currentUser!!.uid
@@ -51,6 +58,8 @@ abstract class PostListFragment : Fragment() {
         database = Firebase.database.reference
         // [END create_database_reference]
 
+        postStars = PostStars(database, PostFanOut(database))
+
         recycler = rootView.findViewById(R.id.messagesList)
         recycler.setHasFixedSize(true)
 
@@ -60,104 +69,114 @@ abstract class PostListFragment : Fragment() {
     override fun onActivityCreated(savedInstanceState: Bundle?) {
         super.onActivityCreated(savedInstanceState)
 
-        // Set up Layout Manager, reverse layout
+        // Set up Layout Manager, the feed is already sorted highest first
         manager = LinearLayoutManager(activity)
-        manager.reverseLayout = true
-        manager.stackFromEnd = true
         recycler.layoutManager = manager
 
-        // Set up FirebaseRecyclerAdapter with the Query
-        val postsQuery = getQuery(database)
-
-        val options = FirebaseRecyclerOptions.Builder<Post>()
-            .setQuery(postsQuery, Post::class.java)
-            .build()
-
-        adapter = object : FirebaseRecyclerAdapter<Post, PostViewHolder>(options) {
-
-            override fun onCreateViewHolder(viewGroup: ViewGroup, i: Int): PostViewHolder {
-                val inflater = LayoutInflater.from(viewGroup.context)
-                return PostViewHolder(inflater.inflate(R.layout.item_post, viewGroup, false))
-            }
-
-            override fun onBindViewHolder(viewHolder: PostViewHolder, position: Int, model: Post) {
-                val postRef = getRef(position)
-
-                // Set click listener for the whole post view
-                val postKey = postRef.key
-                viewHolder.itemView.setOnClickListener {
-                    // Launch PostDetailFragment
-                    val navController = requireActivity().findNavController(R.id.nav_host_fragment)
-                    val args = bundleOf(PostDetailFragment.EXTRA_POST_KEY to postKey)
-                    navController.navigate(R.id.action_MainFragment_to_PostDetailFragment, args)
-                }
-
-                // Determine if the current user has liked this post and set UI accordingly
-                viewHolder.setLikedState(model.stars.containsKey(uid))
-
-                // Bind Post to ViewHolder, setting OnClickListener for the star button
-                viewHolder.bindToPost(model) {
-                    // Need to write to both places the post is stored
-                    val globalPostRef = database.child("posts").child(postRef.key!!)
-                    val userPostRef = database.child("user-posts").child(model.uid!!).child(postRef.key!!)
-
-                    // Run two transactions
-                    onStarClicked(globalPostRef)
-                    onStarClicked(userPostRef)
-                }
-            }
-        }
+        // Set up the adapter with the feed, which keeps its pages between tabs
+        val feed = getFeed(database)
+        val adapter = PostAdapter(feed)
         recycler.adapter = adapter
+        this.feed = feed
+        this.adapter = adapter
+
+        // Back to where the feed was last shown
+        feed.layoutState?.let { manager.onRestoreInstanceState(it) }
     }
 
     // [START post_stars_transaction]
-    private fun onStarClicked(postRef: DatabaseReference) {
-        postRef.runTransaction(object : Transaction.Handler {
-            override fun doTransaction(mutableData: MutableData): Transaction.Result {
-                val p = mutableData.getValue(Post::class.java)
-                    ?: return Transaction.success(mutableData)
-
-                if (p.stars.containsKey(uid)) {
-                    // Unstar the post and remove self from stars
-                    p.starCount = p.starCount - 1
-                    p.stars.remove(uid)
-                } else {
-                    // Star the post and add self to stars
-                    p.starCount = p.starCount + 1
-                    p.stars[uid] = true
-                }
-
-                // Set value and report transaction success
-                mutableData.value = p
-                return Transaction.success(mutableData)
-            }
-
-            override fun onComplete(
-                databaseError: DatabaseError?,
-                committed: Boolean,
-                currentData: DataSnapshot?,
-            ) {
-                // Transaction completed
-                Log.d(TAG, "postTransaction:onComplete:" + databaseError!!)
-            }
-        })
+    private fun onStarClicked(postKey: String, post: Post) {
+        // Update the star and the star count of every copy of the post in one write
+        val starred = postKey !in starredKeys
+        postStars.setStarred(postKey, post, uid, starred)
+            .addOnFailureListener { e -> Log.w(TAG, "setStarred:onFailure", e) }
     }
     // [END post_stars_transaction]
 
     override fun onStart() {
         super.onStart()
-        adapter?.startListening()
+        adapter?.let { adapter ->
+            feed?.start { diff -> diff.dispatchUpdatesTo(adapter) }
+
+            // The feed may have changed while it wasn't shown
+            adapter.notifyDataSetChanged()
+        }
+
+        // One listener for the stars of the user, whatever the number of posts shown
+        val listener = object : ValueEventListener {
+            override fun onDataChange(dataSnapshot: DataSnapshot) {
+                starredKeys.clear()
+                dataSnapshot.children.mapNotNullTo(starredKeys) { it.key }
+                adapter?.notifyDataSetChanged()
+            }
+
+            override fun onCancelled(databaseError: DatabaseError) {
+                Log.w(TAG, "loadStars:onCancelled", databaseError.toException())
+            }
+        }
+        postStars.getUserStars(uid).addValueEventListener(listener)
+        starredListener = listener
     }
 
     override fun onStop() {
         super.onStop()
-        adapter?.stopListening()
+        feed?.let {
+            it.layoutState = manager.onSaveInstanceState()
+            it.stop()
+        }
+
+        starredListener?.let {
+            postStars.getUserStars(uid).removeEventListener(it)
+        }
+        starredListener = null
     }
 
-    abstract fun getQuery(databaseReference: DatabaseReference): Query
+    abstract fun getFeed(databaseReference: DatabaseReference): PostFeed
+
+    private inner class PostAdapter(private val feed: PostFeed) :
+        RecyclerView.Adapter<PostViewHolder>() {
+
+        override fun onCreateViewHolder(viewGroup: ViewGroup, i: Int): PostViewHolder {
+            val inflater = LayoutInflater.from(viewGroup.context)
+            return PostViewHolder(inflater.inflate(R.layout.item_post, viewGroup, false))
+        }
+
+        override fun onBindViewHolder(viewHolder: PostViewHolder, position: Int) {
+            val postKey = feed.getKey(position)
+            val model = feed.getPost(position)
+
+            // Set click listener for the whole post view
+            viewHolder.itemView.setOnClickListener {
+                // Launch PostDetailFragment
+                val navController = requireActivity().findNavController(R.id.nav_host_fragment)
+                val args = bundleOf(PostDetailFragment.EXTRA_POST_KEY to postKey)
+                navController.navigate(R.id.action_MainFragment_to_PostDetailFragment, args)
+            }
+
+            // Determine if the current user has liked this post and set UI accordingly
+            viewHolder.setLikedState(postKey in starredKeys)
+
+            // Bind Post to ViewHolder, setting OnClickListener for the star button
+            viewHolder.bindToPost(model) {
+                onStarClicked(postKey, model)
+            }
+
+            // Load more posts as the user scrolls down
+            if (position >= feed.size - PREFETCH_DISTANCE) {
+                feed.loadMore()
+            }
+
+            StartupProfile.getInstance(requireContext()).onPostShown()
+        }
+
+        override fun getItemCount() = feed.size
+    }
 
     companion object {
 
         private const val TAG = "PostListFragment"
+
+        // Load the next page when the user scrolls this close to the end of the feed
+        private const val PREFETCH_DISTANCE = 5
     }
 }
@@ -1,16 +1,17 @@
 package com.google.firebase.quickstart.database.kotlin.listfragments
 
 import com.google.firebase.database.DatabaseReference
-import com.google.firebase.database.Query
+import com.google.firebase.quickstart.database.kotlin.data.PostFanOut
+import com.google.firebase.quickstart.database.kotlin.data.PostFeed
 
 class RecentPostsFragment : PostListFragment() {
 
-    override fun getQuery(databaseReference: DatabaseReference): Query {
+    override fun getFeed(databaseReference: DatabaseReference): PostFeed {
         // [START recent_posts_query]
-        // Last 100 posts, these are automatically the 100 most recent
-        // due to sorting by push() keys.
-        return databaseReference.child("posts")
-            .limitToFirst(100)
+        // Most recent posts first: push() keys sort by time, so the feed
+        // pages back from the last keys with limitToLast(). Only the summaries
+        // are read, the full post is loaded when it is opened.
+        return PostFeed.get(databaseReference.child(PostFanOut.POST_SUMMARIES_PATH), null)
         // [END recent_posts_query]
     }
 }
@@ -2,7 +2,6 @@ package com.google.firebase.quickstart.database.kotlin.models
 
 import com.google.firebase.database.Exclude
 import com.google.firebase.database.IgnoreExtraProperties
-import java.util.HashMap
 
 @IgnoreExtraProperties
 data class Post(
@@ -11,7 +10,6 @@ data class Post(
     var title: String? = "",
     var body: String? = "",
     var starCount: Int = 0,
-    var stars: MutableMap<String, Boolean> = HashMap(),
 ) {
 
     @Exclude
@@ -22,7 +20,6 @@ data class Post(
             "title" to title,
             "body" to body,
             "starCount" to starCount,
-            "stars" to stars,
         )
     }
 }
@@ -0,0 +1,231 @@
+package com.google.firebase.quickstart.database.kotlin.util
+
+import java.util.Random
+
+/**
+ * An ordered list of values with unique keys, such as the children of a database location in
+ * the order a [com.google.firebase.database.ChildEventListener] reports them.
+ *
+ * The values are held in a tree balanced by random priorities (a treap) where each node knows
+ * the size of its subtree, and a map from key to node. Finding the position of a key, reading
+ * a position and inserting, moving or removing a value all take O(log n) expected time, where
+ * a pair of array lists needs O(n) for each of them.
+ */
+class KeyedList<T> {
+
+    private class Node<V>(val key: String, var value: V, val priority: Int) {
+        var size = 1
+        var parent: Node<V>? = null
+        var left: Node<V>? = null
+        var right: Node<V>? = null
+    }
+
+    private val nodes = HashMap<String, Node<T>>()
+    private val random = Random()
+    private var root: Node<T>? = null
+
+    val size: Int
+        get() = nodes.size
+
+    fun containsKey(key: String) = key in nodes
+
+    /**
+     * Position of the value with this key, or -1 if there is none.
+     */
+    fun indexOf(key: String?): Int {
+        val node = key?.let { nodes[it] } ?: return -1
+
+        // Count the nodes before this one on the way up to the root
+        var index = size(node.left)
+        var n: Node<T> = node
+        while (true) {
+            val parent = n.parent ?: break
+            if (n === parent.right) {
+                index += size(parent.left) + 1
+            }
+            n = parent
+        }
+        return index
+    }
+
+    operator fun get(index: Int): T = nodeAt(index).value
+
+    fun getKey(index: Int): String = nodeAt(index).key
+
+    /**
+     * Insert a value at a position, moving the values from that position on one place down.
+     *
+     * @throws IllegalArgumentException if the list already has a value with this key.
+     */
+    fun add(index: Int, key: String, value: T) {
+        if (index < 0 || index > size) {
+            throw IndexOutOfBoundsException("Index: $index, size: $size")
+        }
+        require(key !in nodes) { "Duplicate key: $key" }
+
+        val node = Node(key, value, random.nextInt())
+        nodes[key] = node
+        insert(index, node)
+    }
+
+    /**
+     * Replace the value at a position, keeping its key.
+     */
+    operator fun set(index: Int, value: T): T {
+        val node = nodeAt(index)
+        val previous = node.value
+        node.value = value
+        return previous
+    }
+
+    /**
+     * Remove the value at a position.
+     */
+    fun removeAt(index: Int): T {
+        val node = nodeAt(index)
+        detach(node)
+        nodes.remove(node.key)
+        return node.value
+    }
+
+    /**
+     * Move the value at [from] so that it ends up at [to], as if it was removed and then
+     * inserted at [to].
+     */
+    fun move(from: Int, to: Int) {
+        val node = nodeAt(from)
+        if (to < 0 || to >= size) {
+            throw IndexOutOfBoundsException("Index: $to, size: $size")
+        }
+
+        detach(node)
+        node.parent = null
+        node.left = null
+        node.right = null
+        node.size = 1
+        insert(to, node)
+    }
+
+    fun clear() {
+        nodes.clear()
+        root = null
+    }
+
+    private fun nodeAt(index: Int): Node<T> {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("Index: $index, size: $size")
+        }
+
+        var i = index
+        var node = root!!
+        while (true) {
+            val leftSize = size(node.left)
+            node = when {
+                i < leftSize -> node.left!!
+                i == leftSize -> return node
+                else -> {
+                    i -= leftSize + 1
+                    node.right!!
+                }
+            }
+        }
+    }
+
+    private fun insert(index: Int, node: Node<T>) {
+        val root = this.root
+        if (root == null) {
+            this.root = node
+            return
+        }
+
+        // Attach the node as a leaf just before the node now at index, or after the last one
+        val parent: Node<T>
+        if (index == size(root)) {
+            parent = rightmost(root)
+            parent.right = node
+        } else {
+            val next = nodeAt(index)
+            val left = next.left
+            if (left == null) {
+                parent = next
+                parent.left = node
+            } else {
+                parent = rightmost(left)
+                parent.right = node
+            }
+        }
+        node.parent = parent
+        var n: Node<T>? = parent
+        while (n != null) {
+            n.size++
+            n = n.parent
+        }
+
+        // Restore the heap order of the priorities
+        while (true) {
+            val p = node.parent ?: break
+            if (node.priority <= p.priority) {
+                break
+            }
+            rotateUp(node)
+        }
+    }
+
+    private fun detach(node: Node<T>) {
+        // Rotate the node down until it has at most one child, then splice it out
+        while (true) {
+            val left = node.left ?: break
+            val right = node.right ?: break
+            rotateUp(if (left.priority > right.priority) left else right)
+        }
+
+        val child = node.left ?: node.right
+        val parent = node.parent
+        child?.parent = parent
+        when {
+            parent == null -> root = child
+            parent.left === node -> parent.left = child
+            else -> parent.right = child
+        }
+        var n = parent
+        while (n != null) {
+            n.size--
+            n = n.parent
+        }
+    }
+
+    private fun rotateUp(node: Node<T>) {
+        val parent = node.parent!!
+        val grandparent = parent.parent
+
+        if (node === parent.left) {
+            parent.left = node.right
+            node.right?.parent = parent
+            node.right = parent
+        } else {
+            parent.right = node.left
+            node.left?.parent = parent
+            node.left = parent
+        }
+        parent.parent = node
+
+        node.parent = grandparent
+        when {
+            grandparent == null -> root = node
+            grandparent.left === parent -> grandparent.left = node
+            else -> grandparent.right = node
+        }
+
+        parent.size = 1 + size(parent.left) + size(parent.right)
+        node.size = 1 + size(node.left) + size(node.right)
+    }
+
+    private fun rightmost(node: Node<T>): Node<T> {
+        var n = node
+        while (true) {
+            n = n.right ?: return n
+        }
+    }
+
+    private fun size(node: Node<T>?) = node?.size ?: 0
+}
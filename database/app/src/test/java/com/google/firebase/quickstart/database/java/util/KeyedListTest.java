@@ -0,0 +1,112 @@
+package com.google.firebase.quickstart.database.java.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link KeyedList} against a plain list of keys and values going through the same
+ * random inserts, moves, replacements and removals.
+ */
+public class KeyedListTest {
+
+    private static final int NUM_OPERATIONS = 20000;
+
+    @Test
+    public void randomOperations() {
+        Random random = new Random(42);
+        KeyedList<Integer> list = new KeyedList<>();
+        List<String> keys = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            int operation = keys.isEmpty() ? 0 : random.nextInt(4);
+            if (operation == 0) {
+                int index = random.nextInt(keys.size() + 1);
+                String key = "key-" + i;
+                list.add(index, key, i);
+                keys.add(index, key);
+                values.add(index, i);
+            } else if (operation == 1) {
+                int index = random.nextInt(keys.size());
+                assertEquals(values.remove(index), list.remove(index));
+                assertFalse(list.containsKey(keys.remove(index)));
+            } else if (operation == 2) {
+                int from = random.nextInt(keys.size());
+                int to = random.nextInt(keys.size());
+                list.move(from, to);
+                keys.add(to, keys.remove(from));
+                values.add(to, values.remove(from));
+            } else {
+                int index = random.nextInt(keys.size());
+                assertEquals(values.set(index, i), list.set(index, i));
+            }
+
+            // A full check is O(n log n), only do it now and then
+            if (i % 100 == 0) {
+                assertSameContents(keys, values, list);
+            }
+        }
+        assertSameContents(keys, values, list);
+
+        list.clear();
+        assertEquals(0, list.size());
+        assertEquals(-1, list.indexOf(keys.get(0)));
+    }
+
+    @Test
+    public void indexOfMissingKey() {
+        KeyedList<Integer> list = new KeyedList<>();
+        list.add(0, "a", 1);
+
+        assertEquals(-1, list.indexOf("b"));
+        assertEquals(-1, list.indexOf(null));
+
+        list.remove(0);
+        assertEquals(-1, list.indexOf("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addDuplicateKey() {
+        KeyedList<Integer> list = new KeyedList<>();
+        list.add(0, "a", 1);
+        list.add(1, "a", 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void addPastEnd() {
+        KeyedList<Integer> list = new KeyedList<>();
+        list.add(0, "a", 1);
+        list.add(2, "b", 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void moveToPastEnd() {
+        KeyedList<Integer> list = new KeyedList<>();
+        list.add(0, "a", 1);
+        list.add(1, "b", 2);
+        list.move(0, 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getFromEmpty() {
+        new KeyedList<Integer>().get(0);
+    }
+
+    private static void assertSameContents(List<String> keys, List<Integer> values,
+                                           KeyedList<Integer> list) {
+        assertEquals(keys.size(), list.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(keys.get(i), list.getKey(i));
+            assertEquals(values.get(i), list.get(i));
+            assertEquals(i, list.indexOf(keys.get(i)));
+            assertTrue(list.containsKey(keys.get(i)));
+        }
+    }
+}
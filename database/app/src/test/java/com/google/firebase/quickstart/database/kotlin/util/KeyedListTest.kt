@@ -0,0 +1,114 @@
+package com.google.firebase.quickstart.database.kotlin.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+/**
+ * Checks [KeyedList] against a plain list of keys and values going through the same random
+ * inserts, moves, replacements and removals.
+ */
+class KeyedListTest {
+
+    @Test
+    fun randomOperations() {
+        val random = Random(42)
+        val list = KeyedList<Int>()
+        val keys = ArrayList<String>()
+        val values = ArrayList<Int>()
+
+        for (i in 0 until NUM_OPERATIONS) {
+            when (if (keys.isEmpty()) 0 else random.nextInt(4)) {
+                0 -> {
+                    val index = random.nextInt(keys.size + 1)
+                    val key = "key-$i"
+                    list.add(index, key, i)
+                    keys.add(index, key)
+                    values.add(index, i)
+                }
+                1 -> {
+                    val index = random.nextInt(keys.size)
+                    assertEquals(values.removeAt(index), list.removeAt(index))
+                    assertFalse(list.containsKey(keys.removeAt(index)))
+                }
+                2 -> {
+                    val from = random.nextInt(keys.size)
+                    val to = random.nextInt(keys.size)
+                    list.move(from, to)
+                    keys.add(to, keys.removeAt(from))
+                    values.add(to, values.removeAt(from))
+                }
+                else -> {
+                    val index = random.nextInt(keys.size)
+                    assertEquals(values.set(index, i), list.set(index, i))
+                }
+            }
+
+            // A full check is O(n log n), only do it now and then
+            if (i % 100 == 0) {
+                assertSameContents(keys, values, list)
+            }
+        }
+        assertSameContents(keys, values, list)
+
+        list.clear()
+        assertEquals(0, list.size)
+        assertEquals(-1, list.indexOf(keys[0]))
+    }
+
+    @Test
+    fun indexOfMissingKey() {
+        val list = KeyedList<Int>()
+        list.add(0, "a", 1)
+
+        assertEquals(-1, list.indexOf("b"))
+        assertEquals(-1, list.indexOf(null))
+
+        list.removeAt(0)
+        assertEquals(-1, list.indexOf("a"))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun addDuplicateKey() {
+        val list = KeyedList<Int>()
+        list.add(0, "a", 1)
+        list.add(1, "a", 2)
+    }
+
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun addPastEnd() {
+        val list = KeyedList<Int>()
+        list.add(0, "a", 1)
+        list.add(2, "b", 2)
+    }
+
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun moveToPastEnd() {
+        val list = KeyedList<Int>()
+        list.add(0, "a", 1)
+        list.add(1, "b", 2)
+        list.move(0, 2)
+    }
+
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun getFromEmpty() {
+        KeyedList<Int>()[0]
+    }
+
+    private fun assertSameContents(keys: List<String>, values: List<Int>, list: KeyedList<Int>) {
+        assertEquals(keys.size, list.size)
+        for (i in keys.indices) {
+            assertEquals(keys[i], list.getKey(i))
+            assertEquals(values[i], list[i])
+            assertEquals(i, list.indexOf(keys[i]))
+            assertTrue(list.containsKey(keys[i]))
+        }
+    }
+
+    companion object {
+
+        private const val NUM_OPERATIONS = 20000
+    }
+}
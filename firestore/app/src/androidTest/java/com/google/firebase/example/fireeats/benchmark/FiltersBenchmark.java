@@ -0,0 +1,90 @@
+package com.google.firebase.example.fireeats.benchmark;
+
+import android.content.Context;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.core.text.HtmlCompat;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.firebase.example.fireeats.R;
+import com.google.firebase.example.fireeats.java.Filters;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost of rendering the filter bar: building the HTML description of the filters and parsing it
+ * into a styled string, as MainFragment does for every filter change.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FiltersBenchmark {
+
+    private static final String[] SORTS = {
+            Restaurant.FIELD_AVG_RATING, Restaurant.FIELD_POPULARITY, Restaurant.FIELD_PRICE};
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Context mContext;
+    private List<Filters> mFilters;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // Filters with and without a city, each price and each sort. The first element of
+        // the category and city arrays is 'Any'.
+        String[] categories = mContext.getResources().getStringArray(R.array.categories);
+        String[] cities = mContext.getResources().getStringArray(R.array.cities);
+        mFilters = new ArrayList<>();
+        for (int price = -1; price <= 3; price++) {
+            for (int sort = 0; sort < SORTS.length; sort++) {
+                Filters filters = new Filters();
+                filters.setCategory(categories[1 + sort]);
+                filters.setCity(price < 0 ? null : cities[1 + price]);
+                filters.setPrice(price);
+                filters.setSortBy(SORTS[sort]);
+                mFilters.add(filters);
+            }
+        }
+    }
+
+    @Test
+    public void searchDescription() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (Filters filters : mFilters) {
+                filters.getSearchDescription(mContext);
+            }
+        }
+    }
+
+    @Test
+    public void searchDescriptionFromHtml() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (Filters filters : mFilters) {
+                HtmlCompat.fromHtml(filters.getSearchDescription(mContext),
+                        HtmlCompat.FROM_HTML_MODE_LEGACY);
+            }
+        }
+    }
+
+    @Test
+    public void orderDescription() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (Filters filters : mFilters) {
+                filters.getOrderDescription(mContext);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.google.firebase.example.fireeats.benchmark;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.firebase.example.fireeats.java.adapter.FirestoreAdapter;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Cost of applying a stream of snapshots to {@link FirestoreAdapter}: 500 restaurants are added
+ * and then 2000 rating changes move them around the list.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FirestoreAdapterBenchmark {
+
+    private static final int NUM_RESTAURANTS = 500;
+    private static final int NUM_UPDATES = 2000;
+
+    private static List<QuerySnapshot> sSnapshots;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        sSnapshots = SyntheticSnapshots.restaurantChanges(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                NUM_RESTAURANTS, NUM_UPDATES);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        SyntheticSnapshots.deleteApps();
+    }
+
+    /**
+     * Each change dispatched on its own, moves remove from and re-add to the backing list.
+     */
+    @Test
+    public void dispatchDocumentChanges() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            TestAdapter adapter = new TestAdapter();
+            state.resumeTiming();
+
+            for (QuerySnapshot snapshot : sSnapshots) {
+                adapter.onEvent(snapshot, null);
+            }
+        }
+    }
+
+    /**
+     * The whole result list replaced for every snapshot.
+     */
+    @Test
+    public void replaceSnapshots() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            TestAdapter adapter = new TestAdapter();
+            state.resumeTiming();
+
+            for (QuerySnapshot snapshot : sSnapshots) {
+                adapter.replace(snapshot);
+            }
+        }
+    }
+
+    private static class TestAdapter extends FirestoreAdapter<RecyclerView.ViewHolder> {
+
+        TestAdapter() {
+            super(null);
+        }
+
+        void replace(QuerySnapshot snapshot) {
+            submitSnapshots(snapshot.getDocuments());
+        }
+
+        @NonNull
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent,
+                                                          int viewType) {
+            return new RecyclerView.ViewHolder(new View(parent.getContext())) {};
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {}
+    }
+}
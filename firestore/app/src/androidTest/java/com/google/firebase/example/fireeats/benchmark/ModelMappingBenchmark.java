@@ -0,0 +1,87 @@
+package com.google.firebase.example.fireeats.benchmark;
+
+import android.content.Context;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.example.fireeats.java.util.ModelCache;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Cost of mapping documents to {@link Restaurant} and {@link Rating} POJOs, compared to looking
+ * up an object that {@link ModelCache} has already decoded.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ModelMappingBenchmark {
+
+    private static final int NUM_DOCUMENTS = 200;
+
+    private static List<DocumentSnapshot> sRestaurants;
+    private static List<DocumentSnapshot> sRatings;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        List<QuerySnapshot> restaurants =
+                SyntheticSnapshots.restaurantChanges(context, NUM_DOCUMENTS, 0);
+        sRestaurants = restaurants.get(restaurants.size() - 1).getDocuments();
+        sRatings = SyntheticSnapshots.ratings(context, NUM_DOCUMENTS).getDocuments();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        SyntheticSnapshots.deleteApps();
+    }
+
+    @Test
+    public void restaurantToObject() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (DocumentSnapshot snapshot : sRestaurants) {
+                snapshot.toObject(Restaurant.class);
+            }
+        }
+    }
+
+    @Test
+    public void ratingToObject() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (DocumentSnapshot snapshot : sRatings) {
+                snapshot.toObject(Rating.class);
+            }
+        }
+    }
+
+    @Test
+    public void restaurantFromModelCache() {
+        ModelCache<Restaurant> cache = new ModelCache<>(Restaurant.class);
+        for (DocumentSnapshot snapshot : sRestaurants) {
+            cache.get(snapshot);
+        }
+
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (DocumentSnapshot snapshot : sRestaurants) {
+                cache.get(snapshot);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.google.firebase.example.fireeats.benchmark;
+
+import android.content.Context;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.example.fireeats.java.util.DataGenerator;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MemoryCacheSettings;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Real Firestore snapshots for the benchmarks, produced without a server.
+ *
+ * Uses a separate {@link FirebaseApp} with a memory cache and the network disabled, so every
+ * write is only applied locally and raises one snapshot with its {@code DocumentChange}s.
+ * Call {@link #deleteApps()} once the snapshots are no longer needed.
+ */
+final class SyntheticSnapshots {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final List<FirebaseApp> sApps = new ArrayList<>();
+
+    private SyntheticSnapshots() {}
+
+    /**
+     * Add {@code numRestaurants} random restaurants and then change the average rating of
+     * random ones {@code numUpdates} times, which moves them within the list. Returns every
+     * snapshot of the list sorted by rating, as a listener would receive them.
+     */
+    static List<QuerySnapshot> restaurantChanges(Context context, int numRestaurants,
+                                                 int numUpdates) throws Exception {
+        CollectionReference restaurants = newFirestore(context).collection("restaurants");
+        Query query = restaurants.orderBy(Restaurant.FIELD_AVG_RATING, Query.Direction.DESCENDING);
+
+        BlockingQueue<QuerySnapshot> events = new LinkedBlockingQueue<>();
+        ListenerRegistration registration = listen(query, events);
+        List<QuerySnapshot> snapshots = new ArrayList<>();
+
+        // Initial empty snapshot
+        snapshots.add(next(events));
+
+        DataGenerator generator = new DataGenerator(context, numRestaurants);
+        Random random = new Random(numRestaurants);
+        List<DocumentReference> refs = new ArrayList<>();
+        for (int i = 0; i < numRestaurants; i++) {
+            Restaurant restaurant = generator.nextRestaurant();
+            restaurant.setAvgRating(random.nextDouble() * 5.0);
+
+            DocumentReference ref = restaurants.document();
+            ref.set(restaurant);
+            refs.add(ref);
+            snapshots.add(next(events));
+        }
+
+        for (int i = 0; i < numUpdates; i++) {
+            DocumentReference ref = refs.get(random.nextInt(refs.size()));
+            ref.update(Restaurant.FIELD_AVG_RATING, random.nextDouble() * 5.0);
+            snapshots.add(next(events));
+        }
+
+        registration.remove();
+        return snapshots;
+    }
+
+    /**
+     * Add {@code numRatings} random ratings and return the final snapshot.
+     */
+    static QuerySnapshot ratings(Context context, int numRatings) throws Exception {
+        CollectionReference ratings = newFirestore(context).collection("ratings");
+
+        BlockingQueue<QuerySnapshot> events = new LinkedBlockingQueue<>();
+        ListenerRegistration registration = listen(ratings, events);
+        QuerySnapshot snapshot = next(events);
+
+        DataGenerator generator = new DataGenerator(context, numRatings);
+        for (int i = 0; i < numRatings; i++) {
+            ratings.document().set(generator.nextRating());
+            snapshot = next(events);
+        }
+
+        registration.remove();
+        return snapshot;
+    }
+
+    /**
+     * Delete the apps created for the snapshots, which shuts down their Firestore instances.
+     */
+    static synchronized void deleteApps() {
+        for (FirebaseApp app : sApps) {
+            app.delete();
+        }
+        sApps.clear();
+    }
+
+    private static synchronized FirebaseFirestore newFirestore(Context context) throws Exception {
+        FirebaseApp app = FirebaseApp.initializeApp(context,
+                FirebaseOptions.fromResource(context), "benchmark-" + UUID.randomUUID());
+        sApps.add(app);
+
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance(app);
+        firestore.setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                .setLocalCacheSettings(MemoryCacheSettings.newBuilder().build())
+                .build());
+        Tasks.await(firestore.disableNetwork(), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return firestore;
+    }
+
+    private static ListenerRegistration listen(Query query,
+                                               final BlockingQueue<QuerySnapshot> events) {
+        return query.addSnapshotListener(DIRECT_EXECUTOR, (snapshot, e) -> {
+            if (snapshot != null) {
+                events.add(snapshot);
+            }
+        });
+    }
+
+    private static QuerySnapshot next(BlockingQueue<QuerySnapshot> events) throws Exception {
+        QuerySnapshot snapshot = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (snapshot == null) {
+            throw new IllegalStateException("Timed out waiting for a snapshot");
+        }
+        return snapshot;
+    }
+}
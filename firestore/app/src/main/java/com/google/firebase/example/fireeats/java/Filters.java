@@ -85,6 +85,76 @@ public class Filters {
         this.sortDirection = sortDirection;
     }
 
+    /**
+     * Get a key that is the same for all Filters that produce the same query.
+     */
+    public String getQueryKey() {
+        return (hasCategory() ? category : "")
+                + "|" + (hasCity() ? city : "")
+                + "|" + (hasPrice() ? price : -1)
+                + "|" + (hasSortBy() ? sortBy : "")
+                + "|" + (hasSortBy() && sortDirection != null ? sortDirection.name() : "");
+    }
+
+    /**
+     * Whether these filters keep the sort of {@code other} and only add equality filters to it,
+     * so their results are a subset of the results of {@code other} in the same order.
+     */
+    public boolean isNarrowingOf(Filters other) {
+        if (getQueryKey().equals(other.getQueryKey())) {
+            return false;
+        }
+
+        // Same sort field and direction
+        if (hasSortBy() != other.hasSortBy()) {
+            return false;
+        }
+        if (hasSortBy() && (!sortBy.equals(other.sortBy) || sortDirection != other.sortDirection)) {
+            return false;
+        }
+
+        // Every equality filter of the other filters is kept
+        return (!other.hasCategory() || other.category.equals(category))
+                && (!other.hasCity() || other.city.equals(city))
+                && (!other.hasPrice() || other.price == price);
+    }
+
+    /**
+     * Whether a restaurant passes the equality filters.
+     */
+    public boolean matches(Restaurant restaurant) {
+        return (!hasCategory() || category.equals(restaurant.getCategory()))
+                && (!hasCity() || city.equals(restaurant.getCity()))
+                && (!hasPrice() || price == restaurant.getPrice());
+    }
+
+    /**
+     * Add the filters and sort to a query on the restaurants collection.
+     */
+    public Query toQuery(Query query) {
+        // Category (equality filter)
+        if (hasCategory()) {
+            query = query.whereEqualTo(Restaurant.FIELD_CATEGORY, category);
+        }
+
+        // City (equality filter)
+        if (hasCity()) {
+            query = query.whereEqualTo(Restaurant.FIELD_CITY, city);
+        }
+
+        // Price (equality filter)
+        if (hasPrice()) {
+            query = query.whereEqualTo(Restaurant.FIELD_PRICE, price);
+        }
+
+        // Sort by (orderBy with direction)
+        if (hasSortBy()) {
+            query = query.orderBy(sortBy, sortDirection);
+        }
+
+        return query;
+    }
+
     public String getSearchDescription(Context context) {
         StringBuilder desc = new StringBuilder();
 
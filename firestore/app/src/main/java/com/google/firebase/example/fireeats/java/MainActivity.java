@@ -7,12 +7,19 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.navigation.Navigation;
 
 import com.google.firebase.example.fireeats.R;
+import com.google.firebase.example.fireeats.java.util.FirestoreConfig;
 
 public class  MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // Start loading the default restaurant list while the UI is created
+        if (savedInstanceState == null) {
+            FirestoreConfig.prewarm();
+        }
+
         setContentView(R.layout.activity_main);
         setSupportActionBar(this.<Toolbar>findViewById(R.id.toolbar));
 
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Trace;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.LayoutInflater;
@@ -26,6 +27,7 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.navigation.fragment.NavHostFragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
+import com.bumptech.glide.Glide;
 import com.firebase.ui.auth.AuthUI;
 import com.firebase.ui.auth.ErrorCodes;
 import com.firebase.ui.auth.FirebaseAuthUIActivityResultContract;
@@ -38,18 +40,28 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.example.fireeats.R;
 import com.google.firebase.example.fireeats.databinding.FragmentMainBinding;
 import com.google.firebase.example.fireeats.java.adapter.RestaurantAdapter;
-import com.google.firebase.example.fireeats.java.model.Rating;
 import com.google.firebase.example.fireeats.java.model.Restaurant;
-import com.google.firebase.example.fireeats.java.util.RatingUtil;
-import com.google.firebase.example.fireeats.java.util.RestaurantUtil;
+import com.google.firebase.example.fireeats.java.util.DataGenerator;
+import com.google.firebase.example.fireeats.java.util.FirestoreConfig;
+import com.google.firebase.example.fireeats.java.util.ListenerRegistry;
+import com.google.firebase.example.fireeats.java.util.ModelCache;
+import com.google.firebase.example.fireeats.java.util.PhotoLoader;
+import com.google.firebase.example.fireeats.java.util.PhotoPrefetcher;
+import com.google.firebase.example.fireeats.java.util.QueryResultCache;
+import com.google.firebase.example.fireeats.java.util.QueryScheduler;
+import com.google.firebase.example.fireeats.java.util.RatingLoadGenerator;
+import com.google.firebase.example.fireeats.java.util.RatingStatsBenchmark;
+import com.google.firebase.example.fireeats.java.util.RestaurantIndexBenchmark;
+import com.google.firebase.example.fireeats.java.util.RestaurantSeeder;
+import com.google.firebase.example.fireeats.java.util.StartupMetrics;
 import com.google.firebase.example.fireeats.java.viewmodel.MainActivityViewModel;
-import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.WriteBatch;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -60,7 +72,20 @@ public class MainFragment extends Fragment implements
 
     private static final String TAG = "MainActivity";
 
-    private static final int LIMIT = 50;
+    private static final int SEED_LOAD_TEST_SIZE = 100000;
+    private static final int SEED_MAX_IN_FLIGHT = 4;
+
+    // Fixed so that load test runs write the same data and can be compared
+    private static final long SEED_LOAD_TEST_SEED = 42;
+
+    // Number of results to show from the local index while the query loads
+    private static final int LOCAL_RESULTS_LIMIT = 20;
+
+    // Filter changes closer together than this only create one listener
+    private static final long FILTER_DEBOUNCE_MS = 300;
+
+    // Number of photos to decode ahead of the scroll
+    private static final int PHOTO_PREFETCH_COUNT = 10;
 
     private FragmentMainBinding mBinding;
 
@@ -69,6 +94,7 @@ public class MainFragment extends Fragment implements
 
     private FilterDialogFragment mFilterDialog;
     private RestaurantAdapter mAdapter;
+    private QueryScheduler mQueryScheduler;
 
     private MainActivityViewModel mViewModel;
 
@@ -84,6 +110,9 @@ public class MainFragment extends Fragment implements
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
+        // Traced for the startup benchmark in the :benchmark module
+        Trace.beginSection("MainFragment.onViewCreated");
+
         mBinding.filterBar.setOnClickListener(this);
         mBinding.buttonClearFilter.setOnClickListener(this);
 
@@ -94,21 +123,24 @@ public class MainFragment extends Fragment implements
         // View model
         mViewModel = new ViewModelProvider(this).get(MainActivityViewModel.class);
 
-        // Enable Firestore logging
-        FirebaseFirestore.setLoggingEnabled(true);
+        // Firestore, configured in one place
+        mFirestore = FirestoreConfig.getFirestore();
 
-        // Firestore
-        mFirestore = FirebaseFirestore.getInstance();
-
-        // Get ${LIMIT} restaurants
+        // Get restaurants, the adapter loads them one page at a time
         mQuery = mFirestore.collection("restaurants")
-                .orderBy("avgRating", Query.Direction.DESCENDING)
-                .limit(LIMIT);
+                .orderBy("avgRating", Query.Direction.DESCENDING);
 
         // RecyclerView
         mAdapter = new RestaurantAdapter(mQuery, this) {
             @Override
             protected void onDataChanged() {
+                // Remember the results for when the user comes back to these filters. Skip
+                // the local answer shown while the query loads, and a diff of the previous
+                // query's results that finishes after the filters changed.
+                if (getQuery() != null && getQuery().equals(getResultsQuery())) {
+                    mViewModel.getResultCache().put(mViewModel.getFilters(), getSnapshots());
+                }
+
                 // Show/hide content if the query returns empty.
                 if (getItemCount() == 0) {
                     mBinding.recyclerRestaurants.setVisibility(View.GONE);
@@ -119,6 +151,15 @@ public class MainFragment extends Fragment implements
                 }
             }
 
+            @Override
+            protected void onDocumentChanges(List<DocumentChange> changes) {
+                super.onDocumentChanges(changes);
+
+                // Keep the local index up to date with every restaurant we see
+                mViewModel.getRestaurantIndex().onDocumentChanges(changes);
+                mQueryScheduler.onResults();
+            }
+
             @Override
             protected void onError(FirebaseFirestoreException e) {
                 // Show a snackbar on errors
@@ -127,11 +168,30 @@ public class MainFragment extends Fragment implements
             }
         };
 
-        mBinding.recyclerRestaurants.setLayoutManager(new LinearLayoutManager(requireContext()));
+        // Coalesce rapid filter changes into a single query
+        mQueryScheduler = new QueryScheduler(FILTER_DEBOUNCE_MS, new QueryScheduler.Callback() {
+            @Override
+            public void onApplyFilters(Filters filters) {
+                applyFilters(filters);
+            }
+        });
+
+        // Index the restaurants that are already in the local cache, once per process
+        mViewModel.getRestaurantIndex().loadFromCache(mFirestore.collection("restaurants"));
+
+        LinearLayoutManager layoutManager = new LinearLayoutManager(requireContext());
+        mBinding.recyclerRestaurants.setLayoutManager(layoutManager);
         mBinding.recyclerRestaurants.setAdapter(mAdapter);
 
+        // Decode the photos of the rows that are about to scroll into view
+        int photoSize = getResources().getDimensionPixelSize(R.dimen.restaurant_item_image_size);
+        mBinding.recyclerRestaurants.addOnScrollListener(new PhotoPrefetcher(Glide.with(this),
+                layoutManager, mAdapter, photoSize, photoSize, PHOTO_PREFETCH_COUNT));
+
         // Filter Dialog
         mFilterDialog = new FilterDialogFragment();
+
+        Trace.endSection();
     }
 
     @Override
@@ -145,7 +205,7 @@ public class MainFragment extends Fragment implements
         }
 
         // Apply filters
-        onFilter(mViewModel.getFilters());
+        mQueryScheduler.applyNow(mViewModel.getFilters());
 
         // Start listening for Firestore updates
         if (mAdapter != null) {
@@ -156,6 +216,13 @@ public class MainFragment extends Fragment implements
     @Override
     public void onStop() {
         super.onStop();
+
+        // Drop a filter change that is still waiting for the debounce delay rather than
+        // starting a listener that is stopped right away
+        mQueryScheduler.cancel();
+        Log.d(TAG, PhotoLoader.getStats());
+        Log.d(TAG, StartupMetrics.getReport());
+        Log.d(TAG, ListenerRegistry.getInstance().toString());
         if (mAdapter != null) {
             mAdapter.stopListening();
         }
@@ -176,6 +243,18 @@ public class MainFragment extends Fragment implements
         if (itemId == R.id.menu_add_items) {
             onAddItemsClicked();
             return true;
+        } else if (itemId == R.id.menu_seed_load_test) {
+            onSeedLoadTestClicked();
+            return true;
+        } else if (itemId == R.id.menu_index_benchmark) {
+            onIndexBenchmarkClicked();
+            return true;
+        } else if (itemId == R.id.menu_rating_load_test) {
+            onRatingLoadTestClicked();
+            return true;
+        } else if (itemId == R.id.menu_rating_stats_benchmark) {
+            onRatingStatsBenchmarkClicked();
+            return true;
         } else if (itemId == R.id.menu_sign_out) {
             AuthUI.getInstance().signOut(requireContext());
             startSignIn();
@@ -224,42 +303,58 @@ public class MainFragment extends Fragment implements
 
     @Override
     public void onFilter(Filters filters) {
-        // Construct query basic query
-        Query query = mFirestore.collection("restaurants");
+        // Query now, or once the user stops changing filters if this is one of many changes
+        mQueryScheduler.schedule(filters);
+    }
 
-        // Category (equality filter)
-        if (filters.hasCategory()) {
-            query = query.whereEqualTo(Restaurant.FIELD_CATEGORY, filters.getCategory());
-        }
+    private void applyFilters(Filters filters) {
+        // Construct query
+        Query query = filters.toQuery(mFirestore.collection("restaurants"));
 
-        // City (equality filter)
-        if (filters.hasCity()) {
-            query = query.whereEqualTo(Restaurant.FIELD_CITY, filters.getCity());
-        }
+        // Save filters
+        Filters previous = mViewModel.getFilters();
+        mViewModel.setFilters(filters);
 
-        // Price (equality filter)
-        if (filters.hasPrice()) {
-            query = query.whereEqualTo(Restaurant.FIELD_PRICE, filters.getPrice());
+        // Update the query, showing the last results for these filters, or a local answer
+        // until it loads. When the filters only narrow the current ones, the current results
+        // are filtered, otherwise the restaurants we have already synced are searched.
+        List<DocumentSnapshot> initialResults = mViewModel.getResultCache().get(filters);
+        if (initialResults == null && filters.isNarrowingOf(previous)) {
+            List<DocumentSnapshot> narrowed = filterLocally(mAdapter.getSnapshots(), filters);
+            if (!narrowed.isEmpty()) {
+                initialResults = narrowed;
+            }
         }
-
-        // Sort by (orderBy with direction)
-        if (filters.hasSortBy()) {
-            query = query.orderBy(filters.getSortBy(), filters.getSortDirection());
+        if (initialResults == null) {
+            initialResults = mViewModel.getRestaurantIndex().query(filters, LOCAL_RESULTS_LIMIT);
+            if (initialResults.isEmpty()) {
+                initialResults = null;
+            }
         }
-
-        // Limit items
-        query = query.limit(LIMIT);
-
-        // Update the query
-        mAdapter.setQuery(query);
+        if (initialResults != null) {
+            mQueryScheduler.onLocalResults();
+        }
+        mAdapter.setQuery(query, initialResults);
+        QueryResultCache resultCache = mViewModel.getResultCache();
+        Log.d(TAG, "onFilter: cache hits=" + resultCache.getHitCount()
+                + " misses=" + resultCache.getMissCount() + " " + mQueryScheduler);
 
         // Set header
         mBinding.textCurrentSearch.setText(HtmlCompat.fromHtml(filters.getSearchDescription(requireContext()),
                 HtmlCompat.FROM_HTML_MODE_LEGACY));
         mBinding.textCurrentSortBy.setText(filters.getOrderDescription(requireContext()));
+    }
 
-        // Save filters
-        mViewModel.setFilters(filters);
+    private List<DocumentSnapshot> filterLocally(List<DocumentSnapshot> snapshots,
+                                                 Filters filters) {
+        List<DocumentSnapshot> results = new ArrayList<>();
+        for (DocumentSnapshot snapshot : snapshots) {
+            Restaurant restaurant = ModelCache.RESTAURANTS.get(snapshot);
+            if (restaurant != null && filters.matches(restaurant)) {
+                results.add(snapshot);
+            }
+        }
+        return results;
     }
 
     private boolean shouldStartSignIn() {
@@ -285,34 +380,85 @@ public class MainFragment extends Fragment implements
 
     private void onAddItemsClicked() {
         // Add a bunch of random restaurants
-        WriteBatch batch = mFirestore.batch();
-        for (int i = 0; i < 10; i++) {
-            DocumentReference restRef = mFirestore.collection("restaurants").document();
+        seedRestaurants(10, System.nanoTime());
+    }
 
-            // Create random restaurant / ratings
-            Restaurant randomRestaurant = RestaurantUtil.getRandom(requireContext());
-            List<Rating> randomRatings = RatingUtil.getRandomList(randomRestaurant.getNumRatings());
-            randomRestaurant.setAvgRating(RatingUtil.getAverageRating(randomRatings));
+    private void onSeedLoadTestClicked() {
+        // Add a large data set for load testing, confirm first as it is meant for the emulator
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.title_seed_load_test)
+                .setMessage(getString(R.string.message_seed_load_test, SEED_LOAD_TEST_SIZE))
+                .setPositiveButton(R.string.option_add, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        seedRestaurants(SEED_LOAD_TEST_SIZE, SEED_LOAD_TEST_SEED);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
+    private void seedRestaurants(int count, long seed) {
+        // Restaurants and ratings are generated off the main thread and written in batches
+        DataGenerator generator = new DataGenerator(requireContext(), seed);
+        Log.d(TAG, "Seeding " + count + " restaurants, seed=" + seed + ", "
+                + generator.getDistribution());
+        new RestaurantSeeder(mFirestore, generator, SEED_MAX_IN_FLIGHT).seed(count)
+                .addOnCompleteListener(new OnCompleteListener<RestaurantSeeder.Result>() {
+                    @Override
+                    public void onComplete(@NonNull Task<RestaurantSeeder.Result> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Write batches succeeded: " + task.getResult());
+                        } else {
+                            Log.w(TAG, "write batch failed.", task.getException());
+                        }
+                    }
+                });
+    }
 
-            // Add restaurant
-            batch.set(restRef, randomRestaurant);
+    private void onIndexBenchmarkClicked() {
+        // Compare local index answers with Source.CACHE queries
+        new RestaurantIndexBenchmark(mFirestore, requireContext()).run()
+                .addOnCompleteListener(new OnCompleteListener<String>() {
+                    @Override
+                    public void onComplete(@NonNull Task<String> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Index benchmark:\n" + task.getResult());
+                        } else {
+                            Log.w(TAG, "Index benchmark failed.", task.getException());
+                        }
+                    }
+                });
+    }
 
-            // Add ratings to subcollection
-            for (Rating rating : randomRatings) {
-                batch.set(restRef.collection("ratings").document(), rating);
-            }
-        }
+    private void onRatingLoadTestClicked() {
+        // Compare transaction and sharded rating writes, best run against the emulator
+        new RatingLoadGenerator(mFirestore, 200, 20).run()
+                .addOnCompleteListener(new OnCompleteListener<String>() {
+                    @Override
+                    public void onComplete(@NonNull Task<String> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Rating load test:\n" + task.getResult());
+                        } else {
+                            Log.w(TAG, "Rating load test failed.", task.getException());
+                        }
+                    }
+                });
+    }
 
-        batch.commit().addOnCompleteListener(new OnCompleteListener<Void>() {
-            @Override
-            public void onComplete(@NonNull Task<Void> task) {
-                if (task.isSuccessful()) {
-                    Log.d(TAG, "Write batch succeeded.");
-                } else {
-                    Log.w(TAG, "write batch failed.", task.getException());
-                }
-            }
-        });
+    private void onRatingStatsBenchmarkClicked() {
+        // Replay a long run of ratings to compare average drift and update cost
+        new RatingStatsBenchmark().run()
+                .addOnCompleteListener(new OnCompleteListener<String>() {
+                    @Override
+                    public void onComplete(@NonNull Task<String> task) {
+                        if (task.isSuccessful()) {
+                            Log.d(TAG, "Rating stats benchmark:\n" + task.getResult());
+                        } else {
+                            Log.w(TAG, "Rating stats benchmark failed.", task.getException());
+                        }
+                    }
+                });
     }
 
     private void showSignInErrorDialog(@StringRes int message) {
@@ -16,15 +16,21 @@ import androidx.navigation.fragment.NavHostFragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
 import com.bumptech.glide.Glide;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.firebase.example.fireeats.R;
 import com.google.firebase.example.fireeats.databinding.FragmentRestaurantDetailBinding;
 import com.google.firebase.example.fireeats.java.adapter.RatingAdapter;
 import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.model.RatingStats;
 import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.example.fireeats.java.util.FirestoreConfig;
+import com.google.firebase.example.fireeats.java.util.ListenerRegistry;
+import com.google.firebase.example.fireeats.java.util.ModelCache;
+import com.google.firebase.example.fireeats.java.util.PhotoLoader;
+import com.google.firebase.example.fireeats.java.util.RatingCounter;
+import com.google.firebase.example.fireeats.java.util.RatingQueue;
 import com.google.firebase.example.fireeats.java.util.RestaurantUtil;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
@@ -33,10 +39,11 @@ import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.QuerySnapshot;
 
 public class RestaurantDetailFragment extends Fragment
-        implements EventListener<DocumentSnapshot>, RatingDialogFragment.RatingListener, View.OnClickListener {
+        implements EventListener<DocumentSnapshot>, RatingDialogFragment.RatingListener, View.OnClickListener,
+        RatingQueue.OnRatingsFailedListener {
 
     private static final String TAG = "RestaurantDetail";
 
@@ -47,6 +54,12 @@ public class RestaurantDetailFragment extends Fragment
     private FirebaseFirestore mFirestore;
     private DocumentReference mRestaurantRef;
     private ListenerRegistration mRestaurantRegistration;
+    private Restaurant mRestaurant;
+
+    // Ratings counted in the shards and not yet rolled up into the restaurant
+    private ListenerRegistration mShardsRegistration;
+    private QuerySnapshot mShards;
+    private boolean mRollingUp;
 
     private RatingAdapter mRatingAdapter;
 
@@ -67,16 +80,16 @@ public class RestaurantDetailFragment extends Fragment
         String restaurantId = RestaurantDetailFragmentArgs.fromBundle(getArguments()).getKeyRestaurantId();
 
         // Initialize Firestore
-        mFirestore = FirebaseFirestore.getInstance();
+        mFirestore = FirestoreConfig.getFirestore();
 
         // Get reference to the restaurant
         mRestaurantRef = mFirestore.collection("restaurants").document(restaurantId);
 
-        // Get ratings
+        // Get ratings, the adapter only listens to the newest page and loads older ones
+        // as the user scrolls
         Query ratingsQuery = mRestaurantRef
                 .collection("ratings")
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .limit(50);
+                .orderBy("timestamp", Query.Direction.DESCENDING);
 
         // RecyclerView
         mRatingAdapter = new RatingAdapter(ratingsQuery) {
@@ -91,6 +104,7 @@ public class RestaurantDetailFragment extends Fragment
                 }
             }
         };
+        mRatingAdapter.setWindowEnabled(true);
         mBinding.recyclerRatings.setLayoutManager(new LinearLayoutManager(requireContext()));
         mBinding.recyclerRatings.setAdapter(mRatingAdapter);
 
@@ -102,7 +116,25 @@ public class RestaurantDetailFragment extends Fragment
         super.onStart();
 
         mRatingAdapter.startListening();
-        mRestaurantRegistration = mRestaurantRef.addSnapshotListener(this);
+        // Shared listeners outlive onStop for a grace period, so coming back to this
+        // restaurant does not download it again
+        mRestaurantRegistration = ListenerRegistry.getInstance()
+                .addSnapshotListener(mRestaurantRef, this);
+        mShardsRegistration = ListenerRegistry.getInstance()
+                .addSnapshotListener(RatingCounter.getShards(mRestaurantRef),
+                        new EventListener<QuerySnapshot>() {
+                            @Override
+                            public void onEvent(QuerySnapshot snapshots,
+                                                FirebaseFirestoreException e) {
+                                if (e != null) {
+                                    Log.w(TAG, "shards:onEvent", e);
+                                    return;
+                                }
+
+                                onShardsLoaded(snapshots);
+                            }
+                        });
+        RatingQueue.getInstance(requireContext()).addOnRatingsFailedListener(this);
     }
 
     @Override
@@ -110,11 +142,17 @@ public class RestaurantDetailFragment extends Fragment
         super.onStop();
 
         mRatingAdapter.stopListening();
+        RatingQueue.getInstance(requireContext()).removeOnRatingsFailedListener(this);
 
         if (mRestaurantRegistration != null) {
             mRestaurantRegistration.remove();
             mRestaurantRegistration = null;
         }
+
+        if (mShardsRegistration != null) {
+            mShardsRegistration.remove();
+            mShardsRegistration = null;
+        }
     }
 
     /**
@@ -127,23 +165,79 @@ public class RestaurantDetailFragment extends Fragment
             return;
         }
 
-        onRestaurantLoaded(snapshot.toObject(Restaurant.class));
+        // Reuses the object decoded for the restaurant list while the document is unchanged
+        Restaurant restaurant = ModelCache.RESTAURANTS.get(snapshot);
+        if (restaurant != null) {
+            onRestaurantLoaded(restaurant);
+        }
     }
 
     private void onRestaurantLoaded(Restaurant restaurant) {
+        mRestaurant = restaurant;
+
         mBinding.restaurantName.setText(restaurant.getName());
-        mBinding.restaurantRating.setRating((float) restaurant.getAvgRating());
-        mBinding.restaurantNumRatings.setText(getString(R.string.fmt_num_ratings, restaurant.getNumRatings()));
+        showRatingTotals();
         mBinding.restaurantCity.setText(restaurant.getCity());
         mBinding.restaurantCategory.setText(restaurant.getCategory());
         mBinding.restaurantPrice.setText(RestaurantUtil.getPriceString(restaurant));
 
         // Background image
-        Glide.with(mBinding.restaurantImage.getContext())
-                .load(restaurant.getPhoto())
+        PhotoLoader.load(Glide.with(mBinding.restaurantImage.getContext()), restaurant.getPhoto())
                 .into(mBinding.restaurantImage);
     }
 
+    private void onShardsLoaded(QuerySnapshot shards) {
+        mShards = shards;
+        showRatingTotals();
+
+        // Fold the shards into the restaurant once they are on the server, so the list
+        // shows the new totals too
+        if (!shards.isEmpty() && !shards.getMetadata().hasPendingWrites()
+                && !shards.getMetadata().isFromCache() && !mRollingUp) {
+            mRollingUp = true;
+            RatingCounter.rollUp(mFirestore, shards)
+                    .addOnCompleteListener(new OnCompleteListener<Void>() {
+                        @Override
+                        public void onComplete(@NonNull Task<Void> task) {
+                            mRollingUp = false;
+                            if (!task.isSuccessful()) {
+                                Log.w(TAG, "rollUp:failed", task.getException());
+                            }
+                        }
+                    });
+        }
+    }
+
+    private void showRatingTotals() {
+        if (mRestaurant == null) {
+            return;
+        }
+
+        // Ratings still in the shards are added to the restaurant's totals
+        if (mShards != null) {
+            RatingCounter.Totals totals = RatingCounter.sum(mRestaurant, mShards);
+            mBinding.restaurantRating.setRating((float) totals.getAvgRating());
+            mBinding.restaurantNumRatings.setText(getString(R.string.fmt_num_ratings,
+                    totals.getNumRatings()));
+        } else {
+            mBinding.restaurantRating.setRating((float) mRestaurant.getAvgRating());
+            mBinding.restaurantNumRatings.setText(getString(R.string.fmt_num_ratings,
+                    mRestaurant.getNumRatings()));
+        }
+
+        // Spread of the ratings, from the histogram and variance kept with the totals
+        RatingStats stats = mRestaurant.getRatingStats();
+        if (stats != null && stats.getCount() > 0) {
+            mBinding.restaurantRatingStats.setText(getString(R.string.fmt_rating_stats,
+                    stats.getPercentile(0.5),
+                    stats.getPercentile(0.9),
+                    stats.getStandardDeviation()));
+            mBinding.restaurantRatingStats.setVisibility(View.VISIBLE);
+        } else {
+            mBinding.restaurantRatingStats.setVisibility(View.GONE);
+        }
+    }
+
     public void onBackArrowClicked(View view) {
         NavHostFragment.findNavController(this).popBackStack();
     }
@@ -154,59 +248,28 @@ public class RestaurantDetailFragment extends Fragment
 
     @Override
     public void onRating(Rating rating) {
-        // In a transaction, add the new rating and update the aggregate totals
-        addRating(mRestaurantRef, rating)
-                .addOnSuccessListener(requireActivity(), new OnSuccessListener<Void>() {
-                    @Override
-                    public void onSuccess(Void aVoid) {
-                        Log.d(TAG, "Rating added");
-
-                        // Hide keyboard and scroll to top
-                        hideKeyboard();
-                        mBinding.recyclerRatings.smoothScrollToPosition(0);
-                    }
-                })
-                .addOnFailureListener(requireActivity(), new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        Log.w(TAG, "Add rating failed", e);
-
-                        // Show failure message and hide keyboard
-                        hideKeyboard();
-                        Snackbar.make(mBinding.getRoot(), "Failed to add rating",
-                                Snackbar.LENGTH_SHORT).show();
-                    }
-                });
+        // Queue the new rating, it is committed in a batch with a shard increment and
+        // reaches the server now or when the device is back online
+        RatingQueue queue = RatingQueue.getInstance(requireContext());
+        queue.enqueue(mRestaurantRef, rating);
+
+        // Hide keyboard and scroll to top
+        hideKeyboard();
+        if (queue.isOnline()) {
+            mBinding.recyclerRatings.smoothScrollToPosition(0);
+        } else {
+            Snackbar.make(mBinding.getRoot(), R.string.message_rating_queued,
+                    Snackbar.LENGTH_SHORT).show();
+        }
     }
 
-    private Task<Void> addRating(final DocumentReference restaurantRef, final Rating rating) {
-        // Create reference for new rating, for use inside the transaction
-        final DocumentReference ratingRef = restaurantRef.collection("ratings").document();
-
-        // In a transaction, add the new rating and update the aggregate totals
-        return mFirestore.runTransaction(new Transaction.Function<Void>() {
-            @Override
-            public Void apply(Transaction transaction) throws FirebaseFirestoreException {
-                Restaurant restaurant = transaction.get(restaurantRef).toObject(Restaurant.class);
-
-                // Compute new number of ratings
-                int newNumRatings = restaurant.getNumRatings() + 1;
-
-                // Compute new average rating
-                double oldRatingTotal = restaurant.getAvgRating() * restaurant.getNumRatings();
-                double newAvgRating = (oldRatingTotal + rating.getRating()) / newNumRatings;
-
-                // Set new restaurant info
-                restaurant.setNumRatings(newNumRatings);
-                restaurant.setAvgRating(newAvgRating);
-
-                // Commit to Firestore
-                transaction.set(restaurantRef, restaurant);
-                transaction.set(ratingRef, rating);
-
-                return null;
-            }
-        });
+    @Override
+    public void onRatingsFailed(DocumentReference restaurantRef, int count, Exception e) {
+        // Queued ratings for this restaurant were dropped, they will never be written
+        if (restaurantRef.equals(mRestaurantRef)) {
+            Snackbar.make(mBinding.getRoot(), "Failed to add rating",
+                    Snackbar.LENGTH_SHORT).show();
+        }
     }
 
     private void hideKeyboard() {
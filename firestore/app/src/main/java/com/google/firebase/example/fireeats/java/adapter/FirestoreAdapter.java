@@ -1,24 +1,37 @@
 package com.google.firebase.example.fireeats.java.adapter;
 
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import android.util.Log;
 
+import com.google.firebase.example.fireeats.java.util.ListenerRegistry;
 import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * RecyclerView adapter for displaying the results of a Firestore {@link Query}.
  *
- * Note that this class forgoes some efficiency to gain simplicity. For example, the result of
- * {@link DocumentSnapshot#toObject(Class)} is not cached so the same object may be deserialized
- * many times as the user scrolls.
+ * Note that this class does not deserialize documents itself. Subclasses that bind model objects
+ * can use {@link #onDocumentChanges(List)} to decode each document once into a
+ * {@link com.google.firebase.example.fireeats.java.util.ModelCache} rather than calling
+ * {@link DocumentSnapshot#toObject(Class)} every time a row is bound.
+ *
+ * By default each {@link DocumentChange} is dispatched to the RecyclerView as it arrives. When
+ * async diffing is enabled (see {@link #setAsyncDiffingEnabled(boolean, Executor)}) each new
+ * snapshot is instead diffed against the current list on a background thread and the result is
+ * posted to the RecyclerView as a single batch of updates.
  */
 public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
         extends RecyclerView.Adapter<VH>
@@ -26,11 +39,35 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
 
     private static final String TAG = "FirestoreAdapter";
 
+    private static final DiffUtil.ItemCallback<DocumentSnapshot> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<DocumentSnapshot>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull DocumentSnapshot oldItem,
+                                               @NonNull DocumentSnapshot newItem) {
+                    return oldItem.getId().equals(newItem.getId());
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull DocumentSnapshot oldItem,
+                                                  @NonNull DocumentSnapshot newItem) {
+                    // Compare the data only, metadata changes (such as hasPendingWrites)
+                    // do not need to re-bind the item.
+                    Object oldData = oldItem.getData();
+                    return oldData != null && oldData.equals(newItem.getData());
+                }
+            };
+
     private Query mQuery;
-    private ListenerRegistration mRegistration;
+    private ListenerRegistry.Registration mRegistration;
+
+    // Query whose results are shown, null for initial snapshots passed to setQuery
+    private Query mResultsQuery;
 
     private ArrayList<DocumentSnapshot> mSnapshots = new ArrayList<>();
 
+    // Only set when async diffing is enabled
+    private AsyncListDiffer<DocumentSnapshot> mDiffer;
+
     public FirestoreAdapter(Query query) {
         mQuery = query;
     }
@@ -43,6 +80,23 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
             return;
         }
 
+        onDocumentChanges(documentSnapshots.getDocumentChanges());
+
+        if (mDiffer != null) {
+            // Diff the new results off the main thread and dispatch them as one batch
+            Log.d(TAG, "onEvent:submitList:" + documentSnapshots.size());
+            submitSnapshots(documentSnapshots.getDocuments());
+            return;
+        }
+
+        if (mResultsQuery != mQuery) {
+            // The rows shown are the initial snapshots passed to setQuery, or none. The first
+            // snapshot adds every result, so replace them instead of inserting on top.
+            Log.d(TAG, "onEvent:replace:" + documentSnapshots.size());
+            submitSnapshots(documentSnapshots.getDocuments());
+            return;
+        }
+
         // Dispatch the event
         Log.d(TAG, "onEvent:numChanges:" + documentSnapshots.getDocumentChanges().size());
         for (DocumentChange change : documentSnapshots.getDocumentChanges()) {
@@ -59,45 +113,152 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
             }
         }
 
+        mResultsQuery = mQuery;
         onDataChanged();
     }
 
     public void startListening() {
         if (mQuery != null && mRegistration == null) {
-            mRegistration = mQuery.addSnapshotListener(this);
+            // Shared with any other consumer of the same query
+            mRegistration = ListenerRegistry.getInstance().addSnapshotListener(mQuery, this);
         }
     }
 
     public void stopListening() {
-        if (mRegistration != null) {
-            mRegistration.remove();
-            mRegistration = null;
-        }
-
-        mSnapshots.clear();
-        notifyDataSetChanged();
+        removeRegistration(true);
+        clearSnapshots();
     }
 
     public void setQuery(Query query) {
-        // Stop listening
-        stopListening();
+        setQuery(query, null);
+    }
 
-        // Clear existing data
-        mSnapshots.clear();
-        notifyDataSetChanged();
+    /**
+     * Listen to a new query, showing {@code initialSnapshots} (for example cached results of the
+     * same query) until its first snapshot arrives, which replaces them.
+     */
+    public void setQuery(Query query, List<DocumentSnapshot> initialSnapshots) {
+        // Stop listening, the old query was replaced so its listener is not kept around
+        removeRegistration(false);
+
+        // Clear existing data. When diffing, the old results stay on screen and the
+        // first snapshot of the new query is diffed against them instead.
+        if (initialSnapshots != null) {
+            submitSnapshots(initialSnapshots, null);
+        } else if (mDiffer == null) {
+            clearSnapshots();
+        }
 
         // Listen to new query
         mQuery = query;
         startListening();
     }
 
+    /**
+     * Switch between dispatching each {@link DocumentChange} on the main thread (the default) and
+     * diffing whole snapshots on a background thread.
+     *
+     * @param enabled true to diff snapshots in the background.
+     * @param executor executor used to compute diffs, or null to use the shared default.
+     */
+    public void setAsyncDiffingEnabled(boolean enabled, Executor executor) {
+        if (enabled == (mDiffer != null)) {
+            return;
+        }
+
+        clearSnapshots();
+
+        if (enabled) {
+            AsyncDifferConfig.Builder<DocumentSnapshot> config =
+                    new AsyncDifferConfig.Builder<>(DIFF_CALLBACK);
+            if (executor != null) {
+                config.setBackgroundThreadExecutor(executor);
+            }
+            mDiffer = new AsyncListDiffer<>(new AdapterListUpdateCallback(this), config.build());
+        } else {
+            mDiffer = null;
+        }
+    }
+
+    public void setAsyncDiffingEnabled(boolean enabled) {
+        setAsyncDiffingEnabled(enabled, null);
+    }
+
     @Override
     public int getItemCount() {
-        return mSnapshots.size();
+        return getSnapshots().size();
     }
 
     protected DocumentSnapshot getSnapshot(int index) {
-        return mSnapshots.get(index);
+        return getSnapshots().get(index);
+    }
+
+    protected Query getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Get the query whose results are shown, which lags behind {@link #getQuery()} until the
+     * new query's results are dispatched. Null while the initial snapshots passed to
+     * {@link #setQuery(Query, List)} are shown.
+     */
+    protected Query getResultsQuery() {
+        return mResultsQuery;
+    }
+
+    /**
+     * Replace the whole result list. When async diffing is enabled the new list is diffed in the
+     * background, otherwise the RecyclerView is refreshed in full.
+     */
+    protected void submitSnapshots(List<DocumentSnapshot> snapshots) {
+        submitSnapshots(snapshots, mQuery);
+    }
+
+    private void submitSnapshots(List<DocumentSnapshot> snapshots, final Query resultsQuery) {
+        if (mDiffer != null) {
+            // The query is captured now, the diff may finish after a setQuery
+            mDiffer.submitList(snapshots, new Runnable() {
+                @Override
+                public void run() {
+                    mResultsQuery = resultsQuery;
+                    onDataChanged();
+                }
+            });
+        } else {
+            mSnapshots.clear();
+            mSnapshots.addAll(snapshots);
+            notifyDataSetChanged();
+            mResultsQuery = resultsQuery;
+            onDataChanged();
+        }
+    }
+
+    /**
+     * Get the results currently shown by the adapter.
+     */
+    public List<DocumentSnapshot> getSnapshots() {
+        return mDiffer != null ? mDiffer.getCurrentList() : mSnapshots;
+    }
+
+    private void removeRegistration(boolean keepAlive) {
+        if (mRegistration != null) {
+            if (keepAlive) {
+                mRegistration.remove();
+            } else {
+                mRegistration.removeNow();
+            }
+            mRegistration = null;
+        }
+    }
+
+    private void clearSnapshots() {
+        mResultsQuery = null;
+        if (mDiffer != null) {
+            mDiffer.submitList(null);
+        } else {
+            mSnapshots.clear();
+            notifyDataSetChanged();
+        }
     }
 
     protected void onDocumentAdded(DocumentChange change) {
@@ -123,6 +284,11 @@ public abstract class FirestoreAdapter<VH extends RecyclerView.ViewHolder>
         notifyItemRemoved(change.getOldIndex());
     }
 
+    /**
+     * Called with the changes of every snapshot, before they are applied to the adapter.
+     */
+    protected void onDocumentChanges(List<DocumentChange> changes) {}
+
     protected void onError(FirebaseFirestoreException e) {
         Log.w(TAG, "onError", e);
     };
@@ -0,0 +1,291 @@
+package com.google.firebase.example.fireeats.java.adapter;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.firebase.example.fireeats.java.util.ListenerRegistry;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link FirestoreAdapter} that loads the results of a {@link Query} one page at a time.
+ *
+ * Each page after the first is fetched with {@link Query#startAfter(DocumentSnapshot)} using the
+ * last document of the previous page as the cursor. The next page is requested when the user
+ * scrolls to within {@code prefetchDistance} items of the end of the list, and only the pages
+ * that are on (or next to) the screen keep a live snapshot listener. Pages that scroll a little
+ * away keep their last known results, and pages more than a page further away are released so
+ * that memory does not grow with how far the list was scrolled. A released page keeps its query
+ * and is listened to again when the user scrolls back to it. Pages that scroll out of the live
+ * range remove their listeners right away rather than keeping them for the grace period of
+ * {@link ListenerRegistry}, only {@link #stopListening()} keeps them for a configuration change.
+ *
+ * The query passed to this adapter should not have a limit, each page applies its own.
+ */
+public abstract class FirestorePagingAdapter<VH extends RecyclerView.ViewHolder>
+        extends FirestoreAdapter<VH> {
+
+    private static final String TAG = "FirestorePagingAdapter";
+
+    private final int mPageSize;
+    private final int mPrefetchDistance;
+
+    private final ArrayList<Page> mPages = new ArrayList<>();
+
+    private RecyclerView mRecyclerView;
+
+    // Also called with dx = dy = 0 when a layout changes the visible range
+    private final RecyclerView.OnScrollListener mScrollListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                    onVisibleRangeChanged();
+                }
+            };
+
+    public FirestorePagingAdapter(Query query, int pageSize, int prefetchDistance) {
+        super(query);
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+
+        // Pages are merged into one list, so let the differ work out what changed
+        setAsyncDiffingEnabled(true);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        mRecyclerView = recyclerView;
+        mRecyclerView.addOnScrollListener(mScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        recyclerView.removeOnScrollListener(mScrollListener);
+        mRecyclerView = null;
+    }
+
+    @Override
+    public void startListening() {
+        if (getQuery() == null) {
+            return;
+        }
+
+        if (mPages.isEmpty()) {
+            mPages.add(new Page(getFirstPageQuery(getQuery(), mPageSize)));
+        }
+
+        onVisibleRangeChanged();
+    }
+
+    @Override
+    public void stopListening() {
+        for (Page page : mPages) {
+            page.detach(true);
+        }
+        mPages.clear();
+
+        super.stopListening();
+    }
+
+    @Override
+    public void setQuery(Query query, List<DocumentSnapshot> initialSnapshots) {
+        for (Page page : mPages) {
+            page.detach(false);
+        }
+        mPages.clear();
+
+        super.setQuery(query, initialSnapshots);
+    }
+
+    /**
+     * Number of pages that currently have a live snapshot listener.
+     */
+    public int getLivePageCount() {
+        int count = 0;
+        for (Page page : mPages) {
+            if (page.mRegistration != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void onVisibleRangeChanged() {
+        if (mPages.isEmpty()) {
+            return;
+        }
+
+        int first = 0;
+        int last = 0;
+        if (mRecyclerView != null
+                && mRecyclerView.getLayoutManager() instanceof LinearLayoutManager) {
+            LinearLayoutManager manager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+            first = Math.max(manager.findFirstVisibleItemPosition(), 0);
+            last = Math.max(manager.findLastVisibleItemPosition(), 0);
+        }
+
+        int firstLoaded = -1;
+        int lastLoaded = -1;
+        for (int i = 0; i < mPages.size(); i++) {
+            if (mPages.get(i).mLoaded) {
+                if (firstLoaded < 0) {
+                    firstLoaded = i;
+                }
+                lastLoaded = i;
+            }
+        }
+
+        // Keep listeners only on the pages around the visible items, and results only on the
+        // pages up to one more page away
+        int liveStart = first - mPrefetchDistance;
+        int liveEnd = last + mPrefetchDistance;
+        int keepStart = liveStart - mPageSize;
+        int keepEnd = liveEnd + mPageSize;
+        List<DocumentSnapshot> released = new ArrayList<>();
+        int pageStart = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+
+            // Positions are those on screen, before any page released here is removed
+            int size = page.mDocuments.size();
+            int pageEnd = pageStart + Math.max(size, 1) - 1;
+            boolean live = pageEnd >= liveStart && pageStart <= liveEnd;
+            if (!page.mLoaded) {
+                // Released or still loading, only listen again next to the loaded pages
+                boolean adjacent = firstLoaded < 0 || i == firstLoaded - 1 || i == lastLoaded + 1;
+                if (live && adjacent) {
+                    page.attach();
+                } else {
+                    page.detach(false);
+                }
+            } else if (live) {
+                page.attach();
+            } else if (pageEnd >= keepStart && pageStart <= keepEnd) {
+                page.detach(false);
+            } else {
+                released.addAll(page.mDocuments);
+                page.release();
+            }
+            pageStart += size;
+        }
+
+        if (!released.isEmpty()) {
+            Log.d(TAG, "releasePages:" + released.size() + " documents");
+            onDocumentsEvicted(released);
+            onPageChanged();
+        }
+
+        // Load the next page when close to the end of the list
+        Page lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage.mLoaded
+                && lastPage.mDocuments.size() >= mPageSize
+                && last >= pageStart - mPrefetchDistance) {
+            DocumentSnapshot cursor = lastPage.mDocuments.get(lastPage.mDocuments.size() - 1);
+            Log.d(TAG, "loadPage:" + mPages.size());
+
+            Page next = new Page(getQuery().startAfter(cursor).limit(mPageSize));
+            mPages.add(next);
+            next.attach();
+        }
+    }
+
+    /**
+     * The query of the first page of results, the one the adapter listens to first. Running it
+     * ahead of time loads the first page into the cache.
+     */
+    public static Query getFirstPageQuery(Query query, int pageSize) {
+        return query.limit(pageSize);
+    }
+
+    /**
+     * Called with the documents of released pages, for example to evict their model objects.
+     */
+    protected void onDocumentsEvicted(List<DocumentSnapshot> documents) {}
+
+    private void onPageChanged() {
+        // Merge the pages, a document that moved across a page boundary is only shown once
+        List<DocumentSnapshot> merged = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (Page page : mPages) {
+            for (DocumentSnapshot snapshot : page.mDocuments) {
+                if (ids.add(snapshot.getId())) {
+                    merged.add(snapshot);
+                }
+            }
+        }
+
+        submitSnapshots(merged);
+    }
+
+    /**
+     * One page of results and its (optional) live listener.
+     */
+    private class Page implements EventListener<QuerySnapshot> {
+
+        private final Query mPageQuery;
+        private ListenerRegistry.Registration mRegistration;
+        private List<DocumentSnapshot> mDocuments = new ArrayList<>();
+        private boolean mLoaded;
+
+        Page(Query pageQuery) {
+            mPageQuery = pageQuery;
+        }
+
+        void attach() {
+            if (mRegistration == null) {
+                mRegistration = ListenerRegistry.getInstance()
+                        .addSnapshotListener(mPageQuery, this);
+            }
+        }
+
+        void detach(boolean keepAlive) {
+            if (mRegistration != null) {
+                if (keepAlive) {
+                    mRegistration.remove();
+                } else {
+                    mRegistration.removeNow();
+                }
+                mRegistration = null;
+            }
+        }
+
+        void release() {
+            detach(false);
+            mDocuments = new ArrayList<>();
+            mLoaded = false;
+        }
+
+        @Override
+        public void onEvent(QuerySnapshot snapshots, FirebaseFirestoreException e) {
+            if (e != null) {
+                Log.w(TAG, "page:onEvent:error", e);
+                onError(e);
+                return;
+            }
+
+            // Ignore events from a page that was dropped by setQuery/stopListening
+            if (!mPages.contains(this)) {
+                return;
+            }
+
+            onDocumentChanges(snapshots.getDocumentChanges());
+
+            mDocuments = snapshots.getDocuments();
+            mLoaded = true;
+            onPageChanged();
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.google.firebase.example.fireeats.java.adapter;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.example.fireeats.java.util.ListenerRegistry;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link FirestoreAdapter} that can show a sliding window over a long query, such as the
+ * ratings of a restaurant newest first, with flat memory and listener cost.
+ *
+ * When the window is enabled (see {@link #setWindowEnabled(boolean)}) only the newest page has
+ * a live snapshot listener. Older pages are fetched once with {@link Query#get()} as the user
+ * scrolls down, using the last document loaded as the cursor. At most {@code maxPages} pages are
+ * held at a time: pages that scroll out of the window are dropped from memory and fetched again
+ * if the user scrolls back to them. The newest page keeps its listener while it is out of the
+ * window.
+ *
+ * The first time an older page is needed, the newest page is pinned to its oldest document by
+ * moving its listener from {@code limit(pageSize)} to {@link Query#endAt(DocumentSnapshot)}.
+ * New documents then join the newest page rather than pushing documents into the gap before the
+ * older pages. Once the newest page holds more than {@code pageSize} documents it is pinned
+ * again to its {@code pageSize}-th document and the rest become an older page.
+ *
+ * The query passed to this adapter should not have a limit.
+ */
+public abstract class FirestoreWindowedAdapter<VH extends RecyclerView.ViewHolder>
+        extends FirestoreAdapter<VH> {
+
+    private static final String TAG = "FirestoreWindowed";
+
+    private final int mPageSize;
+    private final int mMaxPages;
+    private final int mPrefetchDistance;
+
+    private boolean mWindowEnabled;
+
+    // The newest page
+    private final LiveListener mLiveListener = new LiveListener();
+    private ListenerRegistry.Registration mLiveRegistration;
+    private List<DocumentSnapshot> mLive = new ArrayList<>();
+    private boolean mLiveLoaded;
+    private boolean mShowLive = true;
+
+    // Oldest document of the newest page once it is pinned, older pages start after it
+    private DocumentSnapshot mAnchor;
+
+    // Older pages in the window, newest first. None of them are empty.
+    private final ArrayList<List<DocumentSnapshot>> mPages = new ArrayList<>();
+    private boolean mEndReached;
+    private boolean mLoading;
+
+    // Incremented whenever the window is reset, so that late results are ignored
+    private int mGeneration;
+
+    private RecyclerView mRecyclerView;
+
+    // Also called with dx = dy = 0 when a layout changes the visible range
+    private final RecyclerView.OnScrollListener mScrollListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                    onVisibleRangeChanged();
+                }
+            };
+
+    /**
+     * @param maxPages maximum number of pages in the window, at least 2.
+     */
+    public FirestoreWindowedAdapter(Query query, int pageSize, int maxPages,
+                                    int prefetchDistance) {
+        super(query);
+        mPageSize = pageSize;
+        mMaxPages = Math.max(maxPages, 2);
+        mPrefetchDistance = prefetchDistance;
+    }
+
+    /**
+     * Switch between listening to the whole query (the default) and the sliding window. Must be
+     * called before {@link #startListening()}.
+     */
+    public void setWindowEnabled(boolean enabled) {
+        mWindowEnabled = enabled;
+
+        // Pages are merged into one list, so let the differ work out what changed
+        setAsyncDiffingEnabled(enabled);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        mRecyclerView = recyclerView;
+        mRecyclerView.addOnScrollListener(mScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        recyclerView.removeOnScrollListener(mScrollListener);
+        mRecyclerView = null;
+    }
+
+    @Override
+    public void startListening() {
+        if (!mWindowEnabled) {
+            super.startListening();
+            return;
+        }
+
+        if (getQuery() != null && mLiveRegistration == null) {
+            listenToLive();
+        }
+    }
+
+    @Override
+    public void stopListening() {
+        resetWindow(true);
+        super.stopListening();
+    }
+
+    @Override
+    public void setQuery(Query query, List<DocumentSnapshot> initialSnapshots) {
+        resetWindow(false);
+        super.setQuery(query, initialSnapshots);
+    }
+
+    /**
+     * Number of pages held in memory, including the newest page when it is in the window.
+     */
+    public int getWindowPageCount() {
+        return mPages.size() + (mShowLive ? 1 : 0);
+    }
+
+    /**
+     * Called with documents dropped from the window, for example to evict their model objects.
+     */
+    protected void onDocumentsEvicted(List<DocumentSnapshot> documents) {}
+
+    private void listenToLive() {
+        // The previous live query was replaced by one with a new anchor
+        if (mLiveRegistration != null) {
+            mLiveRegistration.removeNow();
+        }
+
+        Query live = mAnchor != null
+                ? getQuery().endAt(mAnchor)
+                : getQuery().limit(mPageSize);
+        mLiveRegistration = ListenerRegistry.getInstance().addSnapshotListener(live, mLiveListener);
+    }
+
+    private void resetWindow(boolean keepAlive) {
+        mGeneration++;
+
+        if (mLiveRegistration != null) {
+            if (keepAlive) {
+                mLiveRegistration.remove();
+            } else {
+                mLiveRegistration.removeNow();
+            }
+            mLiveRegistration = null;
+        }
+
+        mLive = new ArrayList<>();
+        mLiveLoaded = false;
+        mShowLive = true;
+        mAnchor = null;
+        mPages.clear();
+        mEndReached = false;
+        mLoading = false;
+    }
+
+    private void onVisibleRangeChanged() {
+        if (!mWindowEnabled || !mLiveLoaded || mLoading) {
+            return;
+        }
+
+        int first = 0;
+        int last = 0;
+        if (mRecyclerView != null
+                && mRecyclerView.getLayoutManager() instanceof LinearLayoutManager) {
+            LinearLayoutManager manager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+            first = Math.max(manager.findFirstVisibleItemPosition(), 0);
+            last = Math.max(manager.findLastVisibleItemPosition(), 0);
+        }
+
+        if (!mEndReached && last >= getItemCount() - 1 - mPrefetchDistance) {
+            loadOlder();
+        } else if (!mShowLive && first <= mPrefetchDistance) {
+            loadNewer();
+        }
+    }
+
+    private void loadOlder() {
+        if (mAnchor == null) {
+            if (mLive.size() < mPageSize) {
+                // Everything fits in the newest page
+                mEndReached = true;
+                return;
+            }
+
+            // Pin the newest page before loading anything after it
+            mAnchor = mLive.get(mLive.size() - 1);
+            listenToLive();
+        }
+
+        DocumentSnapshot cursor = mPages.isEmpty()
+                ? mAnchor
+                : last(mPages.get(mPages.size() - 1));
+        Log.d(TAG, "loadOlder:" + getWindowPageCount());
+        load(getQuery().startAfter(cursor).limit(mPageSize), true);
+    }
+
+    private void loadNewer() {
+        // The newest page is only out of the window while there are older pages in it
+        DocumentSnapshot cursor = mPages.get(0).get(0);
+        Log.d(TAG, "loadNewer:" + getWindowPageCount());
+        load(getQuery().startAfter(mAnchor).endBefore(cursor).limitToLast(mPageSize), false);
+    }
+
+    private void load(Query pageQuery, final boolean older) {
+        mLoading = true;
+        final int generation = mGeneration;
+
+        pageQuery.get()
+                .addOnSuccessListener(new OnSuccessListener<QuerySnapshot>() {
+                    @Override
+                    public void onSuccess(QuerySnapshot snapshots) {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mLoading = false;
+
+                        onDocumentChanges(snapshots.getDocumentChanges());
+                        if (older) {
+                            onOlderLoaded(snapshots.getDocuments());
+                        } else {
+                            onNewerLoaded(snapshots.getDocuments());
+                        }
+                        onWindowChanged();
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mLoading = false;
+
+                        // Tried again on the next scroll
+                        Log.w(TAG, "load:failed", e);
+                        if (e instanceof FirebaseFirestoreException) {
+                            onError((FirebaseFirestoreException) e);
+                        }
+                    }
+                });
+    }
+
+    private void onOlderLoaded(List<DocumentSnapshot> documents) {
+        if (documents.size() < mPageSize) {
+            mEndReached = true;
+        }
+        if (!documents.isEmpty()) {
+            mPages.add(documents);
+        }
+
+        // Drop the newest pages of the window
+        while (getWindowPageCount() > mMaxPages) {
+            if (mShowLive) {
+                mShowLive = false;
+            } else {
+                onDocumentsEvicted(mPages.remove(0));
+            }
+        }
+    }
+
+    private void onNewerLoaded(List<DocumentSnapshot> documents) {
+        if (!documents.isEmpty()) {
+            mPages.add(0, documents);
+        }
+        if (documents.size() < mPageSize) {
+            // Reached the newest page
+            mShowLive = true;
+        }
+
+        // Drop the oldest pages of the window
+        while (getWindowPageCount() > mMaxPages) {
+            onDocumentsEvicted(mPages.remove(mPages.size() - 1));
+            mEndReached = false;
+        }
+    }
+
+    private void reanchor() {
+        // Keep the newest page of the pinned listener and hand the rest to the older pages
+        List<DocumentSnapshot> overflow = new ArrayList<>(mLive.subList(mPageSize, mLive.size()));
+        mLive = new ArrayList<>(mLive.subList(0, mPageSize));
+        mAnchor = last(mLive);
+        Log.d(TAG, "reanchor:" + overflow.size());
+
+        if (mShowLive) {
+            mPages.add(0, overflow);
+
+            // Drop the oldest pages of the window
+            while (getWindowPageCount() > mMaxPages) {
+                onDocumentsEvicted(mPages.remove(mPages.size() - 1));
+                mEndReached = false;
+            }
+        } else {
+            // Out of the window, fetched again by loadNewer() if the user scrolls back
+            onDocumentsEvicted(overflow);
+        }
+
+        listenToLive();
+    }
+
+    private void onWindowChanged() {
+        // Merge the pages, a document is only shown once
+        List<DocumentSnapshot> merged = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        if (mShowLive) {
+            for (DocumentSnapshot snapshot : mLive) {
+                if (ids.add(snapshot.getId())) {
+                    merged.add(snapshot);
+                }
+            }
+        }
+        for (List<DocumentSnapshot> page : mPages) {
+            for (DocumentSnapshot snapshot : page) {
+                if (ids.add(snapshot.getId())) {
+                    merged.add(snapshot);
+                }
+            }
+        }
+
+        submitSnapshots(merged);
+    }
+
+    private static DocumentSnapshot last(List<DocumentSnapshot> page) {
+        return page.get(page.size() - 1);
+    }
+
+    /**
+     * Listener for the newest page.
+     */
+    private class LiveListener implements EventListener<QuerySnapshot> {
+
+        @Override
+        public void onEvent(QuerySnapshot snapshots, FirebaseFirestoreException e) {
+            if (e != null) {
+                Log.w(TAG, "live:onEvent:error", e);
+                onError(e);
+                return;
+            }
+
+            onDocumentChanges(snapshots.getDocumentChanges());
+
+            mLive = snapshots.getDocuments();
+            mLiveLoaded = true;
+
+            // New documents keep joining a pinned page, don't let it grow without bound. Not
+            // while a page is loading, its cursor may be the current anchor.
+            if (mAnchor != null && !mLoading && mLive.size() > mPageSize) {
+                reanchor();
+            }
+            if (mShowLive) {
+                onWindowChanged();
+            }
+        }
+    }
+}
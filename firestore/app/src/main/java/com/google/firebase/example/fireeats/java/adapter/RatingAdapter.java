@@ -7,18 +7,29 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.example.fireeats.databinding.ItemRatingBinding;
 import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.util.ModelCache;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.Query;
 
 import java.text.SimpleDateFormat;
+import java.util.List;
 import java.util.Locale;
 
 /**
  * RecyclerView adapter for a list of {@link Rating}.
+ *
+ * For restaurants with many ratings enable the window (see
+ * {@link FirestoreWindowedAdapter#setWindowEnabled(boolean)}) to only hold a few pages.
  */
-public class RatingAdapter extends FirestoreAdapter<RatingAdapter.ViewHolder> {
+public class RatingAdapter extends FirestoreWindowedAdapter<RatingAdapter.ViewHolder> {
+
+    private static final int PAGE_SIZE = 20;
+    private static final int MAX_PAGES = 5;
+    private static final int PREFETCH_DISTANCE = 10;
 
     public RatingAdapter(Query query) {
-        super(query);
+        super(query, PAGE_SIZE, MAX_PAGES, PREFETCH_DISTANCE);
     }
 
     @Override
@@ -29,7 +40,19 @@ public class RatingAdapter extends FirestoreAdapter<RatingAdapter.ViewHolder> {
 
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        holder.bind(getSnapshot(position).toObject(Rating.class));
+        holder.bind(ModelCache.RATINGS.get(getSnapshot(position)));
+    }
+
+    @Override
+    protected void onDocumentChanges(List<DocumentChange> changes) {
+        ModelCache.RATINGS.onDocumentChanges(changes);
+    }
+
+    @Override
+    protected void onDocumentsEvicted(List<DocumentSnapshot> documents) {
+        for (DocumentSnapshot snapshot : documents) {
+            ModelCache.RATINGS.remove(snapshot);
+        }
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
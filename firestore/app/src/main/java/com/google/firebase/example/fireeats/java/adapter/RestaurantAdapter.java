@@ -11,14 +11,25 @@ import com.bumptech.glide.Glide;
 import com.google.firebase.example.fireeats.R;
 import com.google.firebase.example.fireeats.databinding.ItemRestaurantBinding;
 import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.example.fireeats.java.util.ModelCache;
+import com.google.firebase.example.fireeats.java.util.PhotoLoader;
+import com.google.firebase.example.fireeats.java.util.PhotoPrefetcher;
 import com.google.firebase.example.fireeats.java.util.RestaurantUtil;
+import com.google.firebase.example.fireeats.java.util.StartupMetrics;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.Query;
 
+import java.util.List;
+
 /**
  * RecyclerView adapter for a list of Restaurants.
  */
-public class RestaurantAdapter extends FirestoreAdapter<RestaurantAdapter.ViewHolder> {
+public class RestaurantAdapter extends FirestorePagingAdapter<RestaurantAdapter.ViewHolder>
+        implements PhotoPrefetcher.PhotoProvider {
+
+    public static final int PAGE_SIZE = 20;
+    private static final int PREFETCH_DISTANCE = 10;
 
     public interface OnRestaurantSelectedListener {
 
@@ -29,10 +40,17 @@ public class RestaurantAdapter extends FirestoreAdapter<RestaurantAdapter.ViewHo
     private OnRestaurantSelectedListener mListener;
 
     public RestaurantAdapter(Query query, OnRestaurantSelectedListener listener) {
-        super(query);
+        super(query, PAGE_SIZE, PREFETCH_DISTANCE);
         mListener = listener;
     }
 
+    /**
+     * The query of the first page this adapter shows for {@code query}.
+     */
+    public static Query getFirstPageQuery(Query query) {
+        return getFirstPageQuery(query, PAGE_SIZE);
+    }
+
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         return new ViewHolder(ItemRestaurantBinding.inflate(
@@ -41,7 +59,37 @@ public class RestaurantAdapter extends FirestoreAdapter<RestaurantAdapter.ViewHo
 
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        holder.bind(getSnapshot(position), mListener);
+        DocumentSnapshot snapshot = getSnapshot(position);
+        holder.bind(snapshot, ModelCache.RESTAURANTS.get(snapshot), mListener);
+
+        // Results shown before the query's own are a local answer
+        StartupMetrics.Origin origin;
+        if (getResultsQuery() == null) {
+            origin = StartupMetrics.Origin.LOCAL;
+        } else if (snapshot.getMetadata().isFromCache()) {
+            origin = StartupMetrics.Origin.CACHE;
+        } else {
+            origin = StartupMetrics.Origin.NETWORK;
+        }
+        StartupMetrics.onRestaurantRendered(origin);
+    }
+
+    @Override
+    protected void onDocumentChanges(List<DocumentChange> changes) {
+        ModelCache.RESTAURANTS.onDocumentChanges(changes);
+    }
+
+    @Override
+    protected void onDocumentsEvicted(List<DocumentSnapshot> documents) {
+        for (DocumentSnapshot snapshot : documents) {
+            ModelCache.RESTAURANTS.remove(snapshot);
+        }
+    }
+
+    @Override
+    public String getPhotoUrl(int position) {
+        Restaurant restaurant = ModelCache.RESTAURANTS.get(getSnapshot(position));
+        return restaurant != null ? restaurant.getPhoto() : null;
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
@@ -58,14 +106,15 @@ public class RestaurantAdapter extends FirestoreAdapter<RestaurantAdapter.ViewHo
         }
 
         public void bind(final DocumentSnapshot snapshot,
+                         final Restaurant restaurant,
                          final OnRestaurantSelectedListener listener) {
 
-            Restaurant restaurant = snapshot.toObject(Restaurant.class);
             Resources resources = itemView.getResources();
 
-            // Load image
-            Glide.with(binding.restaurantItemImage.getContext())
-                    .load(restaurant.getPhoto())
+            // Load image, at the same size it is prefetched at
+            int photoSize = resources.getDimensionPixelSize(R.dimen.restaurant_item_image_size);
+            PhotoLoader.load(Glide.with(binding.restaurantItemImage.getContext()),
+                    restaurant.getPhoto(), photoSize, photoSize)
                     .into(binding.restaurantItemImage);
 
             binding.restaurantItemName.setText(restaurant.getName());
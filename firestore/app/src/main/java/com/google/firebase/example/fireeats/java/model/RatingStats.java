@@ -0,0 +1,169 @@
+package com.google.firebase.example.fireeats.java.model;
+
+import com.google.firebase.firestore.Exclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Running statistics over the ratings of a restaurant, stored on the restaurant document.
+ *
+ * Uses Welford's algorithm so that adding a rating is O(1) and does not accumulate the rounding
+ * error of recomputing the average from {@code avgRating * numRatings}. Two accumulators can be
+ * merged, and a histogram with one bucket per star gives approximate percentiles.
+ */
+public class RatingStats {
+
+    public static final int NUM_BUCKETS = 5;
+
+    private long count;
+    private double mean;
+    private double m2;
+    private List<Long> histogram;
+
+    public RatingStats() {
+        histogram = newHistogram();
+    }
+
+    /**
+     * Stats for a restaurant written before stats were stored. Its existing ratings are
+     * unknown, so they are taken to be split between the two star values either side of the
+     * average, which keeps the mean and gives the smallest possible variance.
+     */
+    public static RatingStats fromAverage(int numRatings, double avgRating) {
+        RatingStats stats = new RatingStats();
+        if (numRatings == 0 || Double.isNaN(avgRating)) {
+            return stats;
+        }
+
+        double mean = Math.max(1.0, Math.min(NUM_BUCKETS, avgRating));
+        int low = (int) Math.floor(mean);
+        long numHigh = low < NUM_BUCKETS ? Math.round((mean - low) * numRatings) : 0;
+        long numLow = numRatings - numHigh;
+
+        stats.count = numRatings;
+        stats.mean = mean;
+        stats.m2 = numLow * (low - mean) * (low - mean)
+                + numHigh * (low + 1 - mean) * (low + 1 - mean);
+        stats.histogram.set(bucket(low), numLow);
+        if (numHigh > 0) {
+            stats.histogram.set(bucket(low + 1), numHigh);
+        }
+        return stats;
+    }
+
+    public void add(double rating) {
+        count++;
+        double delta = rating - mean;
+        mean += delta / count;
+        m2 += delta * (rating - mean);
+
+        int bucket = bucket(rating);
+        histogram.set(bucket, histogram.get(bucket) + 1);
+    }
+
+    /**
+     * Combine with the stats of another set of ratings (Chan et al.).
+     */
+    public void merge(RatingStats other) {
+        if (other.count == 0) {
+            return;
+        }
+
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * count * other.count / total;
+        count = total;
+
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            histogram.set(i, histogram.get(i) + other.histogram.get(i));
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public void setMean(double mean) {
+        this.mean = mean;
+    }
+
+    public double getM2() {
+        return m2;
+    }
+
+    public void setM2(double m2) {
+        this.m2 = m2;
+    }
+
+    public List<Long> getHistogram() {
+        return histogram;
+    }
+
+    public void setHistogram(List<Long> histogram) {
+        this.histogram = histogram != null && histogram.size() == NUM_BUCKETS
+                ? new ArrayList<>(histogram)
+                : newHistogram();
+    }
+
+    @Exclude
+    public double getVariance() {
+        return count < 2 ? 0.0 : m2 / (count - 1);
+    }
+
+    @Exclude
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Approximate percentile ({@code 0..1}) of the ratings, interpolated within the star
+     * buckets, each of which spans half a star either side of its rating. Falls back to the
+     * mean when no ratings were bucketed.
+     */
+    public double getPercentile(double percentile) {
+        long bucketed = 0;
+        for (long n : histogram) {
+            bucketed += n;
+        }
+        if (bucketed == 0) {
+            return mean;
+        }
+
+        double rank = percentile * bucketed;
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long n = histogram.get(i);
+            if (n > 0 && seen + n >= rank) {
+                double value = i + 0.5 + (rank - seen) / n;
+                return Math.max(1.0, Math.min(NUM_BUCKETS, value));
+            }
+            seen += n;
+        }
+        return NUM_BUCKETS;
+    }
+
+    /**
+     * Bucket {@code i} holds the ratings of {@code i + 1} stars.
+     */
+    private static int bucket(double rating) {
+        return Math.max(0, Math.min(NUM_BUCKETS - 1, (int) Math.round(rating) - 1));
+    }
+
+    private static List<Long> newHistogram() {
+        List<Long> histogram = new ArrayList<>();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            histogram.add(0L);
+        }
+        return histogram;
+    }
+}
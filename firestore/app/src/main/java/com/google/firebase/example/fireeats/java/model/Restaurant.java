@@ -13,6 +13,7 @@ public class Restaurant {
     public static final String FIELD_PRICE = "price";
     public static final String FIELD_POPULARITY = "numRatings";
     public static final String FIELD_AVG_RATING = "avgRating";
+    public static final String FIELD_RATING_STATS = "ratingStats";
 
     private String name;
     private String city;
@@ -21,6 +22,7 @@ public class Restaurant {
     private int price;
     private int numRatings;
     private double avgRating;
+    private RatingStats ratingStats;
 
     public Restaurant() {}
 
@@ -90,4 +92,12 @@ public class Restaurant {
     public void setAvgRating(double avgRating) {
         this.avgRating = avgRating;
     }
+
+    public RatingStats getRatingStats() {
+        return ratingStats;
+    }
+
+    public void setRatingStats(RatingStats ratingStats) {
+        this.ratingStats = ratingStats;
+    }
 }
@@ -0,0 +1,210 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.content.Context;
+
+import com.google.firebase.example.fireeats.R;
+import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Deterministic generator of restaurants and ratings for load tests.
+ *
+ * Every value comes from one {@link Random} created from the seed, so two generators with the
+ * same seed and {@link Distribution} produce the same documents, including their ids. The city
+ * and category arrays are read from resources once, along with every name and photo URL, so
+ * generating a document does no lookups or formatting and millions of them can be streamed.
+ *
+ * Not thread safe, use one generator per thread.
+ */
+public class DataGenerator {
+
+    private static final String RESTAURANT_URL_FMT = "https://storage.googleapis.com/firestorequickstarts.appspot.com/food_%d.png";
+    private static final int MAX_IMAGE_NUM = 22;
+
+    private static final String[] NAME_FIRST_WORDS = {
+            "Foo", "Bar", "Baz", "Qux", "Fire", "Sam's", "World Famous", "Google", "The Best",
+    };
+
+    private static final String[] NAME_SECOND_WORDS = {
+            "Restaurant", "Cafe", "Spot", "Eatin' Place", "Eatery", "Drive Thru", "Diner",
+    };
+
+    // Same alphabet and length as the ids Firestore generates
+    private static final String ID_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final int ID_LENGTH = 20;
+
+    private final Random mRandom;
+    private final Distribution mDistribution;
+
+    private final String[] mCities;
+    private final String[] mCategories;
+    private final String[] mNames;
+    private final String[] mPhotos;
+
+    private final Zipf mCityRanks;
+    private final Zipf mCategoryRanks;
+    private final Zipf mRatingCounts;
+
+    private final char[] mIdBuffer = new char[ID_LENGTH];
+
+    public DataGenerator(Context context, long seed) {
+        this(context, seed, Distribution.DEFAULT);
+    }
+
+    public DataGenerator(Context context, long seed, Distribution distribution) {
+        mRandom = new Random(seed);
+        mDistribution = distribution;
+
+        // The first element of both arrays is 'Any'
+        String[] cities = context.getResources().getStringArray(R.array.cities);
+        mCities = Arrays.copyOfRange(cities, 1, cities.length);
+        String[] categories = context.getResources().getStringArray(R.array.categories);
+        mCategories = Arrays.copyOfRange(categories, 1, categories.length);
+
+        mNames = new String[NAME_FIRST_WORDS.length * NAME_SECOND_WORDS.length];
+        for (int i = 0; i < mNames.length; i++) {
+            mNames[i] = NAME_FIRST_WORDS[i / NAME_SECOND_WORDS.length] + " "
+                    + NAME_SECOND_WORDS[i % NAME_SECOND_WORDS.length];
+        }
+
+        mPhotos = new String[MAX_IMAGE_NUM];
+        for (int i = 0; i < mPhotos.length; i++) {
+            mPhotos[i] = String.format(Locale.US, RESTAURANT_URL_FMT, i + 1);
+        }
+
+        mCityRanks = new Zipf(mCities.length, distribution.mCitySkew);
+        mCategoryRanks = new Zipf(mCategories.length, distribution.mCategorySkew);
+        mRatingCounts = new Zipf(distribution.mMaxRatings + 1, distribution.mRatingsSkew);
+    }
+
+    public Distribution getDistribution() {
+        return mDistribution;
+    }
+
+    /**
+     * Next restaurant, with the number of ratings it should get but no average rating.
+     */
+    public Restaurant nextRestaurant() {
+        Restaurant restaurant = new Restaurant();
+
+        restaurant.setName(mNames[mRandom.nextInt(mNames.length)]);
+        restaurant.setCity(mCities[mCityRanks.next(mRandom)]);
+        restaurant.setCategory(mCategories[mCategoryRanks.next(mRandom)]);
+        restaurant.setPhoto(mPhotos[mRandom.nextInt(mPhotos.length)]);
+        restaurant.setPrice(mRandom.nextInt(3) + 1);
+        restaurant.setNumRatings(mRatingCounts.next(mRandom));
+
+        return restaurant;
+    }
+
+    /**
+     * Next rating, with a score spread evenly between 0 and 5.
+     */
+    public Rating nextRating() {
+        Rating rating = new Rating();
+
+        double score = mRandom.nextDouble() * 5.0;
+        rating.setUserId(new UUID(mRandom.nextLong(), mRandom.nextLong()).toString());
+        rating.setUserName("Random User");
+        rating.setRating(score);
+        rating.setText(RatingUtil.REVIEW_CONTENTS[(int) score]);
+
+        return rating;
+    }
+
+    /**
+     * The next {@code count} ratings.
+     */
+    public List<Rating> nextRatings(int count) {
+        List<Rating> ratings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ratings.add(nextRating());
+        }
+        return ratings;
+    }
+
+    /**
+     * Next document id. Ids are random like the ones Firestore generates, but writing the same
+     * seed again overwrites the same documents.
+     */
+    public String nextId() {
+        for (int i = 0; i < ID_LENGTH; i++) {
+            mIdBuffer[i] = ID_CHARS.charAt(mRandom.nextInt(ID_CHARS.length()));
+        }
+        return new String(mIdBuffer);
+    }
+
+    /**
+     * Shape of the generated data.
+     *
+     * Cities and categories are picked with a Zipf distribution over the order of the resource
+     * arrays, so a few of them hold most of the restaurants. The number of ratings of a
+     * restaurant follows a Zipf distribution between 0 and {@code maxRatings}: most restaurants
+     * have a handful of ratings and a few have a lot. A skew of 0 is uniform.
+     */
+    public static class Distribution {
+
+        public static final Distribution DEFAULT = new Distribution(1.0, 0.8, 100, 1.2);
+
+        private final double mCitySkew;
+        private final double mCategorySkew;
+        private final int mMaxRatings;
+        private final double mRatingsSkew;
+
+        public Distribution(double citySkew, double categorySkew, int maxRatings,
+                            double ratingsSkew) {
+            mCitySkew = citySkew;
+            mCategorySkew = categorySkew;
+            mMaxRatings = maxRatings;
+            mRatingsSkew = ratingsSkew;
+        }
+
+        public int getMaxRatings() {
+            return mMaxRatings;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "cities=zipf(%.2f), categories=zipf(%.2f), ratings=zipf(%.2f, 0..%d)",
+                    mCitySkew, mCategorySkew, mRatingsSkew, mMaxRatings);
+        }
+    }
+
+    /**
+     * Samples ranks 0 to n - 1 with probability proportional to 1 / (rank + 1)^skew, using a
+     * binary search over the precomputed cumulative weights.
+     */
+    private static class Zipf {
+
+        private final double[] mCumulative;
+
+        Zipf(int n, double skew) {
+            mCumulative = new double[n];
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                total += 1.0 / Math.pow(i + 1, skew);
+                mCumulative[i] = total;
+            }
+            for (int i = 0; i < n; i++) {
+                mCumulative[i] /= total;
+            }
+        }
+
+        int next(Random random) {
+            int index = Arrays.binarySearch(mCumulative, random.nextDouble());
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return Math.min(index, mCumulative.length - 1);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.example.fireeats.BuildConfig;
+import com.google.firebase.example.fireeats.java.Filters;
+import com.google.firebase.example.fireeats.java.adapter.RestaurantAdapter;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.PersistentCacheIndexManager;
+import com.google.firebase.firestore.PersistentCacheSettings;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+/**
+ * The one place where the Firestore instance used by the app is configured.
+ *
+ * The settings must be applied before the instance is first used, so get it through
+ * {@link #getFirestore()} rather than {@link FirebaseFirestore#getInstance()}. The Kotlin
+ * version of the app applies the same settings, which Firestore allows on a started instance.
+ */
+public class FirestoreConfig {
+
+    private static final String TAG = "FirestoreConfig";
+
+    // Large enough to keep the load test data set of 100k restaurants on disk
+    public static final long CACHE_SIZE_BYTES = 200L * 1024 * 1024;
+
+    private static FirebaseFirestore sFirestore;
+
+    public static synchronized FirebaseFirestore getFirestore() {
+        if (sFirestore == null) {
+            // Verbose logging slows every query down, only use it in debug builds
+            FirebaseFirestore.setLoggingEnabled(BuildConfig.DEBUG);
+
+            FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+            firestore.setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                    .setLocalCacheSettings(PersistentCacheSettings.newBuilder()
+                            .setSizeBytes(CACHE_SIZE_BYTES)
+                            .build())
+                    .build());
+
+            // Let the client create indexes in the local cache for the restaurant filters,
+            // so cached queries don't scan every restaurant
+            PersistentCacheIndexManager indexManager = firestore.getPersistentCacheIndexManager();
+            if (indexManager != null) {
+                indexManager.enableIndexAutoCreation();
+            }
+
+            sFirestore = firestore;
+        }
+        return sFirestore;
+    }
+
+    /**
+     * Run the first page query of the default filters, the same query the restaurant list
+     * starts with, so its results are loaded from the cache (and refreshed from the server)
+     * while the rest of the UI starts up.
+     */
+    public static void prewarm() {
+        final long start = System.nanoTime();
+        Query query = Filters.getDefault().toQuery(getFirestore().collection("restaurants"));
+        RestaurantAdapter.getFirstPageQuery(query).get()
+                .addOnSuccessListener(new OnSuccessListener<QuerySnapshot>() {
+                    @Override
+                    public void onSuccess(QuerySnapshot snapshots) {
+                        Log.d(TAG, "prewarm:" + snapshots.size()
+                                + " fromCache=" + snapshots.getMetadata().isFromCache()
+                                + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        Log.w(TAG, "prewarm:failed", e);
+                    }
+                });
+    }
+}
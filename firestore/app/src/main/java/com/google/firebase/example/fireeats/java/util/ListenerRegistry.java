@@ -0,0 +1,208 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Reference-counted snapshot listeners shared by the fragments and adapters of the app.
+ *
+ * Every query or document that has consumers gets one shared {@link ListenerRegistration},
+ * which keeps its results in sync. Consumers that listen to an equal {@link Query} or the same
+ * document path share it, and Firestore serves each of them from the shared results without
+ * going back to the server. When the last consumer detaches the shared registration is kept
+ * for a grace period, so rotating the device or navigating back to a screen picks up the
+ * results where they were instead of downloading them again. Consumers that know the results
+ * will not be wanted again, like a page scrolled far out of view or a query replaced by a new
+ * filter, release it at once with {@link Registration#removeNow()}.
+ *
+ * Must be used from the main thread.
+ */
+public class ListenerRegistry {
+
+    private static final String TAG = "ListenerRegistry";
+
+    public static final long DEFAULT_GRACE_PERIOD_MS = 30000;
+
+    private static ListenerRegistry sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Keyed by Query or DocumentReference, both compare by what they listen to
+    private final HashMap<Object, Entry> mEntries = new HashMap<>();
+
+    private long mGracePeriodMs = DEFAULT_GRACE_PERIOD_MS;
+
+    private long mAcquired;
+    private long mReused;
+
+    public static synchronized ListenerRegistry getInstance() {
+        if (sInstance == null) {
+            sInstance = new ListenerRegistry();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Set how long a shared listener stays attached after its last consumer detaches.
+     */
+    public void setGracePeriod(long gracePeriodMs) {
+        mGracePeriodMs = gracePeriodMs;
+    }
+
+    public Registration addSnapshotListener(Query query, EventListener<QuerySnapshot> listener) {
+        Entry entry = mEntries.get(query);
+        if (entry == null) {
+            entry = new Entry(query, query.addSnapshotListener(new KeepAliveListener<QuerySnapshot>()));
+        }
+        return acquire(entry, query.addSnapshotListener(listener));
+    }
+
+    public Registration addSnapshotListener(DocumentReference document,
+                                            EventListener<DocumentSnapshot> listener) {
+        Entry entry = mEntries.get(document);
+        if (entry == null) {
+            entry = new Entry(document,
+                    document.addSnapshotListener(new KeepAliveListener<DocumentSnapshot>()));
+        }
+        return acquire(entry, document.addSnapshotListener(listener));
+    }
+
+    /**
+     * Number of shared listeners attached to Firestore, including those in their grace period.
+     */
+    public int getActiveListenerCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * Number of consumers attached to the shared listeners.
+     */
+    public int getConsumerCount() {
+        int count = 0;
+        for (Entry entry : mEntries.values()) {
+            count += entry.mConsumers;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "listeners: active=%d, consumers=%d, reused=%d/%d",
+                getActiveListenerCount(), getConsumerCount(), mReused, mAcquired);
+    }
+
+    private Registration acquire(final Entry entry, final ListenerRegistration consumer) {
+        mAcquired++;
+        if (mEntries.containsKey(entry.mKey)) {
+            mReused++;
+        } else {
+            mEntries.put(entry.mKey, entry);
+        }
+
+        // A consumer came back during the grace period
+        mHandler.removeCallbacks(entry.mRelease);
+        entry.mConsumers++;
+
+        return new Registration() {
+            private boolean mRemoved;
+
+            @Override
+            public void remove() {
+                remove(mGracePeriodMs);
+            }
+
+            @Override
+            public void removeNow() {
+                remove(0);
+            }
+
+            private void remove(long gracePeriodMs) {
+                if (mRemoved) {
+                    return;
+                }
+                mRemoved = true;
+
+                consumer.remove();
+                release(entry, gracePeriodMs);
+            }
+        };
+    }
+
+    private void release(Entry entry, long gracePeriodMs) {
+        entry.mConsumers--;
+        if (entry.mConsumers == 0) {
+            if (gracePeriodMs > 0) {
+                mHandler.postDelayed(entry.mRelease, gracePeriodMs);
+            } else {
+                entry.mRelease.run();
+            }
+        }
+    }
+
+    /**
+     * A consumer of a shared listener.
+     */
+    public interface Registration extends ListenerRegistration {
+
+        /**
+         * Detach this consumer and keep the shared listener for the grace period if it was
+         * the last one.
+         */
+        @Override
+        void remove();
+
+        /**
+         * Detach this consumer and remove the shared listener right away if it was the last
+         * one, for results that will not be wanted again.
+         */
+        void removeNow();
+    }
+
+    private class Entry {
+
+        private final Object mKey;
+        private final ListenerRegistration mRegistration;
+        private int mConsumers;
+
+        private final Runnable mRelease = new Runnable() {
+            @Override
+            public void run() {
+                if (mConsumers == 0) {
+                    mRegistration.remove();
+                    mEntries.remove(mKey);
+                }
+            }
+        };
+
+        Entry(Object key, ListenerRegistration registration) {
+            mKey = key;
+            mRegistration = registration;
+        }
+    }
+
+    /**
+     * Keeps the shared results in sync, the consumers get the snapshots from their own
+     * listeners.
+     */
+    private static class KeepAliveListener<T> implements EventListener<T> {
+
+        @Override
+        public void onEvent(T value, FirebaseFirestoreException e) {
+            if (e != null) {
+                Log.w(TAG, "onEvent:error", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.util.LruCache;
+
+import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache of model objects decoded from Firestore documents, keyed by document path.
+ *
+ * Documents are decoded on a background thread as soon as their changes arrive so that binding a
+ * row only has to look up the result. Each entry remembers the snapshot it was decoded from and
+ * is only returned for an equal snapshot, so a newer version of a document is always decoded
+ * again. Entries are dropped when their document is removed from a query, and the least recently
+ * used ones are dropped beyond {@code maxSize}.
+ */
+public class ModelCache<T> {
+
+    private static final int MAX_SIZE = 500;
+
+    public static final ModelCache<Restaurant> RESTAURANTS = new ModelCache<>(Restaurant.class);
+    public static final ModelCache<Rating> RATINGS = new ModelCache<>(Rating.class);
+
+    private final Class<T> mType;
+    private final LruCache<String, Entry<T>> mObjects;
+
+    // Latest snapshot waiting to be decoded for each document
+    private final ConcurrentHashMap<String, DocumentSnapshot> mPending = new ConcurrentHashMap<>();
+
+    // Single thread so that a newer decode of a document always runs after an older one
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    public ModelCache(Class<T> type) {
+        this(type, MAX_SIZE);
+    }
+
+    public ModelCache(Class<T> type, int maxSize) {
+        mType = type;
+        mObjects = new LruCache<>(maxSize);
+    }
+
+    /**
+     * Get the model object for a snapshot, decoding it now if it is not cached yet.
+     */
+    public T get(DocumentSnapshot snapshot) {
+        String key = snapshot.getReference().getPath();
+        Entry<T> entry = mObjects.get(key);
+        if (entry != null && entry.isFor(snapshot)) {
+            return entry.mObject;
+        }
+
+        T object = snapshot.toObject(mType);
+
+        // Leave the entry to a pending decode, the snapshot asked for may be older
+        if (object != null && !mPending.containsKey(key)) {
+            mObjects.put(key, new Entry<>(snapshot, object));
+        }
+
+        return object;
+    }
+
+    /**
+     * Drop the cached object for a document.
+     */
+    public void remove(DocumentSnapshot snapshot) {
+        String key = snapshot.getReference().getPath();
+        mPending.remove(key);
+        mObjects.remove(key);
+    }
+
+    /**
+     * Drop the entries of removed documents and decode all new versions of documents in the
+     * background. Must be called on the main thread before the changes are bound.
+     */
+    public void onDocumentChanges(List<DocumentChange> changes) {
+        final List<DocumentSnapshot> toDecode = new ArrayList<>();
+        for (DocumentChange change : changes) {
+            DocumentSnapshot snapshot = change.getDocument();
+            switch (change.getType()) {
+                case ADDED:
+                case MODIFIED:
+                    Entry<T> entry = mObjects.get(snapshot.getReference().getPath());
+                    if (entry == null || !entry.isFor(snapshot)) {
+                        toDecode.add(snapshot);
+                    }
+                    break;
+                case REMOVED:
+                    remove(snapshot);
+                    break;
+            }
+        }
+
+        if (toDecode.isEmpty()) {
+            return;
+        }
+
+        for (DocumentSnapshot snapshot : toDecode) {
+            mPending.put(snapshot.getReference().getPath(), snapshot);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (DocumentSnapshot snapshot : toDecode) {
+                    String key = snapshot.getReference().getPath();
+
+                    // Skip snapshots that a newer change has already replaced
+                    if (mPending.get(key) != snapshot) {
+                        continue;
+                    }
+
+                    T object = snapshot.toObject(mType);
+                    if (object != null && mPending.remove(key, snapshot)) {
+                        mObjects.put(key, new Entry<>(snapshot, object));
+                    }
+                }
+            }
+        });
+    }
+
+    public int size() {
+        return mObjects.size();
+    }
+
+    /**
+     * A decoded object and the snapshot it was decoded from.
+     */
+    private static class Entry<T> {
+
+        private final DocumentSnapshot mSnapshot;
+        private final T mObject;
+
+        Entry(DocumentSnapshot snapshot, T object) {
+            mSnapshot = snapshot;
+            mObject = object;
+        }
+
+        boolean isFor(DocumentSnapshot snapshot) {
+            return mSnapshot == snapshot || mSnapshot.equals(snapshot);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the Glide requests for restaurant photos and counts how they are served.
+ *
+ * The list and the detail screen both load through here, so they share Glide's single bounded
+ * memory cache and bitmap pool. Requests for a given size use the same options whether they
+ * come from binding a row or from {@link PhotoPrefetcher}, so a prefetched photo is found in
+ * the memory cache when its row is bound.
+ */
+public class PhotoLoader {
+
+    private static final AtomicLong sRequests = new AtomicLong();
+    private static final AtomicLong sMemoryHits = new AtomicLong();
+    private static final AtomicLong sPrefetches = new AtomicLong();
+    private static final AtomicLong sDecodes = new AtomicLong();
+    private static final AtomicLong sDecodeNanos = new AtomicLong();
+    private static final AtomicLong sFailures = new AtomicLong();
+
+    /**
+     * Load a photo at the size of the view it goes into.
+     */
+    public static RequestBuilder<Drawable> load(RequestManager glide, String url) {
+        sRequests.incrementAndGet();
+        return glide.load(url)
+                .centerCrop()
+                .listener(new StatsListener(false));
+    }
+
+    /**
+     * Load a photo decoded at exactly {@code width} x {@code height}.
+     */
+    public static RequestBuilder<Drawable> load(RequestManager glide, String url,
+                                                int width, int height) {
+        sRequests.incrementAndGet();
+        return sized(glide, url, width, height, false);
+    }
+
+    /**
+     * Decode a photo into the memory cache ahead of binding, see {@link #load}.
+     */
+    public static Target<Drawable> prefetch(RequestManager glide, String url,
+                                            int width, int height) {
+        sPrefetches.incrementAndGet();
+        return sized(glide, url, width, height, true).preload(width, height);
+    }
+
+    private static RequestBuilder<Drawable> sized(RequestManager glide, String url,
+                                                  int width, int height, boolean prefetch) {
+        return glide.load(url)
+                .override(width, height)
+                .centerCrop()
+                .listener(new StatsListener(prefetch));
+    }
+
+    /**
+     * Fraction of photo requests (not prefetches) served from the memory cache.
+     */
+    public static double getHitRate() {
+        long requests = sRequests.get();
+        return requests == 0 ? 0.0 : (double) sMemoryHits.get() / requests;
+    }
+
+    public static double getAverageDecodeMillis() {
+        long decodes = sDecodes.get();
+        return decodes == 0 ? 0.0 : sDecodeNanos.get() / 1e6 / decodes;
+    }
+
+    public static String getStats() {
+        return String.format(Locale.US,
+                "photos: requests=%d, hit rate=%.2f, prefetches=%d, decodes=%d avg %.1fms, failed=%d",
+                sRequests.get(), getHitRate(), sPrefetches.get(), sDecodes.get(),
+                getAverageDecodeMillis(), sFailures.get());
+    }
+
+    private static class StatsListener implements RequestListener<Drawable> {
+
+        private final boolean mPrefetch;
+        private final long mStartNanos = System.nanoTime();
+
+        StatsListener(boolean prefetch) {
+            mPrefetch = prefetch;
+        }
+
+        @Override
+        public boolean onLoadFailed(@Nullable GlideException e, Object model,
+                                    Target<Drawable> target, boolean isFirstResource) {
+            sFailures.incrementAndGet();
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(Drawable resource, Object model, Target<Drawable> target,
+                                       DataSource dataSource, boolean isFirstResource) {
+            if (dataSource == DataSource.MEMORY_CACHE) {
+                if (!mPrefetch) {
+                    sMemoryHits.incrementAndGet();
+                }
+            } else {
+                sDecodes.incrementAndGet();
+                sDecodeNanos.addAndGet(System.nanoTime() - mStartNanos);
+            }
+            return false;
+        }
+    }
+}
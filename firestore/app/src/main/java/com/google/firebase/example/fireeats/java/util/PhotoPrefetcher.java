@@ -0,0 +1,104 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.ArrayDeque;
+
+/**
+ * Scroll listener that decodes the photos of the next items in the direction of the scroll, at
+ * the exact size they are shown at, so they are in memory by the time their rows are bound.
+ *
+ * Changing direction cancels the prefetches that are still running for the old direction.
+ */
+public class PhotoPrefetcher extends RecyclerView.OnScrollListener {
+
+    public interface PhotoProvider {
+
+        int getItemCount();
+
+        String getPhotoUrl(int position);
+
+    }
+
+    private final RequestManager mGlide;
+    private final LinearLayoutManager mLayoutManager;
+    private final PhotoProvider mProvider;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mCount;
+
+    private final ArrayDeque<Target<Drawable>> mTargets = new ArrayDeque<>();
+
+    // Direction of the last prefetch and the furthest position prefetched in it
+    private int mDirection;
+    private int mPrefetchedTo = RecyclerView.NO_POSITION;
+
+    public PhotoPrefetcher(RequestManager glide, LinearLayoutManager layoutManager,
+                           PhotoProvider provider, int width, int height, int count) {
+        mGlide = glide;
+        mLayoutManager = layoutManager;
+        mProvider = provider;
+        mWidth = width;
+        mHeight = height;
+        mCount = count;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) {
+            return;
+        }
+
+        int direction = dy > 0 ? 1 : -1;
+        if (direction != mDirection) {
+            cancel();
+            mDirection = direction;
+        }
+
+        int edge = direction > 0
+                ? mLayoutManager.findLastVisibleItemPosition()
+                : mLayoutManager.findFirstVisibleItemPosition();
+        if (edge == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        // Only the positions that were not prefetched by an earlier scroll event
+        int from = edge + direction;
+        if (mPrefetchedTo != RecyclerView.NO_POSITION
+                && (mPrefetchedTo - from) * direction >= 0) {
+            from = mPrefetchedTo + direction;
+        }
+        int to = Math.max(0, Math.min(mProvider.getItemCount() - 1, edge + direction * mCount));
+
+        for (int position = from; (to - position) * direction >= 0; position += direction) {
+            String url = mProvider.getPhotoUrl(position);
+            if (url != null) {
+                mTargets.add(PhotoLoader.prefetch(mGlide, url, mWidth, mHeight));
+            }
+            mPrefetchedTo = position;
+
+            // Finished prefetches release themselves, only the latest ones can be in flight
+            if (mTargets.size() > mCount) {
+                mTargets.poll();
+            }
+        }
+    }
+
+    /**
+     * Cancel the prefetches that are still in flight.
+     */
+    public void cancel() {
+        for (Target<Drawable> target : mTargets) {
+            mGlide.clear(target);
+        }
+        mTargets.clear();
+        mPrefetchedTo = RecyclerView.NO_POSITION;
+    }
+}
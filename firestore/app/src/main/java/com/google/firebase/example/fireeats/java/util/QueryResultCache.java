@@ -0,0 +1,53 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.util.LruCache;
+
+import com.google.firebase.example.fireeats.java.Filters;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LRU cache of the most recent results for each set of {@link Filters}, so switching back to a
+ * recent filter can show its results right away while the listener catches up.
+ *
+ * The cache is bounded by the total number of documents it holds.
+ */
+public class QueryResultCache {
+
+    private final LruCache<String, List<DocumentSnapshot>> mResults;
+
+    public QueryResultCache(int maxDocuments) {
+        mResults = new LruCache<String, List<DocumentSnapshot>>(maxDocuments) {
+            @Override
+            protected int sizeOf(String key, List<DocumentSnapshot> value) {
+                return Math.max(value.size(), 1);
+            }
+        };
+    }
+
+    /**
+     * Get the cached results for the filters, or null if there are none.
+     */
+    public List<DocumentSnapshot> get(Filters filters) {
+        return mResults.get(filters.getQueryKey());
+    }
+
+    public void put(Filters filters, List<DocumentSnapshot> snapshots) {
+        mResults.put(filters.getQueryKey(), new ArrayList<>(snapshots));
+    }
+
+    public int getHitCount() {
+        return mResults.hitCount();
+    }
+
+    public int getMissCount() {
+        return mResults.missCount();
+    }
+
+    @Override
+    public String toString() {
+        return mResults.toString();
+    }
+}
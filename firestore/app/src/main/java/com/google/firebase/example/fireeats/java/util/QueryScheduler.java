@@ -0,0 +1,168 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.firebase.example.fireeats.java.Filters;
+
+import java.util.Locale;
+
+/**
+ * Sits between filter changes and the adapter's query so that a burst of changes creates a
+ * single snapshot listener.
+ *
+ * A change that comes more than the debounce delay after the previous one is applied right
+ * away. A change within the delay starts or continues a burst: it replaces any pending filters
+ * and restarts the timer, so only the last filters of a burst are applied. Filters that produce
+ * the query that is already applied are dropped. Also keeps the metrics for listeners created
+ * per user action and time to first result.
+ */
+public class QueryScheduler {
+
+    public interface Callback {
+
+        void onApplyFilters(Filters filters);
+
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final long mDebounceMillis;
+    private final Callback mCallback;
+
+    private Filters mPending;
+    private Filters mApplied;
+
+    // Start of the burst of changes that led to the applied filters
+    private long mBurstStartMillis = -1;
+    private long mLastChangeMillis = -1;
+    private long mAppliedStartMillis = -1;
+
+    private int mActions;
+    private int mListeners;
+    private int mSuperseded;
+    private int mLocalResults;
+    private int mResults;
+    private long mTotalFirstResultMillis;
+    private long mMaxFirstResultMillis;
+    private long mTotalFirstLocalResultMillis;
+
+    private final Runnable mApplyPending = new Runnable() {
+        @Override
+        public void run() {
+            Filters filters = mPending;
+            mPending = null;
+            if (filters != null) {
+                apply(filters);
+            }
+        }
+    };
+
+    public QueryScheduler(long debounceMillis, Callback callback) {
+        mDebounceMillis = debounceMillis;
+        mCallback = callback;
+    }
+
+    /**
+     * Apply the filters now, or once no other change has been scheduled for the debounce delay
+     * if they are part of a burst of changes.
+     */
+    public void schedule(Filters filters) {
+        long now = SystemClock.elapsedRealtime();
+        boolean inBurst = mPending != null
+                || (mLastChangeMillis >= 0 && now - mLastChangeMillis < mDebounceMillis);
+        mLastChangeMillis = now;
+
+        mActions++;
+        if (mPending != null) {
+            mSuperseded++;
+        } else {
+            mBurstStartMillis = now;
+        }
+
+        mHandler.removeCallbacks(mApplyPending);
+        if (mApplied != null && mApplied.getQueryKey().equals(filters.getQueryKey())) {
+            // Back to the filters that are already applied, nothing to do
+            mPending = null;
+            return;
+        }
+
+        if (inBurst) {
+            mPending = filters;
+            mHandler.postDelayed(mApplyPending, mDebounceMillis);
+        } else {
+            mPending = null;
+            apply(filters);
+        }
+    }
+
+    /**
+     * Apply the filters right away, replacing anything that is pending.
+     */
+    public void applyNow(Filters filters) {
+        cancel();
+        mActions++;
+        mBurstStartMillis = SystemClock.elapsedRealtime();
+        apply(filters);
+    }
+
+    /**
+     * Drop the pending filters, if any.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mApplyPending);
+        mPending = null;
+    }
+
+    /**
+     * The filters of the current query, or null if none have been applied.
+     */
+    public Filters getApplied() {
+        return mApplied;
+    }
+
+    /**
+     * Record that results computed locally were shown for the applied filters.
+     */
+    public void onLocalResults() {
+        mLocalResults++;
+        mTotalFirstLocalResultMillis += SystemClock.elapsedRealtime() - mAppliedStartMillis;
+    }
+
+    /**
+     * Record a listener event, the first one after filters are applied is the time to
+     * first result.
+     */
+    public void onResults() {
+        if (mAppliedStartMillis < 0) {
+            return;
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - mAppliedStartMillis;
+        mAppliedStartMillis = -1;
+        mResults++;
+        mTotalFirstResultMillis += elapsed;
+        mMaxFirstResultMillis = Math.max(mMaxFirstResultMillis, elapsed);
+    }
+
+    private void apply(Filters filters) {
+        mListeners++;
+        mApplied = filters;
+        mAppliedStartMillis = mBurstStartMillis;
+        mCallback.onApplyFilters(filters);
+    }
+
+    public double getListenersPerAction() {
+        return mActions == 0 ? 0.0 : (double) mListeners / mActions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "QueryScheduler[actions=%d, listeners=%d (%.2f/action), superseded=%d, "
+                        + "firstResult avg=%dms max=%dms, local=%d avg=%dms]",
+                mActions, mListeners, getListenersPerAction(), mSuperseded,
+                mResults == 0 ? 0 : mTotalFirstResultMillis / mResults, mMaxFirstResultMillis,
+                mLocalResults, mLocalResults == 0 ? 0 : mTotalFirstLocalResultMillis / mLocalResults);
+    }
+}
@@ -0,0 +1,200 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Distributed counter for the rating totals of a restaurant.
+ *
+ * Instead of rewriting {@code numRatings} and {@code avgRating} on the restaurant document in a
+ * transaction, new ratings increment {@code numRatings} and {@code ratingSum} on one of
+ * {@link #NUM_SHARDS} shard documents in the restaurant's {@code shards} subcollection. Writes
+ * to different shards do not contend and, being plain batched writes, can be made offline.
+ *
+ * Readers that need the latest totals opt in by listening to the shards and adding them to
+ * the restaurant's totals with {@link #sum(Restaurant, QuerySnapshot)}. {@link #rollUp} folds
+ * the shards into the restaurant document, one transaction per shard, so readers of the
+ * restaurant alone catch up. Each shard also stores the ids of the ratings it counts, so the
+ * security rules can check that a write adds exactly those ratings and the roll-up can add
+ * them to the rating stats one by one, see the README.
+ */
+public class RatingCounter {
+
+    public static final String COLLECTION_SHARDS = "shards";
+    public static final String FIELD_NUM_RATINGS = "numRatings";
+    public static final String FIELD_RATING_SUM = "ratingSum";
+    public static final String FIELD_RATING_IDS = "ratingIds";
+
+    public static final int NUM_SHARDS = 10;
+
+    /**
+     * Most ratings counted by one shard write, the security rules read each of them.
+     */
+    public static final int MAX_RATINGS_PER_WRITE = 5;
+
+    private static final Random sRandom = new Random();
+
+    /**
+     * Totals of a restaurant including the ratings counted in its shards.
+     */
+    public static class Totals {
+
+        private final int mNumRatings;
+        private final double mRatingSum;
+
+        Totals(int numRatings, double ratingSum) {
+            mNumRatings = numRatings;
+            mRatingSum = ratingSum;
+        }
+
+        public int getNumRatings() {
+            return mNumRatings;
+        }
+
+        public double getAvgRating() {
+            return mNumRatings > 0 ? mRatingSum / mNumRatings : 0;
+        }
+    }
+
+    /**
+     * Get the shards subcollection of a restaurant.
+     */
+    public static CollectionReference getShards(DocumentReference restaurantRef) {
+        return restaurantRef.collection(COLLECTION_SHARDS);
+    }
+
+    /**
+     * Add a rating and count it in a random shard, in one batch without a transaction.
+     */
+    public static Task<Void> addRating(FirebaseFirestore firestore,
+                                       DocumentReference restaurantRef,
+                                       Rating rating) {
+        String ratingId = restaurantRef.collection("ratings").document().getId();
+
+        WriteBatch batch = firestore.batch();
+        addRatings(batch, restaurantRef, Collections.singletonMap(ratingId, rating));
+        return batch.commit();
+    }
+
+    /**
+     * Set ratings of a restaurant, keyed by their ids, and count them in a random shard as
+     * part of {@code batch}. At most {@link #MAX_RATINGS_PER_WRITE} ratings can be added at a
+     * time.
+     */
+    public static void addRatings(WriteBatch batch,
+                                  DocumentReference restaurantRef,
+                                  Map<String, Rating> ratings) {
+        if (ratings.isEmpty() || ratings.size() > MAX_RATINGS_PER_WRITE) {
+            throw new IllegalArgumentException("Can't count " + ratings.size() + " ratings");
+        }
+
+        List<String> ratingIds = new ArrayList<>();
+        double ratingSum = 0;
+        for (Map.Entry<String, Rating> entry : ratings.entrySet()) {
+            batch.set(restaurantRef.collection("ratings").document(entry.getKey()),
+                    entry.getValue());
+
+            // Summed in the order the ids are appended, like the security rules do
+            ratingIds.add(entry.getKey());
+            ratingSum += entry.getValue().getRating();
+        }
+
+        Map<String, Object> increments = new HashMap<>();
+        increments.put(FIELD_NUM_RATINGS, FieldValue.increment(ratingIds.size()));
+        increments.put(FIELD_RATING_SUM, FieldValue.increment(ratingSum));
+        increments.put(FIELD_RATING_IDS, FieldValue.arrayUnion(ratingIds.toArray()));
+
+        // Merge so the shard is created by its first increment
+        DocumentReference shardRef = getShards(restaurantRef)
+                .document(String.valueOf(sRandom.nextInt(NUM_SHARDS)));
+        batch.set(shardRef, increments, SetOptions.merge());
+    }
+
+    /**
+     * Add the ratings counted in the shards to the totals stored on the restaurant.
+     */
+    public static Totals sum(Restaurant restaurant, QuerySnapshot shards) {
+        int numRatings = restaurant.getNumRatings();
+        double ratingSum = restaurant.getAvgRating() * restaurant.getNumRatings();
+        for (DocumentSnapshot shard : shards) {
+            Long shardNumRatings = shard.getLong(FIELD_NUM_RATINGS);
+            Double shardRatingSum = shard.getDouble(FIELD_RATING_SUM);
+            if (shardNumRatings != null && shardRatingSum != null) {
+                numRatings += shardNumRatings;
+                ratingSum += shardRatingSum;
+            }
+        }
+
+        return new Totals(numRatings, ratingSum);
+    }
+
+    /**
+     * Fold the given shards into their restaurant's totals and delete them.
+     */
+    public static Task<Void> rollUp(FirebaseFirestore firestore, QuerySnapshot shards) {
+        List<Task<Void>> tasks = new ArrayList<>();
+        for (DocumentSnapshot shard : shards) {
+            tasks.add(rollUp(firestore, shard.getReference()));
+        }
+        return Tasks.whenAll(tasks);
+    }
+
+    private static Task<Void> rollUp(FirebaseFirestore firestore, final DocumentReference shardRef) {
+        final DocumentReference restaurantRef = shardRef.getParent().getParent();
+
+        return firestore.runTransaction(new Transaction.Function<Void>() {
+            @Override
+            public Void apply(@NonNull Transaction transaction) throws FirebaseFirestoreException {
+                Restaurant restaurant = transaction.get(restaurantRef).toObject(Restaurant.class);
+                DocumentSnapshot shard = transaction.get(shardRef);
+                if (restaurant == null || !shard.exists()) {
+                    return null;
+                }
+
+                // All reads come before the writes. Each rating is added on its own so the
+                // stats kept with the totals stay exact.
+                List<Rating> ratings = new ArrayList<>();
+                List<?> ratingIds = (List<?>) shard.get(FIELD_RATING_IDS);
+                if (ratingIds != null) {
+                    for (Object ratingId : ratingIds) {
+                        Rating rating = transaction
+                                .get(restaurantRef.collection("ratings").document((String) ratingId))
+                                .toObject(Rating.class);
+                        if (rating != null) {
+                            ratings.add(rating);
+                        }
+                    }
+                }
+
+                for (Rating rating : ratings) {
+                    RatingUtil.addRating(restaurant, rating);
+                }
+                transaction.set(restaurantRef, restaurant);
+                transaction.delete(shardRef);
+
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,207 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Continuation;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator that writes a burst of ratings to a single restaurant, first with a
+ * transaction on the restaurant and then with the sharded {@link RatingCounter}, and
+ * reports commit latency and transaction retries for both.
+ *
+ * Intended to be run against the Firestore emulator, see the README.
+ */
+public class RatingLoadGenerator {
+
+    private static final String TAG = "RatingLoadGenerator";
+
+    private final FirebaseFirestore mFirestore;
+    private final int mNumWrites;
+    private final int mConcurrency;
+
+    public RatingLoadGenerator(FirebaseFirestore firestore, int numWrites, int concurrency) {
+        mFirestore = firestore;
+        mNumWrites = numWrites;
+        mConcurrency = concurrency;
+    }
+
+    /**
+     * Run both write paths against a new restaurant and return a side by side report.
+     */
+    public Task<String> run() {
+        final DocumentReference restaurantRef = mFirestore.collection("restaurants").document();
+        final Restaurant restaurant = new Restaurant("Load Test", "Anywhere", "Load Test",
+                null, 1, 0, 0);
+
+        final List<Result> results = new ArrayList<>();
+        return restaurantRef.set(restaurant)
+                .continueWithTask(new Continuation<Void, Task<Result>>() {
+                    @Override
+                    public Task<Result> then(@NonNull Task<Void> task) {
+                        return runWrites("transaction", restaurantRef, false);
+                    }
+                })
+                .continueWithTask(new Continuation<Result, Task<Result>>() {
+                    @Override
+                    public Task<Result> then(@NonNull Task<Result> task) {
+                        results.add(task.getResult());
+                        return runWrites("sharded", restaurantRef, true);
+                    }
+                })
+                .continueWith(new Continuation<Result, String>() {
+                    @Override
+                    public String then(@NonNull Task<Result> task) {
+                        results.add(task.getResult());
+
+                        StringBuilder report = new StringBuilder(Result.HEADER);
+                        for (Result result : results) {
+                            report.append('\n').append(result);
+                        }
+                        Log.d(TAG, report.toString());
+                        return report.toString();
+                    }
+                });
+    }
+
+    private Task<Result> runWrites(String name, final DocumentReference restaurantRef,
+                                   final boolean sharded) {
+        final TaskCompletionSource<Result> source = new TaskCompletionSource<>();
+        final Result result = new Result(name);
+        final AtomicInteger started = new AtomicInteger();
+        final long start = System.nanoTime();
+
+        // Keep up to mConcurrency writes in flight until all of them have completed
+        final Runnable next = new Runnable() {
+            @Override
+            public void run() {
+                if (started.getAndIncrement() >= mNumWrites) {
+                    return;
+                }
+
+                final Runnable self = this;
+                final long writeStart = System.nanoTime();
+                Rating rating = RatingUtil.getRandom();
+                Task<Void> write = sharded
+                        ? RatingCounter.addRating(mFirestore, restaurantRef, rating)
+                        : addRatingInTransaction(restaurantRef, rating, result);
+
+                write.addOnCompleteListener(new OnCompleteListener<Void>() {
+                    @Override
+                    public void onComplete(@NonNull Task<Void> task) {
+                        result.onWriteComplete(task.isSuccessful(), System.nanoTime() - writeStart);
+                        if (result.mLatenciesNanos.size() + result.mFailures == mNumWrites) {
+                            result.mElapsedNanos = System.nanoTime() - start;
+                            source.setResult(result);
+                        } else {
+                            self.run();
+                        }
+                    }
+                });
+            }
+        };
+
+        for (int i = 0; i < Math.min(mConcurrency, mNumWrites); i++) {
+            next.run();
+        }
+
+        return source.getTask();
+    }
+
+    private Task<Void> addRatingInTransaction(final DocumentReference restaurantRef,
+                                              final Rating rating,
+                                              final Result result) {
+        final DocumentReference ratingRef = restaurantRef.collection("ratings").document();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        return mFirestore.runTransaction(new Transaction.Function<Void>() {
+            @Override
+            public Void apply(@NonNull Transaction transaction) throws FirebaseFirestoreException {
+                // Every call after the first one is a retry caused by contention
+                if (attempts.getAndIncrement() > 0) {
+                    result.mRetries.incrementAndGet();
+                }
+
+                DocumentSnapshot snapshot = transaction.get(restaurantRef);
+                if (!snapshot.exists()) {
+                    throw new FirebaseFirestoreException("Restaurant not found",
+                            FirebaseFirestoreException.Code.NOT_FOUND);
+                }
+
+                Restaurant restaurant = snapshot.toObject(Restaurant.class);
+                RatingUtil.addRating(restaurant, rating);
+
+                transaction.set(restaurantRef, restaurant);
+                transaction.set(ratingRef, rating);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Latency and retry counts for one write path.
+     */
+    static class Result {
+
+        static final String HEADER = "path         writes  failed  retries  p50ms  p95ms  maxms  writes/s";
+
+        private final String mName;
+        private final List<Long> mLatenciesNanos = new ArrayList<>();
+        private final AtomicInteger mRetries = new AtomicInteger();
+        private int mFailures;
+        private long mElapsedNanos;
+
+        Result(String name) {
+            mName = name;
+        }
+
+        void onWriteComplete(boolean success, long latencyNanos) {
+            if (success) {
+                mLatenciesNanos.add(latencyNanos);
+            } else {
+                mFailures++;
+            }
+        }
+
+        private double percentileMillis(List<Long> sorted, double percentile) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+            return sorted.get(Math.max(index, 0)) / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            List<Long> sorted = new ArrayList<>(mLatenciesNanos);
+            Collections.sort(sorted);
+
+            return String.format(Locale.US, "%-12s %6d  %6d  %7d  %5.0f  %5.0f  %5.0f  %8.1f",
+                    mName,
+                    sorted.size(),
+                    mFailures,
+                    mRetries.get(),
+                    percentileMillis(sorted, 0.5),
+                    percentileMillis(sorted, 0.95),
+                    percentileMillis(sorted, 1.0),
+                    sorted.size() / (mElapsedNanos / 1e9));
+        }
+    }
+}
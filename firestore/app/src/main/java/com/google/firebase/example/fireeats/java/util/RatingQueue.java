@@ -0,0 +1,330 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Durable queue of ratings waiting to be written, so ratings added on a flaky network are not
+ * lost.
+ *
+ * Pending ratings are kept in {@link SharedPreferences} until they are committed. A flush
+ * coalesces the ratings of each restaurant into {@link WriteBatch}es that set up to
+ * {@link RatingCounter#MAX_RATINGS_PER_WRITE} ratings and count them with a single
+ * {@link FieldValue#increment} of one of the restaurant's shards, see {@link RatingCounter}.
+ * Unlike a transaction a batch can be committed offline: Firestore keeps it in its own
+ * persistent write queue, so ratings leave this queue as soon as they are committed and only
+ * come back, with exponential backoff, if the commit fails with an error a retry can fix.
+ * Ratings are written with the ids they were given when queued and the security rules reject
+ * a shard write for a rating that already exists, so a batch is never counted twice. Ratings
+ * whose write fails with an error that retrying cannot fix are dropped and reported to the
+ * {@link OnRatingsFailedListener}s.
+ *
+ * Must be used from the main thread.
+ */
+public class RatingQueue {
+
+    /**
+     * Notified when queued ratings of a restaurant are dropped because they can never be written.
+     */
+    public interface OnRatingsFailedListener {
+
+        void onRatingsFailed(DocumentReference restaurantRef, int count, Exception e);
+
+    }
+
+    private static final String TAG = "RatingQueue";
+
+    private static final String PREFS_NAME = RatingQueue.class.getName();
+    private static final String KEY_PENDING = "pending";
+
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+    private static RatingQueue sInstance;
+
+    private final FirebaseFirestore mFirestore;
+    private final SharedPreferences mPrefs;
+    private final ConnectivityManager mConnectivityManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+
+    // Oldest first
+    private final List<PendingRating> mPending = new ArrayList<>();
+
+    private final List<OnRatingsFailedListener> mFailedListeners = new ArrayList<>();
+
+    private int mAttempts;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static synchronized RatingQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RatingQueue(context.getApplicationContext(),
+                    FirestoreConfig.getFirestore());
+        }
+        return sInstance;
+    }
+
+    private RatingQueue(Context context, FirebaseFirestore firestore) {
+        mFirestore = firestore;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mConnectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        load();
+
+        // Flush as soon as connectivity returns
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        mConnectivityManager.registerNetworkCallback(request,
+                new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(@NonNull Network network) {
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                mAttempts = 0;
+                                flush();
+                            }
+                        });
+                    }
+                });
+
+        // Ratings left over from the last run
+        flush();
+    }
+
+    /**
+     * Queue a rating for a restaurant and commit it right away.
+     */
+    public void enqueue(DocumentReference restaurantRef, Rating rating) {
+        // The id is fixed now so that retries write the same document
+        String ratingId = restaurantRef.collection("ratings").document().getId();
+        mPending.add(new PendingRating(restaurantRef.getPath(), ratingId, rating));
+        save();
+
+        flush();
+    }
+
+    public void addOnRatingsFailedListener(OnRatingsFailedListener listener) {
+        mFailedListeners.add(listener);
+    }
+
+    public void removeOnRatingsFailedListener(OnRatingsFailedListener listener) {
+        mFailedListeners.remove(listener);
+    }
+
+    public int getPendingCount() {
+        return mPending.size();
+    }
+
+    public boolean isOnline() {
+        NetworkCapabilities capabilities = mConnectivityManager.getNetworkCapabilities(
+                mConnectivityManager.getActiveNetwork());
+        return capabilities != null
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+
+    /**
+     * Commit every pending rating. Committed batches are kept by Firestore until they reach the
+     * server, so this also works offline.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mPending.isEmpty()) {
+            return;
+        }
+
+        // Group the ratings by restaurant, keeping the order they were added in
+        Map<String, List<PendingRating>> groups = new LinkedHashMap<>();
+        for (PendingRating pending : mPending) {
+            List<PendingRating> group = groups.get(pending.mRestaurantPath);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(pending.mRestaurantPath, group);
+            }
+            group.add(pending);
+        }
+
+        int count = mPending.size();
+        int batches = 0;
+        for (List<PendingRating> group : groups.values()) {
+            // One shard increment for every few ratings of the restaurant
+            for (int i = 0; i < group.size(); i += RatingCounter.MAX_RATINGS_PER_WRITE) {
+                commit(group.subList(i,
+                        Math.min(i + RatingCounter.MAX_RATINGS_PER_WRITE, group.size())));
+                batches++;
+            }
+        }
+        Log.d(TAG, "flush:" + count + " ratings in " + batches + " batches");
+    }
+
+    private void commit(List<PendingRating> ratings) {
+        final List<PendingRating> batched = new ArrayList<>(ratings);
+        final DocumentReference restaurantRef =
+                mFirestore.document(batched.get(0).mRestaurantPath);
+
+        Map<String, Rating> byId = new LinkedHashMap<>();
+        for (PendingRating pending : batched) {
+            byId.put(pending.mRatingId, pending.mRating);
+        }
+        WriteBatch batch = mFirestore.batch();
+        RatingCounter.addRatings(batch, restaurantRef, byId);
+
+        // Firestore persists the batch from here on, so it must not be sent again
+        mPending.removeAll(batched);
+        save();
+
+        batch.commit().addOnSuccessListener(new OnSuccessListener<Void>() {
+            @Override
+            public void onSuccess(Void aVoid) {
+                mAttempts = 0;
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                Log.w(TAG, "commit:failed", e);
+                if (isPermanent(e)) {
+                    for (OnRatingsFailedListener listener : new ArrayList<>(mFailedListeners)) {
+                        listener.onRatingsFailed(restaurantRef, batched.size(), e);
+                    }
+                } else {
+                    mPending.addAll(0, batched);
+                    save();
+                    scheduleRetry();
+                }
+            }
+        });
+    }
+
+    private void scheduleRetry() {
+        // Exponential backoff with jitter
+        long backoff = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(mAttempts, 16));
+        long delay = backoff / 2 + (long) (mRandom.nextDouble() * backoff / 2);
+        mAttempts++;
+
+        Log.d(TAG, "retry:" + mPending.size() + " ratings in " + delay + "ms");
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, delay);
+    }
+
+    /**
+     * Whether retrying a write that failed with this error can never succeed, so its ratings
+     * are dropped.
+     */
+    private static boolean isPermanent(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case PERMISSION_DENIED:
+            case INVALID_ARGUMENT:
+            case NOT_FOUND:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void load() {
+        String json = mPrefs.getString(KEY_PENDING, null);
+        if (json == null) {
+            return;
+        }
+
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                mPending.add(PendingRating.fromJson(array.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "load:failed", e);
+        }
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (PendingRating pending : mPending) {
+                array.put(pending.toJson());
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "save:failed", e);
+            return;
+        }
+
+        mPrefs.edit().putString(KEY_PENDING, array.toString()).apply();
+    }
+
+    private static class PendingRating {
+
+        private final String mRestaurantPath;
+        private final String mRatingId;
+        private final Rating mRating;
+
+        PendingRating(String restaurantPath, String ratingId, Rating rating) {
+            mRestaurantPath = restaurantPath;
+            mRatingId = ratingId;
+            mRating = rating;
+        }
+
+        DocumentReference getRatingRef(DocumentReference restaurantRef) {
+            return restaurantRef.collection("ratings").document(mRatingId);
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("restaurant", mRestaurantPath)
+                    .put("id", mRatingId)
+                    .put("userId", mRating.getUserId())
+                    .put("userName", mRating.getUserName())
+                    .put("rating", mRating.getRating())
+                    .put("text", mRating.getText());
+        }
+
+        static PendingRating fromJson(JSONObject json) throws JSONException {
+            Rating rating = new Rating();
+            rating.setUserId(json.optString("userId", null));
+            rating.setUserName(json.optString("userName", null));
+            rating.setRating(json.getDouble("rating"));
+            rating.setText(json.optString("text", null));
+
+            return new PendingRating(json.getString("restaurant"), json.getString("id"), rating);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.example.fireeats.java.model.RatingStats;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-run drift measurement and micro benchmark for {@link RatingStats}, run from the
+ * overflow menu.
+ *
+ * Replays {@link #NUM_RATINGS} random ratings through the old {@code avgRating * numRatings}
+ * update and through {@link RatingStats}, and reports how far each average drifts from a
+ * compensated (Kahan) sum. Then reports how far merged shard accumulators are from a single one
+ * and times both updates. Nothing is asserted, the numbers are only logged.
+ */
+public class RatingStatsBenchmark {
+
+    private static final String TAG = "RatingStatsBenchmark";
+
+    private static final int NUM_RATINGS = 10000000;
+    private static final int NUM_SHARDS = 10;
+    private static final int TIMING_ITERATIONS = 1000000;
+
+    // Shared by every run, so repeated runs do not each leave a thread behind
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Run the benchmark on a background thread and return the report.
+     */
+    public Task<String> run() {
+        final TaskCompletionSource<String> source = new TaskCompletionSource<>();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String report = runDrift() + "\n" + runTiming();
+                    Log.d(TAG, report);
+                    source.setResult(report);
+                } catch (Exception e) {
+                    source.setException(e);
+                }
+            }
+        });
+
+        return source.getTask();
+    }
+
+    private String runDrift() {
+        Random random = new Random(NUM_RATINGS);
+        RatingStats stats = new RatingStats();
+        RatingStats[] shards = new RatingStats[NUM_SHARDS];
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            shards[i] = new RatingStats();
+        }
+
+        int numRatings = 0;
+        double avgRating = 0.0;
+        double sum = 0.0;
+        double compensation = 0.0;
+
+        StringBuilder report = new StringBuilder("Mean drift from compensated sum\n");
+        report.append(String.format(Locale.US, "%-10s %12s %12s", "ratings", "avg * n", "welford"));
+
+        long checkpoint = 1000;
+        for (int i = 1; i <= NUM_RATINGS; i++) {
+            double rating = random.nextDouble() * 5.0;
+
+            // Old update, as the detail screen did before RatingStats
+            avgRating = (avgRating * numRatings + rating) / (numRatings + 1);
+            numRatings++;
+
+            stats.add(rating);
+            shards[i % NUM_SHARDS].add(rating);
+
+            // Kahan summation as the reference
+            double y = rating - compensation;
+            double t = sum + y;
+            compensation = (t - sum) - y;
+            sum = t;
+
+            if (i == checkpoint) {
+                double mean = sum / i;
+                report.append(String.format(Locale.US, "\n%-10d %12.3e %12.3e",
+                        i, Math.abs(avgRating - mean), Math.abs(stats.getMean() - mean)));
+                checkpoint *= 10;
+            }
+        }
+
+        RatingStats merged = new RatingStats();
+        for (RatingStats shard : shards) {
+            merged.merge(shard);
+        }
+
+        report.append(String.format(Locale.US,
+                "\nMerged %d shards: count %d, mean diff %.3e, variance diff %.3e",
+                NUM_SHARDS, merged.getCount(),
+                Math.abs(merged.getMean() - stats.getMean()),
+                Math.abs(merged.getVariance() - stats.getVariance())));
+        report.append(String.format(Locale.US, "\nVariance %.4f, p50 %.2f, p95 %.2f",
+                stats.getVariance(), stats.getPercentile(0.5), stats.getPercentile(0.95)));
+
+        return report.toString();
+    }
+
+    private String runTiming() {
+        double[] ratings = new double[TIMING_ITERATIONS];
+        Random random = new Random(TIMING_ITERATIONS);
+        for (int i = 0; i < ratings.length; i++) {
+            ratings[i] = random.nextDouble() * 5.0;
+        }
+
+        long start = System.nanoTime();
+        int numRatings = 0;
+        double avgRating = 0.0;
+        for (double rating : ratings) {
+            avgRating = (avgRating * numRatings + rating) / (numRatings + 1);
+            numRatings++;
+        }
+        double averageNanos = (System.nanoTime() - start) / (double) TIMING_ITERATIONS;
+
+        start = System.nanoTime();
+        RatingStats stats = new RatingStats();
+        for (double rating : ratings) {
+            stats.add(rating);
+        }
+        double statsNanos = (System.nanoTime() - start) / (double) TIMING_ITERATIONS;
+
+        // Use the results so the loops are not optimized away
+        Log.v(TAG, "timing:" + avgRating + "," + stats.getMean());
+
+        return String.format(Locale.US, "Update cost: avg * n %.1f ns, welford %.1f ns",
+                averageNanos, statsNanos);
+    }
+}
@@ -1,8 +1,9 @@
 package com.google.firebase.example.fireeats.java.util;
 
 import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.model.RatingStats;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
@@ -12,6 +13,8 @@ import java.util.UUID;
  */
 public class RatingUtil {
 
+    private static final Random RANDOM = new Random();
+
     public static final String[] REVIEW_CONTENTS = {
             // 0 - 1 stars
             "This was awful! Totally inedible.",
@@ -30,29 +33,38 @@ public class RatingUtil {
     };
 
     /**
-     * Get a list of random Rating POJOs.
+     * Get the average rating of a List.
+     */
+    public static double getAverageRating(List<Rating> ratings) {
+        return getRatingStats(ratings).getMean();
+    }
+
+    /**
+     * Get the running stats of a List.
      */
-    public static List<Rating> getRandomList(int length) {
-        List<Rating> result = new ArrayList<>();
+    public static RatingStats getRatingStats(List<Rating> ratings) {
+        RatingStats stats = new RatingStats();
 
-        for (int i = 0; i < length; i++) {
-            result.add(getRandom());
+        for (Rating rating : ratings) {
+            stats.add(rating.getRating());
         }
 
-        return result;
+        return stats;
     }
 
     /**
-     * Get the average rating of a List.
+     * Add a rating to the aggregate totals of a restaurant in O(1).
      */
-    public static double getAverageRating(List<Rating> ratings) {
-        double sum = 0.0;
-
-        for (Rating rating : ratings) {
-            sum += rating.getRating();
+    public static void addRating(Restaurant restaurant, Rating rating) {
+        RatingStats stats = restaurant.getRatingStats();
+        if (stats == null) {
+            stats = RatingStats.fromAverage(restaurant.getNumRatings(), restaurant.getAvgRating());
+            restaurant.setRatingStats(stats);
         }
 
-        return sum / ratings.size();
+        stats.add(rating.getRating());
+        restaurant.setNumRatings((int) stats.getCount());
+        restaurant.setAvgRating(stats.getMean());
     }
 
     /**
@@ -61,9 +73,7 @@ public class RatingUtil {
     public static Rating getRandom() {
         Rating rating = new Rating();
 
-        Random random = new Random();
-
-        double score = random.nextDouble() * 5.0;
+        double score = RANDOM.nextDouble() * 5.0;
         String text = REVIEW_CONTENTS[(int) Math.floor(score)];
 
         rating.setUserId(UUID.randomUUID().toString());
@@ -0,0 +1,411 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.example.fireeats.java.Filters;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * In-memory secondary index over the restaurants the client has already synced, used to answer
+ * {@link Filters} locally while the server query refreshes the results.
+ *
+ * Each restaurant is stored in a slot. Category, city and price filters are inverted postings
+ * ({@link BitSet}s of slots) that are intersected, and each sort field has an array of slots
+ * sorted by that field, then by document id like Firestore, which is walked until enough
+ * matches are found. A sorted array is built by the first query that sorts by its field, after
+ * that each change moves only the slots it touches, found by binary search.
+ *
+ * The app shares one index per process, see {@link #getInstance()}. It holds at most
+ * {@code maxSize} restaurants and drops the ones indexed longest ago to make room. A document
+ * that leaves a query may still exist, so it is only removed once the local cache no longer
+ * has it.
+ */
+public class RestaurantIndex {
+
+    private static final String TAG = "RestaurantIndex";
+
+    public static final int MAX_SIZE = 10000;
+
+    private static RestaurantIndex sInstance;
+
+    private final int mMaxSize;
+
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+
+    // In the order the restaurants were first indexed, oldest first
+    private final LinkedHashMap<String, Integer> mSlots = new LinkedHashMap<>();
+    private final ArrayDeque<Integer> mFreeSlots = new ArrayDeque<>();
+
+    private final BitSet mLive = new BitSet();
+    private final HashMap<String, BitSet> mByCategory = new HashMap<>();
+    private final HashMap<String, BitSet> mByCity = new HashMap<>();
+    private final HashMap<Integer, BitSet> mByPrice = new HashMap<>();
+
+    // Keyed by sort field, null for the document id order of queries without one
+    private final HashMap<String, SortedSlots> mSorted = new HashMap<>();
+
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+
+    private boolean mLoadStarted;
+
+    /**
+     * Get the index shared by every screen, so it is only built once per process.
+     */
+    public static synchronized RestaurantIndex getInstance() {
+        if (sInstance == null) {
+            sInstance = new RestaurantIndex(MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    public RestaurantIndex(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Add or replace a restaurant. {@code snapshot} may be null when only ids are needed.
+     */
+    public synchronized void put(String id, Restaurant restaurant, DocumentSnapshot snapshot) {
+        Integer slot = mSlots.get(id);
+        if (slot != null) {
+            unindex(slot);
+        } else {
+            if (mSlots.size() >= mMaxSize) {
+                remove(mSlots.keySet().iterator().next());
+            }
+            slot = mFreeSlots.isEmpty() ? mEntries.size() : mFreeSlots.pop();
+            mSlots.put(id, slot);
+        }
+
+        Entry entry = new Entry(id, restaurant, snapshot);
+        if (slot == mEntries.size()) {
+            mEntries.add(entry);
+        } else {
+            mEntries.set(slot, entry);
+        }
+
+        mLive.set(slot);
+        postings(mByCategory, restaurant.getCategory()).set(slot);
+        postings(mByCity, restaurant.getCity()).set(slot);
+        postings(mByPrice, restaurant.getPrice()).set(slot);
+        for (SortedSlots sorted : mSorted.values()) {
+            sorted.add(slot);
+        }
+    }
+
+    public synchronized void remove(String id) {
+        Integer slot = mSlots.remove(id);
+        if (slot != null) {
+            unindex(slot);
+            mEntries.set(slot, null);
+            mFreeSlots.push(slot);
+        }
+    }
+
+    public synchronized int size() {
+        return mSlots.size();
+    }
+
+    /**
+     * Index the documents of a snapshot's changes in the background.
+     */
+    public void onDocumentChanges(List<DocumentChange> changes) {
+        final List<DocumentSnapshot> snapshots = new ArrayList<>();
+        for (DocumentChange change : changes) {
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                removeIfDeleted(change.getDocument());
+            } else {
+                snapshots.add(change.getDocument());
+            }
+        }
+
+        if (!snapshots.isEmpty()) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    putAll(snapshots);
+                }
+            });
+        }
+    }
+
+    /**
+     * Index up to {@code maxSize} restaurants that the query returns from the local cache,
+     * without going to the server. Only the first call loads anything.
+     */
+    public void loadFromCache(Query query) {
+        synchronized (this) {
+            if (mLoadStarted) {
+                return;
+            }
+            mLoadStarted = true;
+        }
+
+        query.limit(mMaxSize).get(Source.CACHE)
+                .addOnSuccessListener(mExecutor, new OnSuccessListener<QuerySnapshot>() {
+                    @Override
+                    public void onSuccess(QuerySnapshot snapshots) {
+                        putAll(snapshots.getDocuments());
+                        Log.d(TAG, "loadFromCache:" + size());
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        Log.w(TAG, "loadFromCache:failed", e);
+                    }
+                });
+    }
+
+    /**
+     * Remove a document that left a query once the local cache shows it was deleted.
+     */
+    private void removeIfDeleted(final DocumentSnapshot snapshot) {
+        snapshot.getReference().get(Source.CACHE)
+                .addOnCompleteListener(mExecutor, new OnCompleteListener<DocumentSnapshot>() {
+                    @Override
+                    public void onComplete(@NonNull Task<DocumentSnapshot> task) {
+                        // The cache read fails when the document is not cached at all
+                        if (!task.isSuccessful() || !task.getResult().exists()) {
+                            remove(snapshot.getId());
+                        }
+                    }
+                });
+    }
+
+    private synchronized void putAll(List<DocumentSnapshot> snapshots) {
+        for (DocumentSnapshot snapshot : snapshots) {
+            // Decoded here rather than through the ModelCache, which only holds what is shown
+            Restaurant restaurant = snapshot.toObject(Restaurant.class);
+            if (restaurant != null) {
+                put(snapshot.getId(), restaurant, snapshot);
+            }
+        }
+    }
+
+    /**
+     * Get the snapshots of up to {@code limit} restaurants that match the filters, in the order
+     * the equivalent Firestore query would return them.
+     */
+    public synchronized List<DocumentSnapshot> query(Filters filters, int limit) {
+        List<DocumentSnapshot> results = new ArrayList<>();
+        for (int slot : querySlots(filters, limit)) {
+            DocumentSnapshot snapshot = mEntries.get(slot).mSnapshot;
+            if (snapshot != null) {
+                results.add(snapshot);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Get the ids of up to {@code limit} restaurants that match the filters.
+     */
+    public synchronized List<String> queryIds(Filters filters, int limit) {
+        List<String> results = new ArrayList<>();
+        for (int slot : querySlots(filters, limit)) {
+            results.add(mEntries.get(slot).mId);
+        }
+        return results;
+    }
+
+    private int[] querySlots(Filters filters, int limit) {
+        // Intersect the postings of the equality filters
+        BitSet matches = (BitSet) mLive.clone();
+        if (filters.hasCategory()) {
+            matches.and(postingsOrEmpty(mByCategory.get(filters.getCategory())));
+        }
+        if (filters.hasCity()) {
+            matches.and(postingsOrEmpty(mByCity.get(filters.getCity())));
+        }
+        if (filters.hasPrice()) {
+            matches.and(postingsOrEmpty(mByPrice.get(filters.getPrice())));
+        }
+
+        int count = Math.min(matches.cardinality(), limit);
+        int[] results = new int[count];
+        if (count == 0) {
+            return results;
+        }
+
+        // Walk the slots in sort order until enough of them match. Firestore breaks ties by
+        // document id, in the direction of the last sort.
+        String sortBy = filters.hasSortBy() ? filters.getSortBy() : null;
+        SortedSlots sorted = sorted(sortBy);
+        boolean descending = sortBy != null
+                && filters.getSortDirection() == Query.Direction.DESCENDING;
+        int found = 0;
+        for (int i = 0; i < sorted.mSize && found < count; i++) {
+            int slot = sorted.mSlots[descending ? sorted.mSize - 1 - i : i];
+            if (matches.get(slot)) {
+                results[found++] = slot;
+            }
+        }
+
+        return results;
+    }
+
+    private SortedSlots sorted(final String field) {
+        SortedSlots sorted = mSorted.get(field);
+        if (sorted == null) {
+            Integer[] slots = new Integer[mLive.cardinality()];
+            int i = 0;
+            for (int slot = mLive.nextSetBit(0); slot >= 0; slot = mLive.nextSetBit(slot + 1)) {
+                slots[i++] = slot;
+            }
+
+            Arrays.sort(slots, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return compareEntries(mEntries.get(a), mEntries.get(b), field);
+                }
+            });
+
+            int[] sortedSlots = new int[slots.length];
+            for (i = 0; i < slots.length; i++) {
+                sortedSlots[i] = slots[i];
+            }
+            sorted = new SortedSlots(field, sortedSlots);
+            mSorted.put(field, sorted);
+        }
+        return sorted;
+    }
+
+    private static int compareEntries(Entry first, Entry second, String field) {
+        int result = Double.compare(sortValue(first.mRestaurant, field),
+                sortValue(second.mRestaurant, field));
+        return result != 0 ? result : first.mId.compareTo(second.mId);
+    }
+
+    private static double sortValue(Restaurant restaurant, String field) {
+        if (Restaurant.FIELD_AVG_RATING.equals(field)) {
+            double avgRating = restaurant.getAvgRating();
+            return Double.isNaN(avgRating) ? 0 : avgRating;
+        } else if (Restaurant.FIELD_POPULARITY.equals(field)) {
+            return restaurant.getNumRatings();
+        } else if (Restaurant.FIELD_PRICE.equals(field)) {
+            return restaurant.getPrice();
+        }
+        return 0;
+    }
+
+    private void unindex(int slot) {
+        // Before the entry is replaced, its values find the slot in the sorted arrays
+        for (SortedSlots sorted : mSorted.values()) {
+            sorted.remove(slot);
+        }
+
+        Restaurant restaurant = mEntries.get(slot).mRestaurant;
+        mLive.clear(slot);
+        postings(mByCategory, restaurant.getCategory()).clear(slot);
+        postings(mByCity, restaurant.getCity()).clear(slot);
+        postings(mByPrice, restaurant.getPrice()).clear(slot);
+    }
+
+    private static <K> BitSet postings(HashMap<K, BitSet> index, K key) {
+        BitSet postings = index.get(key);
+        if (postings == null) {
+            postings = new BitSet();
+            index.put(key, postings);
+        }
+        return postings;
+    }
+
+    private static BitSet postingsOrEmpty(BitSet postings) {
+        return postings != null ? postings : new BitSet();
+    }
+
+    /**
+     * Slots sorted by a field, then by document id, with room to insert more.
+     */
+    private class SortedSlots {
+
+        private final String mField;
+        private int[] mSlots;
+        private int mSize;
+
+        SortedSlots(String field, int[] slots) {
+            mField = field;
+            mSlots = slots;
+            mSize = slots.length;
+        }
+
+        void add(int slot) {
+            int index = indexOf(mEntries.get(slot));
+            if (index >= 0) {
+                return;
+            }
+            index = -(index + 1);
+
+            if (mSize == mSlots.length) {
+                mSlots = Arrays.copyOf(mSlots, Math.max(16, mSize * 2));
+            }
+            System.arraycopy(mSlots, index, mSlots, index + 1, mSize - index);
+            mSlots[index] = slot;
+            mSize++;
+        }
+
+        void remove(int slot) {
+            int index = indexOf(mEntries.get(slot));
+            if (index >= 0) {
+                System.arraycopy(mSlots, index + 1, mSlots, index, mSize - index - 1);
+                mSize--;
+            }
+        }
+
+        /**
+         * Binary search for an entry, like {@link Arrays#binarySearch(int[], int)}.
+         */
+        private int indexOf(Entry entry) {
+            int low = 0;
+            int high = mSize - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int result = compareEntries(mEntries.get(mSlots[mid]), entry, mField);
+                if (result < 0) {
+                    low = mid + 1;
+                } else if (result > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    private static class Entry {
+
+        private final String mId;
+        private final Restaurant mRestaurant;
+        private final DocumentSnapshot mSnapshot;
+
+        Entry(String id, Restaurant restaurant, DocumentSnapshot snapshot) {
+            mId = id;
+            mRestaurant = restaurant;
+            mSnapshot = snapshot;
+        }
+    }
+}
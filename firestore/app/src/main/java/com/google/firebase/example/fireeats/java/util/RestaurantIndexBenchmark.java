@@ -0,0 +1,223 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.example.fireeats.R;
+import com.google.firebase.example.fireeats.java.Filters;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Benchmark for {@link RestaurantIndex}.
+ *
+ * First times local answers over 10k, 100k and 1M synthetic restaurants, and a query right
+ * after a restaurant changes, which has to keep the sorted arrays up to date. Then answers the
+ * same filters over the restaurants in the local Firestore cache both with the index and with
+ * {@link Source#CACHE} queries. Seed the cache with the matching number of restaurants (see
+ * {@link RestaurantSeeder}) to compare the two at a given size.
+ */
+public class RestaurantIndexBenchmark {
+
+    private static final String TAG = "RestaurantIndexBench";
+
+    private static final int[] SIZES = {10000, 100000, 1000000};
+    private static final int ITERATIONS = 100;
+    private static final int CACHE_ITERATIONS = 5;
+    private static final int LIMIT = 50;
+
+    // Shared by every run, so repeated runs do not each leave a thread behind
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final FirebaseFirestore mFirestore;
+    private final String[] mCities;
+    private final String[] mCategories;
+
+    public RestaurantIndexBenchmark(FirebaseFirestore firestore, Context context) {
+        mFirestore = firestore;
+
+        // First element of each array is 'Any'
+        String[] cities = context.getResources().getStringArray(R.array.cities);
+        mCities = Arrays.copyOfRange(cities, 1, cities.length);
+        String[] categories = context.getResources().getStringArray(R.array.categories);
+        mCategories = Arrays.copyOfRange(categories, 1, categories.length);
+    }
+
+    /**
+     * Run the benchmark on a background thread and return the report.
+     */
+    public Task<String> run() {
+        final TaskCompletionSource<String> source = new TaskCompletionSource<>();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String report = runLocal() + "\n" + runVersusCache();
+                    Log.d(TAG, report);
+                    source.setResult(report);
+                } catch (Exception e) {
+                    source.setException(e);
+                }
+            }
+        });
+
+        return source.getTask();
+    }
+
+    private List<Filters> getFilters() {
+        List<Filters> filters = new ArrayList<>();
+        filters.add(Filters.getDefault());
+
+        Filters category = Filters.getDefault();
+        category.setCategory(mCategories[0]);
+        filters.add(category);
+
+        Filters categoryCity = Filters.getDefault();
+        categoryCity.setCategory(mCategories[1]);
+        categoryCity.setCity(mCities[0]);
+        filters.add(categoryCity);
+
+        Filters cityPricePopularity = Filters.getDefault();
+        cityPricePopularity.setCity(mCities[1]);
+        cityPricePopularity.setPrice(2);
+        cityPricePopularity.setSortBy(Restaurant.FIELD_POPULARITY);
+        filters.add(cityPricePopularity);
+
+        Filters all = new Filters();
+        all.setCategory(mCategories[2]);
+        all.setCity(mCities[2]);
+        all.setPrice(1);
+        all.setSortBy(Restaurant.FIELD_PRICE);
+        all.setSortDirection(Query.Direction.ASCENDING);
+        filters.add(all);
+
+        return filters;
+    }
+
+    private String runLocal() {
+        StringBuilder report = new StringBuilder("Local index, synthetic data (us/query)\n");
+        report.append(String.format(Locale.US, "%-10s %8s", "size", "build ms"));
+        List<Filters> filters = getFilters();
+        for (int i = 0; i < filters.size(); i++) {
+            report.append(String.format(Locale.US, " %8s", "q" + i));
+        }
+        report.append(String.format(Locale.US, " %8s", "update"));
+
+        for (int size : SIZES) {
+            report.append(String.format(Locale.US, "\n%-10d", size));
+            try {
+                long start = System.nanoTime();
+                RestaurantIndex index = buildSyntheticIndex(size);
+                report.append(String.format(Locale.US, " %8.0f", (System.nanoTime() - start) / 1e6));
+
+                for (Filters filter : filters) {
+                    // The first query of each sort builds its sorted array, keep it out of the timing
+                    index.queryIds(filter, LIMIT);
+
+                    start = System.nanoTime();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        index.queryIds(filter, LIMIT);
+                    }
+                    report.append(String.format(Locale.US, " %8.1f",
+                            (System.nanoTime() - start) / 1e3 / ITERATIONS));
+                }
+
+                // Change a restaurant, then query a sort that is already built
+                Random random = new Random(-size);
+                Filters popularity = filters.get(3);
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    index.put(Integer.toString(random.nextInt(size)), getRandomRestaurant(random),
+                            null);
+                    index.queryIds(popularity, LIMIT);
+                }
+                report.append(String.format(Locale.US, " %8.1f",
+                        (System.nanoTime() - start) / 1e3 / ITERATIONS));
+            } catch (OutOfMemoryError e) {
+                report.append(" out of memory");
+            }
+        }
+
+        return report.toString();
+    }
+
+    private RestaurantIndex buildSyntheticIndex(int size) {
+        Random random = new Random(size);
+        RestaurantIndex index = new RestaurantIndex(size);
+        for (int i = 0; i < size; i++) {
+            index.put(Integer.toString(i), getRandomRestaurant(random), null);
+        }
+        return index;
+    }
+
+    private Restaurant getRandomRestaurant(Random random) {
+        return new Restaurant(
+                null,
+                mCities[random.nextInt(mCities.length)],
+                mCategories[random.nextInt(mCategories.length)],
+                null,
+                random.nextInt(3) + 1,
+                random.nextInt(20),
+                random.nextDouble() * 5.0);
+    }
+
+    private String runVersusCache() throws Exception {
+        Query restaurants = mFirestore.collection("restaurants");
+
+        // Build an index over everything in the local cache
+        long start = System.nanoTime();
+        QuerySnapshot cached = Tasks.await(restaurants.get(Source.CACHE));
+        RestaurantIndex index = new RestaurantIndex(Math.max(cached.size(), 1));
+        for (DocumentSnapshot snapshot : cached) {
+            Restaurant restaurant = snapshot.toObject(Restaurant.class);
+            if (restaurant != null) {
+                index.put(snapshot.getId(), restaurant, null);
+            }
+        }
+        double buildMillis = (System.nanoTime() - start) / 1e6;
+
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "Local cache, %d restaurants, index built in %.0f ms (us/query)\n",
+                index.size(), buildMillis));
+        report.append(String.format(Locale.US, "%-6s %12s %12s", "query", "index", "Source.CACHE"));
+
+        List<Filters> filters = getFilters();
+        for (int i = 0; i < filters.size(); i++) {
+            Filters filter = filters.get(i);
+            index.queryIds(filter, LIMIT);
+
+            start = System.nanoTime();
+            for (int j = 0; j < ITERATIONS; j++) {
+                index.queryIds(filter, LIMIT);
+            }
+            double indexMicros = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+
+            Query query = filter.toQuery(restaurants).limit(LIMIT);
+            start = System.nanoTime();
+            for (int j = 0; j < CACHE_ITERATIONS; j++) {
+                Tasks.await(query.get(Source.CACHE));
+            }
+            double cacheMicros = (System.nanoTime() - start) / 1e3 / CACHE_ITERATIONS;
+
+            report.append(String.format(Locale.US, "\n%-6s %12.1f %12.1f",
+                    "q" + i, indexMicros, cacheMicros));
+        }
+
+        return report.toString();
+    }
+}
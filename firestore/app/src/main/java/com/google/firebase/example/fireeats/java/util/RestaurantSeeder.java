@@ -0,0 +1,190 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.example.fireeats.java.model.Rating;
+import com.google.firebase.example.fireeats.java.model.RatingStats;
+import com.google.firebase.example.fireeats.java.model.Restaurant;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes large numbers of random restaurants (and their ratings) to Firestore.
+ *
+ * Restaurants come from a {@link DataGenerator}, so seeding twice with the same seed writes the
+ * same documents. They are generated on a background thread and packed into
+ * {@link WriteBatch}es of at most {@link #MAX_BATCH_SIZE} writes, keeping each restaurant in the
+ * same batch as its ratings. Up to {@code maxInFlight} batches are committed at the same time,
+ * generation pauses while the window is full.
+ *
+ * All seeders share one background thread, so seeding runs one after the other.
+ */
+public class RestaurantSeeder {
+
+    private static final String TAG = "RestaurantSeeder";
+
+    /** Maximum number of writes Firestore accepts in a single batch. */
+    public static final int MAX_BATCH_SIZE = 500;
+
+    // Run commit callbacks on the thread that completes the commit
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final FirebaseFirestore mFirestore;
+    private final DataGenerator mGenerator;
+    private final int mMaxInFlight;
+
+    /**
+     * @param generator only used on the seeding thread once seeding starts.
+     */
+    public RestaurantSeeder(FirebaseFirestore firestore, DataGenerator generator,
+                            int maxInFlight) {
+        if (generator.getDistribution().getMaxRatings() + 1 > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("A restaurant and its ratings must fit in a batch");
+        }
+
+        mFirestore = firestore;
+        mGenerator = generator;
+        mMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * Write {@code numRestaurants} random restaurants, completing once every batch is committed.
+     */
+    public Task<Result> seed(final int numRestaurants) {
+        final TaskCompletionSource<Result> source = new TaskCompletionSource<>();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    source.setResult(seedBlocking(numRestaurants));
+                } catch (Exception e) {
+                    source.setException(e);
+                }
+            }
+        });
+
+        return source.getTask();
+    }
+
+    private Result seedBlocking(int numRestaurants) throws Exception {
+        final Semaphore window = new Semaphore(mMaxInFlight);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final Result result = new Result();
+        long start = System.nanoTime();
+
+        CollectionReference restaurants = mFirestore.collection("restaurants");
+        WriteBatch batch = mFirestore.batch();
+        int batchSize = 0;
+
+        for (int i = 0; i < numRestaurants && error.get() == null; i++) {
+            // Create random restaurant / ratings
+            Restaurant restaurant = mGenerator.nextRestaurant();
+            List<Rating> ratings = mGenerator.nextRatings(restaurant.getNumRatings());
+            RatingStats stats = RatingUtil.getRatingStats(ratings);
+            restaurant.setRatingStats(stats);
+            restaurant.setAvgRating(stats.getMean());
+
+            // Start a new batch if the restaurant and its ratings do not fit
+            if (batchSize + 1 + ratings.size() > MAX_BATCH_SIZE) {
+                commit(batch, batchSize, window, error, result);
+                batch = mFirestore.batch();
+                batchSize = 0;
+            }
+
+            DocumentReference restRef = restaurants.document(mGenerator.nextId());
+            batch.set(restRef, restaurant);
+            for (Rating rating : ratings) {
+                batch.set(restRef.collection("ratings").document(mGenerator.nextId()), rating);
+            }
+            batchSize += 1 + ratings.size();
+            result.mRestaurants++;
+        }
+
+        if (batchSize > 0) {
+            commit(batch, batchSize, window, error, result);
+        }
+
+        // Wait for the last batches to finish
+        window.acquire(mMaxInFlight);
+        window.release(mMaxInFlight);
+
+        if (error.get() != null) {
+            throw error.get();
+        }
+
+        result.mElapsedNanos = System.nanoTime() - start;
+        Log.d(TAG, result.toString());
+        return result;
+    }
+
+    private void commit(WriteBatch batch, final int batchSize, final Semaphore window,
+                        final AtomicReference<Exception> error, final Result result)
+            throws InterruptedException {
+        // Block generation while the maximum number of batches are in flight
+        window.acquire();
+        result.mBatches++;
+
+        batch.commit().addOnCompleteListener(DIRECT_EXECUTOR, new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (task.isSuccessful()) {
+                    long written = result.mDocuments.addAndGet(batchSize);
+                    Log.d(TAG, "committed:" + written);
+                } else {
+                    Log.w(TAG, "commit failed", task.getException());
+                    error.compareAndSet(null, task.getException());
+                }
+                window.release();
+            }
+        });
+    }
+
+    /**
+     * Counts and throughput of a seeding run.
+     */
+    public static class Result {
+
+        private int mRestaurants;
+        private int mBatches;
+        private final AtomicLong mDocuments = new AtomicLong();
+        private long mElapsedNanos;
+
+        public long getDocuments() {
+            return mDocuments.get();
+        }
+
+        public double getDocumentsPerSecond() {
+            return mDocuments.get() / (mElapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d restaurants, %d documents in %d batches, %.1fs, %.0f docs/s",
+                    mRestaurants, mDocuments.get(), mBatches, mElapsedNanos / 1e9,
+                    getDocumentsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.google.firebase.example.fireeats.java.util;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Time from the start of the process until the first restaurant row is bound, reported once per
+ * process: the first row of any kind, and the first row from each {@link Origin}.
+ */
+public class StartupMetrics {
+
+    /**
+     * Where the results a row was bound from came from.
+     */
+    public enum Origin {
+        // Answered in memory before the query's own results arrived, from the restaurant
+        // index or from results kept for the filters
+        LOCAL,
+        // The query's results from the Firestore cache
+        CACHE,
+        // The query's results from the server
+        NETWORK
+    }
+
+    private static final String TAG = "StartupMetrics";
+
+    // Used as the start time where the process start time is not available
+    private static final long sLoadedAt = SystemClock.uptimeMillis();
+
+    private static long sFirstShownMillis = -1;
+    private static final long[] sFirstMillis = {-1, -1, -1};
+
+    /**
+     * Called whenever a row of the restaurant list is bound, it is drawn in the same frame.
+     */
+    public static synchronized void onRestaurantRendered(Origin origin) {
+        if (sFirstMillis[origin.ordinal()] >= 0) {
+            return;
+        }
+
+        long elapsed = SystemClock.uptimeMillis() - getStartUptimeMillis();
+        if (sFirstShownMillis < 0) {
+            sFirstShownMillis = elapsed;
+        }
+        sFirstMillis[origin.ordinal()] = elapsed;
+        Log.d(TAG, getReport());
+    }
+
+    public static synchronized String getReport() {
+        return "time to first restaurant row: cold start=" + format(sFirstShownMillis)
+                + ", local=" + format(sFirstMillis[Origin.LOCAL.ordinal()])
+                + ", cache=" + format(sFirstMillis[Origin.CACHE.ordinal()])
+                + ", network=" + format(sFirstMillis[Origin.NETWORK.ordinal()]);
+    }
+
+    private static String format(long millis) {
+        return millis < 0 ? "-" : millis + "ms";
+    }
+
+    private static long getStartUptimeMillis() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartUptimeMillis();
+        }
+        return sLoadedAt;
+    }
+}
@@ -3,6 +3,8 @@ package com.google.firebase.example.fireeats.java.viewmodel;
 import androidx.lifecycle.ViewModel;
 
 import com.google.firebase.example.fireeats.java.Filters;
+import com.google.firebase.example.fireeats.java.util.QueryResultCache;
+import com.google.firebase.example.fireeats.java.util.RestaurantIndex;
 
 /**
  * ViewModel for {@link com.google.firebase.example.fireeats.MainActivity}.
@@ -10,8 +12,11 @@ import com.google.firebase.example.fireeats.java.Filters;
 
 public class MainActivityViewModel extends ViewModel {
 
+    private static final int MAX_CACHED_RESULTS = 500;
+
     private boolean mIsSigningIn;
     private Filters mFilters;
+    private final QueryResultCache mResultCache = new QueryResultCache(MAX_CACHED_RESULTS);
 
     public MainActivityViewModel() {
         mIsSigningIn = false;
@@ -33,4 +38,12 @@ public class MainActivityViewModel extends ViewModel {
     public void setFilters(Filters mFilters) {
         this.mFilters = mFilters;
     }
+
+    public QueryResultCache getResultCache() {
+        return mResultCache;
+    }
+
+    public RestaurantIndex getRestaurantIndex() {
+        return RestaurantIndex.getInstance();
+    }
 }
@@ -34,6 +34,80 @@ class Filters {
         return !TextUtils.isEmpty(sortBy)
     }
 
+    /**
+     * Get a key that is the same for all Filters that produce the same query.
+     */
+    fun getQueryKey(): String {
+        return listOf(
+            if (hasCategory()) category else "",
+            if (hasCity()) city else "",
+            if (hasPrice()) price else -1,
+            if (hasSortBy()) sortBy else "",
+            if (hasSortBy()) sortDirection.name else "",
+        ).joinToString("|")
+    }
+
+    /**
+     * Whether these filters keep the sort of [other] and only add equality filters to it,
+     * so their results are a subset of the results of [other] in the same order.
+     */
+    fun isNarrowingOf(other: Filters): Boolean {
+        if (getQueryKey() == other.getQueryKey()) {
+            return false
+        }
+
+        // Same sort field and direction
+        if (hasSortBy() != other.hasSortBy()) {
+            return false
+        }
+        if (hasSortBy() && (sortBy != other.sortBy || sortDirection != other.sortDirection)) {
+            return false
+        }
+
+        // Every equality filter of the other filters is kept
+        return (!other.hasCategory() || other.category == category) &&
+            (!other.hasCity() || other.city == city) &&
+            (!other.hasPrice() || other.price == price)
+    }
+
+    /**
+     * Whether a restaurant passes the equality filters.
+     */
+    fun matches(restaurant: Restaurant): Boolean {
+        return (!hasCategory() || category == restaurant.category) &&
+            (!hasCity() || city == restaurant.city) &&
+            (!hasPrice() || price == restaurant.price)
+    }
+
+    /**
+     * Add the filters and sort to a query on the restaurants collection.
+     */
+    fun toQuery(query: Query): Query {
+        var result = query
+
+        // Category (equality filter)
+        if (hasCategory()) {
+            result = result.whereEqualTo(Restaurant.FIELD_CATEGORY, category)
+        }
+
+        // City (equality filter)
+        if (hasCity()) {
+            result = result.whereEqualTo(Restaurant.FIELD_CITY, city)
+        }
+
+        // Price (equality filter)
+        if (hasPrice()) {
+            result = result.whereEqualTo(Restaurant.FIELD_PRICE, price)
+        }
+
+        // Sort by (orderBy with direction)
+        if (hasSortBy()) {
+            result = result.orderBy(sortBy.toString(), sortDirection)
+        }
+
+        return result
+    }
+
     fun getSearchDescription(context: Context): String {
         val desc = StringBuilder()
 
@@ -4,10 +4,17 @@ import android.os.Bundle
 import androidx.appcompat.app.AppCompatActivity
 import androidx.navigation.Navigation
 import com.google.firebase.example.fireeats.R
+import com.google.firebase.example.fireeats.kotlin.util.FirestoreConfig
 
 class MainActivity : AppCompatActivity() {
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
+
+        // Start loading the default restaurant list while the UI is created
+        if (savedInstanceState == null) {
+            FirestoreConfig.prewarm()
+        }
+
         setContentView(R.layout.activity_main)
         setSupportActionBar(findViewById(R.id.toolbar))
         Navigation.findNavController(this, R.id.nav_host_fragment)
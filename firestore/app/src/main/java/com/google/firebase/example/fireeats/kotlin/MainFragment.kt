@@ -2,6 +2,7 @@ package com.google.firebase.example.fireeats.kotlin
 
 import android.app.Activity
 import android.os.Bundle
+import android.os.Trace
 import android.util.Log
 import android.view.LayoutInflater
 import android.view.Menu
@@ -19,6 +20,7 @@ import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.get
 import androidx.navigation.fragment.findNavController
 import androidx.recyclerview.widget.LinearLayoutManager
+import com.bumptech.glide.Glide
 import com.firebase.ui.auth.AuthUI
 import com.firebase.ui.auth.ErrorCodes
 import com.firebase.ui.auth.FirebaseAuthUIActivityResultContract
@@ -28,15 +30,24 @@ import com.google.firebase.auth.auth
 import com.google.firebase.example.fireeats.R
 import com.google.firebase.example.fireeats.databinding.FragmentMainBinding
 import com.google.firebase.example.fireeats.kotlin.adapter.RestaurantAdapter
-import com.google.firebase.example.fireeats.kotlin.model.Restaurant
-import com.google.firebase.example.fireeats.kotlin.util.RatingUtil
-import com.google.firebase.example.fireeats.kotlin.util.RestaurantUtil
+import com.google.firebase.example.fireeats.kotlin.util.DataGenerator
+import com.google.firebase.example.fireeats.kotlin.util.FirestoreConfig
+import com.google.firebase.example.fireeats.kotlin.util.ListenerRegistry
+import com.google.firebase.example.fireeats.kotlin.util.ModelCache
+import com.google.firebase.example.fireeats.kotlin.util.PhotoLoader
+import com.google.firebase.example.fireeats.kotlin.util.PhotoPrefetcher
+import com.google.firebase.example.fireeats.kotlin.util.QueryScheduler
+import com.google.firebase.example.fireeats.kotlin.util.RatingLoadGenerator
+import com.google.firebase.example.fireeats.kotlin.util.RatingStatsBenchmark
+import com.google.firebase.example.fireeats.kotlin.util.RestaurantIndexBenchmark
+import com.google.firebase.example.fireeats.kotlin.util.RestaurantSeeder
+import com.google.firebase.example.fireeats.kotlin.util.StartupMetrics
 import com.google.firebase.example.fireeats.kotlin.viewmodel.MainActivityViewModel
+import com.google.firebase.firestore.DocumentChange
 import com.google.firebase.firestore.DocumentSnapshot
 import com.google.firebase.firestore.FirebaseFirestore
 import com.google.firebase.firestore.FirebaseFirestoreException
 import com.google.firebase.firestore.Query
-import com.google.firebase.firestore.firestore
 import com.google.firebase.Firebase
 
 class MainFragment :
@@ -51,6 +62,7 @@ class MainFragment :
     private lateinit var binding: FragmentMainBinding
     private lateinit var filterDialog: FilterDialogFragment
     lateinit var adapter: RestaurantAdapter
+    private lateinit var queryScheduler: QueryScheduler
 
     private lateinit var viewModel: MainActivityViewModel
 
@@ -61,24 +73,29 @@ class MainFragment :
 
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
+        // Traced for the startup benchmark in the :benchmark module
+        Trace.beginSection("MainFragment.onViewCreated")
 
         // View model
         viewModel = ViewModelProvider(this).get<MainActivityViewModel>()
 
-        // Enable Firestore logging
-        FirebaseFirestore.setLoggingEnabled(true)
+        // Firestore, configured in one place
+        firestore = FirestoreConfig.firestore
 
-        // Firestore
-        firestore = Firebase.firestore
-
-        // Get ${LIMIT} restaurants
+        // Get restaurants, the adapter loads them one page at a time
         query = firestore.collection("restaurants")
             .orderBy("avgRating", Query.Direction.DESCENDING)
-            .limit(LIMIT.toLong())
 
         // RecyclerView
         adapter = object : RestaurantAdapter(query, this@MainFragment) {
             override fun onDataChanged() {
+                // Remember the results for when the user comes back to these filters. Skip
+                // the local answer shown while the query loads, and a diff of the previous
+                // query's results that finishes after the filters changed.
+                if (query != null && query == resultsQuery) {
+                    viewModel.resultCache.put(viewModel.filters, currentSnapshots())
+                }
+
                 // Show/hide content if the query returns empty.
                 if (itemCount == 0) {
                     binding.recyclerRestaurants.visibility = View.GONE
@@ -89,6 +106,14 @@ class MainFragment :
                 }
             }
 
+            override fun onDocumentChanges(changes: List<DocumentChange>) {
+                super.onDocumentChanges(changes)
+
+                // Keep the local index up to date with every restaurant we see
+                viewModel.restaurantIndex.onDocumentChanges(changes)
+                queryScheduler.onResults()
+            }
+
             override fun onError(e: FirebaseFirestoreException) {
                 // Show a snackbar on errors
                 Snackbar.make(
@@ -103,14 +128,29 @@ class MainFragment :
         val menuHost: MenuHost = requireActivity() as MenuHost
         menuHost.addMenuProvider(this)
 
-        binding.recyclerRestaurants.layoutManager = LinearLayoutManager(context)
+        // Coalesce rapid filter changes into a single query
+        queryScheduler = QueryScheduler(FILTER_DEBOUNCE_MS, ::applyFilters)
+
+        // Index the restaurants that are already in the local cache, once per process
+        viewModel.restaurantIndex.loadFromCache(firestore.collection("restaurants"))
+
+        val layoutManager = LinearLayoutManager(context)
+        binding.recyclerRestaurants.layoutManager = layoutManager
         binding.recyclerRestaurants.adapter = adapter
 
+        // Decode the photos of the rows that are about to scroll into view
+        val photoSize = resources.getDimensionPixelSize(R.dimen.restaurant_item_image_size)
+        binding.recyclerRestaurants.addOnScrollListener(
+            PhotoPrefetcher(Glide.with(this), layoutManager, adapter, photoSize, photoSize, PHOTO_PREFETCH_COUNT),
+        )
+
         // Filter Dialog
         filterDialog = FilterDialogFragment()
 
         binding.filterBar.setOnClickListener { onFilterClicked() }
         binding.buttonClearFilter.setOnClickListener { onClearFilterClicked() }
+
+        Trace.endSection()
     }
 
     public override fun onStart() {
@@ -123,7 +163,7 @@ class MainFragment :
         }
 
         // Apply filters
-        onFilter(viewModel.filters)
+        queryScheduler.applyNow(viewModel.filters)
 
         // Start listening for Firestore updates
         adapter.startListening()
@@ -131,6 +171,13 @@ class MainFragment :
 
     public override fun onStop() {
         super.onStop()
+
+        // Drop a filter change that is still waiting for the debounce delay rather than
+        // starting a listener that is stopped right away
+        queryScheduler.cancel()
+        Log.d(TAG, PhotoLoader.stats)
+        Log.d(TAG, StartupMetrics.report)
+        Log.d(TAG, ListenerRegistry.toString())
         adapter.stopListening()
     }
 
@@ -144,6 +191,22 @@ class MainFragment :
                 onAddItemsClicked()
                 true
             }
+            R.id.menu_seed_load_test -> {
+                onSeedLoadTestClicked()
+                true
+            }
+            R.id.menu_index_benchmark -> {
+                onIndexBenchmarkClicked()
+                true
+            }
+            R.id.menu_rating_load_test -> {
+                onRatingLoadTestClicked()
+                true
+            }
+            R.id.menu_rating_stats_benchmark -> {
+                onRatingStatsBenchmarkClicked()
+                true
+            }
             R.id.menu_sign_out -> {
                 AuthUI.getInstance().signOut(requireContext())
                 startSignIn()
@@ -189,34 +252,33 @@ class MainFragment :
     }
 
     override fun onFilter(filters: Filters) {
-        // Construct query basic query
-        var query: Query = firestore.collection("restaurants")
+        // Query now, or once the user stops changing filters if this is one of many changes
+        queryScheduler.schedule(filters)
+    }
 
-        // Category (equality filter)
-        if (filters.hasCategory()) {
-            query = query.whereEqualTo(Restaurant.FIELD_CATEGORY, filters.category)
-        }
+    private fun applyFilters(filters: Filters) {
+        // Construct query
+        val query = filters.toQuery(firestore.collection("restaurants"))
 
-        // City (equality filter)
-        if (filters.hasCity()) {
-            query = query.whereEqualTo(Restaurant.FIELD_CITY, filters.city)
-        }
-
-        // Price (equality filter)
-        if (filters.hasPrice()) {
-            query = query.whereEqualTo(Restaurant.FIELD_PRICE, filters.price)
-        }
+        // Save filters
+        val previous = viewModel.filters
+        viewModel.filters = filters
 
-        // Sort by (orderBy with direction)
-        if (filters.hasSortBy()) {
-            query = query.orderBy(filters.sortBy.toString(), filters.sortDirection)
+        // Update the query, showing the last results for these filters, or a local answer
+        // until it loads. When the filters only narrow the current ones, the current results
+        // are filtered, otherwise the restaurants we have already synced are searched.
+        val initialResults = viewModel.resultCache.get(filters)
+            ?: narrowCurrentResults(previous, filters)
+            ?: viewModel.restaurantIndex.query(filters, LOCAL_RESULTS_LIMIT).ifEmpty { null }
+        if (initialResults != null) {
+            queryScheduler.onLocalResults()
         }
-
-        // Limit items
-        query = query.limit(LIMIT.toLong())
-
-        // Update the query
-        adapter.setQuery(query)
+        adapter.setQuery(query, initialResults)
+        val resultCache = viewModel.resultCache
+        Log.d(
+            TAG,
+            "onFilter: cache hits=${resultCache.hitCount} misses=${resultCache.missCount} $queryScheduler",
+        )
 
         // Set header
         binding.textCurrentSearch.text = HtmlCompat.fromHtml(
@@ -224,9 +286,16 @@ class MainFragment :
             HtmlCompat.FROM_HTML_MODE_LEGACY,
         )
         binding.textCurrentSortBy.text = filters.getOrderDescription(requireContext())
+    }
 
-        // Save filters
-        viewModel.filters = filters
+    private fun narrowCurrentResults(previous: Filters, filters: Filters): List<DocumentSnapshot>? {
+        if (!filters.isNarrowingOf(previous)) {
+            return null
+        }
+
+        return adapter.currentSnapshots()
+            .filter { snapshot -> ModelCache.restaurants.get(snapshot)?.let { filters.matches(it) } ?: false }
+            .ifEmpty { null }
     }
 
     private fun shouldStartSignIn(): Boolean {
@@ -250,31 +319,69 @@ class MainFragment :
 
     private fun onAddItemsClicked() {
         // Add a bunch of random restaurants
-        val batch = firestore.batch()
-        for (i in 0..9) {
-            val restRef = firestore.collection("restaurants").document()
+        seedRestaurants(10, System.nanoTime())
+    }
 
-            // Create random restaurant / ratings
-            val randomRestaurant = RestaurantUtil.getRandom(requireContext())
-            val randomRatings = RatingUtil.getRandomList(randomRestaurant.numRatings)
-            randomRestaurant.avgRating = RatingUtil.getAverageRating(randomRatings)
+    private fun onSeedLoadTestClicked() {
+        // Add a large data set for load testing, confirm first as it is meant for the emulator
+        AlertDialog.Builder(requireContext())
+            .setTitle(R.string.title_seed_load_test)
+            .setMessage(getString(R.string.message_seed_load_test, SEED_LOAD_TEST_SIZE))
+            .setPositiveButton(R.string.option_add) { _, _ ->
+                seedRestaurants(SEED_LOAD_TEST_SIZE, SEED_LOAD_TEST_SEED)
+            }
+            .setNegativeButton(R.string.cancel, null)
+            .show()
+    }
 
-            // Add restaurant
-            batch.set(restRef, randomRestaurant)
+    private fun seedRestaurants(count: Int, seed: Long) {
+        // Restaurants and ratings are generated off the main thread and written in batches
+        val generator = DataGenerator(requireContext(), seed)
+        Log.d(TAG, "Seeding $count restaurants, seed=$seed, ${generator.distribution}")
+        RestaurantSeeder(firestore, generator, SEED_MAX_IN_FLIGHT).seed(count)
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Write batches succeeded: " + task.result)
+                } else {
+                    Log.w(TAG, "write batch failed.", task.exception)
+                }
+            }
+    }
 
-            // Add ratings to subcollection
-            for (rating in randomRatings) {
-                batch.set(restRef.collection("ratings").document(), rating)
+    private fun onIndexBenchmarkClicked() {
+        // Compare local index answers with Source.CACHE queries
+        RestaurantIndexBenchmark(firestore, requireContext()).run()
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Index benchmark:\n" + task.result)
+                } else {
+                    Log.w(TAG, "Index benchmark failed.", task.exception)
+                }
             }
-        }
+    }
 
-        batch.commit().addOnCompleteListener { task ->
-            if (task.isSuccessful) {
-                Log.d(TAG, "Write batch succeeded.")
-            } else {
-                Log.w(TAG, "write batch failed.", task.exception)
+    private fun onRatingLoadTestClicked() {
+        // Compare transaction and sharded rating writes, best run against the emulator
+        RatingLoadGenerator(firestore, 200, 20).run()
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Rating load test:\n" + task.result)
+                } else {
+                    Log.w(TAG, "Rating load test failed.", task.exception)
+                }
+            }
+    }
+
+    private fun onRatingStatsBenchmarkClicked() {
+        // Replay a long run of ratings to compare average drift and update cost
+        RatingStatsBenchmark().run()
+            .addOnCompleteListener { task ->
+                if (task.isSuccessful) {
+                    Log.d(TAG, "Rating stats benchmark:\n" + task.result)
+                } else {
+                    Log.w(TAG, "Rating stats benchmark failed.", task.exception)
+                }
             }
-        }
     }
 
     private fun showSignInErrorDialog(@StringRes message: Int) {
@@ -292,6 +399,19 @@ class MainFragment :
 
         private const val TAG = "MainActivity"
 
-        private const val LIMIT = 50
+        private const val SEED_LOAD_TEST_SIZE = 100000
+        private const val SEED_MAX_IN_FLIGHT = 4
+
+        // Fixed so that load test runs write the same data and can be compared
+        private const val SEED_LOAD_TEST_SEED = 42L
+
+        // Number of results to show from the local index while the query loads
+        private const val LOCAL_RESULTS_LIMIT = 20
+
+        // Filter changes closer together than this only create one listener
+        private const val FILTER_DEBOUNCE_MS = 300L
+
+        // Number of photos to decode ahead of the scroll
+        private const val PHOTO_PREFETCH_COUNT = 10
     }
 }
@@ -11,13 +11,18 @@ import androidx.fragment.app.Fragment
 import androidx.navigation.fragment.findNavController
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.bumptech.glide.Glide
-import com.google.android.gms.tasks.Task
 import com.google.android.material.snackbar.Snackbar
 import com.google.firebase.example.fireeats.R
 import com.google.firebase.example.fireeats.databinding.FragmentRestaurantDetailBinding
 import com.google.firebase.example.fireeats.kotlin.adapter.RatingAdapter
 import com.google.firebase.example.fireeats.kotlin.model.Rating
 import com.google.firebase.example.fireeats.kotlin.model.Restaurant
+import com.google.firebase.example.fireeats.kotlin.util.FirestoreConfig
+import com.google.firebase.example.fireeats.kotlin.util.ListenerRegistry
+import com.google.firebase.example.fireeats.kotlin.util.ModelCache
+import com.google.firebase.example.fireeats.kotlin.util.PhotoLoader
+import com.google.firebase.example.fireeats.kotlin.util.RatingCounter
+import com.google.firebase.example.fireeats.kotlin.util.RatingQueue
 import com.google.firebase.example.fireeats.kotlin.util.RestaurantUtil
 import com.google.firebase.firestore.DocumentReference
 import com.google.firebase.firestore.DocumentSnapshot
@@ -26,14 +31,13 @@ import com.google.firebase.firestore.FirebaseFirestore
 import com.google.firebase.firestore.FirebaseFirestoreException
 import com.google.firebase.firestore.ListenerRegistration
 import com.google.firebase.firestore.Query
-import com.google.firebase.firestore.firestore
-import com.google.firebase.firestore.toObject
-import com.google.firebase.Firebase
+import com.google.firebase.firestore.QuerySnapshot
 
 class RestaurantDetailFragment :
     Fragment(),
     EventListener<DocumentSnapshot>,
-    RatingDialogFragment.RatingListener {
+    RatingDialogFragment.RatingListener,
+    RatingQueue.OnRatingsFailedListener {
 
     private var ratingDialog: RatingDialogFragment? = null
 
@@ -43,6 +47,12 @@ class RestaurantDetailFragment :
     private lateinit var ratingAdapter: RatingAdapter
 
     private var restaurantRegistration: ListenerRegistration? = null
+    private var restaurant: Restaurant? = null
+
+    // Ratings counted in the shards and not yet rolled up into the restaurant
+    private var shardsRegistration: ListenerRegistration? = null
+    private var shards: QuerySnapshot? = null
+    private var rollingUp = false
 
     override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
         binding = FragmentRestaurantDetailBinding.inflate(inflater, container, false)
@@ -56,16 +66,16 @@ class RestaurantDetailFragment :
         val restaurantId = RestaurantDetailFragmentArgs.fromBundle(requireArguments()).keyRestaurantId
 
         // Initialize Firestore
-        firestore = Firebase.firestore
+        firestore = FirestoreConfig.firestore
 
         // Get reference to the restaurant
         restaurantRef = firestore.collection("restaurants").document(restaurantId)
 
-        // Get ratings
+        // Get ratings, the adapter only listens to the newest page and loads older ones
+        // as the user scrolls
         val ratingsQuery = restaurantRef
             .collection("ratings")
             .orderBy("timestamp", Query.Direction.DESCENDING)
-            .limit(50)
 
         // RecyclerView
         ratingAdapter = object : RatingAdapter(ratingsQuery) {
@@ -79,6 +89,7 @@ class RestaurantDetailFragment :
                 }
             }
         }
+        ratingAdapter.setWindowEnabled(true)
         binding.recyclerRatings.layoutManager = LinearLayoutManager(context)
         binding.recyclerRatings.adapter = ratingAdapter
 
@@ -92,16 +103,34 @@ class RestaurantDetailFragment :
         super.onStart()
 
         ratingAdapter.startListening()
-        restaurantRegistration = restaurantRef.addSnapshotListener(this)
+
+        // Shared listeners outlive onStop for a grace period, so coming back to this
+        // restaurant does not download it again
+        restaurantRegistration = ListenerRegistry.addSnapshotListener(restaurantRef, this)
+        shardsRegistration = ListenerRegistry.addSnapshotListener(
+            RatingCounter.getShards(restaurantRef),
+        ) { snapshots, e ->
+            if (e != null) {
+                Log.w(TAG, "shards:onEvent", e)
+                return@addSnapshotListener
+            }
+
+            snapshots?.let { onShardsLoaded(it) }
+        }
+        RatingQueue.getInstance(requireContext()).addOnRatingsFailedListener(this)
     }
 
     public override fun onStop() {
         super.onStop()
 
         ratingAdapter.stopListening()
+        RatingQueue.getInstance(requireContext()).removeOnRatingsFailedListener(this)
 
         restaurantRegistration?.remove()
         restaurantRegistration = null
+
+        shardsRegistration?.remove()
+        shardsRegistration = null
     }
 
     /**
@@ -114,7 +143,8 @@ class RestaurantDetailFragment :
         }
 
         snapshot?.let {
-            val restaurant = snapshot.toObject<Restaurant>()
+            // Reuses the object decoded for the restaurant list while the document is unchanged
+            val restaurant = ModelCache.restaurants.get(snapshot)
             if (restaurant != null) {
                 onRestaurantLoaded(restaurant)
             }
@@ -122,19 +152,67 @@ class RestaurantDetailFragment :
     }
 
     private fun onRestaurantLoaded(restaurant: Restaurant) {
+        this.restaurant = restaurant
+
         binding.restaurantName.text = restaurant.name
-        binding.restaurantRating.rating = restaurant.avgRating.toFloat()
-        binding.restaurantNumRatings.text = getString(R.string.fmt_num_ratings, restaurant.numRatings)
+        showRatingTotals()
         binding.restaurantCity.text = restaurant.city
         binding.restaurantCategory.text = restaurant.category
         binding.restaurantPrice.text = RestaurantUtil.getPriceString(restaurant)
 
         // Background image
-        Glide.with(binding.restaurantImage.context)
-            .load(restaurant.photo)
+        PhotoLoader.load(Glide.with(binding.restaurantImage.context), restaurant.photo)
             .into(binding.restaurantImage)
     }
 
+    private fun onShardsLoaded(shards: QuerySnapshot) {
+        this.shards = shards
+        showRatingTotals()
+
+        // Fold the shards into the restaurant once they are on the server, so the list
+        // shows the new totals too
+        if (!shards.isEmpty && !shards.metadata.hasPendingWrites() &&
+            !shards.metadata.isFromCache && !rollingUp
+        ) {
+            rollingUp = true
+            RatingCounter.rollUp(firestore, shards).addOnCompleteListener { task ->
+                rollingUp = false
+                if (!task.isSuccessful) {
+                    Log.w(TAG, "rollUp:failed", task.exception)
+                }
+            }
+        }
+    }
+
+    private fun showRatingTotals() {
+        val restaurant = restaurant ?: return
+
+        // Ratings still in the shards are added to the restaurant's totals
+        val shards = shards
+        if (shards != null) {
+            val totals = RatingCounter.sum(restaurant, shards)
+            binding.restaurantRating.rating = totals.avgRating.toFloat()
+            binding.restaurantNumRatings.text = getString(R.string.fmt_num_ratings, totals.numRatings)
+        } else {
+            binding.restaurantRating.rating = restaurant.avgRating.toFloat()
+            binding.restaurantNumRatings.text = getString(R.string.fmt_num_ratings, restaurant.numRatings)
+        }
+
+        // Spread of the ratings, from the histogram and variance kept with the totals
+        val stats = restaurant.ratingStats
+        if (stats != null && stats.count > 0) {
+            binding.restaurantRatingStats.text = getString(
+                R.string.fmt_rating_stats,
+                stats.percentile(0.5),
+                stats.percentile(0.9),
+                stats.standardDeviation,
+            )
+            binding.restaurantRatingStats.visibility = View.VISIBLE
+        } else {
+            binding.restaurantRatingStats.visibility = View.GONE
+        }
+    }
+
     private fun onBackArrowClicked() {
         findNavController().popBackStack()
     }
@@ -144,53 +222,28 @@ class RestaurantDetailFragment :
     }
 
     override fun onRating(rating: Rating) {
-        // In a transaction, add the new rating and update the aggregate totals
-        addRating(restaurantRef, rating)
-            .addOnSuccessListener(requireActivity()) {
-                Log.d(TAG, "Rating added")
-
-                // Hide keyboard and scroll to top
-                hideKeyboard()
-                binding.recyclerRatings.smoothScrollToPosition(0)
-            }
-            .addOnFailureListener(requireActivity()) { e ->
-                Log.w(TAG, "Add rating failed", e)
-
-                // Show failure message and hide keyboard
-                hideKeyboard()
-                Snackbar.make(
-                    requireView().findViewById(android.R.id.content),
-                    "Failed to add rating",
-                    Snackbar.LENGTH_SHORT,
-                ).show()
-            }
+        // Queue the new rating, it is committed in a batch with a shard increment and
+        // reaches the server now or when the device is back online
+        val queue = RatingQueue.getInstance(requireContext())
+        queue.enqueue(restaurantRef, rating)
+
+        // Hide keyboard and scroll to top
+        hideKeyboard()
+        if (queue.isOnline) {
+            binding.recyclerRatings.smoothScrollToPosition(0)
+        } else {
+            Snackbar.make(
+                binding.root,
+                R.string.message_rating_queued,
+                Snackbar.LENGTH_SHORT,
+            ).show()
+        }
     }
 
-    private fun addRating(restaurantRef: DocumentReference, rating: Rating): Task<Void> {
-        // Create reference for new rating, for use inside the transaction
-        val ratingRef = restaurantRef.collection("ratings").document()
-
-        // In a transaction, add the new rating and update the aggregate totals
-        return firestore.runTransaction { transaction ->
-            val restaurant = transaction.get(restaurantRef).toObject<Restaurant>()
-                ?: throw Exception("Restaurant not found at ${restaurantRef.path}")
-
-            // Compute new number of ratings
-            val newNumRatings = restaurant.numRatings + 1
-
-            // Compute new average rating
-            val oldRatingTotal = restaurant.avgRating * restaurant.numRatings
-            val newAvgRating = (oldRatingTotal + rating.rating) / newNumRatings
-
-            // Set new restaurant info
-            restaurant.numRatings = newNumRatings
-            restaurant.avgRating = newAvgRating
-
-            // Commit to Firestore
-            transaction.set(restaurantRef, restaurant)
-            transaction.set(ratingRef, rating)
-
-            null
+    override fun onRatingsFailed(restaurantRef: DocumentReference, count: Int, e: Exception) {
+        // Queued ratings for this restaurant were dropped, they will never be written
+        if (restaurantRef == this.restaurantRef) {
+            Snackbar.make(binding.root, "Failed to add rating", Snackbar.LENGTH_SHORT).show()
         }
     }
 
@@ -1,31 +1,52 @@
 package com.google.firebase.example.fireeats.kotlin.adapter
 
 import android.util.Log
+import androidx.recyclerview.widget.AdapterListUpdateCallback
+import androidx.recyclerview.widget.AsyncDifferConfig
+import androidx.recyclerview.widget.AsyncListDiffer
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
+import com.google.firebase.example.fireeats.kotlin.util.ListenerRegistry
 import com.google.firebase.firestore.DocumentChange
 import com.google.firebase.firestore.DocumentSnapshot
 import com.google.firebase.firestore.EventListener
 import com.google.firebase.firestore.FirebaseFirestoreException
-import com.google.firebase.firestore.ListenerRegistration
 import com.google.firebase.firestore.Query
 import com.google.firebase.firestore.QuerySnapshot
 import java.util.ArrayList
+import java.util.concurrent.Executor
 
 /**
  * RecyclerView adapter for displaying the results of a Firestore [Query].
  *
- * Note that this class forgoes some efficiency to gain simplicity. For example, the result of
- * [DocumentSnapshot.toObject] is not cached so the same object may be deserialized
- * many times as the user scrolls.
+ * Note that this class does not deserialize documents itself. Subclasses that bind model objects
+ * can use [onDocumentChanges] to decode each document once into a
+ * [com.google.firebase.example.fireeats.kotlin.util.ModelCache] rather than calling
+ * [DocumentSnapshot.toObject] every time a row is bound.
+ *
+ * By default each [DocumentChange] is dispatched to the RecyclerView as it arrives. When
+ * async diffing is enabled (see [setAsyncDiffingEnabled]) each new snapshot is instead diffed
+ * against the current list on a background thread and the result is posted to the RecyclerView
+ * as a single batch of updates.
  */
-abstract class FirestoreAdapter<VH : RecyclerView.ViewHolder>(private var query: Query?) :
+abstract class FirestoreAdapter<VH : RecyclerView.ViewHolder>(protected var query: Query?) :
     RecyclerView.Adapter<VH>(),
     EventListener<QuerySnapshot> {
 
-    private var registration: ListenerRegistration? = null
+    private var registration: ListenerRegistry.Registration? = null
 
     private val snapshots = ArrayList<DocumentSnapshot>()
 
+    /**
+     * The query whose results are shown, which lags behind [query] until the new query's results
+     * are dispatched. Null while the initial snapshots passed to [setQuery] are shown.
+     */
+    protected var resultsQuery: Query? = null
+        private set
+
+    // Only set when async diffing is enabled
+    private var differ: AsyncListDiffer<DocumentSnapshot>? = null
+
     override fun onEvent(documentSnapshots: QuerySnapshot?, e: FirebaseFirestoreException?) {
         if (e != null) {
             Log.w(TAG, "onEvent:error", e)
@@ -37,6 +58,23 @@ abstract class FirestoreAdapter<VH : RecyclerView.ViewHolder>(private var query:
             return
         }
 
+        onDocumentChanges(documentSnapshots.documentChanges)
+
+        if (differ != null) {
+            // Diff the new results off the main thread and dispatch them as one batch
+            Log.d(TAG, "onEvent:submitList:" + documentSnapshots.size())
+            submitSnapshots(documentSnapshots.documents)
+            return
+        }
+
+        if (resultsQuery !== query) {
+            // The rows shown are the initial snapshots passed to setQuery, or none. The first
+            // snapshot adds every result, so replace them instead of inserting on top.
+            Log.d(TAG, "onEvent:replace:" + documentSnapshots.size())
+            submitSnapshots(documentSnapshots.documents)
+            return
+        }
+
         // Dispatch the event
         Log.d(TAG, "onEvent:numChanges:" + documentSnapshots.documentChanges.size)
         for (change in documentSnapshots.documentChanges) {
@@ -47,36 +85,74 @@ abstract class FirestoreAdapter<VH : RecyclerView.ViewHolder>(private var query:
             }
         }
 
+        resultsQuery = query
         onDataChanged()
     }
 
-    fun startListening() {
+    open fun startListening() {
         if (query != null && registration == null) {
-            registration = query!!.addSnapshotListener(this)
+            // Shared with any other consumer of the same query
+            registration = ListenerRegistry.addSnapshotListener(query!!, this)
         }
     }
 
-    fun stopListening() {
+    open fun stopListening() {
         registration?.remove()
         registration = null
 
-        snapshots.clear()
-        notifyDataSetChanged()
+        clearSnapshots()
     }
 
-    fun setQuery(query: Query) {
-        // Stop listening
-        stopListening()
+    /**
+     * Listen to a new query, showing [initialSnapshots] (for example cached results of the
+     * same query) until its first snapshot arrives, which replaces them.
+     */
+    open fun setQuery(query: Query, initialSnapshots: List<DocumentSnapshot>? = null) {
+        // Stop listening, the old query was replaced so its listener is not kept around
+        registration?.removeNow()
+        registration = null
 
-        // Clear existing data
-        snapshots.clear()
-        notifyDataSetChanged()
+        // Clear existing data. When diffing, the old results stay on screen and the
+        // first snapshot of the new query is diffed against them instead.
+        if (initialSnapshots != null) {
+            submitSnapshots(initialSnapshots, null)
+        } else if (differ == null) {
+            clearSnapshots()
+        }
 
         // Listen to new query
         this.query = query
         startListening()
     }
 
+    /**
+     * Switch between dispatching each [DocumentChange] on the main thread (the default) and
+     * diffing whole snapshots on a background thread using [executor], or the shared default
+     * executor when it is null.
+     */
+    fun setAsyncDiffingEnabled(enabled: Boolean, executor: Executor? = null) {
+        if (enabled == (differ != null)) {
+            return
+        }
+
+        clearSnapshots()
+
+        differ = if (enabled) {
+            val config = AsyncDifferConfig.Builder(DIFF_CALLBACK)
+            if (executor != null) {
+                config.setBackgroundThreadExecutor(executor)
+            }
+            AsyncListDiffer(AdapterListUpdateCallback(this), config.build())
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Called with the changes of every snapshot, before they are applied to the adapter.
+     */
+    protected open fun onDocumentChanges(changes: List<DocumentChange>) {}
+
     open fun onError(e: FirebaseFirestoreException) {
         Log.w(TAG, "onError", e)
     }
@@ -84,11 +160,54 @@ abstract class FirestoreAdapter<VH : RecyclerView.ViewHolder>(private var query:
     open fun onDataChanged() {}
 
     override fun getItemCount(): Int {
-        return snapshots.size
+        return currentSnapshots().size
     }
 
     protected fun getSnapshot(index: Int): DocumentSnapshot {
-        return snapshots[index]
+        return currentSnapshots()[index]
+    }
+
+    /**
+     * Replace the whole result list. When async diffing is enabled the new list is diffed in the
+     * background, otherwise the RecyclerView is refreshed in full.
+     */
+    protected fun submitSnapshots(documents: List<DocumentSnapshot>) {
+        submitSnapshots(documents, query)
+    }
+
+    private fun submitSnapshots(documents: List<DocumentSnapshot>, resultsQuery: Query?) {
+        val differ = differ
+        if (differ != null) {
+            // The query is captured now, the diff may finish after a setQuery
+            differ.submitList(documents) {
+                this.resultsQuery = resultsQuery
+                onDataChanged()
+            }
+        } else {
+            snapshots.clear()
+            snapshots.addAll(documents)
+            notifyDataSetChanged()
+            this.resultsQuery = resultsQuery
+            onDataChanged()
+        }
+    }
+
+    /**
+     * Get the results currently shown by the adapter.
+     */
+    fun currentSnapshots(): List<DocumentSnapshot> {
+        return differ?.currentList ?: snapshots
+    }
+
+    private fun clearSnapshots() {
+        resultsQuery = null
+        val differ = differ
+        if (differ != null) {
+            differ.submitList(null)
+        } else {
+            snapshots.clear()
+            notifyDataSetChanged()
+        }
     }
 
     private fun onDocumentAdded(change: DocumentChange) {
@@ -117,5 +236,18 @@ abstract class FirestoreAdapter<VH : RecyclerView.ViewHolder>(private var query:
     companion object {
 
         private const val TAG = "FirestoreAdapter"
+
+        private val DIFF_CALLBACK = object : DiffUtil.ItemCallback<DocumentSnapshot>() {
+            override fun areItemsTheSame(oldItem: DocumentSnapshot, newItem: DocumentSnapshot): Boolean {
+                return oldItem.id == newItem.id
+            }
+
+            override fun areContentsTheSame(oldItem: DocumentSnapshot, newItem: DocumentSnapshot): Boolean {
+                // Compare the data only, metadata changes (such as hasPendingWrites)
+                // do not need to re-bind the item.
+                val oldData = oldItem.data
+                return oldData != null && oldData == newItem.data
+            }
+        }
     }
 }
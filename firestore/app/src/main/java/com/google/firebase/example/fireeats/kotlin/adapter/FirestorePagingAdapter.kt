@@ -0,0 +1,231 @@
+package com.google.firebase.example.fireeats.kotlin.adapter
+
+import android.util.Log
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.google.firebase.example.fireeats.kotlin.util.ListenerRegistry
+import com.google.firebase.firestore.DocumentSnapshot
+import com.google.firebase.firestore.EventListener
+import com.google.firebase.firestore.FirebaseFirestoreException
+import com.google.firebase.firestore.Query
+import com.google.firebase.firestore.QuerySnapshot
+
+/**
+ * [FirestoreAdapter] that loads the results of a [Query] one page at a time.
+ *
+ * Each page after the first is fetched with [Query.startAfter] using the last document of the
+ * previous page as the cursor. The next page is requested when the user scrolls to within
+ * [prefetchDistance] items of the end of the list, and only the pages that are on (or next to)
+ * the screen keep a live snapshot listener. Pages that scroll a little away keep their last known
+ * results, and pages more than a page further away are released so that memory does not grow
+ * with how far the list was scrolled. A released page keeps its query and is listened to again
+ * when the user scrolls back to it. Pages that scroll out of the live range remove their
+ * listeners right away rather than keeping them for the grace period of [ListenerRegistry], only
+ * [stopListening] keeps them for a configuration change.
+ *
+ * The query passed to this adapter should not have a limit, each page applies its own.
+ */
+abstract class FirestorePagingAdapter<VH : RecyclerView.ViewHolder>(
+    query: Query?,
+    private val pageSize: Int,
+    private val prefetchDistance: Int,
+) : FirestoreAdapter<VH>(query) {
+
+    private val pages = ArrayList<Page>()
+
+    private var recyclerView: RecyclerView? = null
+
+    // Also called with dx = dy = 0 when a layout changes the visible range
+    private val scrollListener = object : RecyclerView.OnScrollListener() {
+        override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+            onVisibleRangeChanged()
+        }
+    }
+
+    /**
+     * Number of pages that currently have a live snapshot listener.
+     */
+    val livePageCount: Int
+        get() = pages.count { it.registration != null }
+
+    init {
+        // Pages are merged into one list, so let the differ work out what changed
+        setAsyncDiffingEnabled(true)
+    }
+
+    override fun onAttachedToRecyclerView(recyclerView: RecyclerView) {
+        super.onAttachedToRecyclerView(recyclerView)
+        this.recyclerView = recyclerView
+        recyclerView.addOnScrollListener(scrollListener)
+    }
+
+    override fun onDetachedFromRecyclerView(recyclerView: RecyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView)
+        recyclerView.removeOnScrollListener(scrollListener)
+        this.recyclerView = null
+    }
+
+    override fun startListening() {
+        val query = query ?: return
+
+        if (pages.isEmpty()) {
+            pages.add(Page(firstPageQuery(query, pageSize)))
+        }
+
+        onVisibleRangeChanged()
+    }
+
+    override fun stopListening() {
+        pages.forEach { it.detach(keepAlive = true) }
+        pages.clear()
+
+        super.stopListening()
+    }
+
+    override fun setQuery(query: Query, initialSnapshots: List<DocumentSnapshot>?) {
+        pages.forEach { it.detach(keepAlive = false) }
+        pages.clear()
+
+        super.setQuery(query, initialSnapshots)
+    }
+
+    private fun onVisibleRangeChanged() {
+        if (pages.isEmpty()) {
+            return
+        }
+
+        var first = 0
+        var last = 0
+        val manager = recyclerView?.layoutManager
+        if (manager is LinearLayoutManager) {
+            first = manager.findFirstVisibleItemPosition().coerceAtLeast(0)
+            last = manager.findLastVisibleItemPosition().coerceAtLeast(0)
+        }
+
+        val firstLoaded = pages.indexOfFirst { it.loaded }
+        val lastLoaded = pages.indexOfLast { it.loaded }
+
+        // Keep listeners only on the pages around the visible items, and results only on the
+        // pages up to one more page away
+        val liveStart = first - prefetchDistance
+        val liveEnd = last + prefetchDistance
+        val keepStart = liveStart - pageSize
+        val keepEnd = liveEnd + pageSize
+        val released = ArrayList<DocumentSnapshot>()
+        var pageStart = 0
+        for ((i, page) in pages.withIndex()) {
+            // Positions are those on screen, before any page released here is removed
+            val size = page.documents.size
+            val pageEnd = pageStart + size.coerceAtLeast(1) - 1
+            val live = pageEnd >= liveStart && pageStart <= liveEnd
+            if (!page.loaded) {
+                // Released or still loading, only listen again next to the loaded pages
+                val adjacent = firstLoaded < 0 || i == firstLoaded - 1 || i == lastLoaded + 1
+                if (live && adjacent) {
+                    page.attach()
+                } else {
+                    page.detach(keepAlive = false)
+                }
+            } else if (live) {
+                page.attach()
+            } else if (pageEnd >= keepStart && pageStart <= keepEnd) {
+                page.detach(keepAlive = false)
+            } else {
+                released.addAll(page.documents)
+                page.release()
+            }
+            pageStart += size
+        }
+
+        if (released.isNotEmpty()) {
+            Log.d(TAG, "releasePages:" + released.size + " documents")
+            onDocumentsEvicted(released)
+            onPageChanged()
+        }
+
+        // Load the next page when close to the end of the list
+        val lastPage = pages.last()
+        if (lastPage.loaded &&
+            lastPage.documents.size >= pageSize &&
+            last >= pageStart - prefetchDistance
+        ) {
+            Log.d(TAG, "loadPage:" + pages.size)
+
+            val next = Page(query!!.startAfter(lastPage.documents.last()).limit(pageSize.toLong()))
+            pages.add(next)
+            next.attach()
+        }
+    }
+
+    /**
+     * Called with the documents of released pages, for example to evict their model objects.
+     */
+    protected open fun onDocumentsEvicted(documents: List<DocumentSnapshot>) {}
+
+    private fun onPageChanged() {
+        // Merge the pages, a document that moved across a page boundary is only shown once
+        val merged = pages.flatMap { it.documents }.distinctBy { it.id }
+        submitSnapshots(merged)
+    }
+
+    /**
+     * One page of results and its (optional) live listener.
+     */
+    private inner class Page(private val pageQuery: Query) : EventListener<QuerySnapshot> {
+
+        var registration: ListenerRegistry.Registration? = null
+        var documents: List<DocumentSnapshot> = emptyList()
+        var loaded = false
+
+        fun attach() {
+            if (registration == null) {
+                registration = ListenerRegistry.addSnapshotListener(pageQuery, this)
+            }
+        }
+
+        fun detach(keepAlive: Boolean) {
+            if (keepAlive) {
+                registration?.remove()
+            } else {
+                registration?.removeNow()
+            }
+            registration = null
+        }
+
+        fun release() {
+            detach(keepAlive = false)
+            documents = emptyList()
+            loaded = false
+        }
+
+        override fun onEvent(snapshots: QuerySnapshot?, e: FirebaseFirestoreException?) {
+            if (e != null) {
+                Log.w(TAG, "page:onEvent:error", e)
+                onError(e)
+                return
+            }
+
+            // Ignore events from a page that was dropped by setQuery/stopListening
+            if (snapshots == null || !pages.contains(this)) {
+                return
+            }
+
+            onDocumentChanges(snapshots.documentChanges)
+
+            documents = snapshots.documents
+            loaded = true
+            onPageChanged()
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "FirestorePagingAdapter"
+
+        /**
+         * The query of the first page of results, the one the adapter listens to first. Running
+         * it ahead of time loads the first page into the cache.
+         */
+        fun firstPageQuery(query: Query, pageSize: Int): Query = query.limit(pageSize.toLong())
+    }
+}
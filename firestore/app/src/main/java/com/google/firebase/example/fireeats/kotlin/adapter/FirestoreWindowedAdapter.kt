@@ -0,0 +1,334 @@
+package com.google.firebase.example.fireeats.kotlin.adapter
+
+import android.util.Log
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.google.firebase.example.fireeats.kotlin.util.ListenerRegistry
+import com.google.firebase.firestore.DocumentSnapshot
+import com.google.firebase.firestore.EventListener
+import com.google.firebase.firestore.FirebaseFirestoreException
+import com.google.firebase.firestore.Query
+import com.google.firebase.firestore.QuerySnapshot
+
+/**
+ * [FirestoreAdapter] that can show a sliding window over a long query, such as the ratings of
+ * a restaurant newest first, with flat memory and listener cost.
+ *
+ * When the window is enabled (see [setWindowEnabled]) only the newest page has a live snapshot
+ * listener. Older pages are fetched once with [Query.get] as the user scrolls down, using the
+ * last document loaded as the cursor. At most [maxPages] pages are held at a time: pages that
+ * scroll out of the window are dropped from memory and fetched again if the user scrolls back
+ * to them. The newest page keeps its listener while it is out of the window.
+ *
+ * The first time an older page is needed, the newest page is pinned to its oldest document by
+ * moving its listener from `limit(pageSize)` to [Query.endAt]. New documents then join the
+ * newest page rather than pushing documents into the gap before the older pages. Once the newest
+ * page holds more than [pageSize] documents it is pinned again to its [pageSize]-th document and
+ * the rest become an older page.
+ *
+ * The query passed to this adapter should not have a limit.
+ *
+ * @param maxPages maximum number of pages in the window, at least 2.
+ */
+abstract class FirestoreWindowedAdapter<VH : RecyclerView.ViewHolder>(
+    query: Query?,
+    private val pageSize: Int,
+    maxPages: Int,
+    private val prefetchDistance: Int,
+) : FirestoreAdapter<VH>(query) {
+
+    private val maxPages = maxPages.coerceAtLeast(2)
+
+    private var windowEnabled = false
+
+    // The newest page
+    private val liveListener = LiveListener()
+    private var liveRegistration: ListenerRegistry.Registration? = null
+    private var live: List<DocumentSnapshot> = emptyList()
+    private var liveLoaded = false
+    private var showLive = true
+
+    // Oldest document of the newest page once it is pinned, older pages start after it
+    private var anchor: DocumentSnapshot? = null
+
+    // Older pages in the window, newest first. None of them are empty.
+    private val pages = ArrayList<List<DocumentSnapshot>>()
+    private var endReached = false
+    private var loading = false
+
+    // Incremented whenever the window is reset, so that late results are ignored
+    private var generation = 0
+
+    private var recyclerView: RecyclerView? = null
+
+    // Also called with dx = dy = 0 when a layout changes the visible range
+    private val scrollListener = object : RecyclerView.OnScrollListener() {
+        override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+            onVisibleRangeChanged()
+        }
+    }
+
+    /**
+     * Number of pages held in memory, including the newest page when it is in the window.
+     */
+    val windowPageCount: Int
+        get() = pages.size + if (showLive) 1 else 0
+
+    /**
+     * Switch between listening to the whole query (the default) and the sliding window. Must be
+     * called before [startListening].
+     */
+    fun setWindowEnabled(enabled: Boolean) {
+        windowEnabled = enabled
+
+        // Pages are merged into one list, so let the differ work out what changed
+        setAsyncDiffingEnabled(enabled)
+    }
+
+    override fun onAttachedToRecyclerView(recyclerView: RecyclerView) {
+        super.onAttachedToRecyclerView(recyclerView)
+        this.recyclerView = recyclerView
+        recyclerView.addOnScrollListener(scrollListener)
+    }
+
+    override fun onDetachedFromRecyclerView(recyclerView: RecyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView)
+        recyclerView.removeOnScrollListener(scrollListener)
+        this.recyclerView = null
+    }
+
+    override fun startListening() {
+        if (!windowEnabled) {
+            super.startListening()
+            return
+        }
+
+        if (query != null && liveRegistration == null) {
+            listenToLive()
+        }
+    }
+
+    override fun stopListening() {
+        resetWindow(keepAlive = true)
+        super.stopListening()
+    }
+
+    override fun setQuery(query: Query, initialSnapshots: List<DocumentSnapshot>?) {
+        resetWindow(keepAlive = false)
+        super.setQuery(query, initialSnapshots)
+    }
+
+    /**
+     * Called with documents dropped from the window, for example to evict their model objects.
+     */
+    protected open fun onDocumentsEvicted(documents: List<DocumentSnapshot>) {}
+
+    private fun listenToLive() {
+        // The previous live query was replaced by one with a new anchor
+        liveRegistration?.removeNow()
+
+        val query = query!!
+        val anchor = anchor
+        val live = if (anchor != null) query.endAt(anchor) else query.limit(pageSize.toLong())
+        liveRegistration = ListenerRegistry.addSnapshotListener(live, liveListener)
+    }
+
+    private fun resetWindow(keepAlive: Boolean) {
+        generation++
+
+        if (keepAlive) {
+            liveRegistration?.remove()
+        } else {
+            liveRegistration?.removeNow()
+        }
+        liveRegistration = null
+
+        live = emptyList()
+        liveLoaded = false
+        showLive = true
+        anchor = null
+        pages.clear()
+        endReached = false
+        loading = false
+    }
+
+    private fun onVisibleRangeChanged() {
+        if (!windowEnabled || !liveLoaded || loading) {
+            return
+        }
+
+        var first = 0
+        var last = 0
+        val manager = recyclerView?.layoutManager
+        if (manager is LinearLayoutManager) {
+            first = manager.findFirstVisibleItemPosition().coerceAtLeast(0)
+            last = manager.findLastVisibleItemPosition().coerceAtLeast(0)
+        }
+
+        if (!endReached && last >= itemCount - 1 - prefetchDistance) {
+            loadOlder()
+        } else if (!showLive && first <= prefetchDistance) {
+            loadNewer()
+        }
+    }
+
+    private fun loadOlder() {
+        var anchor = anchor
+        if (anchor == null) {
+            if (live.size < pageSize) {
+                // Everything fits in the newest page
+                endReached = true
+                return
+            }
+
+            // Pin the newest page before loading anything after it
+            anchor = live.last()
+            this.anchor = anchor
+            listenToLive()
+        }
+
+        val cursor = pages.lastOrNull()?.last() ?: anchor
+        Log.d(TAG, "loadOlder:$windowPageCount")
+        load(query!!.startAfter(cursor).limit(pageSize.toLong()), true)
+    }
+
+    private fun loadNewer() {
+        // The newest page is only out of the window while there are older pages in it
+        val cursor = pages.first().first()
+        Log.d(TAG, "loadNewer:$windowPageCount")
+        load(query!!.startAfter(anchor!!).endBefore(cursor).limitToLast(pageSize.toLong()), false)
+    }
+
+    private fun load(pageQuery: Query, older: Boolean) {
+        loading = true
+        val generation = generation
+
+        pageQuery.get()
+            .addOnSuccessListener { snapshots ->
+                if (generation != this.generation) {
+                    return@addOnSuccessListener
+                }
+                loading = false
+
+                onDocumentChanges(snapshots.documentChanges)
+                if (older) {
+                    onOlderLoaded(snapshots.documents)
+                } else {
+                    onNewerLoaded(snapshots.documents)
+                }
+                onWindowChanged()
+            }
+            .addOnFailureListener { e ->
+                if (generation != this.generation) {
+                    return@addOnFailureListener
+                }
+                loading = false
+
+                // Tried again on the next scroll
+                Log.w(TAG, "load:failed", e)
+                if (e is FirebaseFirestoreException) {
+                    onError(e)
+                }
+            }
+    }
+
+    private fun onOlderLoaded(documents: List<DocumentSnapshot>) {
+        if (documents.size < pageSize) {
+            endReached = true
+        }
+        if (documents.isNotEmpty()) {
+            pages.add(documents)
+        }
+
+        // Drop the newest pages of the window
+        while (windowPageCount > maxPages) {
+            if (showLive) {
+                showLive = false
+            } else {
+                onDocumentsEvicted(pages.removeAt(0))
+            }
+        }
+    }
+
+    private fun onNewerLoaded(documents: List<DocumentSnapshot>) {
+        if (documents.isNotEmpty()) {
+            pages.add(0, documents)
+        }
+        if (documents.size < pageSize) {
+            // Reached the newest page
+            showLive = true
+        }
+
+        // Drop the oldest pages of the window
+        while (windowPageCount > maxPages) {
+            onDocumentsEvicted(pages.removeAt(pages.size - 1))
+            endReached = false
+        }
+    }
+
+    private fun reanchor() {
+        // Keep the newest page of the pinned listener and hand the rest to the older pages
+        val overflow = live.subList(pageSize, live.size).toList()
+        live = live.subList(0, pageSize).toList()
+        anchor = live.last()
+        Log.d(TAG, "reanchor:${overflow.size}")
+
+        if (showLive) {
+            pages.add(0, overflow)
+
+            // Drop the oldest pages of the window
+            while (windowPageCount > maxPages) {
+                onDocumentsEvicted(pages.removeAt(pages.size - 1))
+                endReached = false
+            }
+        } else {
+            // Out of the window, fetched again by loadNewer() if the user scrolls back
+            onDocumentsEvicted(overflow)
+        }
+
+        listenToLive()
+    }
+
+    private fun onWindowChanged() {
+        // Merge the pages, a document is only shown once
+        val window = if (showLive) listOf(live) + pages else pages
+        submitSnapshots(window.flatten().distinctBy { it.id })
+    }
+
+    /**
+     * Listener for the newest page.
+     */
+    private inner class LiveListener : EventListener<QuerySnapshot> {
+
+        override fun onEvent(snapshots: QuerySnapshot?, e: FirebaseFirestoreException?) {
+            if (e != null) {
+                Log.w(TAG, "live:onEvent:error", e)
+                onError(e)
+                return
+            }
+
+            if (snapshots == null) {
+                return
+            }
+
+            onDocumentChanges(snapshots.documentChanges)
+
+            live = snapshots.documents
+            liveLoaded = true
+
+            // New documents keep joining a pinned page, don't let it grow without bound. Not
+            // while a page is loading, its cursor may be the current anchor.
+            if (anchor != null && !loading && live.size > pageSize) {
+                reanchor()
+            }
+            if (showLive) {
+                onWindowChanged()
+            }
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "FirestoreWindowed"
+    }
+}
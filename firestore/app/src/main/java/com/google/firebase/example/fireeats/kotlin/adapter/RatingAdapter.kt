@@ -5,22 +5,40 @@ import android.view.ViewGroup
 import androidx.recyclerview.widget.RecyclerView
 import com.google.firebase.example.fireeats.databinding.ItemRatingBinding
 import com.google.firebase.example.fireeats.kotlin.model.Rating
+import com.google.firebase.example.fireeats.kotlin.util.ModelCache
+import com.google.firebase.firestore.DocumentChange
+import com.google.firebase.firestore.DocumentSnapshot
 import com.google.firebase.firestore.Query
-import com.google.firebase.firestore.toObject
 import java.text.SimpleDateFormat
 import java.util.Locale
 
 /**
  * RecyclerView adapter for a list of [Rating].
+ *
+ * For restaurants with many ratings enable the window (see
+ * [FirestoreWindowedAdapter.setWindowEnabled]) to only hold a few pages.
  */
-open class RatingAdapter(query: Query) : FirestoreAdapter<RatingAdapter.ViewHolder>(query) {
+open class RatingAdapter(query: Query) : FirestoreWindowedAdapter<RatingAdapter.ViewHolder>(
+    query,
+    PAGE_SIZE,
+    MAX_PAGES,
+    PREFETCH_DISTANCE,
+) {
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
         return ViewHolder(ItemRatingBinding.inflate(LayoutInflater.from(parent.context), parent, false))
     }
 
     override fun onBindViewHolder(holder: ViewHolder, position: Int) {
-        holder.bind(getSnapshot(position).toObject<Rating>())
+        holder.bind(ModelCache.ratings.get(getSnapshot(position)))
+    }
+
+    override fun onDocumentChanges(changes: List<DocumentChange>) {
+        ModelCache.ratings.onDocumentChanges(changes)
+    }
+
+    override fun onDocumentsEvicted(documents: List<DocumentSnapshot>) {
+        documents.forEach { ModelCache.ratings.remove(it) }
     }
 
     class ViewHolder(val binding: ItemRatingBinding) : RecyclerView.ViewHolder(binding.root) {
@@ -47,4 +65,10 @@ open class RatingAdapter(query: Query) : FirestoreAdapter<RatingAdapter.ViewHold
             )
         }
     }
+
+    companion object {
+        private const val PAGE_SIZE = 20
+        private const val MAX_PAGES = 5
+        private const val PREFETCH_DISTANCE = 10
+    }
 }
@@ -7,16 +7,21 @@ import com.bumptech.glide.Glide
 import com.google.firebase.example.fireeats.R
 import com.google.firebase.example.fireeats.databinding.ItemRestaurantBinding
 import com.google.firebase.example.fireeats.kotlin.model.Restaurant
+import com.google.firebase.example.fireeats.kotlin.util.ModelCache
+import com.google.firebase.example.fireeats.kotlin.util.PhotoLoader
+import com.google.firebase.example.fireeats.kotlin.util.PhotoPrefetcher
 import com.google.firebase.example.fireeats.kotlin.util.RestaurantUtil
+import com.google.firebase.example.fireeats.kotlin.util.StartupMetrics
+import com.google.firebase.firestore.DocumentChange
 import com.google.firebase.firestore.DocumentSnapshot
 import com.google.firebase.firestore.Query
-import com.google.firebase.firestore.toObject
 
 /**
  * RecyclerView adapter for a list of Restaurants.
  */
 open class RestaurantAdapter(query: Query, private val listener: OnRestaurantSelectedListener) :
-    FirestoreAdapter<RestaurantAdapter.ViewHolder>(query) {
+    FirestorePagingAdapter<RestaurantAdapter.ViewHolder>(query, PAGE_SIZE, PREFETCH_DISTANCE),
+    PhotoPrefetcher.PhotoProvider {
 
     interface OnRestaurantSelectedListener {
 
@@ -34,23 +39,46 @@ open class RestaurantAdapter(query: Query, private val listener: OnRestaurantSel
     }
 
     override fun onBindViewHolder(holder: ViewHolder, position: Int) {
-        holder.bind(getSnapshot(position), listener)
+        val snapshot = getSnapshot(position)
+        holder.bind(snapshot, ModelCache.restaurants.get(snapshot), listener)
+
+        // Results shown before the query's own are a local answer
+        val origin = when {
+            resultsQuery == null -> StartupMetrics.Origin.LOCAL
+            snapshot.metadata.isFromCache -> StartupMetrics.Origin.CACHE
+            else -> StartupMetrics.Origin.NETWORK
+        }
+        StartupMetrics.onRestaurantRendered(origin)
+    }
+
+    override fun onDocumentChanges(changes: List<DocumentChange>) {
+        ModelCache.restaurants.onDocumentChanges(changes)
+    }
+
+    override fun onDocumentsEvicted(documents: List<DocumentSnapshot>) {
+        documents.forEach { ModelCache.restaurants.remove(it) }
+    }
+
+    override fun getPhotoUrl(position: Int): String? {
+        return ModelCache.restaurants.get(getSnapshot(position))?.photo
     }
 
     class ViewHolder(val binding: ItemRestaurantBinding) : RecyclerView.ViewHolder(binding.root) {
 
         fun bind(
             snapshot: DocumentSnapshot,
+            restaurant: Restaurant?,
             listener: OnRestaurantSelectedListener?,
         ) {
-        
-            val restaurant = snapshot.toObject<Restaurant>() ?: return
+            if (restaurant == null) {
+                return
+            }
 
             val resources = binding.root.resources
 
-            // Load image
-            Glide.with(binding.restaurantItemImage.context)
-                .load(restaurant.photo)
+            // Load image, at the same size it is prefetched at
+            val photoSize = resources.getDimensionPixelSize(R.dimen.restaurant_item_image_size)
+            PhotoLoader.load(Glide.with(binding.restaurantItemImage.context), restaurant.photo, photoSize, photoSize)
                 .into(binding.restaurantItemImage)
 
             val numRatings: Int = restaurant.numRatings
@@ -71,4 +99,16 @@ open class RestaurantAdapter(query: Query, private val listener: OnRestaurantSel
             }
         }
     }
+
+    companion object {
+
+        const val PAGE_SIZE = 20
+        private const val PREFETCH_DISTANCE = 10
+
+        /**
+         * The query of the first page this adapter shows for [query].
+         */
+        fun firstPageQuery(query: Query): Query =
+            FirestorePagingAdapter.firstPageQuery(query, PAGE_SIZE)
+    }
 }
@@ -0,0 +1,123 @@
+package com.google.firebase.example.fireeats.kotlin.model
+
+import com.google.firebase.firestore.Exclude
+import kotlin.math.floor
+import kotlin.math.roundToInt
+import kotlin.math.roundToLong
+import kotlin.math.sqrt
+
+/**
+ * Running statistics over the ratings of a restaurant, stored on the restaurant document.
+ *
+ * Uses Welford's algorithm so that adding a rating is O(1) and does not accumulate the rounding
+ * error of recomputing the average from `avgRating * numRatings`. Two accumulators can be
+ * merged, and a histogram with one bucket per star gives approximate percentiles.
+ */
+data class RatingStats(
+    var count: Long = 0,
+    var mean: Double = 0.toDouble(),
+    var m2: Double = 0.toDouble(),
+    var histogram: MutableList<Long> = MutableList(NUM_BUCKETS) { 0L },
+) {
+
+    @get:Exclude
+    val variance: Double
+        get() = if (count < 2) 0.0 else m2 / (count - 1)
+
+    @get:Exclude
+    val standardDeviation: Double
+        get() = sqrt(variance)
+
+    fun add(rating: Double) {
+        ensureHistogram()
+        count++
+        val delta = rating - mean
+        mean += delta / count
+        m2 += delta * (rating - mean)
+
+        histogram[bucket(rating)]++
+    }
+
+    /**
+     * Combine with the stats of another set of ratings (Chan et al.).
+     */
+    fun merge(other: RatingStats) {
+        if (other.count == 0L) {
+            return
+        }
+        ensureHistogram()
+
+        val total = count + other.count
+        val delta = other.mean - mean
+        mean += delta * other.count / total
+        m2 += other.m2 + delta * delta * count * other.count / total
+        count = total
+
+        other.histogram.take(NUM_BUCKETS).forEachIndexed { i, n -> histogram[i] += n }
+    }
+
+    /**
+     * Approximate percentile (`0..1`) of the ratings, interpolated within the star
+     * buckets, each of which spans half a star either side of its rating. Falls back to the
+     * mean when no ratings were bucketed.
+     */
+    fun percentile(percentile: Double): Double {
+        val bucketed = histogram.sum()
+        if (bucketed == 0L) {
+            return mean
+        }
+
+        val rank = percentile * bucketed
+        var seen = 0L
+        histogram.forEachIndexed { i, n ->
+            if (n > 0 && seen + n >= rank) {
+                return (i + 0.5 + (rank - seen) / n).coerceIn(1.0, NUM_BUCKETS.toDouble())
+            }
+            seen += n
+        }
+        return NUM_BUCKETS.toDouble()
+    }
+
+    private fun ensureHistogram() {
+        if (histogram.size != NUM_BUCKETS) {
+            histogram = MutableList(NUM_BUCKETS) { 0L }
+        }
+    }
+
+    companion object {
+
+        const val NUM_BUCKETS = 5
+
+        /**
+         * Stats for a restaurant written before stats were stored. Its existing ratings are
+         * unknown, so they are taken to be split between the two star values either side of
+         * the average, which keeps the mean and gives the smallest possible variance.
+         */
+        fun fromAverage(numRatings: Int, avgRating: Double): RatingStats {
+            val stats = RatingStats()
+            if (numRatings == 0 || avgRating.isNaN()) {
+                return stats
+            }
+
+            val mean = avgRating.coerceIn(1.0, NUM_BUCKETS.toDouble())
+            val low = floor(mean).toInt()
+            val numHigh = if (low < NUM_BUCKETS) ((mean - low) * numRatings).roundToLong() else 0L
+            val numLow = numRatings - numHigh
+
+            stats.count = numRatings.toLong()
+            stats.mean = mean
+            stats.m2 = numLow * (low - mean) * (low - mean) +
+                numHigh * (low + 1 - mean) * (low + 1 - mean)
+            stats.histogram[bucket(low.toDouble())] = numLow
+            if (numHigh > 0) {
+                stats.histogram[bucket(low + 1.0)] = numHigh
+            }
+            return stats
+        }
+
+        /**
+         * Bucket `i` holds the ratings of `i + 1` stars.
+         */
+        private fun bucket(rating: Double) = (rating.roundToInt() - 1).coerceIn(0, NUM_BUCKETS - 1)
+    }
+}
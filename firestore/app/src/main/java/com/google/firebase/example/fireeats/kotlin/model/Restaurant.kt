@@ -14,6 +14,7 @@ data class Restaurant(
     var price: Int = 0,
     var numRatings: Int = 0,
     var avgRating: Double = 0.toDouble(),
+    var ratingStats: RatingStats? = null,
 ) {
 
     companion object {
@@ -23,5 +24,6 @@ data class Restaurant(
         const val FIELD_PRICE = "price"
         const val FIELD_POPULARITY = "numRatings"
         const val FIELD_AVG_RATING = "avgRating"
+        const val FIELD_RATING_STATS = "ratingStats"
     }
 }
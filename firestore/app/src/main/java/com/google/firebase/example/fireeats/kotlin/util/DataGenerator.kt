@@ -0,0 +1,173 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.content.Context
+import com.google.firebase.example.fireeats.R
+import com.google.firebase.example.fireeats.kotlin.model.Rating
+import com.google.firebase.example.fireeats.kotlin.model.Restaurant
+import java.util.Locale
+import java.util.Random
+import java.util.UUID
+import kotlin.math.pow
+
+/**
+ * Deterministic generator of restaurants and ratings for load tests.
+ *
+ * Every value comes from one [Random] created from the seed, so two generators with the same
+ * seed and [Distribution] produce the same documents, including their ids. The city and
+ * category arrays are read from resources once, along with every name and photo URL, so
+ * generating a document does no lookups or formatting and millions of them can be streamed.
+ *
+ * Not thread safe, use one generator per thread.
+ */
+class DataGenerator(
+    context: Context,
+    seed: Long,
+    val distribution: Distribution = Distribution.DEFAULT,
+) {
+
+    private val random = Random(seed)
+
+    // The first element of both arrays is 'Any'
+    private val cities = context.resources.getStringArray(R.array.cities).drop(1).toTypedArray()
+    private val categories =
+        context.resources.getStringArray(R.array.categories).drop(1).toTypedArray()
+
+    private val names = NAME_FIRST_WORDS.flatMap { first ->
+        NAME_SECOND_WORDS.map { second -> "$first $second" }
+    }.toTypedArray()
+
+    private val photos = Array(MAX_IMAGE_NUM) { String.format(Locale.US, RESTAURANT_URL_FMT, it + 1) }
+
+    private val cityRanks = Zipf(cities.size, distribution.citySkew)
+    private val categoryRanks = Zipf(categories.size, distribution.categorySkew)
+    private val ratingCounts = Zipf(distribution.maxRatings + 1, distribution.ratingsSkew)
+
+    private val idBuffer = CharArray(ID_LENGTH)
+
+    /**
+     * Next restaurant, with the number of ratings it should get but no average rating.
+     */
+    fun nextRestaurant(): Restaurant {
+        val restaurant = Restaurant()
+
+        restaurant.name = names[random.nextInt(names.size)]
+        restaurant.city = cities[cityRanks.next(random)]
+        restaurant.category = categories[categoryRanks.next(random)]
+        restaurant.photo = photos[random.nextInt(photos.size)]
+        restaurant.price = random.nextInt(3) + 1
+        restaurant.numRatings = ratingCounts.next(random)
+
+        return restaurant
+    }
+
+    /**
+     * Next rating, with a score spread evenly between 0 and 5.
+     */
+    fun nextRating(): Rating {
+        val rating = Rating()
+
+        val score = random.nextDouble() * 5.0
+        rating.userId = UUID(random.nextLong(), random.nextLong()).toString()
+        rating.userName = "Random User"
+        rating.rating = score
+        rating.text = RatingUtil.REVIEW_CONTENTS[score.toInt()]
+
+        return rating
+    }
+
+    /**
+     * The next [count] ratings.
+     */
+    fun nextRatings(count: Int): List<Rating> {
+        return List(count) { nextRating() }
+    }
+
+    /**
+     * Next document id. Ids are random like the ones Firestore generates, but writing the same
+     * seed again overwrites the same documents.
+     */
+    fun nextId(): String {
+        for (i in 0 until ID_LENGTH) {
+            idBuffer[i] = ID_CHARS[random.nextInt(ID_CHARS.length)]
+        }
+        return String(idBuffer)
+    }
+
+    /**
+     * Shape of the generated data.
+     *
+     * Cities and categories are picked with a Zipf distribution over the order of the resource
+     * arrays, so a few of them hold most of the restaurants. The number of ratings of a
+     * restaurant follows a Zipf distribution between 0 and [maxRatings]: most restaurants have a
+     * handful of ratings and a few have a lot. A skew of 0 is uniform.
+     */
+    data class Distribution(
+        val citySkew: Double,
+        val categorySkew: Double,
+        val maxRatings: Int,
+        val ratingsSkew: Double,
+    ) {
+
+        override fun toString(): String {
+            return String.format(
+                Locale.US,
+                "cities=zipf(%.2f), categories=zipf(%.2f), ratings=zipf(%.2f, 0..%d)",
+                citySkew,
+                categorySkew,
+                ratingsSkew,
+                maxRatings,
+            )
+        }
+
+        companion object {
+
+            val DEFAULT = Distribution(1.0, 0.8, 100, 1.2)
+        }
+    }
+
+    /**
+     * Samples ranks 0 to n - 1 with probability proportional to 1 / (rank + 1)^skew, using a
+     * binary search over the precomputed cumulative weights.
+     */
+    private class Zipf(n: Int, skew: Double) {
+
+        private val cumulative = DoubleArray(n)
+
+        init {
+            var total = 0.0
+            for (i in 0 until n) {
+                total += 1.0 / (i + 1.0).pow(skew)
+                cumulative[i] = total
+            }
+            for (i in 0 until n) {
+                cumulative[i] /= total
+            }
+        }
+
+        fun next(random: Random): Int {
+            var index = cumulative.binarySearch(random.nextDouble())
+            if (index < 0) {
+                index = -index - 1
+            }
+            return minOf(index, cumulative.size - 1)
+        }
+    }
+
+    companion object {
+
+        private const val RESTAURANT_URL_FMT = "https://storage.googleapis.com/firestorequickstarts.appspot.com/food_%d.png"
+        private const val MAX_IMAGE_NUM = 22
+
+        private val NAME_FIRST_WORDS = arrayOf(
+            "Foo", "Bar", "Baz", "Qux", "Fire", "Sam's", "World Famous", "Google", "The Best",
+        )
+
+        private val NAME_SECOND_WORDS = arrayOf(
+            "Restaurant", "Cafe", "Spot", "Eatin' Place", "Eatery", "Drive Thru", "Diner",
+        )
+
+        // Same alphabet and length as the ids Firestore generates
+        private const val ID_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789"
+        private const val ID_LENGTH = 20
+    }
+}
@@ -0,0 +1,169 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import com.google.firebase.firestore.DocumentReference
+import com.google.firebase.firestore.DocumentSnapshot
+import com.google.firebase.firestore.EventListener
+import com.google.firebase.firestore.FirebaseFirestoreException
+import com.google.firebase.firestore.ListenerRegistration
+import com.google.firebase.firestore.Query
+import com.google.firebase.firestore.QuerySnapshot
+import java.util.Locale
+
+/**
+ * Reference-counted snapshot listeners shared by the fragments and adapters of the app.
+ *
+ * Every query or document that has consumers gets one shared [ListenerRegistration], which
+ * keeps its results in sync. Consumers that listen to an equal [Query] or the same document
+ * path share it, and Firestore serves each of them from the shared results without going back
+ * to the server. When the last consumer detaches the shared registration is kept for a grace
+ * period, so rotating the device or navigating back to a screen picks up the results where
+ * they were instead of downloading them again. Consumers that know the results will not be
+ * wanted again, like a page scrolled far out of view or a query replaced by a new filter,
+ * release it at once with [Registration.removeNow].
+ *
+ * Must be used from the main thread.
+ */
+object ListenerRegistry {
+
+    private const val TAG = "ListenerRegistry"
+
+    const val DEFAULT_GRACE_PERIOD_MS = 30000L
+
+    private val handler = Handler(Looper.getMainLooper())
+
+    // Keyed by Query or DocumentReference, both compare by what they listen to
+    private val entries = HashMap<Any, Entry>()
+
+    /**
+     * How long a shared listener stays attached after its last consumer detaches.
+     */
+    var gracePeriodMs = DEFAULT_GRACE_PERIOD_MS
+
+    private var acquired = 0L
+    private var reused = 0L
+
+    /**
+     * Number of shared listeners attached to Firestore, including those in their grace period.
+     */
+    val activeListenerCount: Int
+        get() = entries.size
+
+    /**
+     * Number of consumers attached to the shared listeners.
+     */
+    val consumerCount: Int
+        get() = entries.values.sumOf { it.consumers }
+
+    fun addSnapshotListener(query: Query, listener: EventListener<QuerySnapshot>): Registration {
+        val entry = entries[query] ?: Entry(query, query.addSnapshotListener(KeepAliveListener()))
+        return acquire(entry, query.addSnapshotListener(listener))
+    }
+
+    fun addSnapshotListener(
+        document: DocumentReference,
+        listener: EventListener<DocumentSnapshot>,
+    ): Registration {
+        val entry = entries[document]
+            ?: Entry(document, document.addSnapshotListener(KeepAliveListener()))
+        return acquire(entry, document.addSnapshotListener(listener))
+    }
+
+    override fun toString(): String {
+        return String.format(
+            Locale.US,
+            "listeners: active=%d, consumers=%d, reused=%d/%d",
+            activeListenerCount,
+            consumerCount,
+            reused,
+            acquired,
+        )
+    }
+
+    private fun acquire(entry: Entry, consumer: ListenerRegistration): Registration {
+        acquired++
+        if (entries.containsKey(entry.key)) {
+            reused++
+        } else {
+            entries[entry.key] = entry
+        }
+
+        // A consumer came back during the grace period
+        handler.removeCallbacks(entry.release)
+        entry.consumers++
+
+        return object : Registration {
+            private var removed = false
+
+            override fun remove() = remove(gracePeriodMs)
+
+            override fun removeNow() = remove(0)
+
+            private fun remove(gracePeriodMs: Long) {
+                if (removed) {
+                    return
+                }
+                removed = true
+
+                consumer.remove()
+                release(entry, gracePeriodMs)
+            }
+        }
+    }
+
+    private fun release(entry: Entry, gracePeriodMs: Long) {
+        entry.consumers--
+        if (entry.consumers == 0) {
+            if (gracePeriodMs > 0) {
+                handler.postDelayed(entry.release, gracePeriodMs)
+            } else {
+                entry.release.run()
+            }
+        }
+    }
+
+    /**
+     * A consumer of a shared listener.
+     */
+    interface Registration : ListenerRegistration {
+
+        /**
+         * Detach this consumer and keep the shared listener for the grace period if it was the
+         * last one.
+         */
+        override fun remove()
+
+        /**
+         * Detach this consumer and remove the shared listener right away if it was the last one,
+         * for results that will not be wanted again.
+         */
+        fun removeNow()
+    }
+
+    private class Entry(val key: Any, val registration: ListenerRegistration) {
+
+        var consumers = 0
+
+        val release = Runnable {
+            if (consumers == 0) {
+                registration.remove()
+                entries.remove(key)
+            }
+        }
+    }
+
+    /**
+     * Keeps the shared results in sync, the consumers get the snapshots from their own
+     * listeners.
+     */
+    private class KeepAliveListener<T> : EventListener<T> {
+
+        override fun onEvent(value: T?, e: FirebaseFirestoreException?) {
+            if (e != null) {
+                Log.w(TAG, "onEvent:error", e)
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.util.LruCache
+import com.google.firebase.example.fireeats.kotlin.model.Rating
+import com.google.firebase.example.fireeats.kotlin.model.Restaurant
+import com.google.firebase.firestore.DocumentChange
+import com.google.firebase.firestore.DocumentSnapshot
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+
+/**
+ * Cache of model objects decoded from Firestore documents, keyed by document path.
+ *
+ * Documents are decoded on a background thread as soon as their changes arrive so that binding a
+ * row only has to look up the result. Each entry remembers the snapshot it was decoded from and
+ * is only returned for an equal snapshot, so a newer version of a document is always decoded
+ * again. Entries are dropped when their document is removed from a query, and the least recently
+ * used ones are dropped beyond [maxSize].
+ */
+class ModelCache<T : Any>(private val type: Class<T>, maxSize: Int = MAX_SIZE) {
+
+    private val objects = LruCache<String, Entry<T>>(maxSize)
+
+    // Latest snapshot waiting to be decoded for each document
+    private val pending = ConcurrentHashMap<String, DocumentSnapshot>()
+
+    // Single thread so that a newer decode of a document always runs after an older one
+    private val executor = Executors.newSingleThreadExecutor()
+
+    val size: Int
+        get() = objects.size()
+
+    /**
+     * Get the model object for a snapshot, decoding it now if it is not cached yet.
+     */
+    fun get(snapshot: DocumentSnapshot): T? {
+        val key = snapshot.reference.path
+        objects[key]?.let { entry ->
+            if (entry.isFor(snapshot)) {
+                return entry.value
+            }
+        }
+
+        val decoded = snapshot.toObject(type) ?: return null
+
+        // Leave the entry to a pending decode, the snapshot asked for may be older
+        if (!pending.containsKey(key)) {
+            objects.put(key, Entry(snapshot, decoded))
+        }
+
+        return decoded
+    }
+
+    /**
+     * Drop the cached object for a document.
+     */
+    fun remove(snapshot: DocumentSnapshot) {
+        val key = snapshot.reference.path
+        pending.remove(key)
+        objects.remove(key)
+    }
+
+    /**
+     * Drop the entries of removed documents and decode all new versions of documents in the
+     * background. Must be called on the main thread before the changes are bound.
+     */
+    fun onDocumentChanges(changes: List<DocumentChange>) {
+        val toDecode = ArrayList<DocumentSnapshot>()
+        for (change in changes) {
+            val snapshot = change.document
+            when (change.type) {
+                DocumentChange.Type.ADDED, DocumentChange.Type.MODIFIED -> {
+                    val entry = objects[snapshot.reference.path]
+                    if (entry == null || !entry.isFor(snapshot)) {
+                        toDecode.add(snapshot)
+                    }
+                }
+                DocumentChange.Type.REMOVED -> remove(snapshot)
+            }
+        }
+
+        if (toDecode.isEmpty()) {
+            return
+        }
+
+        for (snapshot in toDecode) {
+            pending[snapshot.reference.path] = snapshot
+        }
+
+        executor.execute {
+            for (snapshot in toDecode) {
+                val key = snapshot.reference.path
+
+                // Skip snapshots that a newer change has already replaced
+                if (pending[key] !== snapshot) {
+                    continue
+                }
+
+                val decoded = snapshot.toObject(type)
+                if (decoded != null && pending.remove(key, snapshot)) {
+                    objects.put(key, Entry(snapshot, decoded))
+                }
+            }
+        }
+    }
+
+    /**
+     * A decoded object and the snapshot it was decoded from.
+     */
+    private class Entry<T>(private val snapshot: DocumentSnapshot, val value: T) {
+
+        fun isFor(snapshot: DocumentSnapshot): Boolean {
+            return this.snapshot === snapshot || this.snapshot == snapshot
+        }
+    }
+
+    companion object {
+
+        private const val MAX_SIZE = 500
+
+        val restaurants = ModelCache(Restaurant::class.java)
+        val ratings = ModelCache(Rating::class.java)
+    }
+}
@@ -0,0 +1,122 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.graphics.drawable.Drawable
+import com.bumptech.glide.RequestBuilder
+import com.bumptech.glide.RequestManager
+import com.bumptech.glide.load.DataSource
+import com.bumptech.glide.load.engine.GlideException
+import com.bumptech.glide.request.RequestListener
+import com.bumptech.glide.request.target.Target
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Builds the Glide requests for restaurant photos and counts how they are served.
+ *
+ * The list and the detail screen both load through here, so they share Glide's single bounded
+ * memory cache and bitmap pool. Requests for a given size use the same options whether they
+ * come from binding a row or from [PhotoPrefetcher], so a prefetched photo is found in the
+ * memory cache when its row is bound.
+ */
+object PhotoLoader {
+
+    private val requests = AtomicLong()
+    private val memoryHits = AtomicLong()
+    private val prefetches = AtomicLong()
+    private val decodes = AtomicLong()
+    private val decodeNanos = AtomicLong()
+    private val failures = AtomicLong()
+
+    /**
+     * Fraction of photo requests (not prefetches) served from the memory cache.
+     */
+    val hitRate: Double
+        get() = requests.get().let { if (it == 0L) 0.0 else memoryHits.get().toDouble() / it }
+
+    val averageDecodeMillis: Double
+        get() = decodes.get().let { if (it == 0L) 0.0 else decodeNanos.get() / 1e6 / it }
+
+    val stats: String
+        get() = String.format(
+            Locale.US,
+            "photos: requests=%d, hit rate=%.2f, prefetches=%d, decodes=%d avg %.1fms, failed=%d",
+            requests.get(),
+            hitRate,
+            prefetches.get(),
+            decodes.get(),
+            averageDecodeMillis,
+            failures.get(),
+        )
+
+    /**
+     * Load a photo at the size of the view it goes into.
+     */
+    fun load(glide: RequestManager, url: String?): RequestBuilder<Drawable> {
+        requests.incrementAndGet()
+        return glide.load(url)
+            .centerCrop()
+            .listener(StatsListener(false))
+    }
+
+    /**
+     * Load a photo decoded at exactly [width] x [height].
+     */
+    fun load(glide: RequestManager, url: String?, width: Int, height: Int): RequestBuilder<Drawable> {
+        requests.incrementAndGet()
+        return sized(glide, url, width, height, false)
+    }
+
+    /**
+     * Decode a photo into the memory cache ahead of binding, see [load].
+     */
+    fun prefetch(glide: RequestManager, url: String, width: Int, height: Int): Target<Drawable> {
+        prefetches.incrementAndGet()
+        return sized(glide, url, width, height, true).preload(width, height)
+    }
+
+    private fun sized(
+        glide: RequestManager,
+        url: String?,
+        width: Int,
+        height: Int,
+        prefetch: Boolean,
+    ): RequestBuilder<Drawable> {
+        return glide.load(url)
+            .override(width, height)
+            .centerCrop()
+            .listener(StatsListener(prefetch))
+    }
+
+    private class StatsListener(private val prefetch: Boolean) : RequestListener<Drawable> {
+
+        private val startNanos = System.nanoTime()
+
+        override fun onLoadFailed(
+            e: GlideException?,
+            model: Any?,
+            target: Target<Drawable>?,
+            isFirstResource: Boolean,
+        ): Boolean {
+            failures.incrementAndGet()
+            return false
+        }
+
+        override fun onResourceReady(
+            resource: Drawable?,
+            model: Any?,
+            target: Target<Drawable>?,
+            dataSource: DataSource?,
+            isFirstResource: Boolean,
+        ): Boolean {
+            if (dataSource == DataSource.MEMORY_CACHE) {
+                if (!prefetch) {
+                    memoryHits.incrementAndGet()
+                }
+            } else {
+                decodes.incrementAndGet()
+                decodeNanos.addAndGet(System.nanoTime() - startNanos)
+            }
+            return false
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.graphics.drawable.Drawable
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.bumptech.glide.RequestManager
+import com.bumptech.glide.request.target.Target
+import java.util.ArrayDeque
+
+/**
+ * Scroll listener that decodes the photos of the next items in the direction of the scroll, at
+ * the exact size they are shown at, so they are in memory by the time their rows are bound.
+ *
+ * Changing direction cancels the prefetches that are still running for the old direction.
+ */
+class PhotoPrefetcher(
+    private val glide: RequestManager,
+    private val layoutManager: LinearLayoutManager,
+    private val provider: PhotoProvider,
+    private val width: Int,
+    private val height: Int,
+    private val count: Int,
+) : RecyclerView.OnScrollListener() {
+
+    interface PhotoProvider {
+
+        fun getItemCount(): Int
+
+        fun getPhotoUrl(position: Int): String?
+    }
+
+    private val targets = ArrayDeque<Target<Drawable>>()
+
+    // Direction of the last prefetch and the furthest position prefetched in it
+    private var direction = 0
+    private var prefetchedTo = RecyclerView.NO_POSITION
+
+    override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+        if (dy == 0) {
+            return
+        }
+
+        val direction = if (dy > 0) 1 else -1
+        if (direction != this.direction) {
+            cancel()
+            this.direction = direction
+        }
+
+        val edge = if (direction > 0) {
+            layoutManager.findLastVisibleItemPosition()
+        } else {
+            layoutManager.findFirstVisibleItemPosition()
+        }
+        if (edge == RecyclerView.NO_POSITION) {
+            return
+        }
+
+        // Only the positions that were not prefetched by an earlier scroll event
+        var from = edge + direction
+        if (prefetchedTo != RecyclerView.NO_POSITION && (prefetchedTo - from) * direction >= 0) {
+            from = prefetchedTo + direction
+        }
+        val to = (edge + direction * count).coerceIn(0, maxOf(provider.getItemCount() - 1, 0))
+
+        var position = from
+        while ((to - position) * direction >= 0) {
+            provider.getPhotoUrl(position)?.let { url ->
+                targets.add(PhotoLoader.prefetch(glide, url, width, height))
+            }
+            prefetchedTo = position
+
+            // Finished prefetches release themselves, only the latest ones can be in flight
+            if (targets.size > count) {
+                targets.poll()
+            }
+            position += direction
+        }
+    }
+
+    /**
+     * Cancel the prefetches that are still in flight.
+     */
+    fun cancel() {
+        for (target in targets) {
+            glide.clear(target)
+        }
+        targets.clear()
+        prefetchedTo = RecyclerView.NO_POSITION
+    }
+}
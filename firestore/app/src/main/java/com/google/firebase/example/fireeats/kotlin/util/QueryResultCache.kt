@@ -0,0 +1,41 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.util.LruCache
+import com.google.firebase.example.fireeats.kotlin.Filters
+import com.google.firebase.firestore.DocumentSnapshot
+
+/**
+ * LRU cache of the most recent results for each set of [Filters], so switching back to a
+ * recent filter can show its results right away while the listener catches up.
+ *
+ * The cache is bounded by the total number of documents it holds.
+ */
+class QueryResultCache(maxDocuments: Int) {
+
+    private val results = object : LruCache<String, List<DocumentSnapshot>>(maxDocuments) {
+        override fun sizeOf(key: String, value: List<DocumentSnapshot>): Int {
+            return value.size.coerceAtLeast(1)
+        }
+    }
+
+    val hitCount: Int
+        get() = results.hitCount()
+
+    val missCount: Int
+        get() = results.missCount()
+
+    /**
+     * Get the cached results for the filters, or null if there are none.
+     */
+    fun get(filters: Filters): List<DocumentSnapshot>? {
+        return results.get(filters.getQueryKey())
+    }
+
+    fun put(filters: Filters, snapshots: List<DocumentSnapshot>) {
+        results.put(filters.getQueryKey(), ArrayList(snapshots))
+    }
+
+    override fun toString(): String {
+        return results.toString()
+    }
+}
@@ -0,0 +1,156 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import com.google.firebase.example.fireeats.kotlin.Filters
+import java.util.Locale
+
+/**
+ * Sits between filter changes and the adapter's query so that a burst of changes creates a
+ * single snapshot listener.
+ *
+ * A change that comes more than the debounce delay after the previous one is applied right
+ * away. A change within the delay starts or continues a burst: it replaces any pending filters
+ * and restarts the timer, so only the last filters of a burst are applied. Filters that produce
+ * the query that is already applied are dropped. Also keeps the metrics for listeners created
+ * per user action and time to first result.
+ */
+class QueryScheduler(
+    private val debounceMillis: Long,
+    private val onApplyFilters: (Filters) -> Unit,
+) {
+
+    private val handler = Handler(Looper.getMainLooper())
+
+    private var pending: Filters? = null
+
+    /**
+     * The filters of the current query, or null if none have been applied.
+     */
+    var applied: Filters? = null
+        private set
+
+    // Start of the burst of changes that led to the applied filters
+    private var burstStartMillis = -1L
+    private var lastChangeMillis = -1L
+    private var appliedStartMillis = -1L
+
+    private var actions = 0
+    private var listeners = 0
+    private var superseded = 0
+    private var localResults = 0
+    private var results = 0
+    private var totalFirstResultMillis = 0L
+    private var maxFirstResultMillis = 0L
+    private var totalFirstLocalResultMillis = 0L
+
+    val listenersPerAction: Double
+        get() = if (actions == 0) 0.0 else listeners.toDouble() / actions
+
+    private val applyPending = Runnable {
+        val filters = pending
+        pending = null
+        if (filters != null) {
+            apply(filters)
+        }
+    }
+
+    /**
+     * Apply the filters now, or once no other change has been scheduled for the debounce delay
+     * if they are part of a burst of changes.
+     */
+    fun schedule(filters: Filters) {
+        val now = SystemClock.elapsedRealtime()
+        val inBurst = pending != null ||
+            (lastChangeMillis >= 0 && now - lastChangeMillis < debounceMillis)
+        lastChangeMillis = now
+
+        actions++
+        if (pending != null) {
+            superseded++
+        } else {
+            burstStartMillis = now
+        }
+
+        handler.removeCallbacks(applyPending)
+        if (applied?.getQueryKey() == filters.getQueryKey()) {
+            // Back to the filters that are already applied, nothing to do
+            pending = null
+            return
+        }
+
+        if (inBurst) {
+            pending = filters
+            handler.postDelayed(applyPending, debounceMillis)
+        } else {
+            pending = null
+            apply(filters)
+        }
+    }
+
+    /**
+     * Apply the filters right away, replacing anything that is pending.
+     */
+    fun applyNow(filters: Filters) {
+        cancel()
+        actions++
+        burstStartMillis = SystemClock.elapsedRealtime()
+        apply(filters)
+    }
+
+    /**
+     * Drop the pending filters, if any.
+     */
+    fun cancel() {
+        handler.removeCallbacks(applyPending)
+        pending = null
+    }
+
+    /**
+     * Record that results computed locally were shown for the applied filters.
+     */
+    fun onLocalResults() {
+        localResults++
+        totalFirstLocalResultMillis += SystemClock.elapsedRealtime() - appliedStartMillis
+    }
+
+    /**
+     * Record a listener event, the first one after filters are applied is the time to
+     * first result.
+     */
+    fun onResults() {
+        if (appliedStartMillis < 0) {
+            return
+        }
+
+        val elapsed = SystemClock.elapsedRealtime() - appliedStartMillis
+        appliedStartMillis = -1
+        results++
+        totalFirstResultMillis += elapsed
+        maxFirstResultMillis = maxOf(maxFirstResultMillis, elapsed)
+    }
+
+    private fun apply(filters: Filters) {
+        listeners++
+        applied = filters
+        appliedStartMillis = burstStartMillis
+        onApplyFilters(filters)
+    }
+
+    override fun toString(): String {
+        return String.format(
+            Locale.US,
+            "QueryScheduler[actions=%d, listeners=%d (%.2f/action), superseded=%d, " +
+                "firstResult avg=%dms max=%dms, local=%d avg=%dms]",
+            actions,
+            listeners,
+            listenersPerAction,
+            superseded,
+            if (results == 0) 0 else totalFirstResultMillis / results,
+            maxFirstResultMillis,
+            localResults,
+            if (localResults == 0) 0 else totalFirstLocalResultMillis / localResults,
+        )
+    }
+}
@@ -0,0 +1,154 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.Tasks
+import com.google.firebase.example.fireeats.kotlin.model.Rating
+import com.google.firebase.example.fireeats.kotlin.model.Restaurant
+import com.google.firebase.firestore.CollectionReference
+import com.google.firebase.firestore.DocumentReference
+import com.google.firebase.firestore.FieldValue
+import com.google.firebase.firestore.FirebaseFirestore
+import com.google.firebase.firestore.QuerySnapshot
+import com.google.firebase.firestore.SetOptions
+import com.google.firebase.firestore.WriteBatch
+import com.google.firebase.firestore.toObject
+import java.util.Random
+
+/**
+ * Distributed counter for the rating totals of a restaurant.
+ *
+ * Instead of rewriting `numRatings` and `avgRating` on the restaurant document in a
+ * transaction, new ratings increment `numRatings` and `ratingSum` on one of [NUM_SHARDS] shard
+ * documents in the restaurant's `shards` subcollection. Writes to different shards do not
+ * contend and, being plain batched writes, can be made offline.
+ *
+ * Readers that need the latest totals opt in by listening to the shards and adding them to the
+ * restaurant's totals with [sum]. [rollUp] folds the shards into the restaurant document, one
+ * transaction per shard, so readers of the restaurant alone catch up. Each shard also stores
+ * the ids of the ratings it counts, so the security rules can check that a write adds exactly
+ * those ratings and the roll-up can add them to the rating stats one by one, see the README.
+ */
+object RatingCounter {
+
+    const val COLLECTION_SHARDS = "shards"
+    const val FIELD_NUM_RATINGS = "numRatings"
+    const val FIELD_RATING_SUM = "ratingSum"
+    const val FIELD_RATING_IDS = "ratingIds"
+
+    const val NUM_SHARDS = 10
+
+    /**
+     * Most ratings counted by one shard write, the security rules read each of them.
+     */
+    const val MAX_RATINGS_PER_WRITE = 5
+
+    private val random = Random()
+
+    /**
+     * Totals of a restaurant including the ratings counted in its shards.
+     */
+    class Totals(val numRatings: Int, private val ratingSum: Double) {
+
+        val avgRating: Double
+            get() = if (numRatings > 0) ratingSum / numRatings else 0.0
+    }
+
+    /**
+     * Get the shards subcollection of a restaurant.
+     */
+    fun getShards(restaurantRef: DocumentReference): CollectionReference {
+        return restaurantRef.collection(COLLECTION_SHARDS)
+    }
+
+    /**
+     * Add a rating and count it in a random shard, in one batch without a transaction.
+     */
+    fun addRating(firestore: FirebaseFirestore, restaurantRef: DocumentReference, rating: Rating): Task<Void> {
+        val ratingId = restaurantRef.collection("ratings").document().id
+
+        val batch = firestore.batch()
+        addRatings(batch, restaurantRef, mapOf(ratingId to rating))
+        return batch.commit()
+    }
+
+    /**
+     * Set ratings of a restaurant, keyed by their ids, and count them in a random shard as part
+     * of [batch]. At most [MAX_RATINGS_PER_WRITE] ratings can be added at a time.
+     */
+    fun addRatings(batch: WriteBatch, restaurantRef: DocumentReference, ratings: Map<String, Rating>) {
+        require(ratings.isNotEmpty() && ratings.size <= MAX_RATINGS_PER_WRITE) {
+            "Can't count ${ratings.size} ratings"
+        }
+
+        var ratingSum = 0.0
+        for ((ratingId, rating) in ratings) {
+            batch.set(restaurantRef.collection("ratings").document(ratingId), rating)
+
+            // Summed in the order the ids are appended, like the security rules do
+            ratingSum += rating.rating
+        }
+
+        val increments = mapOf(
+            FIELD_NUM_RATINGS to FieldValue.increment(ratings.size.toLong()),
+            FIELD_RATING_SUM to FieldValue.increment(ratingSum),
+            FIELD_RATING_IDS to FieldValue.arrayUnion(*ratings.keys.toTypedArray()),
+        )
+
+        // Merge so the shard is created by its first increment
+        val shardRef = getShards(restaurantRef).document(random.nextInt(NUM_SHARDS).toString())
+        batch.set(shardRef, increments, SetOptions.merge())
+    }
+
+    /**
+     * Add the ratings counted in the shards to the totals stored on the restaurant.
+     */
+    fun sum(restaurant: Restaurant, shards: QuerySnapshot): Totals {
+        var numRatings = restaurant.numRatings
+        var ratingSum = restaurant.avgRating * restaurant.numRatings
+        for (shard in shards) {
+            val shardNumRatings = shard.getLong(FIELD_NUM_RATINGS)
+            val shardRatingSum = shard.getDouble(FIELD_RATING_SUM)
+            if (shardNumRatings != null && shardRatingSum != null) {
+                numRatings += shardNumRatings.toInt()
+                ratingSum += shardRatingSum
+            }
+        }
+
+        return Totals(numRatings, ratingSum)
+    }
+
+    /**
+     * Fold the given shards into their restaurant's totals and delete them.
+     */
+    fun rollUp(firestore: FirebaseFirestore, shards: QuerySnapshot): Task<Void> {
+        return Tasks.whenAll(shards.map { rollUp(firestore, it.reference) })
+    }
+
+    private fun rollUp(firestore: FirebaseFirestore, shardRef: DocumentReference): Task<Void> {
+        val restaurantRef = shardRef.parent.parent!!
+
+        return firestore.runTransaction<Void> { transaction ->
+            val restaurant = transaction.get(restaurantRef).toObject<Restaurant>()
+            val shard = transaction.get(shardRef)
+            if (restaurant == null || !shard.exists()) {
+                return@runTransaction null
+            }
+
+            // All reads come before the writes. Each rating is added on its own so the
+            // stats kept with the totals stay exact.
+            val ratingIds = shard.get(FIELD_RATING_IDS) as? List<*> ?: emptyList<Any>()
+            val ratings = ratingIds.mapNotNull { ratingId ->
+                transaction.get(restaurantRef.collection("ratings").document(ratingId as String))
+                    .toObject<Rating>()
+            }
+
+            for (rating in ratings) {
+                RatingUtil.addRating(restaurant, rating)
+            }
+            transaction.set(restaurantRef, restaurant)
+            transaction.delete(shardRef)
+
+            null
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.TaskCompletionSource
+import com.google.firebase.example.fireeats.kotlin.model.Rating
+import com.google.firebase.example.fireeats.kotlin.model.Restaurant
+import com.google.firebase.firestore.DocumentReference
+import com.google.firebase.firestore.FirebaseFirestore
+import com.google.firebase.firestore.FirebaseFirestoreException
+import com.google.firebase.firestore.toObject
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.ceil
+
+/**
+ * Load generator that writes a burst of ratings to a single restaurant, first with a
+ * transaction on the restaurant and then with the sharded [RatingCounter], and
+ * reports commit latency and transaction retries for both.
+ *
+ * Intended to be run against the Firestore emulator, see the README.
+ */
+class RatingLoadGenerator(
+    private val firestore: FirebaseFirestore,
+    private val numWrites: Int,
+    private val concurrency: Int,
+) {
+
+    /**
+     * Run both write paths against a new restaurant and return a side by side report.
+     */
+    fun run(): Task<String> {
+        val restaurantRef = firestore.collection("restaurants").document()
+        val restaurant = Restaurant("Load Test", "Anywhere", "Load Test", null, 1, 0, 0.0)
+
+        val results = ArrayList<Result>()
+        return restaurantRef.set(restaurant)
+            .continueWithTask { runWrites("transaction", restaurantRef, false) }
+            .continueWithTask { task ->
+                results.add(task.result)
+                runWrites("sharded", restaurantRef, true)
+            }
+            .continueWith { task ->
+                results.add(task.result)
+
+                val report = (listOf(Result.HEADER) + results.map { it.toString() })
+                    .joinToString("\n")
+                Log.d(TAG, report)
+                report
+            }
+    }
+
+    private fun runWrites(name: String, restaurantRef: DocumentReference, sharded: Boolean): Task<Result> {
+        val source = TaskCompletionSource<Result>()
+        val result = Result(name)
+        val started = AtomicInteger()
+        val start = System.nanoTime()
+
+        // Keep up to `concurrency` writes in flight until all of them have completed
+        fun next() {
+            if (started.getAndIncrement() >= numWrites) {
+                return
+            }
+
+            val writeStart = System.nanoTime()
+            val rating = RatingUtil.random
+            val write = if (sharded) {
+                RatingCounter.addRating(firestore, restaurantRef, rating)
+            } else {
+                addRatingInTransaction(restaurantRef, rating, result)
+            }
+
+            write.addOnCompleteListener { task ->
+                result.onWriteComplete(task.isSuccessful, System.nanoTime() - writeStart)
+                if (result.completed == numWrites) {
+                    result.elapsedNanos = System.nanoTime() - start
+                    source.setResult(result)
+                } else {
+                    next()
+                }
+            }
+        }
+
+        repeat(minOf(concurrency, numWrites)) { next() }
+
+        return source.task
+    }
+
+    private fun addRatingInTransaction(
+        restaurantRef: DocumentReference,
+        rating: Rating,
+        result: Result,
+    ): Task<Void> {
+        val ratingRef = restaurantRef.collection("ratings").document()
+        val attempts = AtomicInteger()
+
+        return firestore.runTransaction { transaction ->
+            // Every call after the first one is a retry caused by contention
+            if (attempts.getAndIncrement() > 0) {
+                result.retries.incrementAndGet()
+            }
+
+            val restaurant = transaction.get(restaurantRef).toObject<Restaurant>()
+                ?: throw FirebaseFirestoreException(
+                    "Restaurant not found",
+                    FirebaseFirestoreException.Code.NOT_FOUND,
+                )
+            RatingUtil.addRating(restaurant, rating)
+
+            transaction.set(restaurantRef, restaurant)
+            transaction.set(ratingRef, rating)
+            null
+        }
+    }
+
+    /**
+     * Latency and retry counts for one write path.
+     */
+    private class Result(private val name: String) {
+
+        private val latenciesNanos = ArrayList<Long>()
+        private var failures = 0
+        val retries = AtomicInteger()
+        var elapsedNanos = 0L
+
+        val completed: Int
+            get() = latenciesNanos.size + failures
+
+        fun onWriteComplete(success: Boolean, latencyNanos: Long) {
+            if (success) {
+                latenciesNanos.add(latencyNanos)
+            } else {
+                failures++
+            }
+        }
+
+        private fun percentileMillis(sorted: List<Long>, percentile: Double): Double {
+            if (sorted.isEmpty()) {
+                return 0.0
+            }
+            val index = ceil(percentile * sorted.size).toInt() - 1
+            return sorted[index.coerceAtLeast(0)] / 1e6
+        }
+
+        override fun toString(): String {
+            val sorted = latenciesNanos.sorted()
+
+            return String.format(
+                Locale.US,
+                "%-12s %6d  %6d  %7d  %5.0f  %5.0f  %5.0f  %8.1f",
+                name,
+                sorted.size,
+                failures,
+                retries.get(),
+                percentileMillis(sorted, 0.5),
+                percentileMillis(sorted, 0.95),
+                percentileMillis(sorted, 1.0),
+                sorted.size / (elapsedNanos / 1e9),
+            )
+        }
+
+        companion object {
+
+            const val HEADER = "path         writes  failed  retries  p50ms  p95ms  maxms  writes/s"
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "RatingLoadGenerator"
+    }
+}
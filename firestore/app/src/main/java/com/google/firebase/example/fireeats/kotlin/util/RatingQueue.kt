@@ -0,0 +1,266 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.net.NetworkRequest
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import com.google.firebase.example.fireeats.kotlin.model.Rating
+import com.google.firebase.firestore.DocumentReference
+import com.google.firebase.firestore.FieldValue
+import com.google.firebase.firestore.FirebaseFirestore
+import com.google.firebase.firestore.FirebaseFirestoreException
+import com.google.firebase.firestore.WriteBatch
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import java.util.Random
+
+/**
+ * Durable queue of ratings waiting to be written, so ratings added on a flaky network are not
+ * lost.
+ *
+ * Pending ratings are kept in [SharedPreferences] until they are committed. A flush coalesces
+ * the ratings of each restaurant into [WriteBatch]es that set up to
+ * [RatingCounter.MAX_RATINGS_PER_WRITE] ratings and count them with a single
+ * [FieldValue.increment] of one of the restaurant's shards, see [RatingCounter]. Unlike a
+ * transaction a batch can be committed offline: Firestore keeps it in its own persistent write
+ * queue, so ratings leave this queue as soon as they are committed and only come back, with
+ * exponential backoff, if the commit fails with an error a retry can fix. Ratings are written
+ * with the ids they were given when queued and the security rules reject a shard write for a
+ * rating that already exists, so a batch is never counted twice. Ratings whose write fails with
+ * an error that retrying cannot fix are dropped and reported to the [OnRatingsFailedListener]s.
+ *
+ * Must be used from the main thread.
+ */
+class RatingQueue private constructor(context: Context, private val firestore: FirebaseFirestore) {
+
+    private val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+    private val connectivityManager =
+        context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+    private val handler = Handler(Looper.getMainLooper())
+    private val random = Random()
+
+    // Oldest first
+    private val pending = ArrayList<PendingRating>()
+
+    private val failedListeners = ArrayList<OnRatingsFailedListener>()
+
+    private var attempts = 0
+
+    private val flushRunnable = Runnable { flush() }
+
+    val pendingCount: Int
+        get() = pending.size
+
+    /**
+     * Notified when queued ratings of a restaurant are dropped because they can never be written.
+     */
+    fun interface OnRatingsFailedListener {
+
+        fun onRatingsFailed(restaurantRef: DocumentReference, count: Int, e: Exception)
+    }
+
+    val isOnline: Boolean
+        get() = connectivityManager.getNetworkCapabilities(connectivityManager.activeNetwork)
+            ?.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) == true
+
+    init {
+        load()
+
+        // Flush as soon as connectivity returns
+        val request = NetworkRequest.Builder()
+            .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+            .build()
+        connectivityManager.registerNetworkCallback(
+            request,
+            object : ConnectivityManager.NetworkCallback() {
+                override fun onAvailable(network: Network) {
+                    handler.post {
+                        attempts = 0
+                        flush()
+                    }
+                }
+            },
+        )
+
+        // Ratings left over from the last run
+        flush()
+    }
+
+    /**
+     * Queue a rating for a restaurant and commit it right away.
+     */
+    fun enqueue(restaurantRef: DocumentReference, rating: Rating) {
+        // The id is fixed now so that retries write the same document
+        val ratingId = restaurantRef.collection("ratings").document().id
+        pending.add(PendingRating(restaurantRef.path, ratingId, rating))
+        save()
+
+        flush()
+    }
+
+    fun addOnRatingsFailedListener(listener: OnRatingsFailedListener) {
+        failedListeners.add(listener)
+    }
+
+    fun removeOnRatingsFailedListener(listener: OnRatingsFailedListener) {
+        failedListeners.remove(listener)
+    }
+
+    /**
+     * Commit every pending rating. Committed batches are kept by Firestore until they reach the
+     * server, so this also works offline.
+     */
+    fun flush() {
+        handler.removeCallbacks(flushRunnable)
+        if (pending.isEmpty()) {
+            return
+        }
+
+        // Group the ratings by restaurant, keeping the order they were added in, with one
+        // shard increment for every few ratings of the restaurant
+        val chunks = pending.groupBy { it.restaurantPath }.values
+            .flatMap { it.chunked(RatingCounter.MAX_RATINGS_PER_WRITE) }
+        Log.d(TAG, "flush:${pending.size} ratings in ${chunks.size} batches")
+
+        chunks.forEach { commit(it) }
+    }
+
+    private fun commit(batched: List<PendingRating>) {
+        val restaurantRef = firestore.document(batched[0].restaurantPath)
+
+        val ratings = batched.associate { it.ratingId to it.rating }
+        val batch = firestore.batch()
+        RatingCounter.addRatings(batch, restaurantRef, ratings)
+
+        // Firestore persists the batch from here on, so it must not be sent again
+        pending.removeAll(batched)
+        save()
+
+        batch.commit().addOnSuccessListener {
+            attempts = 0
+        }.addOnFailureListener { e ->
+            Log.w(TAG, "commit:failed", e)
+            if (isPermanent(e)) {
+                for (listener in failedListeners.toList()) {
+                    listener.onRatingsFailed(restaurantRef, batched.size, e)
+                }
+            } else {
+                pending.addAll(0, batched)
+                save()
+                scheduleRetry()
+            }
+        }
+    }
+
+    private fun scheduleRetry() {
+        // Exponential backoff with jitter
+        val backoff = minOf(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS shl minOf(attempts, 16))
+        val delay = backoff / 2 + (random.nextDouble() * backoff / 2).toLong()
+        attempts++
+
+        Log.d(TAG, "retry:${pending.size} ratings in ${delay}ms")
+        handler.removeCallbacks(flushRunnable)
+        handler.postDelayed(flushRunnable, delay)
+    }
+
+    private fun load() {
+        val json = prefs.getString(KEY_PENDING, null) ?: return
+
+        try {
+            val array = JSONArray(json)
+            for (i in 0 until array.length()) {
+                pending.add(PendingRating.fromJson(array.getJSONObject(i)))
+            }
+        } catch (e: JSONException) {
+            Log.w(TAG, "load:failed", e)
+        }
+    }
+
+    private fun save() {
+        val array = JSONArray()
+        try {
+            pending.forEach { array.put(it.toJson()) }
+        } catch (e: JSONException) {
+            Log.w(TAG, "save:failed", e)
+            return
+        }
+
+        prefs.edit().putString(KEY_PENDING, array.toString()).apply()
+    }
+
+    private class PendingRating(
+        val restaurantPath: String,
+        val ratingId: String,
+        val rating: Rating,
+    ) {
+
+        fun ratingRef(restaurantRef: DocumentReference): DocumentReference {
+            return restaurantRef.collection("ratings").document(ratingId)
+        }
+
+        fun toJson(): JSONObject {
+            return JSONObject()
+                .put("restaurant", restaurantPath)
+                .put("id", ratingId)
+                .put("userId", rating.userId)
+                .put("userName", rating.userName)
+                .put("rating", rating.rating)
+                .put("text", rating.text)
+        }
+
+        companion object {
+
+            fun fromJson(json: JSONObject): PendingRating {
+                val rating = Rating(
+                    userId = json.optString("userId", null),
+                    userName = json.optString("userName", null),
+                    rating = json.getDouble("rating"),
+                    text = json.optString("text", null),
+                )
+
+                return PendingRating(
+                    json.getString("restaurant"),
+                    json.getString("id"),
+                    rating,
+                )
+            }
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "RatingQueue"
+
+        private val PREFS_NAME = RatingQueue::class.java.name
+        private const val KEY_PENDING = "pending"
+
+        private const val INITIAL_BACKOFF_MS = 1000L
+        private const val MAX_BACKOFF_MS = 5 * 60 * 1000L
+
+        private var instance: RatingQueue? = null
+
+        @Synchronized
+        fun getInstance(context: Context): RatingQueue {
+            return instance ?: RatingQueue(context.applicationContext, FirestoreConfig.firestore)
+                .also { instance = it }
+        }
+
+        /**
+         * Whether retrying a write that failed with this error can never succeed, so its
+         * ratings are dropped.
+         */
+        private fun isPermanent(e: Exception): Boolean {
+            return e is FirebaseFirestoreException && e.code in setOf(
+                FirebaseFirestoreException.Code.PERMISSION_DENIED,
+                FirebaseFirestoreException.Code.INVALID_ARGUMENT,
+                FirebaseFirestoreException.Code.NOT_FOUND,
+            )
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.TaskCompletionSource
+import com.google.firebase.example.fireeats.kotlin.model.RatingStats
+import java.util.Locale
+import java.util.Random
+import java.util.concurrent.Executors
+import kotlin.math.abs
+
+/**
+ * Long-run drift measurement and micro benchmark for [RatingStats], run from the overflow menu.
+ *
+ * Replays [NUM_RATINGS] random ratings through the old `avgRating * numRatings` update and
+ * through [RatingStats], and reports how far each average drifts from a compensated (Kahan)
+ * sum. Then reports how far merged shard accumulators are from a single one and times both
+ * updates. Nothing is asserted, the numbers are only logged.
+ */
+class RatingStatsBenchmark {
+
+    /**
+     * Run the benchmark on a background thread and return the report.
+     */
+    fun run(): Task<String> {
+        val source = TaskCompletionSource<String>()
+        EXECUTOR.execute {
+            try {
+                val report = runDrift() + "\n" + runTiming()
+                Log.d(TAG, report)
+                source.setResult(report)
+            } catch (e: Exception) {
+                source.setException(e)
+            }
+        }
+
+        return source.task
+    }
+
+    private fun runDrift(): String {
+        val random = Random(NUM_RATINGS.toLong())
+        val stats = RatingStats()
+        val shards = Array(NUM_SHARDS) { RatingStats() }
+
+        var numRatings = 0
+        var avgRating = 0.0
+        var sum = 0.0
+        var compensation = 0.0
+
+        val report = StringBuilder("Mean drift from compensated sum\n")
+        report.append(String.format(Locale.US, "%-10s %12s %12s", "ratings", "avg * n", "welford"))
+
+        var checkpoint = 1000L
+        for (i in 1..NUM_RATINGS) {
+            val rating = random.nextDouble() * 5.0
+
+            // Old update, as the detail screen did before RatingStats
+            avgRating = (avgRating * numRatings + rating) / (numRatings + 1)
+            numRatings++
+
+            stats.add(rating)
+            shards[i % NUM_SHARDS].add(rating)
+
+            // Kahan summation as the reference
+            val y = rating - compensation
+            val t = sum + y
+            compensation = (t - sum) - y
+            sum = t
+
+            if (i.toLong() == checkpoint) {
+                val mean = sum / i
+                report.append(
+                    String.format(
+                        Locale.US,
+                        "\n%-10d %12.3e %12.3e",
+                        i,
+                        abs(avgRating - mean),
+                        abs(stats.mean - mean),
+                    ),
+                )
+                checkpoint *= 10
+            }
+        }
+
+        val merged = RatingStats()
+        shards.forEach { merged.merge(it) }
+
+        report.append(
+            String.format(
+                Locale.US,
+                "\nMerged %d shards: count %d, mean diff %.3e, variance diff %.3e",
+                NUM_SHARDS,
+                merged.count,
+                abs(merged.mean - stats.mean),
+                abs(merged.variance - stats.variance),
+            ),
+        )
+        report.append(
+            String.format(
+                Locale.US,
+                "\nVariance %.4f, p50 %.2f, p95 %.2f",
+                stats.variance,
+                stats.percentile(0.5),
+                stats.percentile(0.95),
+            ),
+        )
+
+        return report.toString()
+    }
+
+    private fun runTiming(): String {
+        val random = Random(TIMING_ITERATIONS.toLong())
+        val ratings = DoubleArray(TIMING_ITERATIONS) { random.nextDouble() * 5.0 }
+
+        var start = System.nanoTime()
+        var numRatings = 0
+        var avgRating = 0.0
+        for (rating in ratings) {
+            avgRating = (avgRating * numRatings + rating) / (numRatings + 1)
+            numRatings++
+        }
+        val averageNanos = (System.nanoTime() - start) / TIMING_ITERATIONS.toDouble()
+
+        start = System.nanoTime()
+        val stats = RatingStats()
+        for (rating in ratings) {
+            stats.add(rating)
+        }
+        val statsNanos = (System.nanoTime() - start) / TIMING_ITERATIONS.toDouble()
+
+        // Use the results so the loops are not optimized away
+        Log.v(TAG, "timing:$avgRating,${stats.mean}")
+
+        return String.format(
+            Locale.US,
+            "Update cost: avg * n %.1f ns, welford %.1f ns",
+            averageNanos,
+            statsNanos,
+        )
+    }
+
+    companion object {
+
+        private const val TAG = "RatingStatsBenchmark"
+
+        private const val NUM_RATINGS = 10000000
+        private const val NUM_SHARDS = 10
+        private const val TIMING_ITERATIONS = 1000000
+
+        // Shared by every run, so repeated runs do not each leave a thread behind
+        private val EXECUTOR = Executors.newSingleThreadExecutor()
+    }
+}
@@ -1,7 +1,8 @@
 package com.google.firebase.example.fireeats.kotlin.util
 
 import com.google.firebase.example.fireeats.kotlin.model.Rating
-import java.util.ArrayList
+import com.google.firebase.example.fireeats.kotlin.model.RatingStats
+import com.google.firebase.example.fireeats.kotlin.model.Restaurant
 import java.util.Random
 import java.util.UUID
 import kotlin.math.floor
@@ -11,7 +12,9 @@ import kotlin.math.floor
  */
 object RatingUtil {
 
-    private val REVIEW_CONTENTS = arrayOf(
+    private val RANDOM = Random()
+
+    val REVIEW_CONTENTS = arrayOf(
         // 0 - 1 stars
         "This was awful! Totally inedible.",
 
@@ -31,13 +34,11 @@ object RatingUtil {
     /**
      * Create a random Rating POJO.
      */
-    private val random: Rating
+    val random: Rating
         get() {
             val rating = Rating()
 
-            val random = Random()
-
-            val score = random.nextDouble() * 5.0
+            val score = RANDOM.nextDouble() * 5.0
             val text = REVIEW_CONTENTS[floor(score).toInt()]
 
             rating.userId = UUID.randomUUID().toString()
@@ -49,28 +50,35 @@ object RatingUtil {
         }
 
     /**
-     * Get a list of random Rating POJOs.
+     * Get the average rating of a List.
      */
-    fun getRandomList(length: Int): List<Rating> {
-        val result = ArrayList<Rating>()
-
-        for (i in 0 until length) {
-            result.add(random)
-        }
-
-        return result
+    fun getAverageRating(ratings: List<Rating>): Double {
+        return getRatingStats(ratings).mean
     }
 
     /**
-     * Get the average rating of a List.
+     * Get the running stats of a List.
      */
-    fun getAverageRating(ratings: List<Rating>): Double {
-        var sum = 0.0
+    fun getRatingStats(ratings: List<Rating>): RatingStats {
+        val stats = RatingStats()
 
         for (rating in ratings) {
-            sum += rating.rating
+            stats.add(rating.rating)
         }
 
-        return sum / ratings.size
+        return stats
+    }
+
+    /**
+     * Add a rating to the aggregate totals of a restaurant in O(1).
+     */
+    fun addRating(restaurant: Restaurant, rating: Rating) {
+        val stats = restaurant.ratingStats
+            ?: RatingStats.fromAverage(restaurant.numRatings, restaurant.avgRating)
+        restaurant.ratingStats = stats
+
+        stats.add(rating.rating)
+        restaurant.numRatings = stats.count.toInt()
+        restaurant.avgRating = stats.mean
     }
 }
@@ -0,0 +1,318 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.util.Log
+import com.google.firebase.example.fireeats.kotlin.Filters
+import com.google.firebase.example.fireeats.kotlin.model.Restaurant
+import com.google.firebase.firestore.DocumentChange
+import com.google.firebase.firestore.DocumentSnapshot
+import com.google.firebase.firestore.Query
+import com.google.firebase.firestore.Source
+import java.util.ArrayDeque
+import java.util.BitSet
+import java.util.concurrent.Executors
+
+/**
+ * In-memory secondary index over the restaurants the client has already synced, used to answer
+ * [Filters] locally while the server query refreshes the results.
+ *
+ * Each restaurant is stored in a slot. Category, city and price filters are inverted postings
+ * ([BitSet]s of slots) that are intersected, and each sort field has an array of slots sorted by
+ * that field, then by document id like Firestore, which is walked until enough matches are
+ * found. A sorted array is built by the first query that sorts by its field, after that each
+ * change moves only the slots it touches, found by binary search.
+ *
+ * The app shares one index per process, see [getInstance]. It holds at most [maxSize]
+ * restaurants and drops the ones indexed longest ago to make room. A document that leaves a
+ * query may still exist, so it is only removed once the local cache no longer has it.
+ */
+class RestaurantIndex(private val maxSize: Int) {
+
+    private val entries = ArrayList<Entry?>()
+
+    // In the order the restaurants were first indexed, oldest first
+    private val slots = LinkedHashMap<String, Int>()
+    private val freeSlots = ArrayDeque<Int>()
+
+    private val live = BitSet()
+    private val byCategory = HashMap<String?, BitSet>()
+    private val byCity = HashMap<String?, BitSet>()
+    private val byPrice = HashMap<Int, BitSet>()
+
+    // Keyed by sort field, null for the document id order of queries without one
+    private val sorted = HashMap<String?, SortedSlots>()
+
+    private val executor = Executors.newSingleThreadExecutor()
+
+    private var loadStarted = false
+
+    val size: Int
+        @Synchronized get() = slots.size
+
+    /**
+     * Add or replace a restaurant. [snapshot] may be null when only ids are needed.
+     */
+    @Synchronized
+    fun put(id: String, restaurant: Restaurant, snapshot: DocumentSnapshot?) {
+        var slot = slots[id]
+        if (slot != null) {
+            unindex(slot)
+        } else {
+            if (slots.size >= maxSize) {
+                remove(slots.keys.first())
+            }
+            slot = if (freeSlots.isEmpty()) entries.size else freeSlots.pop()
+            slots[id] = slot
+        }
+
+        val entry = Entry(id, restaurant, snapshot)
+        if (slot == entries.size) {
+            entries.add(entry)
+        } else {
+            entries[slot] = entry
+        }
+
+        live.set(slot)
+        byCategory.getOrPut(restaurant.category) { BitSet() }.set(slot)
+        byCity.getOrPut(restaurant.city) { BitSet() }.set(slot)
+        byPrice.getOrPut(restaurant.price) { BitSet() }.set(slot)
+        sorted.values.forEach { it.add(slot) }
+    }
+
+    @Synchronized
+    fun remove(id: String) {
+        val slot = slots.remove(id) ?: return
+        unindex(slot)
+        entries[slot] = null
+        freeSlots.push(slot)
+    }
+
+    /**
+     * Index the documents of a snapshot's changes in the background.
+     */
+    fun onDocumentChanges(changes: List<DocumentChange>) {
+        val snapshots = ArrayList<DocumentSnapshot>()
+        for (change in changes) {
+            if (change.type == DocumentChange.Type.REMOVED) {
+                removeIfDeleted(change.document)
+            } else {
+                snapshots.add(change.document)
+            }
+        }
+
+        if (snapshots.isNotEmpty()) {
+            executor.execute { putAll(snapshots) }
+        }
+    }
+
+    /**
+     * Index up to [maxSize] restaurants that the query returns from the local cache, without
+     * going to the server. Only the first call loads anything.
+     */
+    fun loadFromCache(query: Query) {
+        synchronized(this) {
+            if (loadStarted) {
+                return
+            }
+            loadStarted = true
+        }
+
+        query.limit(maxSize.toLong()).get(Source.CACHE)
+            .addOnSuccessListener(executor) { snapshots ->
+                putAll(snapshots.documents)
+                Log.d(TAG, "loadFromCache:$size")
+            }
+            .addOnFailureListener { e -> Log.w(TAG, "loadFromCache:failed", e) }
+    }
+
+    /**
+     * Remove a document that left a query once the local cache shows it was deleted.
+     */
+    private fun removeIfDeleted(snapshot: DocumentSnapshot) {
+        snapshot.reference.get(Source.CACHE)
+            .addOnCompleteListener(executor) { task ->
+                // The cache read fails when the document is not cached at all
+                if (!task.isSuccessful || !task.result.exists()) {
+                    remove(snapshot.id)
+                }
+            }
+    }
+
+    @Synchronized
+    private fun putAll(snapshots: List<DocumentSnapshot>) {
+        for (snapshot in snapshots) {
+            // Decoded here rather than through the ModelCache, which only holds what is shown
+            val restaurant = snapshot.toObject(Restaurant::class.java) ?: continue
+            put(snapshot.id, restaurant, snapshot)
+        }
+    }
+
+    /**
+     * Get the snapshots of up to [limit] restaurants that match the filters, in the order
+     * the equivalent Firestore query would return them.
+     */
+    @Synchronized
+    fun query(filters: Filters, limit: Int): List<DocumentSnapshot> {
+        return querySlots(filters, limit).mapNotNull { entries[it]!!.snapshot }
+    }
+
+    /**
+     * Get the ids of up to [limit] restaurants that match the filters.
+     */
+    @Synchronized
+    fun queryIds(filters: Filters, limit: Int): List<String> {
+        return querySlots(filters, limit).map { entries[it]!!.id }
+    }
+
+    private fun querySlots(filters: Filters, limit: Int): IntArray {
+        // Intersect the postings of the equality filters
+        val matches = live.clone() as BitSet
+        if (filters.hasCategory()) {
+            matches.and(byCategory[filters.category] ?: BitSet())
+        }
+        if (filters.hasCity()) {
+            matches.and(byCity[filters.city] ?: BitSet())
+        }
+        if (filters.hasPrice()) {
+            matches.and(byPrice[filters.price] ?: BitSet())
+        }
+
+        val count = minOf(matches.cardinality(), limit)
+        val results = IntArray(count)
+        if (count == 0) {
+            return results
+        }
+
+        // Walk the slots in sort order until enough of them match. Firestore breaks ties by
+        // document id, in the direction of the last sort.
+        val sortBy = if (filters.hasSortBy()) filters.sortBy else null
+        val sorted = sorted(sortBy)
+        val descending = sortBy != null && filters.sortDirection == Query.Direction.DESCENDING
+        var found = 0
+        var i = 0
+        while (i < sorted.size && found < count) {
+            val slot = sorted.slots[if (descending) sorted.size - 1 - i else i]
+            if (matches.get(slot)) {
+                results[found++] = slot
+            }
+            i++
+        }
+
+        return results
+    }
+
+    private fun sorted(field: String?): SortedSlots {
+        return sorted.getOrPut(field) {
+            val slots = ArrayList<Int>(live.cardinality())
+            var slot = live.nextSetBit(0)
+            while (slot >= 0) {
+                slots.add(slot)
+                slot = live.nextSetBit(slot + 1)
+            }
+            slots.sortWith { a, b -> compareEntries(entries[a]!!, entries[b]!!, field) }
+            SortedSlots(field, slots.toIntArray())
+        }
+    }
+
+    private fun compareEntries(first: Entry, second: Entry, field: String?): Int {
+        val result = sortValue(first.restaurant, field)
+            .compareTo(sortValue(second.restaurant, field))
+        return if (result != 0) result else first.id.compareTo(second.id)
+    }
+
+    private fun sortValue(restaurant: Restaurant, field: String?): Double {
+        return when (field) {
+            Restaurant.FIELD_AVG_RATING ->
+                if (restaurant.avgRating.isNaN()) 0.0 else restaurant.avgRating
+            Restaurant.FIELD_POPULARITY -> restaurant.numRatings.toDouble()
+            Restaurant.FIELD_PRICE -> restaurant.price.toDouble()
+            else -> 0.0
+        }
+    }
+
+    private fun unindex(slot: Int) {
+        // Before the entry is replaced, its values find the slot in the sorted arrays
+        sorted.values.forEach { it.remove(slot) }
+
+        val restaurant = entries[slot]!!.restaurant
+        live.clear(slot)
+        byCategory[restaurant.category]?.clear(slot)
+        byCity[restaurant.city]?.clear(slot)
+        byPrice[restaurant.price]?.clear(slot)
+    }
+
+    /**
+     * Slots sorted by a field, then by document id, with room to insert more.
+     */
+    private inner class SortedSlots(private val field: String?, slots: IntArray) {
+
+        var slots = slots
+            private set
+
+        var size = slots.size
+            private set
+
+        fun add(slot: Int) {
+            var index = indexOf(entries[slot]!!)
+            if (index >= 0) {
+                return
+            }
+            index = -(index + 1)
+
+            if (size == slots.size) {
+                slots = slots.copyOf(maxOf(16, size * 2))
+            }
+            slots.copyInto(slots, index + 1, index, size)
+            slots[index] = slot
+            size++
+        }
+
+        fun remove(slot: Int) {
+            val index = indexOf(entries[slot]!!)
+            if (index >= 0) {
+                slots.copyInto(slots, index, index + 1, size)
+                size--
+            }
+        }
+
+        /**
+         * Binary search for an entry, like [java.util.Arrays.binarySearch].
+         */
+        private fun indexOf(entry: Entry): Int {
+            var low = 0
+            var high = size - 1
+            while (low <= high) {
+                val mid = (low + high) ushr 1
+                val result = compareEntries(entries[slots[mid]]!!, entry, field)
+                when {
+                    result < 0 -> low = mid + 1
+                    result > 0 -> high = mid - 1
+                    else -> return mid
+                }
+            }
+            return -(low + 1)
+        }
+    }
+
+    private class Entry(
+        val id: String,
+        val restaurant: Restaurant,
+        val snapshot: DocumentSnapshot?,
+    )
+
+    companion object {
+
+        private const val TAG = "RestaurantIndex"
+
+        const val MAX_SIZE = 10000
+
+        private var instance: RestaurantIndex? = null
+
+        /**
+         * Get the index shared by every screen, so it is only built once per process.
+         */
+        @Synchronized
+        fun getInstance(): RestaurantIndex {
+            return instance ?: RestaurantIndex(MAX_SIZE).also { instance = it }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.content.Context
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.TaskCompletionSource
+import com.google.android.gms.tasks.Tasks
+import com.google.firebase.example.fireeats.R
+import com.google.firebase.example.fireeats.kotlin.Filters
+import com.google.firebase.example.fireeats.kotlin.model.Restaurant
+import com.google.firebase.firestore.FirebaseFirestore
+import com.google.firebase.firestore.Query
+import com.google.firebase.firestore.Source
+import java.util.Locale
+import java.util.Random
+import java.util.concurrent.Executors
+
+/**
+ * Benchmark for [RestaurantIndex].
+ *
+ * First times local answers over 10k, 100k and 1M synthetic restaurants, and a query right
+ * after a restaurant changes, which has to keep the sorted arrays up to date. Then answers the
+ * same filters over the restaurants in the local Firestore cache both with the index and with
+ * [Source.CACHE] queries. Seed the cache with the matching number of restaurants (see
+ * [RestaurantSeeder]) to compare the two at a given size.
+ */
+class RestaurantIndexBenchmark(private val firestore: FirebaseFirestore, context: Context) {
+
+    // First element of each array is 'Any'
+    private val cities = context.resources.getStringArray(R.array.cities).let {
+        it.copyOfRange(1, it.size)
+    }
+    private val categories = context.resources.getStringArray(R.array.categories).let {
+        it.copyOfRange(1, it.size)
+    }
+
+    /**
+     * Run the benchmark on a background thread and return the report.
+     */
+    fun run(): Task<String> {
+        val source = TaskCompletionSource<String>()
+        EXECUTOR.execute {
+            try {
+                val report = runLocal() + "\n" + runVersusCache()
+                Log.d(TAG, report)
+                source.setResult(report)
+            } catch (e: Exception) {
+                source.setException(e)
+            }
+        }
+
+        return source.task
+    }
+
+    private fun getFilters(): List<Filters> {
+        val category = Filters.default.apply {
+            this.category = categories[0]
+        }
+        val categoryCity = Filters.default.apply {
+            this.category = categories[1]
+            city = cities[0]
+        }
+        val cityPricePopularity = Filters.default.apply {
+            city = cities[1]
+            price = 2
+            sortBy = Restaurant.FIELD_POPULARITY
+        }
+        val all = Filters().apply {
+            this.category = categories[2]
+            city = cities[2]
+            price = 1
+            sortBy = Restaurant.FIELD_PRICE
+            sortDirection = Query.Direction.ASCENDING
+        }
+
+        return listOf(Filters.default, category, categoryCity, cityPricePopularity, all)
+    }
+
+    private fun runLocal(): String {
+        val filters = getFilters()
+        val report = StringBuilder("Local index, synthetic data (us/query)\n")
+        report.append(String.format(Locale.US, "%-10s %8s", "size", "build ms"))
+        filters.indices.forEach { report.append(String.format(Locale.US, " %8s", "q$it")) }
+        report.append(String.format(Locale.US, " %8s", "update"))
+
+        for (size in SIZES) {
+            report.append(String.format(Locale.US, "\n%-10d", size))
+            try {
+                var start = System.nanoTime()
+                val index = buildSyntheticIndex(size)
+                report.append(String.format(Locale.US, " %8.0f", (System.nanoTime() - start) / 1e6))
+
+                for (filter in filters) {
+                    // The first query of each sort builds its sorted array, keep it out of the timing
+                    index.queryIds(filter, LIMIT)
+
+                    start = System.nanoTime()
+                    repeat(ITERATIONS) { index.queryIds(filter, LIMIT) }
+                    report.append(
+                        String.format(Locale.US, " %8.1f", (System.nanoTime() - start) / 1e3 / ITERATIONS),
+                    )
+                }
+
+                // Change a restaurant, then query a sort that is already built
+                val random = Random(-size.toLong())
+                val popularity = filters[3]
+                start = System.nanoTime()
+                repeat(ITERATIONS) {
+                    index.put(random.nextInt(size).toString(), randomRestaurant(random), null)
+                    index.queryIds(popularity, LIMIT)
+                }
+                report.append(
+                    String.format(Locale.US, " %8.1f", (System.nanoTime() - start) / 1e3 / ITERATIONS),
+                )
+            } catch (e: OutOfMemoryError) {
+                report.append(" out of memory")
+            }
+        }
+
+        return report.toString()
+    }
+
+    private fun buildSyntheticIndex(size: Int): RestaurantIndex {
+        val random = Random(size.toLong())
+        val index = RestaurantIndex(size)
+        for (i in 0 until size) {
+            index.put(i.toString(), randomRestaurant(random), null)
+        }
+        return index
+    }
+
+    private fun randomRestaurant(random: Random): Restaurant {
+        return Restaurant(
+            city = cities[random.nextInt(cities.size)],
+            category = categories[random.nextInt(categories.size)],
+            price = random.nextInt(3) + 1,
+            numRatings = random.nextInt(20),
+            avgRating = random.nextDouble() * 5.0,
+        )
+    }
+
+    private fun runVersusCache(): String {
+        val restaurants: Query = firestore.collection("restaurants")
+
+        // Build an index over everything in the local cache
+        var start = System.nanoTime()
+        val cached = Tasks.await(restaurants.get(Source.CACHE))
+        val index = RestaurantIndex(maxOf(cached.size(), 1))
+        for (snapshot in cached) {
+            val restaurant = snapshot.toObject(Restaurant::class.java) ?: continue
+            index.put(snapshot.id, restaurant, null)
+        }
+        val buildMillis = (System.nanoTime() - start) / 1e6
+
+        val report = StringBuilder(
+            String.format(
+                Locale.US,
+                "Local cache, %d restaurants, index built in %.0f ms (us/query)\n",
+                index.size,
+                buildMillis,
+            ),
+        )
+        report.append(String.format(Locale.US, "%-6s %12s %12s", "query", "index", "Source.CACHE"))
+
+        getFilters().forEachIndexed { i, filter ->
+            index.queryIds(filter, LIMIT)
+
+            start = System.nanoTime()
+            repeat(ITERATIONS) { index.queryIds(filter, LIMIT) }
+            val indexMicros = (System.nanoTime() - start) / 1e3 / ITERATIONS
+
+            val query = filter.toQuery(restaurants).limit(LIMIT.toLong())
+            start = System.nanoTime()
+            repeat(CACHE_ITERATIONS) { Tasks.await(query.get(Source.CACHE)) }
+            val cacheMicros = (System.nanoTime() - start) / 1e3 / CACHE_ITERATIONS
+
+            report.append(String.format(Locale.US, "\n%-6s %12.1f %12.1f", "q$i", indexMicros, cacheMicros))
+        }
+
+        return report.toString()
+    }
+
+    companion object {
+
+        private const val TAG = "RestaurantIndexBench"
+
+        private val SIZES = intArrayOf(10000, 100000, 1000000)
+        private const val ITERATIONS = 100
+        private const val CACHE_ITERATIONS = 5
+        private const val LIMIT = 50
+
+        // Shared by every run, so repeated runs do not each leave a thread behind
+        private val EXECUTOR = Executors.newSingleThreadExecutor()
+    }
+}
@@ -0,0 +1,173 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.android.gms.tasks.TaskCompletionSource
+import com.google.firebase.firestore.FirebaseFirestore
+import com.google.firebase.firestore.WriteBatch
+import java.util.Locale
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Writes large numbers of random restaurants (and their ratings) to Firestore.
+ *
+ * Restaurants come from a [DataGenerator], so seeding twice with the same seed writes the
+ * same documents. They are generated on a background thread and packed into [WriteBatch]es of
+ * at most [MAX_BATCH_SIZE] writes, keeping each restaurant in the same batch as its ratings.
+ * Up to [maxInFlight] batches are committed at the same time, generation pauses while the
+ * window is full.
+ *
+ * All seeders share one background thread, so seeding runs one after the other.
+ *
+ * @param generator only used on the seeding thread once seeding starts.
+ */
+class RestaurantSeeder(
+    private val firestore: FirebaseFirestore,
+    private val generator: DataGenerator,
+    private val maxInFlight: Int,
+) {
+
+    init {
+        require(generator.distribution.maxRatings + 1 <= MAX_BATCH_SIZE) {
+            "A restaurant and its ratings must fit in a batch"
+        }
+    }
+
+    /**
+     * Write [numRestaurants] random restaurants, completing once every batch is committed.
+     */
+    fun seed(numRestaurants: Int): Task<Result> {
+        val source = TaskCompletionSource<Result>()
+        EXECUTOR.execute {
+            try {
+                source.setResult(seedBlocking(numRestaurants))
+            } catch (e: Exception) {
+                source.setException(e)
+            }
+        }
+
+        return source.task
+    }
+
+    private fun seedBlocking(numRestaurants: Int): Result {
+        val window = Semaphore(maxInFlight)
+        val error = AtomicReference<Exception?>()
+        val result = Result()
+        val start = System.nanoTime()
+
+        val restaurants = firestore.collection("restaurants")
+        var batch = firestore.batch()
+        var batchSize = 0
+
+        for (i in 0 until numRestaurants) {
+            if (error.get() != null) {
+                break
+            }
+
+            // Create random restaurant / ratings
+            val restaurant = generator.nextRestaurant()
+            val ratings = generator.nextRatings(restaurant.numRatings)
+            val stats = RatingUtil.getRatingStats(ratings)
+            restaurant.ratingStats = stats
+            restaurant.avgRating = stats.mean
+
+            // Start a new batch if the restaurant and its ratings do not fit
+            if (batchSize + 1 + ratings.size > MAX_BATCH_SIZE) {
+                commit(batch, batchSize, window, error, result)
+                batch = firestore.batch()
+                batchSize = 0
+            }
+
+            val restRef = restaurants.document(generator.nextId())
+            batch.set(restRef, restaurant)
+            for (rating in ratings) {
+                batch.set(restRef.collection("ratings").document(generator.nextId()), rating)
+            }
+            batchSize += 1 + ratings.size
+            result.restaurants++
+        }
+
+        if (batchSize > 0) {
+            commit(batch, batchSize, window, error, result)
+        }
+
+        // Wait for the last batches to finish
+        window.acquire(maxInFlight)
+        window.release(maxInFlight)
+
+        error.get()?.let { throw it }
+
+        result.elapsedNanos = System.nanoTime() - start
+        Log.d(TAG, result.toString())
+        return result
+    }
+
+    private fun commit(
+        batch: WriteBatch,
+        batchSize: Int,
+        window: Semaphore,
+        error: AtomicReference<Exception?>,
+        result: Result,
+    ) {
+        // Block generation while the maximum number of batches are in flight
+        window.acquire()
+        result.batches++
+
+        batch.commit().addOnCompleteListener(DIRECT_EXECUTOR) { task ->
+            if (task.isSuccessful) {
+                val written = result.documentCount.addAndGet(batchSize.toLong())
+                Log.d(TAG, "committed:$written")
+            } else {
+                Log.w(TAG, "commit failed", task.exception)
+                error.compareAndSet(null, task.exception)
+            }
+            window.release()
+        }
+    }
+
+    /**
+     * Counts and throughput of a seeding run.
+     */
+    class Result {
+
+        internal var restaurants = 0
+        internal var batches = 0
+        internal val documentCount = AtomicLong()
+        internal var elapsedNanos = 0L
+
+        val documents: Long
+            get() = documentCount.get()
+
+        val documentsPerSecond: Double
+            get() = documentCount.get() / (elapsedNanos / 1e9)
+
+        override fun toString(): String {
+            return String.format(
+                Locale.US,
+                "%d restaurants, %d documents in %d batches, %.1fs, %.0f docs/s",
+                restaurants,
+                documentCount.get(),
+                batches,
+                elapsedNanos / 1e9,
+                documentsPerSecond,
+            )
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "RestaurantSeeder"
+
+        /** Maximum number of writes Firestore accepts in a single batch. */
+        const val MAX_BATCH_SIZE = 500
+
+        // Run commit callbacks on the thread that completes the commit
+        private val DIRECT_EXECUTOR = Executor { it.run() }
+
+        private val EXECUTOR = Executors.newSingleThreadExecutor()
+    }
+}
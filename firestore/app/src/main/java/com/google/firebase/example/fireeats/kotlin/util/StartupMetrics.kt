@@ -0,0 +1,68 @@
+package com.google.firebase.example.fireeats.kotlin.util
+
+import android.os.Build
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+
+/**
+ * Time from the start of the process until the first restaurant row is bound, reported once per
+ * process: the first row of any kind, and the first row from each [Origin].
+ */
+object StartupMetrics {
+
+    /**
+     * Where the results a row was bound from came from.
+     */
+    enum class Origin {
+        // Answered in memory before the query's own results arrived, from the restaurant
+        // index or from results kept for the filters
+        LOCAL,
+
+        // The query's results from the Firestore cache
+        CACHE,
+
+        // The query's results from the server
+        NETWORK,
+    }
+
+    private const val TAG = "StartupMetrics"
+
+    // Used as the start time where the process start time is not available
+    private val loadedAt = SystemClock.uptimeMillis()
+
+    private var firstShownMillis = -1L
+    private val firstMillis = LongArray(Origin.values().size) { -1L }
+
+    val report: String
+        @Synchronized get() = "time to first restaurant row: cold start=${format(firstShownMillis)}" +
+            ", local=${format(firstMillis[Origin.LOCAL.ordinal])}" +
+            ", cache=${format(firstMillis[Origin.CACHE.ordinal])}" +
+            ", network=${format(firstMillis[Origin.NETWORK.ordinal])}"
+
+    private val startUptimeMillis: Long
+        get() = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            Process.getStartUptimeMillis()
+        } else {
+            loadedAt
+        }
+
+    /**
+     * Called whenever a row of the restaurant list is bound, it is drawn in the same frame.
+     */
+    @Synchronized
+    fun onRestaurantRendered(origin: Origin) {
+        if (firstMillis[origin.ordinal] >= 0) {
+            return
+        }
+
+        val elapsed = SystemClock.uptimeMillis() - startUptimeMillis
+        if (firstShownMillis < 0) {
+            firstShownMillis = elapsed
+        }
+        firstMillis[origin.ordinal] = elapsed
+        Log.d(TAG, report)
+    }
+
+    private fun format(millis: Long) = if (millis < 0) "-" else "${millis}ms"
+}
@@ -2,6 +2,8 @@ package com.google.firebase.example.fireeats.kotlin.viewmodel
 
 import androidx.lifecycle.ViewModel
 import com.google.firebase.example.fireeats.kotlin.Filters
+import com.google.firebase.example.fireeats.kotlin.util.QueryResultCache
+import com.google.firebase.example.fireeats.kotlin.util.RestaurantIndex
 
 /**
  * ViewModel for [com.google.firebase.example.fireeats.MainActivity].
@@ -11,4 +13,12 @@ class MainActivityViewModel : ViewModel() {
 
     var isSigningIn: Boolean = false
     var filters: Filters = Filters.default
+    val resultCache = QueryResultCache(MAX_CACHED_RESULTS)
+    val restaurantIndex: RestaurantIndex
+        get() = RestaurantIndex.getInstance()
+
+    companion object {
+
+        private const val MAX_CACHED_RESULTS = 500
+    }
 }
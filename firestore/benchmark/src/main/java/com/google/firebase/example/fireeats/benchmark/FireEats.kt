@@ -0,0 +1,44 @@
+package com.google.firebase.example.fireeats.benchmark
+
+import androidx.benchmark.macro.MacrobenchmarkScope
+import androidx.test.uiautomator.By
+import androidx.test.uiautomator.Direction
+import androidx.test.uiautomator.UiObject2
+import androidx.test.uiautomator.Until
+
+const val PACKAGE_NAME = "com.google.firebase.example.fireeats"
+
+private const val TIMEOUT_MS = 10_000L
+
+/**
+ * Open the restaurant list of the Java or Kotlin quickstart from the entry chooser and wait for
+ * it to show. The device must already be signed in, see the README.
+ */
+fun MacrobenchmarkScope.openRestaurants(choice: String): UiObject2 {
+    device.wait(Until.hasObject(By.text(choice)), TIMEOUT_MS)
+    device.findObject(By.text(choice)).click()
+
+    val list = device.wait(Until.findObject(By.res(PACKAGE_NAME, "recyclerRestaurants")), TIMEOUT_MS)
+        ?: error("Restaurant list not shown, is the device signed in?")
+
+    // Wait for the first rows to be bound
+    list.wait(Until.hasObject(By.res(PACKAGE_NAME, "restaurantItemName")), TIMEOUT_MS)
+    return list
+}
+
+/**
+ * Fling the list down and back up.
+ */
+fun MacrobenchmarkScope.flingRestaurants(list: UiObject2, flings: Int) {
+    // Keep the gestures away from the system navigation area
+    list.setGestureMargin(device.displayWidth / 5)
+
+    repeat(flings) {
+        list.fling(Direction.DOWN)
+        device.waitForIdle()
+    }
+    repeat(flings) {
+        list.fling(Direction.UP)
+        device.waitForIdle()
+    }
+}
@@ -0,0 +1,52 @@
+package com.google.firebase.example.fireeats.benchmark
+
+import androidx.benchmark.macro.ExperimentalMetricApi
+import androidx.benchmark.macro.FrameTimingMetric
+import androidx.benchmark.macro.StartupMode
+import androidx.benchmark.macro.StartupTimingMetric
+import androidx.benchmark.macro.TraceSectionMetric
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Cold start of the app up to the first rows of the restaurant list in `MainFragment`.
+ *
+ * The entry chooser is the launcher activity, so [StartupTimingMetric] covers the process start
+ * and the `MainFragment.onViewCreated` trace section and frame timings cover opening the list.
+ */
+@OptIn(ExperimentalMetricApi::class)
+@RunWith(AndroidJUnit4::class)
+class MainFragmentStartupBenchmark {
+
+    @get:Rule
+    val benchmarkRule = MacrobenchmarkRule()
+
+    @Test
+    fun startupJava() = startup("Java")
+
+    @Test
+    fun startupKotlin() = startup("Kotlin")
+
+    private fun startup(choice: String) = benchmarkRule.measureRepeated(
+        packageName = PACKAGE_NAME,
+        metrics = listOf(
+            StartupTimingMetric(),
+            TraceSectionMetric("MainFragment.onViewCreated"),
+            FrameTimingMetric(),
+        ),
+        iterations = ITERATIONS,
+        startupMode = StartupMode.COLD,
+    ) {
+        pressHome()
+        startActivityAndWait()
+        openRestaurants(choice)
+    }
+
+    companion object {
+
+        private const val ITERATIONS = 5
+    }
+}
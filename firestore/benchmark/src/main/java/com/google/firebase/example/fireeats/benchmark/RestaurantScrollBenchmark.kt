@@ -0,0 +1,49 @@
+package com.google.firebase.example.fireeats.benchmark
+
+import androidx.benchmark.macro.FrameTimingMetric
+import androidx.benchmark.macro.StartupMode
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.uiautomator.By
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Frame timings while flinging through the restaurant list, which pages in documents, binds
+ * rows and prefetches photos. Seed the emulator with **Add Load Test Data** first so there is
+ * something to scroll through.
+ */
+@RunWith(AndroidJUnit4::class)
+class RestaurantScrollBenchmark {
+
+    @get:Rule
+    val benchmarkRule = MacrobenchmarkRule()
+
+    @Test
+    fun scrollJava() = scroll("Java")
+
+    @Test
+    fun scrollKotlin() = scroll("Kotlin")
+
+    private fun scroll(choice: String) = benchmarkRule.measureRepeated(
+        packageName = PACKAGE_NAME,
+        metrics = listOf(FrameTimingMetric()),
+        iterations = ITERATIONS,
+        startupMode = StartupMode.WARM,
+        setupBlock = {
+            pressHome()
+            startActivityAndWait()
+            openRestaurants(choice)
+        },
+    ) {
+        val list = device.findObject(By.res(PACKAGE_NAME, "recyclerRestaurants"))
+        flingRestaurants(list, FLINGS)
+    }
+
+    companion object {
+
+        private const val ITERATIONS = 5
+        private const val FLINGS = 5
+    }
+}
@@ -7,6 +7,7 @@ pluginManagement {
 }
 
 include(":app")
+include(":benchmark")
 
 // Required so that gradle can resolve these dependencies even when
 // building only a single project.
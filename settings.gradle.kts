@@ -16,6 +16,7 @@ include(":admob:app",
         ":database:app",
         ":dataconnect:app",
         ":firestore:app",
+        ":firestore:benchmark",
         ":functions:app",
         ":internal:chooserx",
         ":internal:lint",